@@ -27,6 +27,8 @@ package java.util;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.Serializable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 
 /**
  * Hash table based implementation of the <tt>Map</tt> interface.  This
@@ -184,6 +186,89 @@ public class HashMap<K,V>
      */
     transient int modCount;
 
+    /*
+     * Bins that accumulate many colliding entries (because of poor
+     * hashCodes, or keys chosen to collide) are additionally indexed
+     * by a red-black tree of TreeNodes, held in the parallel array
+     * treeBins, so that lookups in them take O(log n) rather than
+     * O(n) time.  The tree is ordered primarily by hash code, and
+     * then, for keys of the same class implementing Comparable<C>
+     * for their own class C, by compareTo.  Other ties are broken
+     * arbitrarily (but consistently) on insertion; lookups that meet
+     * such ties search both subtrees.
+     *
+     * The entries themselves stay on the bin's ordinary linked list,
+     * so iteration, subclasses hooking createEntry/transfer, and
+     * Entry identity are unaffected; a tree only adds an index over
+     * the list.  A bin is treeified once it holds TREEIFY_THRESHOLD
+     * entries (unless the table is still smaller than
+     * MIN_TREEIFY_CAPACITY, in which case the table is resized
+     * instead), and its tree is dropped when removals shrink it to
+     * UNTREEIFY_THRESHOLD entries.  Trees are rebuilt as needed
+     * after a resize, since it redistributes entries among bins.
+     * With well-distributed hashCodes bins almost never reach the
+     * threshold, so treeBins then remains null.
+     */
+
+    /**
+     * The bin count at which a bin is indexed by a tree.
+     */
+    static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * The bin count at or below which a tree is dropped on removal.
+     */
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * The smallest table capacity for which bins may be treeified.
+     * Smaller tables are resized instead when a bin grows too long.
+     */
+    static final int MIN_TREEIFY_CAPACITY = 64;
+
+    /**
+     * Tree indexes of treeified bins, parallel to table; null if no
+     * bin is treeified.
+     */
+    transient TreeBin<K,V>[] treeBins;
+
+    /*
+     * When the system property jdk.map.incrementalResize is "true",
+     * doubling resizes do not move every entry at once.  Instead the
+     * new table is installed immediately and the old one is kept as
+     * resizeSource; each insertion of a new mapping then migrates
+     * the bin its key hashes to in the old table plus the next
+     * RESIZE_STRIDE bins, so no single put pays for the whole
+     * resize.  Migrating a bin empties it, and a key lives in the
+     * old table exactly when its old bin is still non-empty, which
+     * is how lookups and removals choose the table to search.  They
+     * never migrate anything themselves, so reads remain free of
+     * structural changes.  Iterators and containsValue traverse the
+     * new table and then the remainder of the old one.
+     */
+
+    /**
+     * The number of old bins migrated per insertion during an
+     * incremental resize, in addition to the inserted key's own bin.
+     */
+    static final int RESIZE_STRIDE = 16;
+
+    /**
+     * The table being migrated from during an incremental resize,
+     * else null.
+     */
+    transient Entry<K,V>[] resizeSource;
+
+    /**
+     * The tree bins of resizeSource, if any.
+     */
+    transient TreeBin<K,V>[] resizeSourceTrees;
+
+    /**
+     * The index of the next old bin to migrate in sequence.
+     */
+    transient int transferIndex;
+
     /**
      * The default threshold of map capacity above which alternative hashing is
      * used for String keys. Alternative hashing reduces the incidence of
@@ -231,6 +316,15 @@ public class HashMap<K,V>
 
             ALTERNATIVE_HASHING_THRESHOLD = threshold;
         }
+
+        /**
+         * Whether doubling resizes migrate bins incrementally, as set
+         * by the system property {@code jdk.map.incrementalResize}.
+         */
+        static final boolean INCREMENTAL_RESIZE =
+            Boolean.parseBoolean(java.security.AccessController.doPrivileged(
+                new sun.security.action.GetPropertyAction(
+                    "jdk.map.incrementalResize")));
     }
 
     /**
@@ -316,6 +410,9 @@ public class HashMap<K,V>
 
         threshold = (int) Math.min(capacity * loadFactor, MAXIMUM_CAPACITY + 1);
         table = new Entry[capacity];
+        treeBins = null;
+        resizeSource = null;
+        resizeSourceTrees = null;
         initHashSeedAsNeeded(capacity);
     }
 
@@ -432,11 +529,8 @@ public class HashMap<K,V>
         if (size == 0) {
             return null;
         }
-        for (Entry<K,V> e = table[0]; e != null; e = e.next) {
-            if (e.key == null)
-                return e.value;
-        }
-        return null;
+        Entry<K,V> e = entryFor(0, null, 0);
+        return null == e ? null : e.value;
     }
 
     /**
@@ -462,9 +556,31 @@ public class HashMap<K,V>
         }
 
         int hash = (key == null) ? 0 : hash(key);
-        for (Entry<K,V> e = table[indexFor(hash, table.length)];
-             e != null;
-             e = e.next) {
+        return entryFor(hash, key, indexFor(hash, table.length));
+    }
+
+    /**
+     * Returns the entry for the key in bin i, using the bin's tree
+     * if it has one.
+     */
+    final Entry<K,V> entryFor(int hash, Object key, int i) {
+        Entry<K,V>[] tab = table;
+        TreeBin<K,V>[] tbs = treeBins;
+        Entry<K,V>[] src = resizeSource;
+        if (src != null) {
+            int j = hash & (src.length - 1);
+            if (src[j] != null) {
+                tab = src;
+                tbs = resizeSourceTrees;
+                i = j;
+            }
+        }
+        TreeBin<K,V> tb;
+        if (tbs != null && (tb = tbs[i]) != null) {
+            TreeNode<K,V> p = tb.find(hash, key);
+            return (p == null) ? null : p.entry;
+        }
+        for (Entry<K,V> e = tab[i]; e != null; e = e.next) {
             Object k;
             if (e.hash == hash &&
                 ((k = e.key) == key || (key != null && key.equals(k))))
@@ -493,14 +609,12 @@ public class HashMap<K,V>
             return putForNullKey(value);
         int hash = hash(key);
         int i = indexFor(hash, table.length);
-        for (Entry<K,V> e = table[i]; e != null; e = e.next) {
-            Object k;
-            if (e.hash == hash && ((k = e.key) == key || key.equals(k))) {
-                V oldValue = e.value;
-                e.value = value;
-                e.recordAccess(this);
-                return oldValue;
-            }
+        Entry<K,V> e = entryFor(hash, key, i);
+        if (e != null) {
+            V oldValue = e.value;
+            e.value = value;
+            e.recordAccess(this);
+            return oldValue;
         }
 
         modCount++;
@@ -512,13 +626,12 @@ public class HashMap<K,V>
      * Offloaded version of put for null keys
      */
     private V putForNullKey(V value) {
-        for (Entry<K,V> e = table[0]; e != null; e = e.next) {
-            if (e.key == null) {
-                V oldValue = e.value;
-                e.value = value;
-                e.recordAccess(this);
-                return oldValue;
-            }
+        Entry<K,V> e = entryFor(0, null, 0);
+        if (e != null) {
+            V oldValue = e.value;
+            e.value = value;
+            e.recordAccess(this);
+            return oldValue;
         }
         modCount++;
         addEntry(0, null, value, 0);
@@ -540,16 +653,14 @@ public class HashMap<K,V>
          * clone or deserialize.  It will only happen for construction if the
          * input Map is a sorted map whose ordering is inconsistent w/ equals.
          */
-        for (Entry<K,V> e = table[i]; e != null; e = e.next) {
-            Object k;
-            if (e.hash == hash &&
-                ((k = e.key) == key || (key != null && key.equals(k)))) {
-                e.value = value;
-                return;
-            }
+        Entry<K,V> e = entryFor(hash, key, i);
+        if (e != null) {
+            e.value = value;
+            return;
         }
 
         createEntry(hash, key, value, i);
+        binGrown(i, false);
     }
 
     private void putAllForCreate(Map<? extends K, ? extends V> m) {
@@ -572,6 +683,8 @@ public class HashMap<K,V>
      *        is irrelevant).
      */
     void resize(int newCapacity) {
+        if (resizeSource != null)
+            completeResize();
         Entry[] oldTable = table;
         int oldCapacity = oldTable.length;
         if (oldCapacity == MAXIMUM_CAPACITY) {
@@ -580,16 +693,132 @@ public class HashMap<K,V>
         }
 
         Entry[] newTable = new Entry[newCapacity];
-        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        TreeBin<K,V>[] oldTrees = treeBins;
+        treeBins = null;
+        boolean rehash = initHashSeedAsNeeded(newCapacity);
+        if (!rehash && newCapacity == oldCapacity << 1 &&
+            sun.misc.VM.isBooted() && Holder.INCREMENTAL_RESIZE) {
+            resizeSource = (Entry<K,V>[]) oldTable;
+            resizeSourceTrees = oldTrees;
+            transferIndex = 0;
+            table = newTable;
+            threshold = (int)Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+            return;
+        }
+        transfer(newTable, rehash);
         table = newTable;
         threshold = (int)Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        if (oldTrees != null)
+            treeifyLongBins();
+    }
+
+    /**
+     * Migrates the old bin of the given hash, if not yet done, and
+     * then up to RESIZE_STRIDE further old bins in sequence, ending
+     * the incremental resize when none remain.
+     */
+    private void advanceResize(int hash) {
+        Entry<K,V>[] src = resizeSource;
+        migrateBin(src, hash & (src.length - 1));
+        int i = transferIndex;
+        int end = Math.min(src.length, i + RESIZE_STRIDE);
+        for (; i < end; i++)
+            migrateBin(src, i);
+        transferIndex = i;
+        if (i == src.length) {
+            resizeSource = null;
+            resizeSourceTrees = null;
+        }
+    }
+
+    /**
+     * Migrates all remaining old bins of an incremental resize.
+     */
+    private void completeResize() {
+        Entry<K,V>[] src = resizeSource;
+        for (int i = transferIndex; i < src.length; i++)
+            migrateBin(src, i);
+        resizeSource = null;
+        resizeSourceTrees = null;
+    }
+
+    /**
+     * Moves old bin j of src into the current table, whose capacity
+     * is twice that of src, treeifying the resulting bins if needed.
+     */
+    private void migrateBin(Entry<K,V>[] src, int j) {
+        Entry<K,V> e = src[j];
+        if (e == null)
+            return;
+        src[j] = null;
+        if (resizeSourceTrees != null)
+            resizeSourceTrees[j] = null;
+        Entry<K,V>[] tab = table;
+        int oldCapacity = src.length;
+        splitBin(e, j, oldCapacity, tab);
+        if (tab.length >= MIN_TREEIFY_CAPACITY) {
+            if (binCount(tab[j]) >= TREEIFY_THRESHOLD)
+                treeifyBin(j);
+            if (binCount(tab[j + oldCapacity]) >= TREEIFY_THRESHOLD)
+                treeifyBin(j + oldCapacity);
+        }
     }
 
     /**
-     * Transfers all entries from current table to newTable.
+     * Splits the list e of old bin j into bins j ("lo") and
+     * j + oldCapacity ("hi") of newTable, whose capacity is twice
+     * oldCapacity, according to the single hash bit that the larger
+     * mask adds.  Relative order is preserved and no hashes are
+     * recomputed.
+     */
+    static <K,V> void splitBin(Entry<K,V> e, int j, int oldCapacity,
+                               Entry[] newTable) {
+        Entry<K,V> loHead = null, loTail = null;
+        Entry<K,V> hiHead = null, hiTail = null;
+        for (Entry<K,V> next; e != null; e = next) {
+            next = e.next;
+            if ((e.hash & oldCapacity) == 0) {
+                if (loTail == null)
+                    loHead = e;
+                else
+                    loTail.next = e;
+                loTail = e;
+            }
+            else {
+                if (hiTail == null)
+                    hiHead = e;
+                else
+                    hiTail.next = e;
+                hiTail = e;
+            }
+        }
+        if (loTail != null) {
+            loTail.next = null;
+            newTable[j] = loHead;
+        }
+        if (hiTail != null) {
+            hiTail.next = null;
+            newTable[j + oldCapacity] = hiHead;
+        }
+    }
+
+    /**
+     * Transfers all entries from current table to newTable.  When
+     * the capacity doubles and hashes are unchanged, each bin is
+     * split in order by splitBin; otherwise every entry is reindexed.
      */
     void transfer(Entry[] newTable, boolean rehash) {
         int newCapacity = newTable.length;
+        Entry<K,V>[] oldTable = table;
+        int oldCapacity = oldTable.length;
+        if (!rehash && newCapacity == oldCapacity << 1) {
+            for (int j = 0; j < oldCapacity; j++) {
+                Entry<K,V> e = oldTable[j];
+                if (e != null)
+                    splitBin(e, j, oldCapacity, newTable);
+            }
+            return;
+        }
         for (Entry<K,V> e : table) {
             while(null != e) {
                 Entry<K,V> next = e.next;
@@ -669,8 +898,18 @@ public class HashMap<K,V>
             return null;
         }
         int hash = (key == null) ? 0 : hash(key);
-        int i = indexFor(hash, table.length);
-        Entry<K,V> prev = table[i];
+        Entry<K,V>[] tab = table;
+        TreeBin<K,V>[] tbs = treeBins;
+        int i = indexFor(hash, tab.length);
+        Entry<K,V>[] src = resizeSource;
+        if (src != null && src[hash & (src.length - 1)] != null) {
+            tab = src;
+            tbs = resizeSourceTrees;
+            i = hash & (src.length - 1);
+        }
+        if (tbs != null && tbs[i] != null)
+            return removeTreeEntry(tab, tbs, hash, key, null, i);
+        Entry<K,V> prev = tab[i];
         Entry<K,V> e = prev;
 
         while (e != null) {
@@ -681,7 +920,7 @@ public class HashMap<K,V>
                 modCount++;
                 size--;
                 if (prev == e)
-                    table[i] = next;
+                    tab[i] = next;
                 else
                     prev.next = next;
                 e.recordRemoval(this);
@@ -705,8 +944,18 @@ public class HashMap<K,V>
         Map.Entry<K,V> entry = (Map.Entry<K,V>) o;
         Object key = entry.getKey();
         int hash = (key == null) ? 0 : hash(key);
-        int i = indexFor(hash, table.length);
-        Entry<K,V> prev = table[i];
+        Entry<K,V>[] tab = table;
+        TreeBin<K,V>[] tbs = treeBins;
+        int i = indexFor(hash, tab.length);
+        Entry<K,V>[] src = resizeSource;
+        if (src != null && src[hash & (src.length - 1)] != null) {
+            tab = src;
+            tbs = resizeSourceTrees;
+            i = hash & (src.length - 1);
+        }
+        if (tbs != null && tbs[i] != null)
+            return removeTreeEntry(tab, tbs, hash, key, entry, i);
+        Entry<K,V> prev = tab[i];
         Entry<K,V> e = prev;
 
         while (e != null) {
@@ -715,7 +964,7 @@ public class HashMap<K,V>
                 modCount++;
                 size--;
                 if (prev == e)
-                    table[i] = next;
+                    tab[i] = next;
                 else
                     prev.next = next;
                 e.recordRemoval(this);
@@ -728,6 +977,40 @@ public class HashMap<K,V>
         return e;
     }
 
+    /**
+     * Removes the entry for the key from treeified bin i of tab,
+     * whose tree bins are tbs, provided that it equals the given
+     * mapping if non-null.  The tree finds the entry; it is then
+     * unlinked from the bin's list by identity, without further
+     * calls to equals.
+     */
+    private Entry<K,V> removeTreeEntry(Entry<K,V>[] tab, TreeBin<K,V>[] tbs,
+                                       int hash, Object key,
+                                       Map.Entry<?,?> mapping, int i) {
+        TreeBin<K,V> tb = tbs[i];
+        TreeNode<K,V> p = tb.find(hash, key);
+        if (p == null)
+            return null;
+        Entry<K,V> e = p.entry;
+        if (mapping != null && !e.equals(mapping))
+            return null;
+        modCount++;
+        size--;
+        Entry<K,V> prev = tab[i];
+        if (prev == e)
+            tab[i] = e.next;
+        else {
+            while (prev.next != e)
+                prev = prev.next;
+            prev.next = e.next;
+        }
+        tb.delete(p);
+        if (tb.size <= UNTREEIFY_THRESHOLD)
+            tbs[i] = null;
+        e.recordRemoval(this);
+        return e;
+    }
+
     /**
      * Removes all of the mappings from this map.
      * The map will be empty after this call returns.
@@ -735,6 +1018,9 @@ public class HashMap<K,V>
     public void clear() {
         modCount++;
         Arrays.fill(table, null);
+        treeBins = null;
+        resizeSource = null;
+        resizeSourceTrees = null;
         size = 0;
     }
 
@@ -750,11 +1036,12 @@ public class HashMap<K,V>
         if (value == null)
             return containsNullValue();
 
-        Entry[] tab = table;
-        for (int i = 0; i < tab.length ; i++)
-            for (Entry e = tab[i] ; e != null ; e = e.next)
-                if (value.equals(e.value))
-                    return true;
+        for (Entry[] tab = table; tab != null;
+             tab = (tab == resizeSource) ? null : resizeSource)
+            for (int i = 0; i < tab.length ; i++)
+                for (Entry e = tab[i] ; e != null ; e = e.next)
+                    if (value.equals(e.value))
+                        return true;
         return false;
     }
 
@@ -762,11 +1049,12 @@ public class HashMap<K,V>
      * Special-case code for containsValue with null argument
      */
     private boolean containsNullValue() {
-        Entry[] tab = table;
-        for (int i = 0; i < tab.length ; i++)
-            for (Entry e = tab[i] ; e != null ; e = e.next)
-                if (e.value == null)
-                    return true;
+        for (Entry[] tab = table; tab != null;
+             tab = (tab == resizeSource) ? null : resizeSource)
+            for (int i = 0; i < tab.length ; i++)
+                for (Entry e = tab[i] ; e != null ; e = e.next)
+                    if (e.value == null)
+                        return true;
         return false;
     }
 
@@ -792,6 +1080,9 @@ public class HashMap<K,V>
                table.length));
         }
         result.entrySet = null;
+        result.treeBins = null;
+        result.resizeSource = null;
+        result.resizeSourceTrees = null;
         result.modCount = 0;
         result.size = 0;
         result.init();
@@ -877,13 +1168,18 @@ public class HashMap<K,V>
      * Subclass overrides this to alter the behavior of put method.
      */
     void addEntry(int hash, K key, V value, int bucketIndex) {
+        if (resizeSource != null)
+            advanceResize(hash);
         if ((size >= threshold) && (null != table[bucketIndex])) {
             resize(2 * table.length);
             hash = (null != key) ? hash(key) : 0;
             bucketIndex = indexFor(hash, table.length);
+            if (resizeSource != null)
+                advanceResize(hash);
         }
 
         createEntry(hash, key, value, bucketIndex);
+        binGrown(bucketIndex, true);
     }
 
     /**
@@ -900,18 +1196,454 @@ public class HashMap<K,V>
         size++;
     }
 
+    /* ---------------- Tree bins -------------- */
+
+    /**
+     * Called after createEntry has added a new entry at the head of
+     * the given bin: adds it to the bin's tree, or treeifies the bin
+     * if it has become too long.  If the table is too small to
+     * treeify, it is resized instead when allowed.
+     */
+    final void binGrown(int bucketIndex, boolean mayResize) {
+        Entry<K,V> e = table[bucketIndex];
+        TreeBin<K,V>[] tbs = treeBins;
+        if (tbs != null && tbs[bucketIndex] != null)
+            tbs[bucketIndex].insert(e);
+        else if (binCount(e) >= TREEIFY_THRESHOLD) {
+            if (table.length >= MIN_TREEIFY_CAPACITY)
+                treeifyBin(bucketIndex);
+            else if (mayResize)
+                resize(2 * table.length);
+        }
+    }
+
+    /**
+     * Returns the length of the list starting at e, counting no
+     * further than TREEIFY_THRESHOLD.
+     */
+    private static int binCount(Entry<?,?> e) {
+        int n = 0;
+        for (; e != null && n < TREEIFY_THRESHOLD; e = e.next)
+            ++n;
+        return n;
+    }
+
+    /**
+     * Builds the tree for bin i.
+     */
+    private void treeifyBin(int i) {
+        TreeBin<K,V>[] tbs = treeBins;
+        if (tbs == null)
+            treeBins = tbs = (TreeBin<K,V>[]) new TreeBin<?,?>[table.length];
+        TreeBin<K,V> tb = new TreeBin<K,V>();
+        for (Entry<K,V> e = table[i]; e != null; e = e.next)
+            tb.insert(e);
+        tbs[i] = tb;
+    }
+
+    /**
+     * Treeifies every bin of the (new) table that is long enough.
+     * Used after a resize of a table that had tree bins.
+     */
+    private void treeifyLongBins() {
+        Entry<K,V>[] tab = table;
+        if (tab.length < MIN_TREEIFY_CAPACITY)
+            return;
+        for (int i = 0; i < tab.length; i++) {
+            if (binCount(tab[i]) >= TREEIFY_THRESHOLD)
+                treeifyBin(i);
+        }
+    }
+
+    /**
+     * Returns x's Class if it is of the form "class C implements
+     * Comparable<C>", else null.
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c; Type[] ts, as; Type t; ParameterizedType p;
+            if ((c = x.getClass()) == String.class) // bypass checks
+                return c;
+            if ((ts = c.getGenericInterfaces()) != null) {
+                for (int i = 0; i < ts.length; ++i) {
+                    if (((t = ts[i]) instanceof ParameterizedType) &&
+                        ((p = (ParameterizedType)t).getRawType() ==
+                         Comparable.class) &&
+                        (as = p.getActualTypeArguments()) != null &&
+                        as.length == 1 && as[0] == c) // type arg is c
+                        return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns k.compareTo(x) if x matches kc (k's screened comparable
+     * class), else 0.
+     */
+    @SuppressWarnings({"rawtypes","unchecked"}) // for cast to Comparable
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return (x == null || x.getClass() != kc ? 0 :
+                ((Comparable)k).compareTo(x));
+    }
+
+    /**
+     * Tie-breaking order for keys with equal hash codes that are not
+     * mutually comparable.  Any consistent total order will do; it
+     * need not agree with equals, since lookups that reach such a tie
+     * search both subtrees.
+     */
+    static int tieBreakOrder(Object a, Object b) {
+        int d;
+        if (a == null || b == null ||
+            (d = a.getClass().getName().
+             compareTo(b.getClass().getName())) == 0)
+            d = (System.identityHashCode(a) <= System.identityHashCode(b) ?
+                 -1 : 1);
+        return d;
+    }
+
+    /**
+     * Node of a bin's red-black tree, indexing one entry of the bin.
+     */
+    static final class TreeNode<K,V> {
+        Entry<K,V> entry;
+        TreeNode<K,V> left;
+        TreeNode<K,V> right;
+        TreeNode<K,V> parent;
+        boolean red;
+
+        TreeNode(Entry<K,V> entry, TreeNode<K,V> parent) {
+            this.entry = entry;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Red-black tree over the entries of one bin.  The balancing
+     * code is adapted from TreeMap, itself from CLR.
+     */
+    static final class TreeBin<K,V> {
+        TreeNode<K,V> root;
+        int size;
+
+        /**
+         * Returns the node for the given key, or null if none.
+         */
+        TreeNode<K,V> find(int h, Object k) {
+            TreeNode<K,V> p = root;
+            return (p == null) ? null : find(p, h, k, null);
+        }
+
+        private static <K,V> TreeNode<K,V> find(TreeNode<K,V> p, int h,
+                                                 Object k, Class<?> kc) {
+            do {
+                int ph, dir; K pk; Entry<K,V> pe = p.entry;
+                TreeNode<K,V> pl = p.left, pr = p.right, q;
+                if ((ph = pe.hash) > h)
+                    p = pl;
+                else if (ph < h)
+                    p = pr;
+                else if ((pk = pe.key) == k || (k != null && k.equals(pk)))
+                    return p;
+                else if (pl == null)
+                    p = pr;
+                else if (pr == null)
+                    p = pl;
+                else if ((kc != null ||
+                          (kc = comparableClassFor(k)) != null) &&
+                         (dir = compareComparables(kc, k, pk)) != 0)
+                    p = (dir < 0) ? pl : pr;
+                else if ((q = find(pr, h, k, kc)) != null)
+                    return q;
+                else
+                    p = pl;
+            } while (p != null);
+            return null;
+        }
+
+        /**
+         * Adds a node for the given entry, whose key must not already
+         * be present.
+         */
+        void insert(Entry<K,V> e) {
+            TreeNode<K,V> t = root;
+            if (t == null) {
+                root = new TreeNode<K,V>(e, null);
+                size = 1;
+                return;
+            }
+            int h = e.hash;
+            K k = e.key;
+            Class<?> kc = null;
+            TreeNode<K,V> parent;
+            int dir;
+            do {
+                parent = t;
+                int ph = t.entry.hash;
+                if (ph > h)
+                    dir = -1;
+                else if (ph < h)
+                    dir = 1;
+                else if ((kc == null &&
+                          (kc = comparableClassFor(k)) == null) ||
+                         (dir = compareComparables(kc, k, t.entry.key)) == 0)
+                    dir = tieBreakOrder(k, t.entry.key);
+                t = (dir < 0) ? t.left : t.right;
+            } while (t != null);
+            TreeNode<K,V> x = new TreeNode<K,V>(e, parent);
+            if (dir < 0)
+                parent.left = x;
+            else
+                parent.right = x;
+            fixAfterInsertion(x);
+            size++;
+        }
+
+        /**
+         * Removes node p.
+         */
+        void delete(TreeNode<K,V> p) {
+            size--;
+
+            // If strictly internal, move successor's entry to p and
+            // then make p point to successor.
+            if (p.left != null && p.right != null) {
+                TreeNode<K,V> s = p.right;
+                while (s.left != null)
+                    s = s.left;
+                p.entry = s.entry;
+                p = s;
+            }
+
+            // Start fixup at replacement node, if it exists.
+            TreeNode<K,V> replacement = (p.left != null ? p.left : p.right);
+
+            if (replacement != null) {
+                // Link replacement to parent
+                replacement.parent = p.parent;
+                if (p.parent == null)
+                    root = replacement;
+                else if (p == p.parent.left)
+                    p.parent.left  = replacement;
+                else
+                    p.parent.right = replacement;
+
+                // Null out links so they are OK to use by fixAfterDeletion.
+                p.left = p.right = p.parent = null;
+
+                // Fix replacement
+                if (!p.red)
+                    fixAfterDeletion(replacement);
+            } else if (p.parent == null) { // return if we are the only node.
+                root = null;
+            } else { //  No children. Use self as phantom replacement and unlink.
+                if (!p.red)
+                    fixAfterDeletion(p);
+
+                if (p.parent != null) {
+                    if (p == p.parent.left)
+                        p.parent.left = null;
+                    else if (p == p.parent.right)
+                        p.parent.right = null;
+                    p.parent = null;
+                }
+            }
+        }
+
+        /*
+         * Balancing operations, as in TreeMap.  The accessors handle
+         * null nodes, which count as black.
+         */
+
+        private static <K,V> boolean isRed(TreeNode<K,V> p) {
+            return p != null && p.red;
+        }
+
+        private static <K,V> void setRed(TreeNode<K,V> p, boolean red) {
+            if (p != null)
+                p.red = red;
+        }
+
+        private static <K,V> TreeNode<K,V> parentOf(TreeNode<K,V> p) {
+            return (p == null ? null: p.parent);
+        }
+
+        private static <K,V> TreeNode<K,V> leftOf(TreeNode<K,V> p) {
+            return (p == null) ? null: p.left;
+        }
+
+        private static <K,V> TreeNode<K,V> rightOf(TreeNode<K,V> p) {
+            return (p == null) ? null: p.right;
+        }
+
+        private void rotateLeft(TreeNode<K,V> p) {
+            if (p != null) {
+                TreeNode<K,V> r = p.right;
+                p.right = r.left;
+                if (r.left != null)
+                    r.left.parent = p;
+                r.parent = p.parent;
+                if (p.parent == null)
+                    root = r;
+                else if (p.parent.left == p)
+                    p.parent.left = r;
+                else
+                    p.parent.right = r;
+                r.left = p;
+                p.parent = r;
+            }
+        }
+
+        private void rotateRight(TreeNode<K,V> p) {
+            if (p != null) {
+                TreeNode<K,V> l = p.left;
+                p.left = l.right;
+                if (l.right != null) l.right.parent = p;
+                l.parent = p.parent;
+                if (p.parent == null)
+                    root = l;
+                else if (p.parent.right == p)
+                    p.parent.right = l;
+                else p.parent.left = l;
+                l.right = p;
+                p.parent = l;
+            }
+        }
+
+        private void fixAfterInsertion(TreeNode<K,V> x) {
+            x.red = true;
+
+            while (x != null && x != root && x.parent.red) {
+                if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                    TreeNode<K,V> y = rightOf(parentOf(parentOf(x)));
+                    if (isRed(y)) {
+                        setRed(parentOf(x), false);
+                        setRed(y, false);
+                        setRed(parentOf(parentOf(x)), true);
+                        x = parentOf(parentOf(x));
+                    } else {
+                        if (x == rightOf(parentOf(x))) {
+                            x = parentOf(x);
+                            rotateLeft(x);
+                        }
+                        setRed(parentOf(x), false);
+                        setRed(parentOf(parentOf(x)), true);
+                        rotateRight(parentOf(parentOf(x)));
+                    }
+                } else {
+                    TreeNode<K,V> y = leftOf(parentOf(parentOf(x)));
+                    if (isRed(y)) {
+                        setRed(parentOf(x), false);
+                        setRed(y, false);
+                        setRed(parentOf(parentOf(x)), true);
+                        x = parentOf(parentOf(x));
+                    } else {
+                        if (x == leftOf(parentOf(x))) {
+                            x = parentOf(x);
+                            rotateRight(x);
+                        }
+                        setRed(parentOf(x), false);
+                        setRed(parentOf(parentOf(x)), true);
+                        rotateLeft(parentOf(parentOf(x)));
+                    }
+                }
+            }
+            root.red = false;
+        }
+
+        private void fixAfterDeletion(TreeNode<K,V> x) {
+            while (x != root && !isRed(x)) {
+                if (x == leftOf(parentOf(x))) {
+                    TreeNode<K,V> sib = rightOf(parentOf(x));
+
+                    if (isRed(sib)) {
+                        setRed(sib, false);
+                        setRed(parentOf(x), true);
+                        rotateLeft(parentOf(x));
+                        sib = rightOf(parentOf(x));
+                    }
+
+                    if (!isRed(leftOf(sib)) && !isRed(rightOf(sib))) {
+                        setRed(sib, true);
+                        x = parentOf(x);
+                    } else {
+                        if (!isRed(rightOf(sib))) {
+                            setRed(leftOf(sib), false);
+                            setRed(sib, true);
+                            rotateRight(sib);
+                            sib = rightOf(parentOf(x));
+                        }
+                        setRed(sib, isRed(parentOf(x)));
+                        setRed(parentOf(x), false);
+                        setRed(rightOf(sib), false);
+                        rotateLeft(parentOf(x));
+                        x = root;
+                    }
+                } else { // symmetric
+                    TreeNode<K,V> sib = leftOf(parentOf(x));
+
+                    if (isRed(sib)) {
+                        setRed(sib, false);
+                        setRed(parentOf(x), true);
+                        rotateRight(parentOf(x));
+                        sib = leftOf(parentOf(x));
+                    }
+
+                    if (!isRed(rightOf(sib)) && !isRed(leftOf(sib))) {
+                        setRed(sib, true);
+                        x = parentOf(x);
+                    } else {
+                        if (!isRed(leftOf(sib))) {
+                            setRed(rightOf(sib), false);
+                            setRed(sib, true);
+                            rotateLeft(sib);
+                            sib = leftOf(parentOf(x));
+                        }
+                        setRed(sib, isRed(parentOf(x)));
+                        setRed(parentOf(x), false);
+                        setRed(leftOf(sib), false);
+                        rotateRight(parentOf(x));
+                        x = root;
+                    }
+                }
+            }
+
+            setRed(x, false);
+        }
+    }
+
     private abstract class HashIterator<E> implements Iterator<E> {
         Entry<K,V> next;        // next entry to return
         int expectedModCount;   // For fast-fail
         int index;              // current slot
         Entry<K,V> current;     // current entry
+        Entry[] tab;            // table being traversed
+        Entry[] pending;        // old table of an incremental resize, next
 
         HashIterator() {
             expectedModCount = modCount;
             if (size > 0) { // advance to first entry
-                Entry[] t = table;
+                tab = table;
+                pending = resizeSource;
+                advanceBin();
+            }
+        }
+
+        /**
+         * Sets next to the first entry of the next non-empty bin,
+         * moving on to the pending table when the current one is done.
+         */
+        private void advanceBin() {
+            for (Entry[] t = tab;;) {
                 while (index < t.length && (next = t[index++]) == null)
                     ;
+                if (next != null || (t = pending) == null)
+                    return;
+                tab = t;
+                pending = null;
+                index = 0;
             }
         }
 
@@ -926,11 +1658,8 @@ public class HashMap<K,V>
             if (e == null)
                 throw new NoSuchElementException();
 
-            if ((next = e.next) == null) {
-                Entry[] t = table;
-                while (index < t.length && (next = t[index++]) == null)
-                    ;
-            }
+            if ((next = e.next) == null)
+                advanceBin();
             current = e;
             return e;
         }
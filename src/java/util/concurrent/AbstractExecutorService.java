@@ -144,6 +144,172 @@ public abstract class AbstractExecutorService implements ExecutorService {
         return ftask;
     }
 
+    /**
+     * Executes each of the given commands at some time in the future,
+     * as if by calling {@link #execute} on each in iteration order.
+     * This implementation does exactly that; subclasses such as
+     * {@link ThreadPoolExecutor} override it to hand off the whole
+     * batch at once, amortizing per-task submission overhead.
+     *
+     * <p>If a command is rejected, the exception propagates and the
+     * remaining commands are not submitted, but those submitted
+     * earlier are unaffected.
+     *
+     * @param commands the runnable tasks
+     * @throws RejectedExecutionException if a task cannot be
+     *         accepted for execution
+     * @throws NullPointerException if commands or any of its
+     *         elements are null
+     * @since 1.7
+     */
+    public void executeAll(Collection<? extends Runnable> commands) {
+        if (commands == null)
+            throw new NullPointerException();
+        for (Runnable r : commands)
+            execute(r);
+    }
+
+    /**
+     * Returns true if {@link #invokeAll(Collection)} may hand its
+     * tasks to {@link #executeAll} as one batch. By default each task
+     * goes through {@link #execute}, so that subclasses overriding
+     * {@code execute} still see every task; executors whose {@code
+     * executeAll} is known to be equivalent opt in by overriding this.
+     */
+    boolean batchesInvokeAll() {
+        return false;
+    }
+
+    /**
+     * Submits a batch of value-returning tasks for execution without
+     * waiting for any of them, and returns a single Future for the
+     * whole batch. Unlike {@link #invokeAll(Collection)}, this method
+     * returns as soon as the tasks have been handed off. The tasks
+     * are passed to {@link #executeAll} as a single batch.
+     *
+     * <p>The returned Future is done when every task is done. Its
+     * {@code get} methods return the results in the same sequential
+     * order as produced by the iterator for the given task list; if
+     * any task was cancelled they throw {@link CancellationException},
+     * and otherwise, if any task completed abruptly, they throw the
+     * {@link ExecutionException} of the first such task in that
+     * order. Cancelling it cancels every task that has not completed.
+     *
+     * <p>If any task is rejected, all tasks of the batch are
+     * cancelled before the exception propagates.
+     *
+     * @param tasks the collection of tasks
+     * @return a Future representing the completion of all the tasks,
+     *         whose result is the list of their results
+     * @throws RejectedExecutionException if any task cannot be
+     *         scheduled for execution
+     * @throws NullPointerException if tasks or any of its elements
+     *         are null
+     * @since 1.7
+     */
+    public <T> Future<List<T>> submitAll(Collection<? extends Callable<T>> tasks) {
+        if (tasks == null)
+            throw new NullPointerException();
+        List<RunnableFuture<T>> ftasks =
+            new ArrayList<RunnableFuture<T>>(tasks.size());
+        for (Callable<T> t : tasks) {
+            if (t == null)
+                throw new NullPointerException();
+            ftasks.add(newTaskFor(t));
+        }
+        boolean submitted = false;
+        try {
+            executeAll(ftasks);
+            submitted = true;
+        } finally {
+            if (!submitted)
+                for (Future<T> f : ftasks)
+                    f.cancel(true);
+        }
+        return new BatchFuture<T>(ftasks);
+    }
+
+    /**
+     * The Future returned by submitAll, tracking the Futures of all
+     * tasks of a batch.
+     */
+    static final class BatchFuture<T> implements Future<List<T>> {
+        private final List<? extends Future<T>> futures;
+
+        BatchFuture(List<? extends Future<T>> futures) {
+            this.futures = futures;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (Future<T> f : futures)
+                if (f.cancel(mayInterruptIfRunning))
+                    cancelled = true;
+            return cancelled;
+        }
+
+        public boolean isCancelled() {
+            for (Future<T> f : futures)
+                if (f.isCancelled())
+                    return true;
+            return false;
+        }
+
+        public boolean isDone() {
+            for (Future<T> f : futures)
+                if (!f.isDone())
+                    return false;
+            return true;
+        }
+
+        public List<T> get() throws InterruptedException, ExecutionException {
+            for (Future<T> f : futures) {
+                if (!f.isDone()) {
+                    try {
+                        f.get();
+                    } catch (CancellationException ignore) {
+                    } catch (ExecutionException ignore) {
+                    }
+                }
+            }
+            return report();
+        }
+
+        public List<T> get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            long nanos = unit.toNanos(timeout);
+            long lastTime = System.nanoTime();
+            for (Future<T> f : futures) {
+                if (!f.isDone()) {
+                    if (nanos <= 0)
+                        throw new TimeoutException();
+                    try {
+                        f.get(nanos, TimeUnit.NANOSECONDS);
+                    } catch (CancellationException ignore) {
+                    } catch (ExecutionException ignore) {
+                    }
+                    long now = System.nanoTime();
+                    nanos -= now - lastTime;
+                    lastTime = now;
+                }
+            }
+            return report();
+        }
+
+        /**
+         * Returns the results once all tasks are done, or throws the
+         * exception described in submitAll.
+         */
+        private List<T> report() throws InterruptedException, ExecutionException {
+            if (isCancelled())
+                throw new CancellationException();
+            List<T> results = new ArrayList<T>(futures.size());
+            for (Future<T> f : futures)
+                results.add(f.get());
+            return results;
+        }
+    }
+
     /**
      * the main mechanics of invokeAny.
      */
@@ -243,15 +409,22 @@ public abstract class AbstractExecutorService implements ExecutorService {
         throws InterruptedException {
         if (tasks == null)
             throw new NullPointerException();
+        List<RunnableFuture<T>> ftasks =
+            new ArrayList<RunnableFuture<T>>(tasks.size());
         List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size()); // 所有任务的Future
         boolean done = false;
         try {
         	// 执行所有任务
             for (Callable<T> t : tasks) {
                 RunnableFuture<T> f = newTaskFor(t); // 任务封装
+                ftasks.add(f);
                 futures.add(f); // 保存Future
-                execute(f); // 执行任务
             }
+            if (batchesInvokeAll())
+                executeAll(ftasks); // 整批提交任务
+            else
+                for (RunnableFuture<T> f : ftasks)
+                    execute(f);
             // 等待所有任务完成
             for (Future<T> f : futures) {
                 if (!f.isDone()) { // 对于未完成的任务进行阻塞等待（这里的判断是一种技巧）
@@ -373,6 +373,29 @@ public class ArrayBlockingQueue<E> extends AbstractQueue<E>
         }
     }
 
+    /**
+     * Inserts as many of the given elements as fit without waiting,
+     * in order, acquiring the lock only once for the whole run. Used
+     * by ThreadPoolExecutor.executeAll.
+     *
+     * @param a the array holding the elements, none of them null
+     * @param off the index of the first element to insert
+     * @param len the number of elements to try to insert
+     * @return the number of elements inserted, a prefix of the run
+     */
+    final int offerAll(E[] a, int off, int len) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = Math.min(len, items.length - count);
+            for (int i = off, end = off + n; i < end; ++i)
+                insert(a[i]);
+            return Math.max(n, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * 添加元素到队列里，如果容量满了会阻塞直到容量不满
      * <p>
@@ -0,0 +1,674 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+
+package java.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An optionally-bounded {@linkplain BlockingQueue blocking queue}
+ * that detects a standing backlog in the manner of the CoDel
+ * (controlled delay) queue management algorithm, and then stops
+ * accepting elements and serves the newest first.  Designed as the
+ * work queue of a {@link ThreadPoolExecutor}, it bounds how long
+ * tasks wait under overload, rather than only how many wait.
+ *
+ * <p>Each element is stamped with its insertion time.  Whenever an
+ * element is inserted or removed, the queue notes the <em>sojourn
+ * time</em> of its oldest element, that is, how long that element
+ * has waited so far.  If the minimum sojourn time noted over a whole
+ * interval, including the sample that ends it, exceeds the target,
+ * then even at its emptiest the queue held work older than the
+ * target throughout the interval and still does, so it is
+ * overloaded: consumers are not keeping up, as opposed to coping
+ * with a burst.  While overloaded, {@link #offer(Object) offer}
+ * fails, so an executor passes new tasks to its {@link
+ * RejectedExecutionHandler} at once instead of queuing them behind
+ * the backlog, and elements are taken last-in-first-out, so the
+ * tasks that are run are those most likely still to be wanted.  The
+ * queue leaves the overloaded state as soon as the sojourn time of
+ * its oldest element falls below the target.  Elements that have
+ * waited more than twice the target while the queue is overloaded
+ * are considered stale, and may be removed with {@link #drainStale},
+ * as {@link ThreadPoolExecutor.LoadSheddingPolicy} does.
+ *
+ * <p>The blocking {@link #put put} and timed {@link
+ * #offer(Object, long, TimeUnit) offer} methods wait only for
+ * capacity, and insert elements even while the queue is overloaded.
+ * Operations take a single lock, as in {@link LinkedBlockingDeque},
+ * and each insertion and removal reads {@link System#nanoTime}.  The
+ * iterator traverses a snapshot of the queue, in FIFO order.
+ *
+ * @since 1.7
+ * @param <E> the type of elements held in this collection
+ */
+public class CoDelBlockingQueue<E> extends AbstractQueue<E>
+        implements BlockingQueue<E> {
+
+    /** Linked list node, stamped with its insertion time */
+    static final class Node<E> {
+        E item;
+        final long time;
+        Node<E> prev;
+        Node<E> next;
+
+        Node(E x, long time) {
+            item = x;
+            this.time = time;
+        }
+    }
+
+    /** Pointer to first (oldest) node */
+    private Node<E> first;
+
+    /** Pointer to last (newest) node */
+    private Node<E> last;
+
+    /** Number of items in the queue */
+    private int count;
+
+    /** Maximum number of items in the queue */
+    private final int capacity;
+
+    /** Target sojourn time, in nanoseconds */
+    private final long target;
+
+    /** Interval over which the minimum sojourn time is taken */
+    private final long interval;
+
+    /** End of the current interval, in System.nanoTime units */
+    private long intervalEnd;
+
+    /** Minimum sojourn time noted in the current interval */
+    private long minSojourn;
+
+    /** Whether the last complete interval showed a standing backlog */
+    private boolean overloaded;
+
+    /** Main lock guarding all access */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /** Condition for waiting takes */
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Condition for waiting puts */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Creates a {@code CoDelBlockingQueue} with a capacity of {@link
+     * Integer#MAX_VALUE} and the given target sojourn time and
+     * interval.  Typical values are a target of a few milliseconds,
+     * and an interval of about twenty times the target, which should
+     * comfortably exceed the time taken by most tasks.
+     *
+     * @param target the sojourn time above which the queue is
+     *        considered to have a backlog
+     * @param interval the time for which a backlog must persist
+     *        before the queue is considered overloaded
+     * @param unit the time unit of the {@code target} and
+     *        {@code interval} arguments
+     * @throws IllegalArgumentException if {@code target} or
+     *         {@code interval} is not positive
+     * @throws NullPointerException if {@code unit} is null
+     */
+    public CoDelBlockingQueue(long target, long interval, TimeUnit unit) {
+        this(Integer.MAX_VALUE, target, interval, unit);
+    }
+
+    /**
+     * Creates a {@code CoDelBlockingQueue} with the given capacity,
+     * target sojourn time and interval.
+     *
+     * @param capacity the capacity of this queue
+     * @param target the sojourn time above which the queue is
+     *        considered to have a backlog
+     * @param interval the time for which a backlog must persist
+     *        before the queue is considered overloaded
+     * @param unit the time unit of the {@code target} and
+     *        {@code interval} arguments
+     * @throws IllegalArgumentException if {@code capacity},
+     *         {@code target} or {@code interval} is not positive
+     * @throws NullPointerException if {@code unit} is null
+     */
+    public CoDelBlockingQueue(int capacity, long target, long interval,
+                              TimeUnit unit) {
+        if (capacity <= 0 || target <= 0 || interval <= 0)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.target = unit.toNanos(target);
+        this.interval = unit.toNanos(interval);
+        this.intervalEnd = System.nanoTime() + this.interval;
+    }
+
+    // Internal methods, all called only while holding lock
+
+    /**
+     * Notes the sojourn time of the oldest element, ending the
+     * current interval and updating the overload state if the
+     * interval has elapsed.  As in CoDel, the queue becomes
+     * overloaded only if the sojourn time is still above the target
+     * when the interval expires, so the current sample is included
+     * in the minimum before it is tested.
+     */
+    private void sample(long now) {
+        long sojourn = (first == null) ? 0L : now - first.time;
+        if (sojourn < target)
+            overloaded = false;
+        if (sojourn < minSojourn)
+            minSojourn = sojourn;
+        if (now - intervalEnd >= 0L) {
+            if (minSojourn > target)
+                overloaded = true;
+            minSojourn = sojourn;
+            intervalEnd = now + interval;
+        }
+    }
+
+    /**
+     * Links node as last element, or returns false if full.
+     */
+    private boolean linkLast(Node<E> node) {
+        if (count >= capacity)
+            return false;
+        Node<E> l = last;
+        node.prev = l;
+        last = node;
+        if (first == null)
+            first = node;
+        else
+            l.next = node;
+        ++count;
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Removes and returns first element, or null if empty.
+     */
+    private E unlinkFirst() {
+        Node<E> f = first;
+        if (f == null)
+            return null;
+        Node<E> n = f.next;
+        E item = f.item;
+        f.item = null;
+        f.next = f; // help GC
+        first = n;
+        if (n == null)
+            last = null;
+        else
+            n.prev = null;
+        --count;
+        notFull.signal();
+        return item;
+    }
+
+    /**
+     * Removes and returns last element, or null if empty.
+     */
+    private E unlinkLast() {
+        Node<E> l = last;
+        if (l == null)
+            return null;
+        Node<E> p = l.prev;
+        E item = l.item;
+        l.item = null;
+        l.prev = l; // help GC
+        last = p;
+        if (p == null)
+            first = null;
+        else
+            p.next = null;
+        --count;
+        notFull.signal();
+        return item;
+    }
+
+    /**
+     * Unlinks x.
+     */
+    private void unlink(Node<E> x) {
+        Node<E> p = x.prev;
+        Node<E> n = x.next;
+        if (p == null) {
+            unlinkFirst();
+        } else if (n == null) {
+            unlinkLast();
+        } else {
+            p.next = n;
+            n.prev = p;
+            x.item = null;
+            --count;
+            notFull.signal();
+        }
+    }
+
+    /**
+     * Removes and returns the next element to serve: the oldest
+     * normally, the newest while overloaded.
+     */
+    private E dequeue() {
+        sample(System.nanoTime());
+        return overloaded ? unlinkLast() : unlinkFirst();
+    }
+
+    /**
+     * Returns {@code true} if this queue has held a standing backlog
+     * for at least an interval, and has not since been drained to
+     * below the target sojourn time.  While overloaded, {@link
+     * #offer(Object)} fails and elements are taken newest first.
+     *
+     * @return {@code true} if this queue is overloaded
+     */
+    public boolean isOverloaded() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            sample(System.nanoTime());
+            return overloaded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue if the
+     * queue is not overloaded and is below capacity, returning
+     * {@code true} upon success and {@code false} otherwise.
+     *
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean offer(E e) {
+        if (e == null) throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            sample(now);
+            return !overloaded && linkLast(new Node<E>(e, now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue,
+     * waiting if necessary for space to become available.  The
+     * element is inserted even if the queue is overloaded.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public void put(E e) throws InterruptedException {
+        if (e == null) throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity)
+                notFull.await();
+            long now = System.nanoTime();
+            sample(now);
+            linkLast(new Node<E>(e, now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue,
+     * waiting up to the specified wait time if necessary for space
+     * to become available.  The element is inserted even if the
+     * queue is overloaded.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        if (e == null) throw new NullPointerException();
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            long now = System.nanoTime();
+            sample(now);
+            return linkLast(new Node<E>(e, now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            E x;
+            while ((x = dequeue()) == null)
+                notEmpty.await();
+            return x;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            E x;
+            while ((x = dequeue()) == null) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return x;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves, but does not remove, the element that would next be
+     * taken, or returns {@code null} if this queue is empty.
+     *
+     * @return the element that would next be taken, or {@code null}
+     *         if this queue is empty
+     */
+    public E peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            sample(System.nanoTime());
+            Node<E> p = overloaded ? last : first;
+            return (p == null) ? null : p.item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the elements that have become stale, oldest first, and
+     * adds them to the given collection.  Elements are stale if the
+     * queue is overloaded and they have waited more than twice the
+     * target sojourn time.
+     *
+     * @param c the collection to transfer elements into
+     * @return the number of elements transferred
+     * @throws NullPointerException if the specified collection is null
+     * @throws IllegalArgumentException if the specified collection is
+     *         this queue
+     */
+    public int drainStale(Collection<? super E> c) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            sample(now);
+            int n = 0;
+            if (overloaded) {
+                long limit = target << 1;
+                for (Node<E> f; (f = first) != null && now - f.time > limit; ) {
+                    c.add(f.item);
+                    unlinkFirst();
+                    ++n;
+                }
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Object o) {
+        if (o == null) return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Node<E> p = first; p != null; p = p.next) {
+                if (o.equals(p.item)) {
+                    unlink(p);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Node<E> p = first; p != null; p = p.next)
+                if (o.equals(p.item))
+                    return true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of elements, oldest first, and
+     * adds them to the given collection.
+     *
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            for (int i = 0; i < n; i++) {
+                c.add(first.item);   // In this order, in case add() throws.
+                unlinkFirst();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Node<E> f = first; f != null; ) {
+                f.item = null;
+                Node<E> n = f.next;
+                f.prev = null;
+                f.next = null;
+                f = n;
+            }
+            first = last = null;
+            count = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Object[] toArray() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Object[] a = new Object[count];
+            int k = 0;
+            for (Node<E> p = first; p != null; p = p.next)
+                a[k++] = p.item;
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (a.length < count)
+                a = (T[])java.lang.reflect.Array.newInstance
+                    (a.getClass().getComponentType(), count);
+            int k = 0;
+            for (Node<E> p = first; p != null; p = p.next)
+                a[k++] = (T)p.item;
+            if (a.length > k)
+                a[k] = null;
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in this
+     * queue, oldest first.  The iterator does not reflect later
+     * changes to the queue, and its {@code remove} method removes
+     * the last element returned from the queue, if still present.
+     *
+     * @return an iterator over the elements in this queue
+     */
+    public Iterator<E> iterator() {
+        return new Itr(toArray());
+    }
+
+    /**
+     * Snapshot iterator that works off copy of underlying array.
+     */
+    final class Itr implements Iterator<E> {
+        final Object[] array; // Array of all elements
+        int cursor;           // index of next element to return
+        int lastRet;          // index of last element, or -1 if no such
+
+        Itr(Object[] array) {
+            lastRet = -1;
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            lastRet = cursor;
+            return (E)array[cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            removeEQ(array[lastRet]);
+            lastRet = -1;
+        }
+    }
+
+    /**
+     * Identity-based version for use in Itr.remove.
+     */
+    void removeEQ(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Node<E> p = first; p != null; p = p.next) {
+                if (o == p.item) {
+                    unlink(p);
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
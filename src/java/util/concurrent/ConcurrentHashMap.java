@@ -49,6 +49,8 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -190,10 +192,10 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     static final int MAX_SEGMENTS = 1 << 16; // slightly conservative. 65536
 
     /**
-     * Number of unsynchronized retries in size and containsValue
-     * methods before resorting to locking. This is used to avoid
-     * unbounded retries if tables undergo continuous modification
-     * which would make it impossible to obtain an accurate result.
+     * Number of unsynchronized retries in containsValue before
+     * resorting to locking. This is used to avoid unbounded retries
+     * if tables undergo continuous modification which would make it
+     * impossible to obtain an accurate result.
      */
     static final int RETRIES_BEFORE_LOCK = 2;
 
@@ -285,6 +287,20 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     transient Set<Map.Entry<K,V>> entrySet;
     transient Collection<V> values;
 
+    /*
+     * The number of mappings is also kept in a LongAdder, so that
+     * size() and mappingCount() can read it without locking any
+     * segment.  The counter is adjusted by the public methods after
+     * the segment operation completes, so it may briefly lag
+     * in-flight updates; the per-segment counts still drive
+     * rehashing.
+     */
+
+    /**
+     * The number of mappings.  Final, but reset by readObject.
+     */
+    private final transient LongAdder mappingCounter = new LongAdder();
+
     /**
      * 单向链表节点.
      * 
@@ -840,15 +856,17 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
             return oldValue;
         }
 
-        final void clear() {
+        final int clear() {
             lock();
             try {
+                int removed = count;
                 HashEntry<K,V>[] tab = table;
                 // 遍历将每个元素设置为null
                 for (int i = 0; i < tab.length ; i++)
                     setEntryAt(tab, i, null);
                 ++modCount;
                 count = 0; // 个数清0
+                return removed;
             } finally {
                 unlock();
             }
@@ -1072,8 +1090,8 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
          * while checking another, in which case the table was never
          * actually empty at any point. (The sum ensures accuracy up
          * through at least 1<<31 per-segment modifications before
-         * recheck.)  Methods size() and containsValue() use similar
-         * constructions for stability checks.
+         * recheck.)  Method containsValue() uses a similar
+         * construction for stability checks.
          */
         long sum = 0L;
         final Segment<K,V>[] segments = this.segments;
@@ -1103,60 +1121,34 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     }
 
     /**
-     * <pre>
-     * 最安全的做法，是在统计size的时候把所有Segment的put，remove和clean方法全部锁住，但是这种做法显然非常低效。
-     * 因为在累加count操作过程中，之前累加过的count发生变化的几率非常小，
-     * 所以ConcurrentHashMap的做法是先尝试2次通过不锁住Segment的方式来统计各个Segment大小，
-     * 如果统计的过程中，容器的count发生了变化，则再采用加锁的方式来统计所有Segment的大小。
-     * </pre>
      * Returns the number of key-value mappings in this map.  If the
      * map contains more than <tt>Integer.MAX_VALUE</tt> elements, returns
-     * <tt>Integer.MAX_VALUE</tt>.
+     * <tt>Integer.MAX_VALUE</tt>.  The count is read from a striped
+     * counter without locking, so it is an estimate while updates
+     * are in progress.
      *
      * @return the number of key-value mappings in this map
      */
     public int size() {
-        // Try a few times to get accurate count. On failure due to
-        // continuous async changes in table, resort to locking.
-        final Segment<K,V>[] segments = this.segments;
-        int size;
-        boolean overflow; // true if size overflows 32 bits
-        long sum;         // sum of modCounts
-        long last = 0L;   // previous sum
-        int retries = -1; // first iteration isn't retry
-        try {
-            for (;;) {
-            	// 如果统计的过程中，容器的count发生了变化，则再采用加锁的方式来统计所有Segment的大小。
-                if (retries++ == RETRIES_BEFORE_LOCK) {
-                    for (int j = 0; j < segments.length; ++j)
-                        ensureSegment(j).lock(); // force creation
-                }
-                sum = 0L;
-                size = 0;
-                overflow = false;
-                // 计算所有modCount之和，计算Map的元素数量size
-                for (int j = 0; j < segments.length; ++j) {
-                    Segment<K,V> seg = segmentAt(segments, j);
-                    if (seg != null) {
-                        sum += seg.modCount; // modCount之和
-                        int c = seg.count; // 当前Segment的元素数量
-                        // c < 0或size < 0表示数量溢出了，此处不直接break，是因为需要recheck再决定如何处理
-                        if (c < 0 || (size += c) < 0)
-                            overflow = true;
-                    }
-                }
-                // 所有modCount之和为0，或者连续两次的总和相等，只退出计算循环
-                if (sum == last)
-                    break;
-                last = sum; // 记录本次计算的所有modCount之和
-            }
-        } finally {
-            if (retries > RETRIES_BEFORE_LOCK) {
-                for (int j = 0; j < segments.length; ++j)
-                    segmentAt(segments, j).unlock();
-            }
-        }
-        return overflow ? Integer.MAX_VALUE : size;
+        long n = mappingCounter.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long)Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                (int)n);
+    }
+
+    /**
+     * Returns the number of mappings. This method should be used
+     * instead of {@link #size} because a ConcurrentHashMap may
+     * contain more mappings than can be represented as an int. The
+     * value returned is an estimate; the actual count may differ if
+     * there are concurrent insertions or removals. It never locks.
+     *
+     * @return the number of mappings
+     * @since 1.7
+     */
+    public long mappingCount() {
+        long n = mappingCounter.sum();
+        return (n < 0L) ? 0L : n; // ignore transient negative values
     }
 
     /**
@@ -1349,7 +1341,10 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
         if ((s = (Segment<K,V>)UNSAFE.getObject          // nonvolatile; recheck
              (segments, (j << SSHIFT) + SBASE)) == null) //  in ensureSegment
             s = ensureSegment(j); // 创建或获取对应桶位的Segment
-        return s.put(key, hash, value, false);
+        V oldValue = s.put(key, hash, value, false);
+        if (oldValue == null)
+            mappingCounter.increment();
+        return oldValue;
     }
 
     /**
@@ -1369,7 +1364,10 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
         if ((s = (Segment<K,V>)UNSAFE.getObject
              (segments, (j << SSHIFT) + SBASE)) == null)
             s = ensureSegment(j);
-        return s.put(key, hash, value, true);
+        V oldValue = s.put(key, hash, value, true);
+        if (oldValue == null)
+            mappingCounter.increment();
+        return oldValue;
     }
 
     /**
@@ -1399,7 +1397,10 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     public V remove(Object key) {
         int hash = hash(key);
         Segment<K,V> s = segmentForHash(hash);
-        return s == null ? null : s.remove(key, hash, null);
+        V oldValue = (s == null) ? null : s.remove(key, hash, null);
+        if (oldValue != null)
+            mappingCounter.decrement();
+        return oldValue;
     }
 
     /**
@@ -1410,8 +1411,12 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     public boolean remove(Object key, Object value) {
         int hash = hash(key);
         Segment<K,V> s;
-        return value != null && (s = segmentForHash(hash)) != null &&
-            s.remove(key, hash, value) != null;
+        if (value != null && (s = segmentForHash(hash)) != null &&
+            s.remove(key, hash, value) != null) {
+            mappingCounter.decrement();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -1447,12 +1452,15 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
      */
     public void clear() {
         final Segment<K,V>[] segments = this.segments;
+        long removed = 0L;
         // 遍历所有Segment，对每个Segment执行clear()
         for (int j = 0; j < segments.length; ++j) {
             Segment<K,V> s = segmentAt(segments, j);
             if (s != null)
-                s.clear();
+                removed += s.clear();
         }
+        if (removed != 0L)
+            mappingCounter.add(-removed);
     }
 
     /**
@@ -1758,6 +1766,699 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /* ---------------- Parallel bulk operations -------------- */
+
+    /*
+     * The bulk operations below traverse the map in parallel by
+     * recursively splitting the range of bins to visit: first by
+     * halving the range of segments, then, within a single segment,
+     * by halving the range of indices of a snapshot of its table.
+     * Leaf tasks read bins and entries through the same volatile
+     * accessors as the iterators, so they never lock and see each
+     * mapping at most once, reflecting some state of it that held at
+     * some point during the traversal (they are weakly consistent,
+     * like iterators).
+     *
+     * Tasks run in the ForkJoinPool of the calling thread if it is
+     * already running in one (so callers may supply their own pool by
+     * invoking these methods from within a task submitted to it), and
+     * otherwise in a shared pool created on first use. Each method
+     * takes a parallelismThreshold: the (estimated) number of
+     * mappings below which the operation is performed sequentially
+     * in the caller. Long.MAX_VALUE therefore suppresses all
+     * parallelism, and 1 gives maximal parallelism by splitting into
+     * up to four times as many subtasks as the pool's parallelism.
+     *
+     * Interfaces for the functions passed in are nested here since
+     * there are no general-purpose function types in this package.
+     * Functions should not depend on any mutable state that might
+     * change during the computation, and are assumed to be safe to
+     * invoke concurrently. A null result from a transformer is taken
+     * to mean "no result" and is ignored.
+     */
+
+    /** Interface describing a void action of one argument */
+    public interface Action<A> { void apply(A a); }
+    /** Interface describing a void action of two arguments */
+    public interface BiAction<A,B> { void apply(A a, B b); }
+    /** Interface describing a function of one argument */
+    public interface Fun<A,T> { T apply(A a); }
+    /** Interface describing a function of two arguments */
+    public interface BiFun<A,B,T> { T apply(A a, B b); }
+    /** Interface describing a function mapping its argument to a double */
+    public interface ObjectToDouble<A> { double apply(A a); }
+    /** Interface describing a function mapping its argument to a long */
+    public interface ObjectToLong<A> { long apply(A a); }
+    /** Interface describing a function mapping its argument to an int */
+    public interface ObjectToInt<A> { int apply(A a); }
+    /** Interface describing a function mapping two doubles to a double */
+    public interface DoubleByDoubleToDouble { double apply(double a, double b); }
+    /** Interface describing a function mapping two longs to a long */
+    public interface LongByLongToLong { long apply(long a, long b); }
+    /** Interface describing a function mapping two ints to an int */
+    public interface IntByIntToInt { int apply(int a, int b); }
+
+    /**
+     * Holder for the pool used by bulk operations invoked from
+     * outside of any ForkJoinPool, created lazily on first use. Its
+     * worker threads are daemons, so it never prevents exit.
+     */
+    private static final class BulkPoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * Returns the number of leaf tasks to aim for, or zero if the
+     * operation should run sequentially in the caller.
+     */
+    private int batchFor(long parallelismThreshold) {
+        long n;
+        if (parallelismThreshold == Long.MAX_VALUE ||
+            (n = mappingCounter.sum()) <= 1L || n < parallelismThreshold)
+            return 0;
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ?
+            ForkJoinTask.getPool() : BulkPoolHolder.POOL;
+        int sp = pool.getParallelism() << 2;
+        return (parallelismThreshold <= 0L ||
+                (n /= parallelismThreshold) >= sp) ? sp : (int)n;
+    }
+
+
+    /**
+     * Runs the given root task: in the caller if it is sequential or
+     * the caller is already in a ForkJoinPool, else in the shared pool.
+     */
+    private static void invokeBulk(BulkTask<?,?> task) {
+        if (task.batch <= 0 || ForkJoinTask.inForkJoinPool())
+            task.invoke();
+        else
+            BulkPoolHolder.POOL.invoke(task);
+    }
+
+    /**
+     * Base class for bulk tasks. Each task covers either a range of
+     * whole segments [segLo, segHi), with tab null, or a range of bins
+     * [binLo, binHi) of the table tab of the single segment segLo.
+     * Subclasses supply the per-entry step, how to make a subtask of
+     * the same kind, and how to merge a finished subtask's result.
+     */
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<K,V> extends RecursiveAction {
+        final Segment<K,V>[] segments;
+        final int batch;              // split budget; 0 if sequential
+        final int segLo, segHi;
+        final HashEntry<K,V>[] tab;
+        final int binLo, binHi;
+
+        BulkTask(Segment<K,V>[] segments, int batch, int segLo, int segHi,
+                 HashEntry<K,V>[] tab, int binLo, int binHi) {
+            this.segments = segments;
+            this.batch = batch;
+            this.segLo = segLo;
+            this.segHi = segHi;
+            this.tab = tab;
+            this.binLo = binLo;
+            this.binHi = binHi;
+        }
+
+        /** Creates a task of the same kind for the given range */
+        abstract BulkTask<K,V> subtask(int batch, int segLo, int segHi,
+                                       HashEntry<K,V>[] tab,
+                                       int binLo, int binHi);
+
+        /** Processes one entry */
+        abstract void visit(HashEntry<K,V> e);
+
+        /** Merges the result of a completed subtask; default no-op */
+        void merge(BulkTask<K,V> t) { }
+
+        /** Returns true if traversal can stop early; default false */
+        boolean quit() { return false; }
+
+        protected final void compute() {
+            int b = batch;
+            if (b > 1 && !quit()) {
+                BulkTask<K,V> l = null, r = null;
+                int half = b >>> 1;
+                if (segHi - segLo > 1) {
+                    int mid = (segLo + segHi) >>> 1;
+                    l = subtask(half, segLo, mid, null, 0, 0);
+                    r = subtask(half, mid, segHi, null, 0, 0);
+                }
+                else {
+                    HashEntry<K,V>[] t = tab;
+                    int lo = binLo, hi = binHi;
+                    if (t == null) {
+                        Segment<K,V> seg = segmentAt(segments, segLo);
+                        if (seg != null && (t = seg.table) != null) {
+                            lo = 0;
+                            hi = t.length;
+                        }
+                    }
+                    if (t != null && hi - lo > 1) {
+                        int mid = (lo + hi) >>> 1;
+                        l = subtask(half, segLo, segHi, t, lo, mid);
+                        r = subtask(half, segLo, segHi, t, mid, hi);
+                    }
+                }
+                if (l != null) {
+                    invokeAll(l, r);
+                    merge(l);
+                    merge(r);
+                    return;
+                }
+            }
+            traverse();
+        }
+
+        /** Sequentially visits every entry in this task's range */
+        final void traverse() {
+            if (tab != null)
+                traverseBins(tab, binLo, binHi);
+            else {
+                for (int j = segLo; j < segHi; ++j) {
+                    Segment<K,V> seg = segmentAt(segments, j);
+                    HashEntry<K,V>[] t;
+                    if (seg != null && (t = seg.table) != null &&
+                        !traverseBins(t, 0, t.length))
+                        return;
+                }
+            }
+        }
+
+        private boolean traverseBins(HashEntry<K,V>[] t, int lo, int hi) {
+            for (int i = lo; i < hi; ++i) {
+                for (HashEntry<K,V> e = entryAt(t, i); e != null; e = e.next) {
+                    if (quit())
+                        return false;
+                    visit(e);
+                }
+            }
+            return true;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachTask<K,V> extends BulkTask<K,V> {
+        final BiAction<? super K, ? super V> action;
+        ForEachTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                    HashEntry<K,V>[] t, int bl, int bh,
+                    BiAction<? super K, ? super V> action) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.action = action;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new ForEachTask<K,V>(segments, b, sl, sh, t, bl, bh, action);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            if (v != null)
+                action.apply(e.key, v);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachTransformedTask<K,V,U> extends BulkTask<K,V> {
+        final BiFun<? super K, ? super V, ? extends U> transformer;
+        final Action<? super U> action;
+        ForEachTransformedTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                               HashEntry<K,V>[] t, int bl, int bh,
+                               BiFun<? super K, ? super V, ? extends U> transformer,
+                               Action<? super U> action) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.transformer = transformer;
+            this.action = action;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new ForEachTransformedTask<K,V,U>
+                (segments, b, sl, sh, t, bl, bh, transformer, action);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            U u;
+            if (v != null && (u = transformer.apply(e.key, v)) != null)
+                action.apply(u);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class SearchTask<K,V,U> extends BulkTask<K,V> {
+        final BiFun<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+        SearchTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                   HashEntry<K,V>[] t, int bl, int bh,
+                   BiFun<? super K, ? super V, ? extends U> searchFunction,
+                   AtomicReference<U> result) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new SearchTask<K,V,U>
+                (segments, b, sl, sh, t, bl, bh, searchFunction, result);
+        }
+        boolean quit() { return result.get() != null; }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            U u;
+            if (v != null && (u = searchFunction.apply(e.key, v)) != null)
+                result.compareAndSet(null, u);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceTask<K,V,U> extends BulkTask<K,V> {
+        final BiFun<? super K, ? super V, ? extends U> transformer;
+        final BiFun<? super U, ? super U, ? extends U> reducer;
+        U result;
+        MapReduceTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                      HashEntry<K,V>[] t, int bl, int bh,
+                      BiFun<? super K, ? super V, ? extends U> transformer,
+                      BiFun<? super U, ? super U, ? extends U> reducer) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new MapReduceTask<K,V,U>
+                (segments, b, sl, sh, t, bl, bh, transformer, reducer);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            U u;
+            if (v != null && (u = transformer.apply(e.key, v)) != null)
+                add(u);
+        }
+        @SuppressWarnings("unchecked")
+        void merge(BulkTask<K,V> t) {
+            U u = ((MapReduceTask<K,V,U>)t).result;
+            if (u != null)
+                add(u);
+        }
+        private void add(U u) {
+            U r = result;
+            result = (r == null) ? u : reducer.apply(r, u);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceValuesToLongTask<K,V> extends BulkTask<K,V> {
+        final ObjectToLong<? super V> transformer;
+        final LongByLongToLong reducer;
+        final long basis;
+        long result;
+        MapReduceValuesToLongTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                                  HashEntry<K,V>[] t, int bl, int bh,
+                                  ObjectToLong<? super V> transformer,
+                                  long basis, LongByLongToLong reducer) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.transformer = transformer;
+            this.basis = this.result = basis;
+            this.reducer = reducer;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new MapReduceValuesToLongTask<K,V>
+                (segments, b, sl, sh, t, bl, bh, transformer, basis, reducer);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            if (v != null)
+                result = reducer.apply(result, transformer.apply(v));
+        }
+        void merge(BulkTask<K,V> t) {
+            result = reducer.apply
+                (result, ((MapReduceValuesToLongTask<K,V>)t).result);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceValuesToIntTask<K,V> extends BulkTask<K,V> {
+        final ObjectToInt<? super V> transformer;
+        final IntByIntToInt reducer;
+        final int basis;
+        int result;
+        MapReduceValuesToIntTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                                 HashEntry<K,V>[] t, int bl, int bh,
+                                 ObjectToInt<? super V> transformer,
+                                 int basis, IntByIntToInt reducer) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.transformer = transformer;
+            this.basis = this.result = basis;
+            this.reducer = reducer;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new MapReduceValuesToIntTask<K,V>
+                (segments, b, sl, sh, t, bl, bh, transformer, basis, reducer);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            if (v != null)
+                result = reducer.apply(result, transformer.apply(v));
+        }
+        void merge(BulkTask<K,V> t) {
+            result = reducer.apply
+                (result, ((MapReduceValuesToIntTask<K,V>)t).result);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceValuesToDoubleTask<K,V> extends BulkTask<K,V> {
+        final ObjectToDouble<? super V> transformer;
+        final DoubleByDoubleToDouble reducer;
+        final double basis;
+        double result;
+        MapReduceValuesToDoubleTask(Segment<K,V>[] ss, int b, int sl, int sh,
+                                    HashEntry<K,V>[] t, int bl, int bh,
+                                    ObjectToDouble<? super V> transformer,
+                                    double basis, DoubleByDoubleToDouble reducer) {
+            super(ss, b, sl, sh, t, bl, bh);
+            this.transformer = transformer;
+            this.basis = this.result = basis;
+            this.reducer = reducer;
+        }
+        BulkTask<K,V> subtask(int b, int sl, int sh,
+                              HashEntry<K,V>[] t, int bl, int bh) {
+            return new MapReduceValuesToDoubleTask<K,V>
+                (segments, b, sl, sh, t, bl, bh, transformer, basis, reducer);
+        }
+        void visit(HashEntry<K,V> e) {
+            V v = e.value;
+            if (v != null)
+                result = reducer.apply(result, transformer.apply(v));
+        }
+        void merge(BulkTask<K,V> t) {
+            result = reducer.apply
+                (result, ((MapReduceValuesToDoubleTask<K,V>)t).result);
+        }
+    }
+
+    /** Transformer selecting the key of a mapping */
+    private static final class KeyFun<K,V> implements BiFun<K,V,K> {
+        public K apply(K k, V v) { return k; }
+    }
+
+    /** Transformer selecting the value of a mapping */
+    private static final class ValueFun<K,V> implements BiFun<K,V,V> {
+        public V apply(K k, V v) { return v; }
+    }
+
+    /** Transformer applying a function to the value of a mapping */
+    private static final class ValueTransformer<K,V,U> implements BiFun<K,V,U> {
+        final Fun<? super V, ? extends U> fn;
+        ValueTransformer(Fun<? super V, ? extends U> fn) { this.fn = fn; }
+        public U apply(K k, V v) { return fn.apply(v); }
+    }
+
+    /**
+     * Performs the given action for each (key, value).
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     * @since 1.7
+     */
+    public void forEach(long parallelismThreshold,
+                        BiAction<? super K, ? super V> action) {
+        if (action == null) throw new NullPointerException();
+        invokeBulk(new ForEachTask<K,V>
+                   (segments, batchFor(parallelismThreshold),
+                    0, segments.length, null, 0, 0, action));
+    }
+
+    /**
+     * Performs the given action for each non-null transformation
+     * of each (key, value).
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element, or null if there is no transformation (in
+     * which case the action is not applied)
+     * @param action the action
+     * @since 1.7
+     */
+    public <U> void forEach(long parallelismThreshold,
+                            BiFun<? super K, ? super V, ? extends U> transformer,
+                            Action<? super U> action) {
+        if (transformer == null || action == null)
+            throw new NullPointerException();
+        invokeBulk(new ForEachTransformedTask<K,V,U>
+                   (segments, batchFor(parallelismThreshold),
+                    0, segments.length, null, 0, 0, transformer, action));
+    }
+
+    /**
+     * Performs the given action for each key.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     * @since 1.7
+     */
+    public void forEachKey(long parallelismThreshold,
+                           Action<? super K> action) {
+        if (action == null) throw new NullPointerException();
+        forEach(parallelismThreshold, new KeyFun<K,V>(), action);
+    }
+
+    /**
+     * Performs the given action for each value.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param action the action
+     * @since 1.7
+     */
+    public void forEachValue(long parallelismThreshold,
+                             Action<? super V> action) {
+        if (action == null) throw new NullPointerException();
+        forEach(parallelismThreshold, new ValueFun<K,V>(), action);
+    }
+
+    /**
+     * Returns a non-null result from applying the given search
+     * function on each (key, value), or null if none.  Upon
+     * success, further element processing is suppressed and the
+     * results of any other parallel invocations of the search
+     * function are ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param searchFunction a function returning a non-null
+     * result on success, else null
+     * @return a non-null result from applying the given search
+     * function on each (key, value), or null if none
+     * @since 1.7
+     */
+    public <U> U search(long parallelismThreshold,
+                        BiFun<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null) throw new NullPointerException();
+        AtomicReference<U> result = new AtomicReference<U>();
+        invokeBulk(new SearchTask<K,V,U>
+                   (segments, batchFor(parallelismThreshold),
+                    0, segments.length, null, 0, 0, searchFunction, result));
+        return result.get();
+    }
+
+    /**
+     * Returns a non-null result from applying the given search
+     * function on each value, or null if none.  Upon success,
+     * further element processing is suppressed and the results of
+     * any other parallel invocations of the search function are
+     * ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param searchFunction a function returning a non-null
+     * result on success, else null
+     * @return a non-null result from applying the given search
+     * function on each value, or null if none
+     * @since 1.7
+     */
+    public <U> U searchValues(long parallelismThreshold,
+                              Fun<? super V, ? extends U> searchFunction) {
+        if (searchFunction == null) throw new NullPointerException();
+        return search(parallelismThreshold,
+                      new ValueTransformer<K,V,U>(searchFunction));
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all (key, value) pairs using the given reducer to
+     * combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element, or null if there is no transformation (in
+     * which case it is not combined)
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     * @since 1.7
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFun<? super K, ? super V, ? extends U> transformer,
+                        BiFun<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        MapReduceTask<K,V,U> task = new MapReduceTask<K,V,U>
+            (segments, batchFor(parallelismThreshold),
+             0, segments.length, null, 0, 0, transformer, reducer);
+        invokeBulk(task);
+        return task.result;
+    }
+
+    /**
+     * Returns the result of accumulating all keys using the given
+     * reducer to combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating all keys using the given
+     * reducer to combine values, or null if none
+     * @since 1.7
+     */
+    public K reduceKeys(long parallelismThreshold,
+                        BiFun<? super K, ? super K, ? extends K> reducer) {
+        if (reducer == null) throw new NullPointerException();
+        return reduce(parallelismThreshold, new KeyFun<K,V>(), reducer);
+    }
+
+    /**
+     * Returns the result of accumulating all values using the
+     * given reducer to combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating all values
+     * @since 1.7
+     */
+    public V reduceValues(long parallelismThreshold,
+                          BiFun<? super V, ? super V, ? extends V> reducer) {
+        if (reducer == null) throw new NullPointerException();
+        return reduce(parallelismThreshold, new ValueFun<K,V>(), reducer);
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all values using the given reducer to combine values, or
+     * null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element, or null if there is no transformation (in
+     * which case it is not combined)
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all values
+     * @since 1.7
+     */
+    public <U> U reduceValues(long parallelismThreshold,
+                              Fun<? super V, ? extends U> transformer,
+                              BiFun<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return reduce(parallelismThreshold,
+                      new ValueTransformer<K,V,U>(transformer), reducer);
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all values using the given reducer to combine values,
+     * and the given basis as an identity value.  No values are
+     * boxed along the way.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element
+     * @param basis the identity (initial default value) for the reduction
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all values
+     * @since 1.7
+     */
+    public long reduceValuesToLong(long parallelismThreshold,
+                                   ObjectToLong<? super V> transformer,
+                                   long basis,
+                                   LongByLongToLong reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        MapReduceValuesToLongTask<K,V> task = new MapReduceValuesToLongTask<K,V>
+            (segments, batchFor(parallelismThreshold),
+             0, segments.length, null, 0, 0, transformer, basis, reducer);
+        invokeBulk(task);
+        return task.result;
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all values using the given reducer to combine values,
+     * and the given basis as an identity value.  No values are
+     * boxed along the way.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element
+     * @param basis the identity (initial default value) for the reduction
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all values
+     * @since 1.7
+     */
+    public int reduceValuesToInt(long parallelismThreshold,
+                                 ObjectToInt<? super V> transformer,
+                                 int basis,
+                                 IntByIntToInt reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        MapReduceValuesToIntTask<K,V> task = new MapReduceValuesToIntTask<K,V>
+            (segments, batchFor(parallelismThreshold),
+             0, segments.length, null, 0, 0, transformer, basis, reducer);
+        invokeBulk(task);
+        return task.result;
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all values using the given reducer to combine values,
+     * and the given basis as an identity value.  No values are
+     * boxed along the way.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     * needed for this operation to be executed in parallel
+     * @param transformer a function returning the transformation
+     * for an element
+     * @param basis the identity (initial default value) for the reduction
+     * @param reducer a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all values
+     * @since 1.7
+     */
+    public double reduceValuesToDouble(long parallelismThreshold,
+                                       ObjectToDouble<? super V> transformer,
+                                       double basis,
+                                       DoubleByDoubleToDouble reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        MapReduceValuesToDoubleTask<K,V> task = new MapReduceValuesToDoubleTask<K,V>
+            (segments, batchFor(parallelismThreshold),
+             0, segments.length, null, 0, 0, transformer, basis, reducer);
+        invokeBulk(task);
+        return task.result;
+    }
+
     /* ---------------- Serialization Support -------------- */
 
     /**
@@ -1825,6 +2526,7 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
 
         // set hashMask
         UNSAFE.putIntVolatile(this, HASHSEED_OFFSET, randomHashSeed(this)); // hashSeed
+        UNSAFE.putObjectVolatile(this, COUNTER_OFFSET, new LongAdder());
 
         // Re-initialize segments to be minimally sized, and let grow.
         int cap = MIN_SEGMENT_TABLE_CAPACITY;
@@ -1864,6 +2566,7 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
     private static final long SEGSHIFT_OFFSET;
     private static final long SEGMASK_OFFSET;
     private static final long SEGMENTS_OFFSET;
+    private static final long COUNTER_OFFSET;
 
     static {
         int ss, ts;
@@ -1883,6 +2586,8 @@ public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
                 ConcurrentHashMap.class.getDeclaredField("segmentMask"));
             SEGMENTS_OFFSET = UNSAFE.objectFieldOffset(
                 ConcurrentHashMap.class.getDeclaredField("segments"));
+            COUNTER_OFFSET = UNSAFE.objectFieldOffset(
+                ConcurrentHashMap.class.getDeclaredField("mappingCounter"));
         } catch (Exception e) {
             throw new Error(e);
         }
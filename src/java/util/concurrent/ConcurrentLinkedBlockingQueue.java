@@ -0,0 +1,584 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An optionally-bounded {@linkplain BlockingQueue blocking queue} based on
+ * linked nodes, whose insertions and removals are lock-free whenever
+ * no thread needs to block.
+ * This queue orders elements FIFO (first-in-first-out).
+ * The <em>head</em> of the queue is that element that has been on the
+ * queue the longest time.
+ * The <em>tail</em> of the queue is that element that has been on the
+ * queue the shortest time. New elements
+ * are inserted at the tail of the queue, and the queue retrieval
+ * operations obtain elements at the head of the queue.
+ *
+ * <p>This class is a variant of {@link LinkedBlockingQueue} with the
+ * same blocking and capacity semantics.  Where {@code
+ * LinkedBlockingQueue} takes a lock for every insertion and removal
+ * and signals waiting threads across locks, this class links and
+ * unlinks elements as a {@link ConcurrentLinkedQueue} does, using
+ * compare-and-set, and takes a lock only to block a thread that
+ * cannot proceed, or to wake one.  Threads about to block for an
+ * element first briefly retry on multiprocessors.  It is preferable to
+ * {@code LinkedBlockingQueue} when consumers are usually waiting for
+ * or racing to obtain elements, as for the work queue of a busy
+ * thread pool.
+ *
+ * <p>Beware that, as with {@code LinkedBlockingQueue}, {@code size}
+ * reports the number of elements accepted but not yet removed, which
+ * for an instant may include an element that a {@code poll} does not
+ * yet see.  Iterators are <i>weakly consistent</i>, and their {@code
+ * remove} method removes an element equal to the one last returned.
+ *
+ * <p>This class and its iterator implement all of the
+ * <em>optional</em> methods of the {@link Collection} and {@link
+ * Iterator} interfaces.
+ *
+ * @since 1.7
+ * @param <E> the type of elements held in this collection
+ */
+public class ConcurrentLinkedBlockingQueue<E> extends AbstractQueue<E>
+        implements BlockingQueue<E>, java.io.Serializable {
+    private static final long serialVersionUID = 3126093744208376593L;
+
+    /*
+     * Elements are held in a ConcurrentLinkedQueue.  The "count"
+     * field counts slots reserved by insertions, and is incremented
+     * by CAS before linking (failing at capacity) and decremented
+     * after unlinking, so it never exceeds capacity.
+     *
+     * The two locks and conditions are as in LinkedBlockingQueue, but
+     * are used only for blocking.  A taker that finds the queue empty
+     * acquires takeLock, increments waitingTakers, and rechecks the
+     * queue before awaiting notEmpty.  An inserter links its element
+     * and then reads waitingTakers, acquiring takeLock to signal only
+     * if it is nonzero.  Because both fields are volatile, either the
+     * taker's recheck sees the element, or the inserter sees the
+     * waiter, in which case taking the lock ensures the signal is
+     * not issued before the taker awaits.  Symmetrically for putters,
+     * waitingPutters, and count.  No code holds one lock while
+     * acquiring the other.
+     *
+     * Each insertion signals at most one taker, and each removal at
+     * most one putter, so no cascading notifies are needed: a woken
+     * thread that loses the race for its element or slot just waits
+     * again.
+     */
+
+    /** Number of CPUS, to place bounds on some sizings */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of times a taker polls before blocking: zero on
+     * uniprocessors, where spinning cannot help.
+     */
+    static final int SPINS = (NCPU > 1) ? 1 << 6 : 0;
+
+    /** The capacity bound, or Integer.MAX_VALUE if none */
+    private final int capacity;
+
+    /** Number of reserved slots, linked or about to be */
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /** The elements */
+    private final ConcurrentLinkedQueue<E> queue =
+        new ConcurrentLinkedQueue<E>();
+
+    /** Lock held by blocking take, poll, etc */
+    private final ReentrantLock takeLock = new ReentrantLock();
+
+    /** Wait queue for waiting takes */
+    private final Condition notEmpty = takeLock.newCondition();
+
+    /** Lock held by blocking put, offer, etc */
+    private final ReentrantLock putLock = new ReentrantLock();
+
+    /** Wait queue for waiting puts */
+    private final Condition notFull = putLock.newCondition();
+
+    /** Number of threads awaiting notEmpty; written under takeLock */
+    private transient volatile int waitingTakers;
+
+    /** Number of threads awaiting notFull; written under putLock */
+    private transient volatile int waitingPutters;
+
+    /**
+     * Signals a waiting take, if there is one.
+     */
+    private void signalNotEmpty() {
+        if (waitingTakers != 0) {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Signals a waiting put, if there is one.
+     */
+    private void signalNotFull() {
+        if (waitingPutters != 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserves a slot for an insertion.
+     *
+     * @return {@code true} if reserved, {@code false} if at capacity
+     */
+    private boolean tryReserve() {
+        for (;;) {
+            int c = count.get();
+            if (c >= capacity)
+                return false;
+            if (count.compareAndSet(c, c + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Links an element into a reserved slot.
+     */
+    private void enqueue(E e) {
+        queue.offer(e);
+        signalNotEmpty();
+    }
+
+    /**
+     * Removes and returns the head element, if any, without
+     * signalling.
+     */
+    private E dequeue() {
+        E x = queue.poll();
+        if (x != null)
+            count.getAndDecrement();
+        return x;
+    }
+
+    /**
+     * Creates a {@code ConcurrentLinkedBlockingQueue} with a capacity of
+     * {@link Integer#MAX_VALUE}.
+     */
+    public ConcurrentLinkedBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a {@code ConcurrentLinkedBlockingQueue} with the given
+     * (fixed) capacity.
+     *
+     * @param capacity the capacity of this queue
+     * @throws IllegalArgumentException if {@code capacity} is not greater
+     *         than zero
+     */
+    public ConcurrentLinkedBlockingQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a {@code ConcurrentLinkedBlockingQueue} with a capacity of
+     * {@link Integer#MAX_VALUE}, initially containing the elements of the
+     * given collection,
+     * added in traversal order of the collection's iterator.
+     *
+     * @param c the collection of elements to initially contain
+     * @throws NullPointerException if the specified collection or any
+     *         of its elements are null
+     */
+    public ConcurrentLinkedBlockingQueue(Collection<? extends E> c) {
+        this(Integer.MAX_VALUE);
+        for (E e : c) {
+            if (e == null)
+                throw new NullPointerException();
+            if (!offer(e))
+                throw new IllegalStateException("Queue full");
+        }
+    }
+
+    // this doc comment is overridden to remove the reference to collections
+    // greater in size than Integer.MAX_VALUE
+    /**
+     * Returns the number of elements in this queue.
+     *
+     * @return the number of elements in this queue
+     */
+    public int size() {
+        return count.get();
+    }
+
+    // this doc comment is a modified copy of the inherited doc comment,
+    // without the reference to unlimited queues.
+    /**
+     * Returns the number of additional elements that this queue can ideally
+     * (in the absence of memory or resource constraints) accept without
+     * blocking. This is always equal to the initial capacity of this queue
+     * less the current {@code size} of this queue.
+     *
+     * <p>Note that you <em>cannot</em> always tell if an attempt to insert
+     * an element will succeed by inspecting {@code remainingCapacity}
+     * because it may be the case that another thread is about to
+     * insert or remove an element.
+     */
+    public int remainingCapacity() {
+        return capacity - count.get();
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue, waiting if
+     * necessary for space to become available.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public void put(E e) throws InterruptedException {
+        if (e == null) throw new NullPointerException();
+        if (!tryReserve()) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                ++waitingPutters;
+                try {
+                    while (!tryReserve())
+                        notFull.await();
+                } finally {
+                    --waitingPutters;
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue, waiting if
+     * necessary up to the specified wait time for space to become available.
+     *
+     * @return {@code true} if successful, or {@code false} if
+     *         the specified waiting time elapses before space is available.
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        if (e == null) throw new NullPointerException();
+        if (!tryReserve()) {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock putLock = this.putLock;
+            putLock.lockInterruptibly();
+            try {
+                ++waitingPutters;
+                try {
+                    while (!tryReserve()) {
+                        if (nanos <= 0)
+                            return false;
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                } finally {
+                    --waitingPutters;
+                }
+            } finally {
+                putLock.unlock();
+            }
+        }
+        enqueue(e);
+        return true;
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue if it is
+     * possible to do so immediately without exceeding the queue's capacity,
+     * returning {@code true} upon success and {@code false} if this queue
+     * is full.
+     * When using a capacity-restricted queue, this method is generally
+     * preferable to method {@link BlockingQueue#add add}, which can fail to
+     * insert an element only by throwing an exception.
+     *
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean offer(E e) {
+        if (e == null) throw new NullPointerException();
+        if (!tryReserve())
+            return false;
+        enqueue(e);
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        E x;
+        for (int spins = SPINS; (x = dequeue()) == null && spins > 0; --spins) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        if (x == null) {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lockInterruptibly();
+            try {
+                ++waitingTakers;
+                try {
+                    while ((x = dequeue()) == null)
+                        notEmpty.await();
+                } finally {
+                    --waitingTakers;
+                }
+            } finally {
+                takeLock.unlock();
+            }
+        }
+        signalNotFull();
+        return x;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E x;
+        if ((x = dequeue()) == null) {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lockInterruptibly();
+            try {
+                ++waitingTakers;
+                try {
+                    while ((x = dequeue()) == null) {
+                        if (nanos <= 0)
+                            return null;
+                        nanos = notEmpty.awaitNanos(nanos);
+                    }
+                } finally {
+                    --waitingTakers;
+                }
+            } finally {
+                takeLock.unlock();
+            }
+        }
+        signalNotFull();
+        return x;
+    }
+
+    public E poll() {
+        E x = dequeue();
+        if (x != null)
+            signalNotFull();
+        return x;
+    }
+
+    public E peek() {
+        return queue.peek();
+    }
+
+    /**
+     * Removes a single instance of the specified element from this queue,
+     * if it is present.  More formally, removes an element {@code e} such
+     * that {@code o.equals(e)}, if this queue contains one or more such
+     * elements.
+     * Returns {@code true} if this queue contained the specified element
+     * (or equivalently, if this queue changed as a result of the call).
+     *
+     * @param o element to be removed from this queue, if present
+     * @return {@code true} if this queue changed as a result of the call
+     */
+    public boolean remove(Object o) {
+        if (o == null || !queue.remove(o))
+            return false;
+        count.getAndDecrement();
+        signalNotFull();
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if this queue contains the specified element.
+     * More formally, returns {@code true} if and only if this queue contains
+     * at least one element {@code e} such that {@code o.equals(e)}.
+     *
+     * @param o object to be checked for containment in this queue
+     * @return {@code true} if this queue contains the specified element
+     */
+    public boolean contains(Object o) {
+        return o != null && queue.contains(o);
+    }
+
+    /**
+     * Returns an array containing all of the elements in this queue, in
+     * proper sequence.
+     *
+     * <p>The returned array will be "safe" in that no references to it are
+     * maintained by this queue.  (In other words, this method must allocate
+     * a new array).  The caller is thus free to modify the returned array.
+     *
+     * <p>This method acts as bridge between array-based and collection-based
+     * APIs.
+     *
+     * @return an array containing all of the elements in this queue
+     */
+    public Object[] toArray() {
+        return queue.toArray();
+    }
+
+    /**
+     * Returns an array containing all of the elements in this queue, in
+     * proper sequence; the runtime type of the returned array is that of
+     * the specified array.  If the queue fits in the specified array, it
+     * is returned therein.  Otherwise, a new array is allocated with the
+     * runtime type of the specified array and the size of this queue.
+     *
+     * @param a the array into which the elements of the queue are to
+     *          be stored, if it is big enough; otherwise, a new array of the
+     *          same runtime type is allocated for this purpose
+     * @return an array containing all of the elements in this queue
+     * @throws ArrayStoreException if the runtime type of the specified array
+     *         is not a supertype of the runtime type of every element in
+     *         this queue
+     * @throws NullPointerException if the specified array is null
+     */
+    public <T> T[] toArray(T[] a) {
+        return queue.toArray(a);
+    }
+
+    /**
+     * Removes all of the elements from this queue, one at a time as
+     * by {@code poll}.  The queue will be empty after this call
+     * returns, unless elements are concurrently inserted.
+     */
+    public void clear() {
+        int n = 0;
+        while (dequeue() != null)
+            ++n;
+        if (n > 0)
+            signalAllNotFull();
+    }
+
+    /**
+     * Wakes all waiting puts, after removing several elements.
+     */
+    private void signalAllNotFull() {
+        if (waitingPutters != 0) {
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                putLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        try {
+            E x;
+            while (n < maxElements && (x = dequeue()) != null) {
+                ++n;
+                c.add(x);
+            }
+        } finally {
+            if (n > 0)
+                signalAllNotFull();
+        }
+        return n;
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue in proper sequence.
+     * The elements will be returned in order from first (head) to last (tail).
+     *
+     * <p>The returned iterator is a "weakly consistent" iterator that
+     * will never throw {@link java.util.ConcurrentModificationException
+     * ConcurrentModificationException}, and guarantees to traverse
+     * elements as they existed upon construction of the iterator, and
+     * may (but is not guaranteed to) reflect any modifications
+     * subsequent to construction.
+     *
+     * <p>Unlike that of {@link LinkedBlockingQueue}, the iterator's
+     * {@code remove} method removes an element equal to the one last
+     * returned, as if by {@link #remove(Object)}, which need not be
+     * the occurrence that was returned if the queue holds duplicates.
+     *
+     * @return an iterator over the elements in this queue in proper sequence
+     */
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<E> {
+        private final Iterator<E> it = queue.iterator();
+        private E lastRet;
+
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        public E next() {
+            return lastRet = it.next();
+        }
+
+        public void remove() {
+            E x = lastRet;
+            if (x == null)
+                throw new IllegalStateException();
+            lastRet = null;
+            ConcurrentLinkedBlockingQueue.this.remove(x);
+        }
+    }
+}
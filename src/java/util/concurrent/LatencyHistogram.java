@@ -0,0 +1,210 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+
+package java.util.concurrent;
+
+/**
+ * An immutable snapshot of a distribution of durations, recorded
+ * into fixed log-linear buckets. Durations below eight nanoseconds
+ * each have their own bucket; above that, each power-of-two range is
+ * split into eight equal buckets, so that any value is known to
+ * within one eighth of its magnitude. A fixed set of {@value
+ * #BUCKETS} buckets thus covers every non-negative {@code long}
+ * duration, and recording a value needs no allocation.
+ *
+ * <p>Histograms are obtained from a {@link ThreadPoolStatistics}
+ * snapshot.
+ *
+ * @since 1.7
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Log2 of the number of buckets per power of two.
+     */
+    static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets.
+     */
+    public static final int BUCKETS = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    /**
+     * Creates a histogram from the given bucket counts, which are
+     * used directly, not copied.
+     */
+    LatencyHistogram(long[] counts, long count, long totalNanos,
+                     long maxNanos) {
+        this.counts = counts;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns the index of the bucket holding the given duration.
+     * Negative durations, which can arise only from clock anomalies,
+     * are treated as zero.
+     */
+    static int bucketFor(long nanos) {
+        if (nanos < (1L << SUB_BUCKET_BITS))
+            return (nanos <= 0L) ? 0 : (int)nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) +
+            (int)((nanos >>> shift) & ((1L << SUB_BUCKET_BITS) - 1));
+    }
+
+    /**
+     * Returns the smallest duration, in nanoseconds, that falls in
+     * the given bucket.
+     *
+     * @param bucket the bucket index
+     * @return the lower bound of the bucket
+     * @throws IndexOutOfBoundsException if {@code bucket} is negative
+     *         or not less than {@link #BUCKETS}
+     */
+    public static long getBucketLowerBound(int bucket) {
+        if (bucket < 0 || bucket >= BUCKETS)
+            throw new IndexOutOfBoundsException("index " + bucket);
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        if (shift < 0)
+            return bucket;
+        long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((1L << SUB_BUCKET_BITS) + sub) << shift;
+    }
+
+    /**
+     * Returns the largest duration, in nanoseconds, that falls in
+     * the given bucket.
+     *
+     * @param bucket the bucket index
+     * @return the upper bound of the bucket
+     * @throws IndexOutOfBoundsException if {@code bucket} is negative
+     *         or not less than {@link #BUCKETS}
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket == BUCKETS - 1)
+            return Long.MAX_VALUE;
+        return getBucketLowerBound(bucket + 1) - 1L;
+    }
+
+    /**
+     * Returns the number of durations recorded in the given bucket.
+     *
+     * @param bucket the bucket index
+     * @return the number of durations in the bucket
+     * @throws IndexOutOfBoundsException if {@code bucket} is negative
+     *         or not less than {@link #BUCKETS}
+     */
+    public long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the durations recorded, in nanoseconds.
+     *
+     * @return the sum of the durations
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the largest duration recorded, in nanoseconds, or zero
+     * if none were recorded.
+     *
+     * @return the largest duration
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the mean of the durations recorded, in nanoseconds, or
+     * zero if none were recorded.
+     *
+     * @return the mean duration
+     */
+    public double getMeanNanos() {
+        return (count == 0L) ? 0.0 : (double)totalNanos / count;
+    }
+
+    /**
+     * Returns an upper bound on the given percentile of the
+     * durations recorded, in nanoseconds: the upper bound of the
+     * bucket holding that percentile, or the largest duration
+     * recorded if that is smaller. Returns zero if no durations were
+     * recorded.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the duration at the given percentile
+     * @throws IllegalArgumentException if {@code percentile} is not
+     *         between 0 and 100
+     */
+    public long getPercentileNanos(double percentile) {
+        if (!(percentile >= 0.0 && percentile <= 100.0))
+            throw new IllegalArgumentException();
+        if (count == 0L)
+            return 0L;
+        long rank = (long)Math.ceil(percentile / 100.0 * count);
+        if (rank < 1L)
+            rank = 1L;
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; ++i) {
+            if ((seen += counts[i]) >= rank)
+                return Math.min(getBucketUpperBound(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Returns a string summarizing this histogram: the count, and
+     * the mean, median, 99th percentile and maximum in microseconds.
+     *
+     * @return a string summarizing this histogram
+     */
+    public String toString() {
+        return super.toString() +
+            "[count = " + count +
+            ", mean = " + (long)(getMeanNanos() / 1000.0) +
+            "us, p50 = " + getPercentileNanos(50.0) / 1000L +
+            "us, p99 = " + getPercentileNanos(99.0) / 1000L +
+            "us, max = " + maxNanos / 1000L + "us]";
+    }
+}
@@ -455,6 +455,42 @@ public class LinkedBlockingQueue<E> extends AbstractQueue<E>
         return c >= 0; // true表示成功. 只要进入了这段逻辑if (count.get() < capacity) {，c必然>=0
     }
 
+    /**
+     * Inserts as many of the given elements as fit without waiting,
+     * in order, acquiring putLock only once for the whole run. A
+     * single notEmpty signal suffices since takers cascade signals
+     * while elements remain. Used by ThreadPoolExecutor.executeAll.
+     *
+     * @param a the array holding the elements, none of them null
+     * @param off the index of the first element to insert
+     * @param len the number of elements to try to insert
+     * @return the number of elements inserted, a prefix of the run
+     */
+    final int offerAll(E[] a, int off, int len) {
+        final AtomicInteger count = this.count;
+        if (len <= 0 || count.get() == capacity)
+            return 0;
+        int n = 0;
+        int c = -1;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            n = Math.min(len, capacity - count.get());
+            if (n > 0) {
+                for (int i = off, end = off + n; i < end; ++i)
+                    enqueue(new Node<E>(a[i]));
+                c = count.getAndAdd(n);
+                if (c + n < capacity)
+                    notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+        return Math.max(n, 0);
+    }
+
 
     public E take() throws InterruptedException {
         E x;
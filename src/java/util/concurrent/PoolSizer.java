@@ -0,0 +1,170 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+
+/**
+ * A policy that chooses the core pool size of a {@link
+ * ThreadPoolExecutor} from periodic measurements of its load.
+ * Installed with {@link ThreadPoolExecutor#setPoolSizer}, a sizer is
+ * consulted about once per sampling interval, by whichever thread
+ * happens to submit or complete a task once the interval has
+ * elapsed, and its result is applied with {@link
+ * ThreadPoolExecutor#setCorePoolSize setCorePoolSize} (raising the
+ * {@linkplain ThreadPoolExecutor#setMaximumPoolSize maximum pool
+ * size} too if necessary).
+ *
+ * <p>Sizers are invoked by one thread at a time, but not always the
+ * same thread, so may keep state between samples without further
+ * synchronization only if they are used by a single executor.
+ * Sizing is advisory: a sizer that throws a {@link RuntimeException}
+ * leaves the pool size unchanged for that interval.
+ *
+ * @since 1.7
+ */
+public interface PoolSizer {
+
+    /**
+     * Returns the core pool size the executor should use, given the
+     * measurements taken over the last sampling interval. Values
+     * outside the range zero to the executor's capacity are
+     * clamped; returning {@code sample.getCorePoolSize()} leaves the
+     * pool unchanged.
+     *
+     * @param executor the executor being sized
+     * @param sample the measurements for the last interval
+     * @return the new core pool size
+     */
+    int poolSize(ThreadPoolExecutor executor, Sample sample);
+
+    /**
+     * Measurements of a {@link ThreadPoolExecutor} over one sampling
+     * interval. Task counts and busy time are deltas over the
+     * interval; sizes are snapshots taken at its end.
+     */
+    final class Sample {
+        private final long intervalNanos;
+        private final long submittedTaskCount;
+        private final long completedTaskCount;
+        private final long busyNanos;
+        private final int queueSize;
+        private final int poolSize;
+        private final int activeCount;
+        private final int corePoolSize;
+
+        Sample(long intervalNanos, long submittedTaskCount,
+               long completedTaskCount, long busyNanos, int queueSize,
+               int poolSize, int activeCount, int corePoolSize) {
+            this.intervalNanos = intervalNanos;
+            this.submittedTaskCount = submittedTaskCount;
+            this.completedTaskCount = completedTaskCount;
+            this.busyNanos = busyNanos;
+            this.queueSize = queueSize;
+            this.poolSize = poolSize;
+            this.activeCount = activeCount;
+            this.corePoolSize = corePoolSize;
+        }
+
+        /**
+         * Returns the length of the interval, in nanoseconds.
+         *
+         * @return the length of the interval
+         */
+        public long getIntervalNanos() { return intervalNanos; }
+
+        /**
+         * Returns the number of tasks submitted during the interval,
+         * including any that were rejected.
+         *
+         * @return the number of tasks submitted
+         */
+        public long getSubmittedTaskCount() { return submittedTaskCount; }
+
+        /**
+         * Returns the number of tasks completed during the interval.
+         *
+         * @return the number of tasks completed
+         */
+        public long getCompletedTaskCount() { return completedTaskCount; }
+
+        /**
+         * Returns the total time, in nanoseconds, that workers spent
+         * running the tasks completed during the interval. Divided
+         * by {@link #getCompletedTaskCount}, this is the mean service
+         * time per task, including any time tasks spent blocked.
+         *
+         * @return the total busy time
+         */
+        public long getBusyNanos() { return busyNanos; }
+
+        /**
+         * Returns the number of tasks waiting in the work queue at
+         * the end of the interval.
+         *
+         * @return the queue size
+         */
+        public int getQueueSize() { return queueSize; }
+
+        /**
+         * Returns the number of threads in the pool at the end of the
+         * interval.
+         *
+         * @return the pool size
+         */
+        public int getPoolSize() { return poolSize; }
+
+        /**
+         * Returns the number of threads running tasks at the end of
+         * the interval.
+         *
+         * @return the number of active threads
+         */
+        public int getActiveCount() { return activeCount; }
+
+        /**
+         * Returns the core pool size in effect during the interval.
+         *
+         * @return the core pool size
+         */
+        public int getCorePoolSize() { return corePoolSize; }
+
+        /**
+         * Returns an estimate of how long a task now entering the
+         * queue will wait before it starts, in nanoseconds, by
+         * Little's law: the queue length divided by the rate at which
+         * tasks completed during the interval. Returns {@link
+         * Long#MAX_VALUE} if tasks are queued but none completed.
+         *
+         * @return the estimated queue wait
+         */
+        public long getEstimatedQueueWaitNanos() {
+            if (queueSize == 0)
+                return 0L;
+            if (completedTaskCount == 0)
+                return Long.MAX_VALUE;
+            double w = (double)queueSize * intervalNanos / completedTaskCount;
+            return (w >= Long.MAX_VALUE) ? Long.MAX_VALUE : (long)w;
+        }
+    }
+}
@@ -0,0 +1,680 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+
+package java.util.concurrent;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.*;
+
+/**
+ * A {@link ThreadPoolExecutor} that queues tasks by priority, and
+ * drops tasks that have waited past their deadline instead of
+ * running them.  The work queue is divided into a fixed number of
+ * priority levels, numbered from zero (the most urgent) upwards,
+ * each a bounded FIFO queue with its own capacity and lock, so that
+ * producers at different levels do not contend and a flood of
+ * low-priority work cannot take queue space from urgent work.
+ * Threads always take the oldest task of the most urgent nonempty
+ * level.
+ *
+ * <p>Tasks submitted with {@link #submit(Callable, int, long,
+ * TimeUnit)} or {@link #submit(Runnable, int, long, TimeUnit)} carry
+ * a priority and a deadline by which they must start.  A task found
+ * past its deadline when a thread takes it from the queue is
+ * cancelled, so that its {@code Future} reports cancellation, and is
+ * then passed to the {@link RejectedExecutionHandler}, as any other
+ * task this executor cannot run.  Since the handler is invoked by a
+ * pool thread rather than by the submitter, a {@link
+ * RejectedExecutionException} it throws is ignored; handlers that
+ * discard other tasks, such as {@link
+ * ThreadPoolExecutor.DiscardOldestPolicy}, are not suitable.  Tasks
+ * submitted in any other way, including by {@code execute}, are
+ * queued at the least urgent level and have no deadline.  Deadlines
+ * are checked only when tasks leave the queue: a task handed
+ * directly to a new thread, or taken in a {@linkplain
+ * #setTaskBatchSize batch}, is run however late it is.
+ *
+ * <p>The number of tasks queued at each level, and the number that
+ * expired, are available from {@link #getQueuedTaskCount(int)} and
+ * {@link #getExpiredTaskCount(int)}.
+ *
+ * @since 1.7
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+    /** The work queue, as passed to the superclass constructor */
+    private final MultiLevelQueue queue;
+
+    /** Numbers of tasks that expired, indexed by priority */
+    private final AtomicLongArray expiredTaskCounts;
+
+    /**
+     * Creates a new {@code PriorityThreadPoolExecutor} with the given
+     * initial parameters and default thread factory and rejected
+     * execution handler.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param maximumPoolSize the maximum number of threads to allow in the
+     *        pool
+     * @param keepAliveTime when the number of threads is greater than
+     *        the core, this is the maximum time that excess idle threads
+     *        will wait for new tasks before terminating.
+     * @param unit the time unit for the {@code keepAliveTime} argument
+     * @param priorityLevels the number of priority levels
+     * @param levelCapacity the number of tasks each level can hold
+     * @throws IllegalArgumentException if one of the following holds:<br>
+     *         {@code corePoolSize < 0}<br>
+     *         {@code keepAliveTime < 0}<br>
+     *         {@code maximumPoolSize <= 0}<br>
+     *         {@code maximumPoolSize < corePoolSize}<br>
+     *         {@code priorityLevels <= 0}<br>
+     *         {@code levelCapacity <= 0}
+     * @throws NullPointerException if {@code unit} is null
+     */
+    public PriorityThreadPoolExecutor(int corePoolSize,
+                                      int maximumPoolSize,
+                                      long keepAliveTime,
+                                      TimeUnit unit,
+                                      int priorityLevels,
+                                      int levelCapacity) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit,
+             priorityLevels, levelCapacity,
+             Executors.defaultThreadFactory(), new AbortPolicy());
+    }
+
+    /**
+     * Creates a new {@code PriorityThreadPoolExecutor} with the given
+     * initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param maximumPoolSize the maximum number of threads to allow in the
+     *        pool
+     * @param keepAliveTime when the number of threads is greater than
+     *        the core, this is the maximum time that excess idle threads
+     *        will wait for new tasks before terminating.
+     * @param unit the time unit for the {@code keepAliveTime} argument
+     * @param priorityLevels the number of priority levels
+     * @param levelCapacity the number of tasks each level can hold
+     * @param threadFactory the factory to use when the executor
+     *        creates a new thread
+     * @param handler the handler to use when execution is blocked
+     *        because the thread bounds and queue capacities are reached,
+     *        and for tasks that expire in the queue
+     * @throws IllegalArgumentException if one of the following holds:<br>
+     *         {@code corePoolSize < 0}<br>
+     *         {@code keepAliveTime < 0}<br>
+     *         {@code maximumPoolSize <= 0}<br>
+     *         {@code maximumPoolSize < corePoolSize}<br>
+     *         {@code priorityLevels <= 0}<br>
+     *         {@code levelCapacity <= 0}
+     * @throws NullPointerException if {@code unit} or
+     *         {@code threadFactory} or {@code handler} is null
+     */
+    public PriorityThreadPoolExecutor(int corePoolSize,
+                                      int maximumPoolSize,
+                                      long keepAliveTime,
+                                      TimeUnit unit,
+                                      int priorityLevels,
+                                      int levelCapacity,
+                                      ThreadFactory threadFactory,
+                                      RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit,
+              new MultiLevelQueue(priorityLevels, levelCapacity),
+              threadFactory, handler);
+        this.queue = (MultiLevelQueue)super.getQueue();
+        this.expiredTaskCounts = new AtomicLongArray(priorityLevels);
+        queue.executor = this;
+    }
+
+    /**
+     * Submits a value-returning task for execution at the given
+     * priority, to be dropped if it has not started within the given
+     * time.
+     *
+     * @param task the task to submit
+     * @param priority the priority level, zero being the most urgent
+     * @param deadline the time from now by which the task must start
+     * @param unit the time unit of the {@code deadline} argument
+     * @return a Future representing pending completion of the task,
+     *         which is cancelled if the task expires
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @throws NullPointerException if {@code task} or {@code unit}
+     *         is null
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public <T> Future<T> submit(Callable<T> task, int priority,
+                                long deadline, TimeUnit unit) {
+        if (task == null || unit == null)
+            throw new NullPointerException();
+        PrioritizedTask<T> t = new PrioritizedTask<T>
+            (task, checkPriority(priority),
+             System.nanoTime() + unit.toNanos(deadline), true);
+        execute(t);
+        return t;
+    }
+
+    /**
+     * Submits a Runnable task for execution at the given priority,
+     * to be dropped if it has not started within the given time.
+     *
+     * @param task the task to submit
+     * @param priority the priority level, zero being the most urgent
+     * @param deadline the time from now by which the task must start
+     * @param unit the time unit of the {@code deadline} argument
+     * @return a Future representing pending completion of the task,
+     *         whose {@code get()} method will return {@code null}
+     *         upon completion, and which is cancelled if the task
+     *         expires
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @throws NullPointerException if {@code task} or {@code unit}
+     *         is null
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public Future<?> submit(Runnable task, int priority,
+                            long deadline, TimeUnit unit) {
+        if (task == null || unit == null)
+            throw new NullPointerException();
+        PrioritizedTask<Void> t = new PrioritizedTask<Void>
+            (Executors.callable(task, (Void)null), checkPriority(priority),
+             System.nanoTime() + unit.toNanos(deadline), true);
+        execute(t);
+        return t;
+    }
+
+    /**
+     * Submits a value-returning task for execution at the given
+     * priority, with no deadline.
+     *
+     * @param task the task to submit
+     * @param priority the priority level, zero being the most urgent
+     * @return a Future representing pending completion of the task
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @throws NullPointerException if {@code task} is null
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public <T> Future<T> submit(Callable<T> task, int priority) {
+        if (task == null)
+            throw new NullPointerException();
+        PrioritizedTask<T> t = new PrioritizedTask<T>
+            (task, checkPriority(priority), 0L, false);
+        execute(t);
+        return t;
+    }
+
+    /**
+     * Submits a Runnable task for execution at the given priority,
+     * with no deadline.
+     *
+     * @param task the task to submit
+     * @param priority the priority level, zero being the most urgent
+     * @return a Future representing pending completion of the task,
+     *         whose {@code get()} method will return {@code null}
+     *         upon completion
+     * @throws RejectedExecutionException if the task cannot be
+     *         scheduled for execution
+     * @throws NullPointerException if {@code task} is null
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public Future<?> submit(Runnable task, int priority) {
+        if (task == null)
+            throw new NullPointerException();
+        PrioritizedTask<Void> t = new PrioritizedTask<Void>
+            (Executors.callable(task, (Void)null), checkPriority(priority),
+             0L, false);
+        execute(t);
+        return t;
+    }
+
+    /**
+     * Returns the number of priority levels.
+     *
+     * @return the number of priority levels
+     */
+    public int getPriorityLevels() {
+        return queue.levels.length;
+    }
+
+    /**
+     * Returns the number of tasks waiting in the queue at the given
+     * priority level.  The value is only an estimate, since the queue
+     * may change while this method runs.
+     *
+     * @param priority the priority level
+     * @return the number of tasks queued at that level
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public int getQueuedTaskCount(int priority) {
+        return queue.levels[checkPriority(priority)].size();
+    }
+
+    /**
+     * Returns the number of tasks at the given priority level that
+     * were dropped because they had not started by their deadline.
+     *
+     * @param priority the priority level
+     * @return the number of tasks that expired at that level
+     * @throws IllegalArgumentException if {@code priority} is
+     *         negative or not less than the number of priority levels
+     */
+    public long getExpiredTaskCount(int priority) {
+        return expiredTaskCounts.get(checkPriority(priority));
+    }
+
+    /**
+     * Returns the total number of tasks that were dropped because
+     * they had not started by their deadline.
+     *
+     * @return the number of tasks that expired
+     */
+    public long getExpiredTaskCount() {
+        long n = 0L;
+        for (int i = 0; i < expiredTaskCounts.length(); ++i)
+            n += expiredTaskCounts.get(i);
+        return n;
+    }
+
+    private int checkPriority(int priority) {
+        if (priority < 0 || priority >= queue.levels.length)
+            throw new IllegalArgumentException();
+        return priority;
+    }
+
+    /**
+     * Drops a task taken from the queue after its deadline: cancels
+     * it, counts it, and passes it to the rejected execution handler.
+     * Called by a pool thread, outside any queue lock.
+     */
+    void expire(PrioritizedTask<?> task) {
+        task.cancel(false);
+        expiredTaskCounts.getAndIncrement(task.priority);
+        try {
+            reject(task);
+        } catch (RejectedExecutionException ignore) {
+            // There is no submitter to report to
+        }
+    }
+
+    /**
+     * A FutureTask with a priority level and an optional deadline,
+     * expressed in System.nanoTime units.
+     */
+    static final class PrioritizedTask<V> extends FutureTask<V> {
+        final int priority;
+        final long deadline;
+        final boolean hasDeadline;
+
+        PrioritizedTask(Callable<V> callable, int priority,
+                        long deadline, boolean hasDeadline) {
+            super(callable);
+            this.priority = priority;
+            this.deadline = deadline;
+            this.hasDeadline = hasDeadline;
+        }
+
+        boolean isExpired(long now) {
+            return hasDeadline && now - deadline > 0L;
+        }
+    }
+
+    /**
+     * The work queue: one bounded LinkedBlockingQueue per priority
+     * level, plus a take lock shared by all takers.  As in
+     * LinkedBlockingQueue itself, producers and consumers use
+     * separate locks, here with one producer lock per level (inside
+     * each level's queue).  Takers hold takeLock while scanning the
+     * levels in order of priority, so they see a consistent order,
+     * and wait on notEmpty when the total count, maintained
+     * separately, is zero.  A producer increments count after adding
+     * its task to a level, and signals notEmpty (under takeLock) only
+     * on a transition from zero; a taker that leaves tasks behind
+     * cascades the signal, as in LinkedBlockingQueue.  Because count
+     * lags insertions, a taker may find tasks before count shows
+     * them, and count may briefly be zero or less while tasks are
+     * present, which costs at worst a spurious wakeup.  Expired tasks
+     * are handed to the executor's expire method after takeLock is
+     * released, and the taker carries on for the next task.
+     */
+    static final class MultiLevelQueue extends AbstractQueue<Runnable>
+        implements BlockingQueue<Runnable> {
+
+        final LinkedBlockingQueue<Runnable>[] levels;
+        private final AtomicInteger count = new AtomicInteger();
+        private final ReentrantLock takeLock = new ReentrantLock();
+        private final Condition notEmpty = takeLock.newCondition();
+
+        /** Set once by the executor constructor */
+        PriorityThreadPoolExecutor executor;
+
+        @SuppressWarnings("unchecked")
+        MultiLevelQueue(int priorityLevels, int levelCapacity) {
+            if (priorityLevels <= 0 || levelCapacity <= 0)
+                throw new IllegalArgumentException();
+            levels = (LinkedBlockingQueue<Runnable>[])
+                new LinkedBlockingQueue<?>[priorityLevels];
+            for (int i = 0; i < priorityLevels; ++i)
+                levels[i] = new LinkedBlockingQueue<Runnable>(levelCapacity);
+        }
+
+        private LinkedBlockingQueue<Runnable> levelFor(Runnable e) {
+            if (e == null)
+                throw new NullPointerException();
+            e = unwrap(e);
+            int i = (e instanceof PrioritizedTask) ?
+                ((PrioritizedTask<?>)e).priority : levels.length - 1;
+            return levels[i];
+        }
+
+        /**
+         * Counts a task just added to a level, waking a taker if the
+         * queue was empty.
+         */
+        private void added() {
+            if (count.getAndIncrement() <= 0) {
+                final ReentrantLock takeLock = this.takeLock;
+                takeLock.lock();
+                try {
+                    notEmpty.signal();
+                } finally {
+                    takeLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Removes the head of the most urgent nonempty level, or
+         * returns null if all are empty.  Call only under takeLock.
+         */
+        private Runnable dequeue() {
+            for (LinkedBlockingQueue<Runnable> q : levels) {
+                Runnable r = q.poll();
+                if (r != null) {
+                    if (count.getAndDecrement() > 1)
+                        notEmpty.signal();
+                    return r;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Hands the given task to the executor to be dropped if it
+         * has expired, and returns true if so.
+         */
+        private boolean expired(Runnable r) {
+            r = unwrap(r);
+            if (r instanceof PrioritizedTask) {
+                PrioritizedTask<?> t = (PrioritizedTask<?>)r;
+                if (t.isExpired(System.nanoTime())) {
+                    executor.expire(t);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean offer(Runnable e) {
+            if (!levelFor(e).offer(e))
+                return false;
+            added();
+            return true;
+        }
+
+        public void put(Runnable e) throws InterruptedException {
+            levelFor(e).put(e);
+            added();
+        }
+
+        public boolean offer(Runnable e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+            if (!levelFor(e).offer(e, timeout, unit))
+                return false;
+            added();
+            return true;
+        }
+
+        public Runnable take() throws InterruptedException {
+            final ReentrantLock takeLock = this.takeLock;
+            for (;;) {
+                Runnable r;
+                takeLock.lockInterruptibly();
+                try {
+                    while ((r = dequeue()) == null)
+                        notEmpty.await();
+                } finally {
+                    takeLock.unlock();
+                }
+                if (!expired(r))
+                    return r;
+            }
+        }
+
+        public Runnable poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock takeLock = this.takeLock;
+            for (;;) {
+                Runnable r;
+                takeLock.lockInterruptibly();
+                try {
+                    while ((r = dequeue()) == null) {
+                        if (nanos <= 0L)
+                            return null;
+                        nanos = notEmpty.awaitNanos(nanos);
+                    }
+                } finally {
+                    takeLock.unlock();
+                }
+                if (!expired(r))
+                    return r;
+            }
+        }
+
+        public Runnable poll() {
+            final ReentrantLock takeLock = this.takeLock;
+            for (;;) {
+                Runnable r;
+                takeLock.lock();
+                try {
+                    if ((r = dequeue()) == null)
+                        return null;
+                } finally {
+                    takeLock.unlock();
+                }
+                if (!expired(r))
+                    return r;
+            }
+        }
+
+        public Runnable peek() {
+            for (LinkedBlockingQueue<Runnable> q : levels) {
+                Runnable r = q.peek();
+                if (r != null)
+                    return r;
+            }
+            return null;
+        }
+
+        public int size() {
+            int n = 0;
+            for (LinkedBlockingQueue<Runnable> q : levels)
+                n += q.size();
+            return n;
+        }
+
+        public boolean isEmpty() {
+            return peek() == null;
+        }
+
+        public int remainingCapacity() {
+            long n = 0L;
+            for (LinkedBlockingQueue<Runnable> q : levels)
+                n += q.remainingCapacity();
+            return (int)Math.min(n, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Removes a single instance of the given task. As in dequeue,
+         * the level removal and the decrement of count are done under
+         * takeLock, so that a taker never sees count lag behind the
+         * levels and sleeps through an available task.
+         */
+        public boolean remove(Object o) {
+            if (o == null)
+                return false;
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                for (LinkedBlockingQueue<Runnable> q : levels) {
+                    if (q.remove(o)) {
+                        if (count.getAndDecrement() > 1)
+                            notEmpty.signal();
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        public boolean contains(Object o) {
+            if (o == null)
+                return false;
+            for (LinkedBlockingQueue<Runnable> q : levels)
+                if (q.contains(o))
+                    return true;
+            return false;
+        }
+
+        /**
+         * Removes tasks in priority order without checking deadlines,
+         * so that shutdownNow returns every task not run.
+         */
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            if (c == null)
+                throw new NullPointerException();
+            if (c == this)
+                throw new IllegalArgumentException();
+            if (maxElements <= 0)
+                return 0;
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                int n = 0;
+                for (LinkedBlockingQueue<Runnable> q : levels) {
+                    if (n >= maxElements)
+                        break;
+                    int k = q.drainTo(c, maxElements - n);
+                    if (k > 0) {
+                        count.addAndGet(-k);
+                        n += k;
+                    }
+                }
+                if (n > 0 && count.get() > 0)
+                    notEmpty.signal();
+                return n;
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        public void clear() {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                while (dequeue() != null)
+                    ;
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        public Object[] toArray() {
+            ArrayList<Runnable> list = new ArrayList<Runnable>();
+            for (LinkedBlockingQueue<Runnable> q : levels)
+                list.addAll(q);
+            return list.toArray();
+        }
+
+        public <T> T[] toArray(T[] a) {
+            ArrayList<Runnable> list = new ArrayList<Runnable>();
+            for (LinkedBlockingQueue<Runnable> q : levels)
+                list.addAll(q);
+            return list.toArray(a);
+        }
+
+        /**
+         * Returns an iterator over a snapshot of the queued tasks, in
+         * priority order.  Its remove method removes the last task
+         * returned from the queue, if still present.
+         */
+        public Iterator<Runnable> iterator() {
+            return new Itr(toArray());
+        }
+
+        private class Itr implements Iterator<Runnable> {
+            final Object[] array; // Array of all elements
+            int cursor;           // index of next element to return
+            int lastRet;          // index of last element, or -1 if no such
+
+            Itr(Object[] array) {
+                lastRet = -1;
+                this.array = array;
+            }
+
+            public boolean hasNext() {
+                return cursor < array.length;
+            }
+
+            public Runnable next() {
+                if (cursor >= array.length)
+                    throw new NoSuchElementException();
+                lastRet = cursor;
+                return (Runnable)array[cursor++];
+            }
+
+            public void remove() {
+                if (lastRet < 0)
+                    throw new IllegalStateException();
+                MultiLevelQueue.this.remove(array[lastRet]);
+                lastRet = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,830 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A bounded lock-free {@linkplain BlockingQueue blocking queue}
+ * backed by a ring buffer. This queue orders elements FIFO
+ * (first-in-first-out). The <em>head</em> of the queue is that
+ * element that has been on the queue the longest time. The
+ * <em>tail</em> of the queue is that element that has been on the
+ * queue the shortest time.
+ *
+ * <p>Unlike {@link ArrayBlockingQueue}, which guards all accesses
+ * with a single lock, producers and consumers here claim slots
+ * independently with a single compare-and-set each, and never block
+ * one another unless the queue is full or empty. Threads that must
+ * wait in {@link #put} or {@link #take} spin briefly and then park;
+ * they are unparked by the operation that makes progress possible.
+ * This makes the queue well suited as the work queue of a {@link
+ * ThreadPoolExecutor} under heavy submission.
+ *
+ * <p>The capacity is fixed at construction, rounded up to the next
+ * power of two. Beware that the {@code size} method is a
+ * concurrent estimate, and that {@link #remove(Object)} and the
+ * iterator's {@code remove} are supported but are not constant-time
+ * operations.
+ *
+ * <p>Iterators are <i>weakly consistent</i>: they traverse a snapshot
+ * of the elements taken when the iterator was constructed, and never
+ * throw {@link java.util.ConcurrentModificationException}.
+ *
+ * <p>This class and its iterator implement all of the
+ * <em>optional</em> methods of the {@link Collection} and {@link
+ * Iterator} interfaces.
+ *
+ * @since 1.7
+ * @param <E> the type of elements held in this collection
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E>
+        implements BlockingQueue<E>, java.io.Serializable {
+    private static final long serialVersionUID = -4457200442352768632L;
+
+    /*
+     * The algorithm is Dmitry Vyukov's bounded MPMC queue. Each slot
+     * i of the array carries a sequence number, initially i. A
+     * producer at position p (the value of the tail counter) may
+     * fill slot p & mask only when its sequence equals p, claims it
+     * by CASing tail from p to p+1, stores the item and then
+     * publishes sequence p+1. A consumer at position p may empty the
+     * slot only when its sequence equals p+1, claims it by CASing
+     * head, takes the item and then publishes sequence p+capacity,
+     * making the slot available to the producer of the next lap. A
+     * sequence lower than expected means full (for producers) or
+     * empty (for consumers); a higher one means another thread has
+     * already moved on, so we reread the counter and retry.
+     *
+     * The head and tail counters each live in their own padded
+     * object so that producers and consumers do not falsely share a
+     * cache line.
+     *
+     * Removal of interior elements (needed by ThreadPoolExecutor's
+     * remove and purge) cannot be done by moving slots. Instead the
+     * item of a slot is CASed to the REMOVED marker; consumers that
+     * claim such a slot discard it and continue. Consumers therefore
+     * also take items with a CAS so that exactly one of a consumer
+     * and a remover wins each element.
+     *
+     * Blocking uses two lists of waiting threads. A waiter first
+     * registers itself and then rechecks the queue before parking,
+     * while producers (resp. consumers) publish the slot sequence
+     * with a volatile write before checking for waiters, so at least
+     * one of the two sees the other. Only the first waiter is
+     * unparked; a waiter that succeeds propagates the wakeup if
+     * others may still proceed, so signals are never lost even when
+     * the unparked thread had already succeeded by itself.
+     */
+
+    /** Marker for items removed from the middle of the queue */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Number of times to spin before parking in blocking
+     * operations. Zero on uniprocessors.
+     */
+    private static final int SPINS =
+        (Runtime.getRuntime().availableProcessors() > 1) ? 1 << 7 : 0;
+
+    /** The queued items */
+    private transient Object[] items;
+
+    /** The slot sequence numbers */
+    private transient long[] sequences;
+
+    /** Index mask; capacity - 1 */
+    private transient int mask;
+
+    /** Position of the next slot to fill */
+    private transient Counter tail;
+
+    /** Position of the next slot to empty */
+    private transient Counter head;
+
+    /** Number of REMOVED markers still occupying slots */
+    private transient AtomicInteger removedCount;
+
+    /** Threads waiting in take or timed poll */
+    private transient ConcurrentLinkedQueue<Thread> takers;
+
+    /** Threads waiting in put or timed offer */
+    private transient ConcurrentLinkedQueue<Thread> putters;
+
+    /**
+     * An AtomicLong followed by enough padding that head and tail,
+     * allocated one after the other, never share a cache line.
+     */
+    static final class Counter extends AtomicLong {
+        private static final long serialVersionUID = -3024463393925212591L;
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+        long q0, q1, q2, q3, q4, q5, q6, q7;
+    }
+
+    /**
+     * Creates a {@code RingBufferBlockingQueue} with at least the
+     * given (fixed) capacity.
+     *
+     * @param capacity the minimum capacity of this queue; the actual
+     *        capacity is the least power of two not less than it
+     * @throws IllegalArgumentException if {@code capacity < 1}
+     *         or greater than {@code 1 << 30}
+     */
+    public RingBufferBlockingQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException();
+        init(capacity);
+    }
+
+    /**
+     * Creates a {@code RingBufferBlockingQueue} with at least the
+     * given (fixed) capacity, initially containing the elements of
+     * the given collection, added in traversal order of the
+     * collection's iterator.
+     *
+     * @param capacity the minimum capacity of this queue
+     * @param c the collection of elements to initially contain
+     * @throws IllegalArgumentException if {@code capacity} is less
+     *         than {@code c.size()}, or less than 1
+     * @throws NullPointerException if the specified collection or any
+     *         of its elements are null
+     */
+    public RingBufferBlockingQueue(int capacity, Collection<? extends E> c) {
+        this(capacity);
+        for (E e : c) {
+            if (!offer(e))
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private void init(int capacity) {
+        int n = 1;
+        while (n < capacity)
+            n <<= 1;
+        items = new Object[n];
+        long[] seqs = new long[n];
+        for (int i = 0; i < n; ++i)
+            seqs[i] = i;
+        sequences = seqs;
+        mask = n - 1;
+        tail = new Counter();
+        head = new Counter();
+        removedCount = new AtomicInteger();
+        takers = new ConcurrentLinkedQueue<Thread>();
+        putters = new ConcurrentLinkedQueue<Thread>();
+    }
+
+    /**
+     * Throws NullPointerException if argument is null.
+     *
+     * @param v the element
+     */
+    private static void checkNotNull(Object v) {
+        if (v == null)
+            throw new NullPointerException();
+    }
+
+    // Slot access
+
+    private static long seqOffset(int i) {
+        return ((long)i << LSHIFT) + LBASE;
+    }
+
+    private static long itemOffset(int i) {
+        return ((long)i << OSHIFT) + OBASE;
+    }
+
+    private long seqAt(int i) {
+        return UNSAFE.getLongVolatile(sequences, seqOffset(i));
+    }
+
+    private void setSeq(int i, long v) {
+        UNSAFE.putLongVolatile(sequences, seqOffset(i), v);
+    }
+
+    /**
+     * Claims and fills a slot, without waiting.
+     *
+     * @return true if inserted, false if full
+     */
+    private boolean tryInsert(Object e) {
+        final Counter tail = this.tail;
+        final int mask = this.mask;
+        long pos = tail.get();
+        for (;;) {
+            int i = (int)pos & mask;
+            long dif = seqAt(i) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    UNSAFE.putOrderedObject(items, itemOffset(i), e);
+                    setSeq(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            }
+            else if (dif < 0)
+                return false;
+            else
+                pos = tail.get();
+        }
+    }
+
+    /**
+     * Claims and empties a slot, without waiting, skipping removed
+     * elements.
+     *
+     * @return the item, or null if empty
+     */
+    private Object tryExtract() {
+        final Counter head = this.head;
+        final Object[] items = this.items;
+        final int mask = this.mask;
+        long pos = head.get();
+        for (;;) {
+            int i = (int)pos & mask;
+            long dif = seqAt(i) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    long off = itemOffset(i);
+                    Object x;
+                    do {
+                        x = UNSAFE.getObjectVolatile(items, off);
+                    } while (!UNSAFE.compareAndSwapObject(items, off, x, null));
+                    setSeq(i, pos + mask + 1);
+                    if (x != REMOVED)
+                        return x;
+                    removedCount.decrementAndGet();
+                }
+                pos = head.get();
+            }
+            else if (dif < 0)
+                return null;
+            else
+                pos = head.get();
+        }
+    }
+
+    /**
+     * Unparks the first waiter, if any, of the given list.
+     */
+    private static void signal(ConcurrentLinkedQueue<Thread> waiters) {
+        Thread w = waiters.peek();
+        if (w != null)
+            LockSupport.unpark(w);
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue if it is
+     * possible to do so immediately without exceeding the queue's
+     * capacity, returning {@code true} upon success and throwing an
+     * {@code IllegalStateException} if this queue is full.
+     *
+     * @param e the element to add
+     * @return {@code true} (as specified by {@link Collection#add})
+     * @throws IllegalStateException if this queue is full
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean add(E e) {
+        return super.add(e);
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue if it is
+     * possible to do so immediately without exceeding the queue's
+     * capacity, returning {@code true} upon success and {@code false}
+     * if this queue is full.  This method is generally preferable to
+     * method {@link #add}, which can fail to insert an element only
+     * by throwing an exception.
+     *
+     * @throws NullPointerException if the specified element is null
+     */
+    public boolean offer(E e) {
+        checkNotNull(e);
+        if (!tryInsert(e))
+            return false;
+        signal(takers);
+        return true;
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue, waiting
+     * for space to become available if the queue is full.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public void put(E e) throws InterruptedException {
+        checkNotNull(e);
+        awaitInsert(e, false, 0L);
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue, waiting
+     * up to the specified wait time for space to become available if
+     * the queue is full.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        checkNotNull(e);
+        return awaitInsert(e, true, unit.toNanos(timeout));
+    }
+
+    public E poll() {
+        @SuppressWarnings("unchecked") E x = (E) tryExtract();
+        if (x != null)
+            signal(putters);
+        return x;
+    }
+
+    public E take() throws InterruptedException {
+        return awaitExtract(false, 0L);
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitExtract(true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Main mechanics of put and timed offer: spin, then register as a
+     * waiter and park until the element is inserted, time runs out,
+     * or the thread is interrupted.
+     */
+    private boolean awaitInsert(E e, boolean timed, long nanos)
+        throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        for (int spins = SPINS; ; --spins) {
+            if (tryInsert(e)) {
+                signal(takers);
+                return true;
+            }
+            if (spins <= 0)
+                break;
+        }
+        if (timed && nanos <= 0)
+            return false;
+        final ConcurrentLinkedQueue<Thread> putters = this.putters;
+        final Thread w = Thread.currentThread();
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        boolean inserted = false;
+        putters.add(w);
+        try {
+            for (;;) {
+                if (tryInsert(e)) {
+                    inserted = true;
+                    break;
+                }
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if (timed) {
+                    nanos = deadline - System.nanoTime();
+                    if (nanos <= 0)
+                        return false;
+                    LockSupport.parkNanos(this, nanos);
+                }
+                else
+                    LockSupport.park(this);
+            }
+        } finally {
+            putters.remove(w);
+            // Pass on a wakeup we may have consumed without need
+            if (remainingCapacity() > 0)
+                signal(putters);
+        }
+        signal(takers);
+        return inserted;
+    }
+
+    /**
+     * Main mechanics of take and timed poll: spin, then register as a
+     * waiter and park until an element is removed, time runs out, or
+     * the thread is interrupted.
+     */
+    @SuppressWarnings("unchecked")
+    private E awaitExtract(boolean timed, long nanos)
+        throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        Object x;
+        for (int spins = SPINS; ; --spins) {
+            if ((x = tryExtract()) != null) {
+                signal(putters);
+                return (E) x;
+            }
+            if (spins <= 0)
+                break;
+        }
+        if (timed && nanos <= 0)
+            return null;
+        final ConcurrentLinkedQueue<Thread> takers = this.takers;
+        final Thread w = Thread.currentThread();
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        takers.add(w);
+        try {
+            for (;;) {
+                if ((x = tryExtract()) != null)
+                    break;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if (timed) {
+                    nanos = deadline - System.nanoTime();
+                    if (nanos <= 0)
+                        return null;
+                    LockSupport.parkNanos(this, nanos);
+                }
+                else
+                    LockSupport.park(this);
+            }
+        } finally {
+            takers.remove(w);
+            // Pass on a wakeup we may have consumed without need
+            if (!isEmpty())
+                signal(takers);
+        }
+        signal(putters);
+        return (E) x;
+    }
+
+    /**
+     * Returns the item of the live element at the given position, or
+     * null if that slot is not (or no longer) filled for that position.
+     */
+    private Object itemAt(long pos) {
+        int i = (int)pos & mask;
+        if (seqAt(i) != pos + 1)
+            return null;
+        Object x = UNSAFE.getObjectVolatile(items, itemOffset(i));
+        // Recheck that the slot was not recycled while reading
+        return (seqAt(i) == pos + 1) ? x : null;
+    }
+
+    public E peek() {
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; ++pos) {
+            Object x = itemAt(pos);
+            if (x != null && x != REMOVED) {
+                @SuppressWarnings("unchecked") E e = (E) x;
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if this queue contains no live elements.
+     * Unlike {@code size() == 0}, this skips elements that have been
+     * removed from the middle of the queue but whose slots have not
+     * yet been reclaimed by consumers.
+     *
+     * @return {@code true} if this queue contains no elements
+     */
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    // this doc comment is overridden to remove the reference to collections
+    // greater in size than Integer.MAX_VALUE
+    /**
+     * Returns an estimate of the number of elements in this queue.
+     * The value is only a snapshot, since producers and consumers may
+     * be active concurrently.
+     *
+     * @return the number of elements in this queue
+     */
+    public int size() {
+        for (;;) {
+            long h = head.get();
+            long t = tail.get();
+            if (head.get() == h) {
+                long n = t - h - removedCount.get();
+                return (n < 0) ? 0 : (n > mask + 1) ? mask + 1 : (int) n;
+            }
+        }
+    }
+
+    // this doc comment is a modified copy of the inherited doc comment,
+    // without the reference to unlimited queues.
+    /**
+     * Returns the number of additional elements that this queue can ideally
+     * (in the absence of memory or resource constraints) accept without
+     * blocking. This is always equal to the capacity of this queue less
+     * the current {@code size} of this queue.
+     *
+     * <p>Note that you <em>cannot</em> always tell if an attempt to insert
+     * an element will succeed by inspecting {@code remainingCapacity}
+     * because it may be the case that another thread is about to
+     * insert or remove an element.
+     */
+    public int remainingCapacity() {
+        long h, t;
+        do {
+            h = head.get();
+            t = tail.get();
+        } while (head.get() != h);
+        long n = (mask + 1) - (t - h);
+        return (n < 0) ? 0 : (int) n;
+    }
+
+    /**
+     * Returns the capacity of this queue, which is the requested
+     * capacity rounded up to a power of two.
+     *
+     * @return the capacity of this queue
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Removes a single instance of the specified element from this queue,
+     * if it is present.  More formally, removes an element {@code e} such
+     * that {@code o.equals(e)}, if this queue contains one or more such
+     * elements.
+     * Returns {@code true} if this queue contained the specified element
+     * (or equivalently, if this queue changed as a result of the call).
+     *
+     * <p>Removal of interior elements leaves a marker in the slot that
+     * is discarded when the slot reaches the head of the queue, so the
+     * capacity it occupies is reclaimed only then.
+     *
+     * @param o element to be removed from this queue, if present
+     * @return {@code true} if this queue changed as a result of the call
+     */
+    public boolean remove(Object o) {
+        if (o == null) return false;
+        return removeMatch(o, false);
+    }
+
+    /**
+     * Identity-based version for use in Itr.remove
+     */
+    boolean removeEQ(Object o) {
+        return removeMatch(o, true);
+    }
+
+    private boolean removeMatch(Object o, boolean identity) {
+        final Object[] items = this.items;
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; ++pos) {
+            int i = (int)pos & mask;
+            Object x = itemAt(pos);
+            if (x != null && x != REMOVED &&
+                (identity ? x == o : o.equals(x)) &&
+                UNSAFE.compareAndSwapObject(items, itemOffset(i), x, REMOVED)) {
+                removedCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if this queue contains the specified element.
+     * More formally, returns {@code true} if and only if this queue contains
+     * at least one element {@code e} such that {@code o.equals(e)}.
+     *
+     * @param o object to be checked for containment in this queue
+     * @return {@code true} if this queue contains the specified element
+     */
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; ++pos) {
+            Object x = itemAt(pos);
+            if (x != null && x != REMOVED && o.equals(x))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns an array containing all of the elements in this queue, in
+     * proper sequence.
+     *
+     * <p>The returned array will be "safe" in that no references to it are
+     * maintained by this queue.  (In other words, this method must allocate
+     * a new array).  The caller is thus free to modify the returned array.
+     *
+     * <p>This method acts as bridge between array-based and collection-based
+     * APIs.
+     *
+     * @return an array containing all of the elements in this queue
+     */
+    public Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    /**
+     * Returns an array containing all of the elements in this queue, in
+     * proper sequence; the runtime type of the returned array is that of
+     * the specified array.  If the queue fits in the specified array, it
+     * is returned therein.  Otherwise, a new array is allocated with the
+     * runtime type of the specified array and the size of this queue.
+     *
+     * @param a the array into which the elements of the queue are to
+     *          be stored, if it is big enough; otherwise, a new array of the
+     *          same runtime type is allocated for this purpose
+     * @return an array containing all of the elements in this queue
+     * @throws ArrayStoreException if the runtime type of the specified array
+     *         is not a supertype of the runtime type of every element in
+     *         this queue
+     * @throws NullPointerException if the specified array is null
+     */
+    public <T> T[] toArray(T[] a) {
+        return snapshot().toArray(a);
+    }
+
+    /**
+     * Collects the live elements between head and tail.
+     */
+    private ArrayList<Object> snapshot() {
+        ArrayList<Object> list = new ArrayList<Object>();
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; ++pos) {
+            Object x = itemAt(pos);
+            if (x != null && x != REMOVED)
+                list.add(x);
+        }
+        return list;
+    }
+
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * Atomically removes all of the elements from this queue.
+     * The queue will be empty after this call returns.
+     */
+    public void clear() {
+        while (poll() != null)
+            ;
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @throws UnsupportedOperationException {@inheritDoc}
+     * @throws ClassCastException            {@inheritDoc}
+     * @throws NullPointerException          {@inheritDoc}
+     * @throws IllegalArgumentException      {@inheritDoc}
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        checkNotNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * Returns an iterator over the elements in this queue in proper sequence.
+     * The elements will be returned in order from first (head) to last (tail).
+     *
+     * <p>The returned {@code Iterator} is a "weakly consistent" iterator that
+     * will never throw {@link java.util.ConcurrentModificationException
+     * ConcurrentModificationException}, and guarantees to traverse
+     * elements as they existed upon construction of the iterator, and
+     * may (but is not guaranteed to) reflect any modifications
+     * subsequent to construction.
+     *
+     * @return an iterator over the elements in this queue in proper sequence
+     */
+    public Iterator<E> iterator() {
+        return new Itr(toArray());
+    }
+
+    /**
+     * Snapshot iterator that works off copy of underlying q array.
+     */
+    final class Itr implements Iterator<E> {
+        final Object[] array; // Array of all elements
+        int cursor;           // index of next element to return
+        int lastRet;          // index of last element, or -1 if no such
+
+        Itr(Object[] array) {
+            lastRet = -1;
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            lastRet = cursor;
+            return (E)array[cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            removeEQ(array[lastRet]);
+            lastRet = -1;
+        }
+    }
+
+    /**
+     * Saves this queue to a stream (that is, serializes it).
+     *
+     * @serialData The capacity is emitted (int), followed by all of
+     * its elements (each an {@code Object}) in the proper order,
+     * followed by a null
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        s.writeInt(mask + 1);
+        for (Object x : snapshot())
+            s.writeObject(x);
+        s.writeObject(null);
+    }
+
+    /**
+     * Reconstitutes this queue from a stream (that is, deserializes it).
+     */
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        init(s.readInt());
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            E item = (E)s.readObject();
+            if (item == null)
+                break;
+            if (!tryInsert(item))
+                throw new java.io.StreamCorruptedException();
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe UNSAFE;
+    private static final long OBASE;
+    private static final int OSHIFT;
+    private static final long LBASE;
+    private static final int LSHIFT;
+    static {
+        try {
+            UNSAFE = sun.misc.Unsafe.getUnsafe();
+            Class<?> ak = Object[].class;
+            Class<?> lk = long[].class;
+            OBASE = UNSAFE.arrayBaseOffset(ak);
+            LBASE = UNSAFE.arrayBaseOffset(lk);
+            int oscale = UNSAFE.arrayIndexScale(ak);
+            int lscale = UNSAFE.arrayIndexScale(lk);
+            if ((oscale & (oscale - 1)) != 0 || (lscale & (lscale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            OSHIFT = 31 - Integer.numberOfLeadingZeros(oscale);
+            LSHIFT = 31 - Integer.numberOfLeadingZeros(lscale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -162,6 +162,12 @@ public class ScheduledThreadPoolExecutor
      */
     private volatile boolean removeOnCancel = false;
 
+    /**
+     * True if ScheduledFutureTask.cancel should only count the
+     * cancellation, leaving removal to the queue
+     */
+    private volatile boolean lazyRemoveOnCancel = false;
+
     /**
      * Sequence number to break scheduling ties, and in turn to
      * guarantee FIFO order among tied entries.
@@ -175,14 +181,14 @@ public class ScheduledThreadPoolExecutor
         return System.nanoTime();
     }
 
-    private class ScheduledFutureTask<V>
+    class ScheduledFutureTask<V>
             extends FutureTask<V> implements RunnableScheduledFuture<V> {
 
         /** Sequence number to break ties FIFO */
         private final long sequenceNumber;
 
         /** The time the task is enabled to execute in nanoTime units */
-        private long time;
+        long time;
 
         /**
          * Period in nanoseconds for repeating tasks.  A positive
@@ -200,6 +206,14 @@ public class ScheduledThreadPoolExecutor
          */
         int heapIndex;
 
+        /**
+         * The work queue's handle on this task: the DelayedWorkQueue
+         * that heapIndex refers to, so that a lazy cancellation is
+         * counted by the queue holding the task, or for other kinds of
+         * queue whatever they use to find the task without search.
+         */
+        Object holder;
+
         /**
          * Creates a one-shot action with given nanoTime-based trigger time.
          */
@@ -276,8 +290,15 @@ public class ScheduledThreadPoolExecutor
 
         public boolean cancel(boolean mayInterruptIfRunning) {
             boolean cancelled = super.cancel(mayInterruptIfRunning);
-            if (cancelled && removeOnCancel && heapIndex >= 0)
-                remove(this);
+            if (cancelled && heapIndex >= 0) {
+                if (lazyRemoveOnCancel) {
+                    Object h = holder;
+                    if (h instanceof DelayedWorkQueue)
+                        ((DelayedWorkQueue)h).cancelled();
+                }
+                else if (removeOnCancel)
+                    remove(this);
+            }
             return cancelled;
         }
 
@@ -483,6 +504,20 @@ public class ScheduledThreadPoolExecutor
               new DelayedWorkQueue(), threadFactory, handler);
     }
 
+    /**
+     * Creates a new {@code ScheduledThreadPoolExecutor} using the
+     * given work queue, which must hold only RunnableScheduledFutures
+     * and release them no earlier than their delays elapse.  For use
+     * by subclasses that hold pending tasks differently.
+     */
+    ScheduledThreadPoolExecutor(int corePoolSize,
+                                BlockingQueue<Runnable> workQueue,
+                                ThreadFactory threadFactory,
+                                RejectedExecutionHandler handler) {
+        super(corePoolSize, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS,
+              workQueue, threadFactory, handler);
+    }
+
     /**
      * Returns the trigger time of a delayed action.
      */
@@ -619,6 +654,24 @@ public class ScheduledThreadPoolExecutor
         schedule(command, 0, TimeUnit.NANOSECONDS);
     }
 
+    /**
+     * Schedules each of the given commands as if by {@link #execute},
+     * since all tasks of this executor must pass through its delayed
+     * work queue.
+     *
+     * @throws RejectedExecutionException at discretion of
+     *         {@code RejectedExecutionHandler}, if a task
+     *         cannot be accepted for execution because the
+     *         executor has been shut down
+     * @throws NullPointerException {@inheritDoc}
+     */
+    public void executeAll(Collection<? extends Runnable> commands) {
+        if (commands == null)
+            throw new NullPointerException();
+        for (Runnable r : commands)
+            execute(r);
+    }
+
     // Override AbstractExecutorService methods
 
     /**
@@ -737,6 +790,50 @@ public class ScheduledThreadPoolExecutor
         return removeOnCancel;
     }
 
+    /**
+     * Sets the policy on whether cancelled tasks should be removed
+     * from the work queue lazily, in bulk.  When this policy is
+     * {@code true}, cancelling a task does not acquire the queue's
+     * lock: it only counts the cancellation, and the queue discards
+     * all of its cancelled tasks in a single pass once they make up
+     * more than a quarter of its contents.  Cancelled tasks that
+     * reach the head of the queue before then are discarded rather
+     * than handed to a worker.  This keeps the cost of large numbers
+     * of cancellations low while bounding the garbage retained in
+     * the queue.  When {@code true}, this policy takes precedence
+     * over the {@linkplain #setRemoveOnCancelPolicy remove-on-cancel
+     * policy}.  This value is by default {@code false}.
+     *
+     * @param value if {@code true}, remove cancelled tasks lazily
+     * @see #getLazyRemoveOnCancelPolicy
+     * @since 1.7
+     */
+    public void setLazyRemoveOnCancelPolicy(boolean value) {
+        lazyRemoveOnCancel = value;
+        setLazyPurge(value);
+    }
+
+    /**
+     * Gets the policy on whether cancelled tasks should be removed
+     * from the work queue lazily, in bulk.  This value is by default
+     * {@code false}.
+     *
+     * @return {@code true} if cancelled tasks are removed lazily
+     * @see #setLazyRemoveOnCancelPolicy
+     * @since 1.7
+     */
+    public boolean getLazyRemoveOnCancelPolicy() {
+        return lazyRemoveOnCancel;
+    }
+
+    /**
+     * Sets the lazy purge mode of the work queue.  Overridden by
+     * subclasses whose work queue is not a single DelayedWorkQueue.
+     */
+    void setLazyPurge(boolean value) {
+        ((DelayedWorkQueue)super.getQueue()).lazyPurge = value;
+    }
+
     /**
      * Initiates an orderly shutdown in which previously submitted
      * tasks are executed, but no new tasks will be accepted.
@@ -828,7 +925,33 @@ public class ScheduledThreadPoolExecutor
          * appear at most once in the queue (this need not be true for
          * other kinds of tasks or work queues), so are uniquely
          * identified by heapIndex.
+         *
+         * Under the lazy remove-on-cancel policy, cancellation does
+         * not touch the heap at all; it only increments
+         * cancelledCount, without locking.  When the count exceeds
+         * a fixed fraction of the size (see PURGE_FRACTION_SHIFT),
+         * the queue is compacted: live tasks
+         * are packed to the front of the array and the heap is
+         * rebuilt bottom-up, in O(n) for any number of cancelled
+         * tasks, rather than the O(log n) per task of individual
+         * removal.  The cancelling thread compacts only if the lock
+         * is free; otherwise the next offer does so.  The count is
+         * only a hint (a task may be cancelled just as it is
+         * polled), and is reset by each compaction.  Cancelled tasks
+         * found at the head are also discarded by poll and take, so
+         * the leader never waits for a cancelled task.
+         */
+
+        /**
+         * Compact once cancelled tasks exceed 1/(2^PURGE_FRACTION_SHIFT)
+         * of the queue size.
+         */
+        private static final int PURGE_FRACTION_SHIFT = 2;
+
+        /**
+         * Never compact for fewer cancelled tasks than this.
          */
+        private static final int PURGE_MIN_CANCELLED = 32;
 
         private static final int INITIAL_CAPACITY = 16;
         private RunnableScheduledFuture[] queue =
@@ -860,6 +983,91 @@ public class ScheduledThreadPoolExecutor
          */
         private final Condition available = lock.newCondition();
 
+        /**
+         * True if cancellations are counted for bulk removal instead
+         * of being removed individually.
+         */
+        volatile boolean lazyPurge;
+
+        /**
+         * Approximate number of cancelled tasks still in the heap.
+         */
+        private final AtomicInteger cancelledCount = new AtomicInteger();
+
+        /**
+         * Records the cancellation of a task in the queue, and
+         * compacts the queue if cancelled tasks are now over the
+         * threshold and the lock is free.
+         */
+        void cancelled() {
+            int c = cancelledCount.incrementAndGet();
+            if (c >= PURGE_MIN_CANCELLED &&
+                c > (size >>> PURGE_FRACTION_SHIFT)) { // racy read OK
+                final ReentrantLock lock = this.lock;
+                if (lock.tryLock()) {
+                    try {
+                        purgeIfNeeded();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Compacts the queue if the cancelled count is over the
+         * threshold.  Call only when holding lock.
+         */
+        private void purgeIfNeeded() {
+            int c = cancelledCount.get();
+            if (c >= PURGE_MIN_CANCELLED &&
+                c > (size >>> PURGE_FRACTION_SHIFT))
+                purge();
+        }
+
+        /**
+         * Removes all cancelled tasks and restores the heap
+         * invariant.  Call only when holding lock.
+         */
+        private void purge() {
+            cancelledCount.set(0);
+            RunnableScheduledFuture[] q = queue;
+            RunnableScheduledFuture first = q[0];
+            int n = size, k = 0;
+            for (int i = 0; i < n; i++) {
+                RunnableScheduledFuture t = q[i];
+                q[i] = null;
+                if (t.isCancelled())
+                    setIndex(t, -1);
+                else
+                    q[k++] = t;
+            }
+            size = k;
+            for (int i = (k >>> 1) - 1; i >= 0; i--)
+                siftDown(i, q[i]);
+            for (int i = 0; i < k; i++)  // siftDown skips leaves
+                setIndex(q[i], i);
+            if (q[0] != first) {
+                leader = null;
+                available.signal();
+            }
+        }
+
+        /**
+         * Discards cancelled tasks at the head of the queue if
+         * removing cancelled tasks lazily.  Call only when holding
+         * lock.
+         */
+        private void skipCancelled() {
+            if (lazyPurge) {
+                RunnableScheduledFuture first;
+                while ((first = queue[0]) != null && first.isCancelled()) {
+                    finishPoll(first);
+                    cancelledCount.decrementAndGet();
+                }
+            }
+        }
+
         /**
          * Set f's heapIndex if it is a ScheduledFutureTask.
          */
@@ -1003,7 +1211,19 @@ public class ScheduledThreadPoolExecutor
         public boolean offer(Runnable x) {
             if (x == null)
                 throw new NullPointerException();
-            RunnableScheduledFuture e = (RunnableScheduledFuture)x;
+            enqueue((RunnableScheduledFuture)x);
+            return true;
+        }
+
+        /**
+         * Inserts the given task, reporting whether it is now at the
+         * head of the queue.  Used by offer, and by queues built of
+         * several DelayedWorkQueues.
+         *
+         * @return true if e is now the first task
+         */
+        boolean enqueue(RunnableScheduledFuture e) {
+            boolean first = false;
             final ReentrantLock lock = this.lock;
             lock.lock();
             try {
@@ -1011,6 +1231,8 @@ public class ScheduledThreadPoolExecutor
                 if (i >= queue.length)
                     grow();
                 size = i + 1;
+                if (e instanceof ScheduledFutureTask)
+                    ((ScheduledFutureTask)e).holder = this;
                 if (i == 0) {
                     queue[0] = e;
                     setIndex(e, 0);
@@ -1018,13 +1240,16 @@ public class ScheduledThreadPoolExecutor
                     siftUp(i, e);
                 }
                 if (queue[0] == e) {
+                    first = true;
                     leader = null;
                     available.signal();
                 }
+                if (lazyPurge)
+                    purgeIfNeeded();
             } finally {
                 lock.unlock();
             }
-            return true;
+            return first;
         }
 
         public void put(Runnable e) {
@@ -1059,6 +1284,7 @@ public class ScheduledThreadPoolExecutor
             final ReentrantLock lock = this.lock;
             lock.lock();
             try {
+                skipCancelled();
                 RunnableScheduledFuture first = queue[0];
                 if (first == null || first.getDelay(TimeUnit.NANOSECONDS) > 0)
                     return null;
@@ -1074,6 +1300,7 @@ public class ScheduledThreadPoolExecutor
             lock.lockInterruptibly();
             try {
                 for (;;) {
+                    skipCancelled();
                     RunnableScheduledFuture first = queue[0];
                     if (first == null)
                         available.await();
@@ -1109,6 +1336,7 @@ public class ScheduledThreadPoolExecutor
             lock.lockInterruptibly();
             try {
                 for (;;) {
+                    skipCancelled();
                     RunnableScheduledFuture first = queue[0];
                     if (first == null) {
                         if (nanos <= 0)
@@ -1155,6 +1383,7 @@ public class ScheduledThreadPoolExecutor
                     }
                 }
                 size = 0;
+                cancelledCount.set(0);
             } finally {
                 lock.unlock();
             }
@@ -1165,6 +1394,7 @@ public class ScheduledThreadPoolExecutor
          * Used only by drainTo.  Call only when holding lock.
          */
         private RunnableScheduledFuture pollExpired() {
+            skipCancelled();
             RunnableScheduledFuture first = queue[0];
             if (first == null || first.getDelay(TimeUnit.NANOSECONDS) > 0)
                 return null;
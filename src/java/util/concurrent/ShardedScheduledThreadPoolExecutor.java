@@ -0,0 +1,499 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.*;
+
+/**
+ * A {@link ScheduledThreadPoolExecutor} whose work queue is split
+ * into one delay queue per core thread, so that scheduling and
+ * taking tasks do not all contend for a single lock.  A task
+ * scheduled by one of this executor's own threads is placed in that
+ * thread's queue; one scheduled by any other thread is placed in a
+ * queue chosen by hashing the scheduling thread.  Each thread takes
+ * tasks from its own queue first, and when none of those is due,
+ * takes due tasks from the other queues, so no task waits for a busy
+ * thread while another is idle.
+ *
+ * <p>This class behaves as {@code ScheduledThreadPoolExecutor} does,
+ * with two exceptions.  Tasks scheduled for exactly the same
+ * execution time from different threads may be enabled in any order,
+ * since they may be held in different queues.  And the number of
+ * queues is fixed on construction from the core pool size, so
+ * increasing the core pool size later adds threads but does not
+ * spread scheduling over more queues.  This class is preferable to
+ * {@code ScheduledThreadPoolExecutor} when many threads schedule or
+ * cancel tasks at high rates; with few tasks it offers no advantage.
+ *
+ * @since 1.7
+ */
+public class ShardedScheduledThreadPoolExecutor
+        extends ScheduledThreadPoolExecutor {
+
+    /**
+     * Creates a new {@code ShardedScheduledThreadPoolExecutor} with
+     * the given core pool size.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}
+     */
+    public ShardedScheduledThreadPoolExecutor(int corePoolSize) {
+        this(corePoolSize, Executors.defaultThreadFactory(),
+             new AbortPolicy());
+    }
+
+    /**
+     * Creates a new {@code ShardedScheduledThreadPoolExecutor} with
+     * the given initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param threadFactory the factory to use when the executor
+     *        creates a new thread
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}
+     * @throws NullPointerException if {@code threadFactory} is null
+     */
+    public ShardedScheduledThreadPoolExecutor(int corePoolSize,
+                                              ThreadFactory threadFactory) {
+        this(corePoolSize, threadFactory, new AbortPolicy());
+    }
+
+    /**
+     * Creates a new {@code ShardedScheduledThreadPoolExecutor} with
+     * the given initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param handler the handler to use when execution is blocked
+     *        because the thread bounds and queue capacities are reached
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}
+     * @throws NullPointerException if {@code handler} is null
+     */
+    public ShardedScheduledThreadPoolExecutor(int corePoolSize,
+                                              RejectedExecutionHandler handler) {
+        this(corePoolSize, Executors.defaultThreadFactory(), handler);
+    }
+
+    /**
+     * Creates a new {@code ShardedScheduledThreadPoolExecutor} with
+     * the given initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param threadFactory the factory to use when the executor
+     *        creates a new thread
+     * @param handler the handler to use when execution is blocked
+     *        because the thread bounds and queue capacities are reached
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}
+     * @throws NullPointerException if {@code threadFactory} or
+     *         {@code handler} is null
+     */
+    public ShardedScheduledThreadPoolExecutor(int corePoolSize,
+                                              ThreadFactory threadFactory,
+                                              RejectedExecutionHandler handler) {
+        super(corePoolSize,
+              new ShardedDelayedWorkQueue(corePoolSize),
+              threadFactory, handler);
+    }
+
+    @Override void setLazyPurge(boolean value) {
+        ((ShardedDelayedWorkQueue)super.getQueue()).setLazyPurge(value);
+    }
+
+    /**
+     * Returns the number of delay queues over which tasks are spread.
+     *
+     * @return the number of delay queues
+     */
+    public int getShardCount() {
+        return ((ShardedDelayedWorkQueue)super.getQueue()).shards.length;
+    }
+
+    /**
+     * A work queue made of several DelayedWorkQueues, or shards.
+     */
+    static final class ShardedDelayedWorkQueue extends AbstractQueue<Runnable>
+        implements BlockingQueue<Runnable> {
+
+        /*
+         * Each thread is bound, on first use, to a home shard: worker
+         * threads (those that first take) round-robin, so that each
+         * core thread owns a shard, and other threads by hash of
+         * their ids.  Offers go to the caller's home shard.  Takes
+         * poll the home shard, then the others in turn (stealing),
+         * each poll returning only a due task.
+         *
+         * The shards are used only for their heaps and locks; no
+         * thread ever blocks inside a shard.  Instead, idle threads
+         * park in this class, following the same leader-follower
+         * design as DelayedWorkQueue but across all shards: at most
+         * one waiting thread (the leader) parks until the earliest
+         * head of any shard is due, recording that time in
+         * leaderWakeTime, and others park indefinitely.  An offer
+         * that puts a task at the head of its shard unparks the
+         * leader if that task is due before leaderWakeTime (zero
+         * meaning not yet known), or, if there is no leader, unparks
+         * some waiter to become one.  A thread that stops waiting
+         * while there is no leader likewise unparks a waiter.
+         *
+         * Lost wakeups are avoided by ordering: a thread publishes
+         * itself in waiters before rechecking all shards, and the
+         * leader publishes itself before rechecking the shard heads,
+         * while an offer enqueues before reading waiters and leader.
+         * Because shard locks order these accesses, either the
+         * waiter sees the offered task, or the offer sees the waiter.
+         *
+         * Under the lazy remove-on-cancel policy, each shard counts
+         * and purges its own cancelled tasks, exactly as a single
+         * DelayedWorkQueue does: a cancelled task reports to the
+         * shard it was last enqueued in (see ScheduledFutureTask.holder),
+         * so no operation here needs to look at more than one shard.
+         */
+
+        /** Maximum number of shards */
+        private static final int MAX_SHARDS = 1 << 8;
+
+        /** The shards; length is a power of two */
+        final DelayedWorkQueue[] shards;
+
+        /** The source of round-robin home shards for worker threads */
+        private final AtomicInteger nextHome = new AtomicInteger();
+
+        /** Each thread's home shard index, plus one; 0 if unassigned */
+        private final ThreadLocal<int[]> home = new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        /** Threads waiting for a task */
+        private final ConcurrentLinkedQueue<Thread> waiters =
+            new ConcurrentLinkedQueue<Thread>();
+
+        /** The waiting thread timing the earliest shard head, if any */
+        private final AtomicReference<Thread> leader =
+            new AtomicReference<Thread>();
+
+        /** The nanoTime at which the leader will wake, or 0 if unknown */
+        private volatile long leaderWakeTime;
+
+        ShardedDelayedWorkQueue(int parallelism) {
+            int n = 1;
+            while (n < parallelism && n < MAX_SHARDS)
+                n <<= 1;
+            shards = new DelayedWorkQueue[n];
+            for (int i = 0; i < n; ++i)
+                shards[i] = new DelayedWorkQueue();
+        }
+
+        /**
+         * Returns the home shard index of the current thread,
+         * assigning one if necessary.
+         *
+         * @param worker true if called to take tasks
+         */
+        private int homeIndex(boolean worker) {
+            int[] h = home.get();
+            int i = h[0] - 1;
+            if (i < 0) {
+                int mask = shards.length - 1;
+                if (worker)
+                    i = nextHome.getAndIncrement() & mask;
+                else {
+                    int k = (int)Thread.currentThread().getId() * 0x9e3779b9;
+                    i = (k ^ (k >>> 16)) & mask;
+                }
+                h[0] = i + 1;
+            }
+            return i;
+        }
+
+        /**
+         * Removes and returns a due task from the given home shard,
+         * or failing that from any other shard, or returns null.
+         */
+        private RunnableScheduledFuture<?> pollDue(int h) {
+            DelayedWorkQueue[] qs = shards;
+            int mask = qs.length - 1;
+            for (int i = 0; i <= mask; ++i) {
+                RunnableScheduledFuture<?> t = qs[(h + i) & mask].poll();
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the delay until the earliest shard head is due, or
+         * Long.MAX_VALUE if all shards are empty.
+         */
+        private long nextDelay() {
+            long delay = Long.MAX_VALUE;
+            for (DelayedWorkQueue q : shards) {
+                RunnableScheduledFuture<?> f = q.peek();
+                if (f != null) {
+                    long d = f.getDelay(TimeUnit.NANOSECONDS);
+                    if (d < delay)
+                        delay = d;
+                }
+            }
+            return delay;
+        }
+
+        /**
+         * Unparks some waiting thread, if there is one.
+         */
+        private void signalWaiter() {
+            Thread w = waiters.peek();
+            if (w != null)
+                LockSupport.unpark(w);
+        }
+
+        /**
+         * Common code for take and timed poll.
+         */
+        private RunnableScheduledFuture<?> awaitTask(boolean timed, long nanos)
+            throws InterruptedException {
+            int h = homeIndex(true);
+            long deadline = timed ? System.nanoTime() + nanos : 0L;
+            Thread me = Thread.currentThread();
+            RunnableScheduledFuture<?> task;
+            for (;;) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if ((task = pollDue(h)) != null)
+                    break;
+                if (timed && (nanos = deadline - System.nanoTime()) <= 0L)
+                    break;
+                waiters.offer(me);
+                try {
+                    if ((task = pollDue(h)) != null)
+                        break;
+                    long delay = nextDelay();
+                    if (delay <= 0L)
+                        continue;         // raced with another thread
+                    if (delay != Long.MAX_VALUE && (!timed || delay <= nanos) &&
+                        leader.compareAndSet(null, me)) {
+                        try {
+                            leaderWakeTime = System.nanoTime() + delay;
+                            long d = nextDelay();   // recheck after publishing
+                            if (d < delay)
+                                delay = d;
+                            if (delay > 0L)
+                                LockSupport.parkNanos(this, delay);
+                        } finally {
+                            leaderWakeTime = 0L;
+                            leader.set(null);
+                        }
+                    }
+                    else if (timed)
+                        LockSupport.parkNanos(this, nanos);
+                    else
+                        LockSupport.park(this);
+                } finally {
+                    waiters.remove(me);
+                }
+            }
+            if (leader.get() == null)
+                signalWaiter();
+            return task;
+        }
+
+        public RunnableScheduledFuture<?> take() throws InterruptedException {
+            return awaitTask(false, 0L);
+        }
+
+        public RunnableScheduledFuture<?> poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            return awaitTask(true, unit.toNanos(timeout));
+        }
+
+        public RunnableScheduledFuture<?> poll() {
+            return pollDue(homeIndex(false));
+        }
+
+        public boolean offer(Runnable x) {
+            if (x == null)
+                throw new NullPointerException();
+            RunnableScheduledFuture<?> e = (RunnableScheduledFuture<?>)x;
+            if (shards[homeIndex(false)].enqueue(e)) {
+                Thread l = leader.get();
+                if (l == null)
+                    signalWaiter();
+                else {
+                    long w = leaderWakeTime;
+                    if (w == 0L || e.getDelay(TimeUnit.NANOSECONDS) <
+                        w - System.nanoTime())
+                        LockSupport.unpark(l);
+                }
+            }
+            return true;
+        }
+
+        public void put(Runnable e) {
+            offer(e);
+        }
+
+        public boolean add(Runnable e) {
+            return offer(e);
+        }
+
+        public boolean offer(Runnable e, long timeout, TimeUnit unit) {
+            return offer(e);
+        }
+
+        void setLazyPurge(boolean value) {
+            for (DelayedWorkQueue q : shards)
+                q.lazyPurge = value;
+        }
+
+        public RunnableScheduledFuture<?> peek() {
+            RunnableScheduledFuture<?> first = null;
+            long delay = Long.MAX_VALUE;
+            for (DelayedWorkQueue q : shards) {
+                RunnableScheduledFuture<?> f = q.peek();
+                if (f != null) {
+                    long d = f.getDelay(TimeUnit.NANOSECONDS);
+                    if (first == null || d < delay) {
+                        first = f;
+                        delay = d;
+                    }
+                }
+            }
+            return first;
+        }
+
+        public boolean contains(Object x) {
+            for (DelayedWorkQueue q : shards)
+                if (q.contains(x))
+                    return true;
+            return false;
+        }
+
+        public boolean remove(Object x) {
+            for (DelayedWorkQueue q : shards)
+                if (q.remove(x))
+                    return true;
+            return false;
+        }
+
+        public int size() {
+            int n = 0;
+            for (DelayedWorkQueue q : shards)
+                n += q.size();
+            return n;
+        }
+
+        public boolean isEmpty() {
+            for (DelayedWorkQueue q : shards)
+                if (!q.isEmpty())
+                    return false;
+            return true;
+        }
+
+        public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+
+        public void clear() {
+            for (DelayedWorkQueue q : shards)
+                q.clear();
+        }
+
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            if (c == null)
+                throw new NullPointerException();
+            if (c == this)
+                throw new IllegalArgumentException();
+            int n = 0;
+            for (DelayedWorkQueue q : shards) {
+                if (n >= maxElements)
+                    break;
+                n += q.drainTo(c, maxElements - n);
+            }
+            return n;
+        }
+
+        public Object[] toArray() {
+            ArrayList<Object> list = new ArrayList<Object>();
+            for (DelayedWorkQueue q : shards)
+                list.addAll(Arrays.asList(q.toArray()));
+            return list.toArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] a) {
+            Object[] elements = toArray();
+            int size = elements.length;
+            if (a.length < size)
+                return (T[]) Arrays.copyOf(elements, size, a.getClass());
+            System.arraycopy(elements, 0, a, 0, size);
+            if (a.length > size)
+                a[size] = null;
+            return a;
+        }
+
+        public Iterator<Runnable> iterator() {
+            return new Itr(toArray());
+        }
+
+        /**
+         * Snapshot iterator that works off a copy of the shard contents.
+         */
+        private class Itr implements Iterator<Runnable> {
+            final Object[] array;
+            int cursor = 0;     // index of next element to return
+            int lastRet = -1;   // index of last element, or -1 if no such
+
+            Itr(Object[] array) {
+                this.array = array;
+            }
+
+            public boolean hasNext() {
+                return cursor < array.length;
+            }
+
+            public Runnable next() {
+                if (cursor >= array.length)
+                    throw new NoSuchElementException();
+                lastRet = cursor;
+                return (Runnable)array[cursor++];
+            }
+
+            public void remove() {
+                if (lastRet < 0)
+                    throw new IllegalStateException();
+                ShardedDelayedWorkQueue.this.remove(array[lastRet]);
+                lastRet = -1;
+            }
+        }
+    }
+}
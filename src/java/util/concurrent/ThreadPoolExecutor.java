@@ -35,11 +35,16 @@
 
 package java.util.concurrent;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -205,6 +210,15 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * </dd>
  *
+ * <dt>Work stealing</dt>
+ *
+ * <dd>When tasks themselves submit further tasks to their pool, all
+ * workers contend on the single work queue. Method {@link
+ * #allowWorkStealing(boolean)} instead keeps such tasks on a deque
+ * owned by the submitting worker; idle workers steal from their
+ * peers' deques before waiting on the queue. Tasks submitted by
+ * other threads are unaffected. </dd>
+ *
  * <dt>Rejected tasks</dt>
  *
  * <dd> New tasks submitted in method {@link #execute} will be
@@ -537,6 +551,33 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     private long completedTaskCount;
 
+    /**
+     * Time spent running tasks by terminated workers while a sizer
+     * was installed. Accessed only under mainLock.
+     */
+    private long busyNanos;
+
+    /**
+     * Statistics of terminated workers, summed as by addStats, or
+     * null if none. Accessed only under mainLock.
+     */
+    private long[] retiredStats;
+
+    /**
+     * Numbers of workers added to and removed from the workers set.
+     * Accessed only under mainLock.
+     */
+    private long workersCreated, workersExited;
+
+    /**
+     * Accepted tasks left on the local deque of a worker that died
+     * while workQueue was full, or null if none. Moved onto the
+     * local deque of the next worker added, or returned by
+     * shutdownNow. Written only under mainLock; volatile so that the
+     * unlocked rechecks in addWorker and tryTerminate see it.
+     */
+    private volatile List<Runnable> orphanTasks;
+
     /*
      * All user control parameters are declared as volatiles so that
      * ongoing actions are based on freshest values, but without need
@@ -591,6 +632,129 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     private volatile boolean allowCoreThreadTimeOut;
 
+    /**
+     * If false (default), all tasks are handed off through workQueue.
+     * If true, tasks submitted from one of this pool's own worker
+     * threads are pushed onto that worker's local deque, and workers
+     * that run out of work steal from their peers' deques before
+     * blocking on workQueue.
+     */
+    private volatile boolean workStealing;
+
+    /**
+     * Maximum number of tasks a worker takes from workQueue at once.
+     * If greater than one (the default is one), a worker that runs
+     * out of local tasks while no other worker is idle drains up to
+     * this many tasks into its local deque, runs the first, and runs
+     * the rest before returning to workQueue, unless idle peers steal
+     * them first.
+     */
+    private volatile int taskBatchSize = 1;
+
+    /**
+     * The worker whose thread is the current thread, if any. Set on
+     * entry to runWorker and cleared in processWorkerExit. Used only
+     * to locate the local deque when work stealing is enabled.
+     */
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+    /**
+     * Snapshot of the workers set, republished under mainLock
+     * whenever the set changes, so that stealing workers can scan
+     * their peers without acquiring mainLock.
+     */
+    private volatile Worker[] workerArray = new Worker[0];
+
+    /**
+     * Number of workers in work-stealing or batching mode that have
+     * run out of local work and are scanning or blocked on workQueue.
+     * While it is nonzero, execute() routes tasks through workQueue
+     * so that idle workers are woken rather than left waiting on
+     * tasks that only a busy peer would otherwise see, and workers
+     * do not take tasks in batches.
+     */
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+
+    /**
+     * The sizer consulted once per sizingIntervalNanos to choose the
+     * core pool size, or null if the pool is sized only by explicit
+     * calls to setCorePoolSize and setMaximumPoolSize. While it is
+     * non-null, submissions are counted and task run times are
+     * accumulated per worker (see sampleIfDue).
+     */
+    private volatile PoolSizer poolSizer;
+
+    /**
+     * Sampling interval for poolSizer, in nanoseconds.
+     */
+    private volatile long sizingIntervalNanos;
+
+    /**
+     * System.nanoTime at or after which the next sample is due.
+     * Checked without locking on each submission and completion;
+     * updated under sizingLock.
+     */
+    private volatile long nextSampleTime;
+
+    /**
+     * Lock held while taking a sample and applying the sizer's
+     * result. Only ever tryLock'ed by submitters and workers, which
+     * simply move on if another thread is already sampling.
+     */
+    private final ReentrantLock sizingLock = new ReentrantLock();
+
+    /**
+     * Number of tasks submitted while a sizer is installed.
+     */
+    private final LongAdder submittedTaskCount = new LongAdder();
+
+    /**
+     * Totals at the previous sample, from which the deltas of the
+     * next one are computed. sizingPrimed is false until the first
+     * sample after installing a sizer, which only records totals.
+     * Accessed only under sizingLock.
+     */
+    private boolean sizingPrimed;
+    private long lastSampleTime, lastSubmitted, lastCompleted, lastBusyNanos;
+
+    /**
+     * If true, each task's queue wait and run times are recorded by
+     * the worker that runs it, and rejections are counted; see
+     * recordTask and getStatistics.
+     */
+    private volatile boolean statisticsEnabled;
+
+    /**
+     * Rejection counts while statistics are enabled, keyed by the
+     * handler invoked. A counter is allocated only on a handler's
+     * first rejection.
+     */
+    private final ConcurrentHashMap<RejectedExecutionHandler, LongAdder>
+        rejectedTaskCounts =
+        new ConcurrentHashMap<RejectedExecutionHandler, LongAdder>();
+
+    /*
+     * Layout of a worker's statistics array. Each worker records its
+     * own tasks into a private AtomicLongArray, so recording is
+     * uncontended and allocation-free, and snapshots sum the arrays
+     * of all workers (plus retiredStats) under mainLock. The array
+     * holds a sequence number (odd while a task is being recorded),
+     * the failed task count, and then for each of queue wait and run
+     * time: a count, a total, a maximum and LatencyHistogram.BUCKETS
+     * bucket counts.
+     */
+    private static final int STAT_SEQ        = 0;
+    private static final int STAT_FAILED     = 1;
+    private static final int STAT_COUNT      = 0;
+    private static final int STAT_TOTAL      = 1;
+    private static final int STAT_MAX        = 2;
+    private static final int STAT_BUCKETS    = 3;
+    private static final int STAT_HISTOGRAM  =
+        STAT_BUCKETS + LatencyHistogram.BUCKETS;
+    private static final int STAT_QUEUE_TIME = 2;
+    private static final int STAT_EXEC_TIME  = STAT_QUEUE_TIME + STAT_HISTOGRAM;
+    private static final int STATS_LENGTH    = STAT_EXEC_TIME + STAT_HISTOGRAM;
+
 //    corePoolSize是"核心池大小"，maximumPoolSize是"最大池大小"。它们的作用是调整"线程池中实际运行的线程的数量"。
 //    例如，当新任务提交给线程池时(通过execute方法)。
 //         -- 如果此时，线程池中运行的线程数量< corePoolSize，则创建新线程来处理请求。
@@ -613,6 +777,13 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     private volatile int maximumPoolSize;
 
+    /**
+     * True if this executor's class does not override {@link
+     * #execute}, so batches may bypass it (see executeAll). Computed
+     * once at construction.
+     */
+    private final boolean batchable;
+
     /**
      * The default rejected execution handler
      */
@@ -642,6 +813,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     private static final RuntimePermission shutdownPerm =
         new RuntimePermission("modifyThread");
 
+    /**
+     * Whether a worker whose lock is briefly held by another thread,
+     * typically one interrupting idle workers, spins before blocking.
+     * Set by system property "java.util.concurrent.locks.adaptiveSpin",
+     * which enables the same behavior for nonfair ReentrantLocks.
+     */
+    private static final boolean WORKER_SPIN =
+        Boolean.parseBoolean(java.security.AccessController.doPrivileged(
+            new sun.security.action.GetPropertyAction(
+                "java.util.concurrent.locks.adaptiveSpin")));
+
     /**
      * Class Worker mainly maintains interrupt control state for
      * threads running tasks, along with other minor bookkeeping.
@@ -674,6 +856,28 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         Runnable firstTask;
         /** 当前线程已完成的任务数。Per-thread task counter */
         volatile long completedTasks;
+        /** Time spent running tasks while a pool sizer was installed. */
+        volatile long busyNanos;
+        /**
+         * Timings recorded while statistics were enabled, or null if
+         * none yet; see recordTask. Written only by this worker's
+         * thread.
+         */
+        volatile AtomicLongArray stats;
+        /**
+         * True while this worker is moving a batch from workQueue to
+         * its local deque. Set before checking that the pool is not
+         * stopping, so that drainQueue, which waits for it to clear,
+         * never misses a batch in transit.
+         */
+        volatile boolean batching;
+        /**
+         * Tasks pushed by this worker's own thread in work-stealing
+         * mode. Polled by the owner before workQueue, and by idle
+         * peers before they block.
+         */
+        final ConcurrentLinkedDeque<Runnable> localTasks =
+            new ConcurrentLinkedDeque<Runnable>();
 
         /**
          * Creates with given first task and thread from ThreadFactory.
@@ -715,6 +919,10 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             return true;
         }
 
+        protected boolean shouldSpin() {
+            return WORKER_SPIN;
+        }
+
         public void lock()        { acquire(1); }
         public boolean tryLock()  { return tryAcquire(1); }
         public void unlock()      { release(1); }
@@ -766,7 +974,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             int c = ctl.get();
             if (isRunning(c) || // 运行中
                 runStateAtLeast(c, TIDYING) || // TIDYING或TERMINATED
-                (runStateOf(c) == SHUTDOWN && ! workQueue.isEmpty())) // SHUTDOWN且任务队列不为空
+                (runStateOf(c) == SHUTDOWN && // SHUTDOWN且任务队列不为空
+                 (! workQueue.isEmpty() || orphanTasks != null)))
                 return;
             
             // 以下是需要执行interrupt或terminate的场景：STOP，或者 SHUTDONW且workQueue为empty
@@ -903,7 +1112,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * Package-protected for use by ScheduledThreadPoolExecutor.
      */
     final void reject(Runnable command) {
-        handler.rejectedExecution(command, this);
+        RejectedExecutionHandler h = handler;
+        if (statisticsEnabled) {
+            LongAdder count = rejectedTaskCounts.get(h);
+            if (count == null) {
+                LongAdder added = new LongAdder();
+                if ((count = rejectedTaskCounts.putIfAbsent(h, added)) == null)
+                    count = added;
+            }
+            count.increment();
+        }
+        h.rejectedExecution(unwrap(command), this);
     }
 
     /**
@@ -929,7 +1148,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * Drains the task queue into a new list, normally using
      * drainTo. But if the queue is a DelayQueue or any other kind of
      * queue for which poll or drainTo may fail to remove some
-     * elements, it deletes them one by one.
+     * elements, it deletes them one by one. Tasks are returned as
+     * submitted, without their QueuedTask wrappers.
      */
     private List<Runnable> drainQueue() {
         BlockingQueue<Runnable> q = workQueue;
@@ -941,6 +1161,18 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                     taskList.add(r);
             }
         }
+        for (Worker w : workers) {
+            while (w.batching)
+                Thread.yield(); // let a batch transfer finish
+            for (Runnable r; (r = w.localTasks.pollFirst()) != null; )
+                taskList.add(r);
+        }
+        if (orphanTasks != null) {
+            taskList.addAll(orphanTasks);
+            orphanTasks = null;
+        }
+        for (int i = 0; i < taskList.size(); ++i)
+            taskList.set(i, unwrap(taskList.get(i)));
         return taskList;
     }
 
@@ -998,7 +1230,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             if (rs >= SHUTDOWN && // 非运行状态。可能正在关闭中、或已关闭等
                 ! (rs == SHUTDOWN && // 个人理解：SHUTDOWN的情况下(rs == SHUTDOWN)，不接受新任务(firstTask == null)，但会等待队列的任务执行完成(! workQueue.isEmpty())
                    firstTask == null && // 什么情况下为null?
-                   ! workQueue.isEmpty())) // 对应于上一层的：addWorker(null, false); or processWorkerExit()
+                   (! workQueue.isEmpty() || orphanTasks != null))) // 对应于上一层的：addWorker(null, false); or processWorkerExit()
                 return false; // 1.STOP 2.TIDYING 3.TERMINATED 4.SHUTDOWN && firstTask != null 5.SHUTDOWN && workQueue.isEmpty()
 
             // 在线程池状态正常的情况下，才检查工作线程数
@@ -1047,6 +1279,9 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                             throw new IllegalThreadStateException();
                         
                         workers.add(w); // 6.将Worker对象(w)添加到"线程池的Worker集合(workers)"中
+                        updateWorkerArray();
+                        adoptOrphans(w);
+                        ++workersCreated;
                         // 更新largestPoolSize
                         int s = workers.size();
                         if (s > largestPoolSize)
@@ -1082,8 +1317,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         final ReentrantLock mainLock = this.mainLock;
         mainLock.lock();
         try {
-            if (w != null)
-                workers.remove(w); // 移除任务线程
+            if (w != null && workers.remove(w)) // 移除任务线程
+                updateWorkerArray();
             decrementWorkerCount(); // 减少线程数
             tryTerminate();
         } finally {
@@ -1091,6 +1326,110 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         }
     }
 
+    /**
+     * Bulk form of addWorker(task, true) for a run of tasks, used by
+     * executeAll. Reserves as many core worker slots as are free (up
+     * to len) in one CAS, creates the workers, and registers them all
+     * under a single acquisition of mainLock. Only a prefix of the run
+     * is ever started: workers after the first one whose thread
+     * could not be created are rolled back, leaving their tasks to
+     * the caller.
+     *
+     * @param tasks the tasks, each becoming the first task of a worker
+     * @param off the index of the first task of the run
+     * @param len the length of the run
+     * @return the number of workers started, a prefix of the run
+     */
+    private int addWorkers(Runnable[] tasks, int off, int len) {
+        int m;
+        retry:
+        for (;;) {
+            int c = ctl.get();
+            int rs = runStateOf(c);
+            if (rs >= SHUTDOWN) // tasks are never null here
+                return 0;
+            for (;;) {
+                m = Math.min(len, Math.min(corePoolSize, CAPACITY) -
+                             workerCountOf(c));
+                if (m <= 0)
+                    return 0;
+                if (ctl.compareAndSet(c, c + m))
+                    break retry;
+                c = ctl.get();  // Re-read ctl
+                if (runStateOf(c) != rs)
+                    continue retry;
+            }
+        }
+
+        Worker[] ws = new Worker[m];
+        int added = 0;
+        int started = 0;
+        try {
+            for (int i = 0; i < m; ++i) {
+                Worker w = new Worker(tasks[off + i]);
+                if (w.thread == null)
+                    break;
+                ws[i] = w;
+                ++added;
+            }
+            final ReentrantLock mainLock = this.mainLock;
+            mainLock.lock();
+            try {
+                if (runStateOf(ctl.get()) < SHUTDOWN) {
+                    for (int i = 0; i < added; ++i) {
+                        if (ws[i].thread.isAlive()) // precheck that t is startable
+                            throw new IllegalThreadStateException();
+                        workers.add(ws[i]);
+                    }
+                    if (added > 0)
+                        adoptOrphans(ws[0]);
+                    int s = workers.size();
+                    if (s > largestPoolSize)
+                        largestPoolSize = s;
+                    updateWorkerArray();
+                    workersCreated += added;
+                }
+                else
+                    added = 0;
+            } finally {
+                mainLock.unlock();
+            }
+            while (started < added) {
+                ws[started].thread.start();
+                ++started;
+            }
+        } finally {
+            if (started < m)
+                addWorkersFailed(ws, started, m);
+        }
+        return started;
+    }
+
+    /**
+     * Rolls back the workers from index from (inclusive) to to
+     * (exclusive) of a batch reserved by addWorkers, in the same way
+     * as addWorkerFailed does for a single worker.
+     */
+    private void addWorkersFailed(Worker[] ws, int from, int to) {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            boolean removed = false;
+            for (int i = from; i < to; ++i) {
+                if (ws[i] != null && workers.remove(ws[i]))
+                    removed = true;
+            }
+            if (removed)
+                updateWorkerArray();
+            int k = to - from;
+            for (int c; !ctl.compareAndSet(c = ctl.get(), c - k); )
+                ;
+            tryTerminate();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
     /**
      * Performs cleanup and bookkeeping for a dying worker. Called
      * only from worker threads. Unless completedAbruptly is set,
@@ -1107,12 +1446,39 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     private void processWorkerExit(Worker w, boolean completedAbruptly) {
         if (completedAbruptly) // If abrupt, then workerCount wasn't adjusted. 异常结束
             decrementWorkerCount();
+        currentWorker.remove();
 
         final ReentrantLock mainLock = this.mainLock;
         mainLock.lock();
         try {
             completedTaskCount += w.completedTasks; // 将当前线程完成的任务数进行汇总
+            busyNanos += w.busyNanos;
+            ++workersExited;
+            AtomicLongArray stats = w.stats;
+            if (stats != null) {
+                if (retiredStats == null)
+                    retiredStats = new long[STATS_LENGTH];
+                addStats(stats, retiredStats);
+            }
             workers.remove(w); // 为什么不在这里decrementWorkerCount?
+            updateWorkerArray();
+            // A worker exits holding local tasks only if a task threw.
+            // They were accepted, so hand them back to the shared
+            // queue, or failing that keep them for the next worker
+            // (normally this one's replacement). Once stopped,
+            // shutdownNow has already drained the deque, and anything
+            // still on it is a push in progress that pushLocal itself
+            // takes back.
+            if (runStateLessThan(ctl.get(), STOP)) {
+                for (Runnable r; (r = w.localTasks.pollFirst()) != null; ) {
+                    if (!workQueue.offer(r)) {
+                        List<Runnable> orphans = orphanTasks;
+                        if (orphans == null)
+                            orphanTasks = orphans = new ArrayList<Runnable>();
+                        orphans.add(r);
+                    }
+                }
+            }
         } finally {
             mainLock.unlock();
         }
@@ -1123,7 +1489,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         if (runStateLessThan(c, STOP)) {
             if (!completedAbruptly) {
                 int min = allowCoreThreadTimeOut ? 0 : corePoolSize;
-                if (min == 0 && ! workQueue.isEmpty())
+                if (min == 0 && (! workQueue.isEmpty() || orphanTasks != null))
                     min = 1;
                 if (workerCountOf(c) >= min)
                     return; // replacement not needed
@@ -1145,10 +1511,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      *    {@code allowCoreThreadTimeOut || workerCount > corePoolSize})
      *    both before and after the timed wait.
      *
+     * Tasks on the worker's own local deque are always taken before
+     * any of these checks except the stop check, so a worker never
+     * exits while it still holds locally pushed or batched work. A
+     * new batch is taken only after the worker-count and timeout
+     * checks have decided that the worker stays.
+     *
+     * @param w the worker
      * @return task, or null if the worker must exit, in which case
      *         workerCount is decremented
      */
-    private Runnable getTask() {
+    private Runnable getTask(Worker w) {
         boolean timedOut = false; // Did the last poll() time out? 循环内的最后一步从队列中获取任务是否超时
 
         retry:
@@ -1157,11 +1530,16 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             int rs = runStateOf(c); // 运行状态
 
             // Check if queue empty only if necessary. 线程池已关闭
-            if (rs >= SHUTDOWN && (rs >= STOP || workQueue.isEmpty())) { // >=STOP or SHUTDOWN&workQueueIsEmpty
+            if (rs >= SHUTDOWN && (rs >= STOP ||
+                                   (workQueue.isEmpty() && w.localTasks.isEmpty()))) { // >=STOP or SHUTDOWN&workQueueIsEmpty
                 decrementWorkerCount(); // remove(worker)在父方法的processWorkerExit中，但为什么要分开处理？
                 return null;
             }
 
+            Runnable local = w.localTasks.pollFirst();
+            if (local != null)
+                return local;
+
             boolean timed;      // Are workers subject to culling?
 
             // 工作线程数及超时检查
@@ -1191,8 +1569,19 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                 // else CAS failed due to workerCount change; retry inner loop
             }
 
+            // Take a new batch only once we have decided to stay, so
+            // that surplus workers still retire under steady load, and
+            // only when no peer is idle, so a batch never holds back
+            // tasks that an idle worker could be running
+            int batch = taskBatchSize;
+            if (batch > 1 && idleWorkers.get() == 0 &&
+                (local = takeBatch(w, batch)) != null)
+                return local;
+
             try {
-                Runnable r = timed ?
+                Runnable r = (workStealing || batch > 1) ?
+                    pollOrSteal(w, timed) :
+                    timed ?
                     workQueue.poll(keepAliveTime, TimeUnit.NANOSECONDS) :
                     workQueue.take();
                 if (r != null)
@@ -1204,6 +1593,330 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         }
     }
 
+    /**
+     * Work-stealing form of the final step of getTask, also used when
+     * batching so that batched tasks can be stolen: polls
+     * workQueue, then tries to steal from each peer's local deque,
+     * and only then waits on workQueue. The idleWorkers count is
+     * raised for the whole interval, so that any task a busy worker
+     * pushes after our scan is routed through workQueue instead (see
+     * pushLocal) and will wake us.
+     *
+     * @param w the worker
+     * @param timed whether to wait at most keepAliveTime
+     * @return task, or null on timeout
+     */
+    private Runnable pollOrSteal(Worker w, boolean timed)
+        throws InterruptedException {
+        idleWorkers.incrementAndGet();
+        try {
+            Runnable r = workQueue.poll();
+            if (r == null && (r = steal(w)) == null)
+                r = timed ?
+                    workQueue.poll(keepAliveTime, TimeUnit.NANOSECONDS) :
+                    workQueue.take();
+            return r;
+        } finally {
+            idleWorkers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Scans the local deques of all other workers, starting at a
+     * random index to spread thieves across victims.
+     *
+     * @param w the stealing worker
+     * @return a stolen task, or null if all peers' deques were empty
+     */
+    private Runnable steal(Worker w) {
+        Worker[] ws = workerArray;
+        int n = ws.length;
+        if (n > 1) {
+            int origin = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; ++i) {
+                Worker v = ws[(origin + i) % n];
+                if (v != w) {
+                    Runnable r = v.localTasks.pollFirst();
+                    if (r != null)
+                        return r;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves up to batch tasks from workQueue to the local deque of
+     * the given worker, which must be that of the current thread,
+     * and returns the first of them. The transfer is bracketed by
+     * the worker's batching flag, so it either sees that the pool is
+     * stopping and takes nothing, or completes before shutdownNow
+     * drains the deque.
+     *
+     * @param w the current worker
+     * @param batch the maximum number of tasks to take
+     * @return the first task taken, or null if none
+     */
+    private Runnable takeBatch(Worker w, int batch) {
+        w.batching = true;
+        try {
+            if (runStateAtLeast(ctl.get(), STOP) ||
+                workQueue.drainTo(w.localTasks, batch) == 0)
+                return null;
+        } finally {
+            w.batching = false;
+        }
+        return w.localTasks.pollFirst();
+    }
+
+    /**
+     * Moves any orphaned tasks onto the local deque of a worker
+     * about to be started. Call only while holding mainLock.
+     */
+    private void adoptOrphans(Worker w) {
+        List<Runnable> orphans = orphanTasks;
+        if (orphans != null) {
+            orphanTasks = null;
+            w.localTasks.addAll(orphans);
+        }
+    }
+
+    /**
+     * Tries to push a task onto the local deque of the calling
+     * worker thread. Fails if the caller is not one of this pool's
+     * workers, if the pool is not running, if the pool has fewer
+     * than corePoolSize workers (so that execute starts another one
+     * rather than serializing the work on this thread), or if some
+     * worker is idle, in which case the task is better handed off
+     * through workQueue where that worker is (or will be) waiting. The idle
+     * count is rechecked after the push to close the race with a
+     * worker that goes idle concurrently; if the task can then be
+     * taken back it is handed off as usual, else somebody stole it.
+     *
+     * @param command the task
+     * @return true if the task was accepted (or rejected) here
+     */
+    private boolean pushLocal(Runnable command) {
+        Worker w = currentWorker.get();
+        int c = ctl.get();
+        if (w == null || !isRunning(c) ||
+            workerCountOf(c) < corePoolSize || idleWorkers.get() > 0)
+            return false;
+        ConcurrentLinkedDeque<Runnable> q = w.localTasks;
+        q.addLast(command);
+        if (idleWorkers.get() > 0 && q.removeLastOccurrence(command))
+            return false;
+        if (!isRunning(ctl.get()) && q.removeLastOccurrence(command))
+            reject(command);
+        return true;
+    }
+
+    /**
+     * Republishes the workers snapshot used for stealing. Call only
+     * while holding mainLock.
+     */
+    private void updateWorkerArray() {
+        workerArray = workers.toArray(new Worker[workers.size()]);
+    }
+
+    /**
+     * Consults the given pool sizer if a sample is due, and applies
+     * its result. Called on each submission and after each task
+     * completes while a sizer is installed, so that the pool is
+     * resized even when all workers are stuck in long-running tasks
+     * (no completions) or no tasks are arriving (no submissions).
+     * At most one thread samples at a time; others return at once.
+     *
+     * Task counts and busy times are read from the workers in a
+     * single pass under mainLock, so are mutually consistent to
+     * within the tasks completing during that pass. The result is
+     * applied with setCorePoolSize, after raising maximumPoolSize if
+     * needed, which starts workers for queued tasks or lets excess
+     * idle workers time out as usual.
+     *
+     * @param sizer the sizer read by the caller
+     */
+    private void sampleIfDue(PoolSizer sizer) {
+        long now = System.nanoTime();
+        if (now - nextSampleTime < 0L)
+            return;
+        final ReentrantLock sizingLock = this.sizingLock;
+        if (!sizingLock.tryLock())
+            return;
+        try {
+            if (sizer != poolSizer || now - nextSampleTime < 0L)
+                return;
+            nextSampleTime = now + sizingIntervalNanos;
+            long completed, busy;
+            int poolSize, active = 0;
+            final ReentrantLock mainLock = this.mainLock;
+            mainLock.lock();
+            try {
+                completed = completedTaskCount;
+                busy = busyNanos;
+                poolSize = workers.size();
+                for (Worker w : workers) {
+                    completed += w.completedTasks;
+                    busy += w.busyNanos;
+                    if (w.isLocked())
+                        ++active;
+                }
+            } finally {
+                mainLock.unlock();
+            }
+            long submitted = submittedTaskCount.sum();
+            int core = corePoolSize;
+            PoolSizer.Sample sample = null;
+            if (sizingPrimed)
+                sample = new PoolSizer.Sample(now - lastSampleTime,
+                                              submitted - lastSubmitted,
+                                              completed - lastCompleted,
+                                              busy - lastBusyNanos,
+                                              workQueue.size(), poolSize,
+                                              active, core);
+            sizingPrimed = true;
+            lastSampleTime = now;
+            lastSubmitted = submitted;
+            lastCompleted = completed;
+            lastBusyNanos = busy;
+            if (sample == null || !isRunning(ctl.get()))
+                return;
+            int size;
+            try {
+                size = sizer.poolSize(this, sample);
+            } catch (RuntimeException ignore) {
+                return; // sizing is advisory
+            }
+            if (size < 0)
+                size = 0;
+            else if (size > CAPACITY)
+                size = CAPACITY;
+            if (size != core) {
+                if (size > maximumPoolSize)
+                    setMaximumPoolSize(size);
+                setCorePoolSize(size);
+            }
+        } finally {
+            sizingLock.unlock();
+        }
+    }
+
+    /**
+     * A task accepted while statistics are enabled, wrapped with the
+     * time it was submitted, from which its wait in the queue is
+     * measured. Every task passed to execute or executeAll is wrapped
+     * the same way, whether or not it is a Future. The wrapper is
+     * what the queue, the local deques and new workers hold; runWorker,
+     * the rejected execution handler and the methods that return or
+     * remove queued tasks all see the original task (see unwrap).
+     */
+    static final class QueuedTask implements Runnable {
+        final Runnable task;
+        final long submitTime;
+
+        QueuedTask(Runnable task, long submitTime) {
+            this.task = task;
+            this.submitTime = submitTime;
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns the task wrapped by the given QueuedTask, or the given
+     * task itself if it is not one.
+     */
+    static Runnable unwrap(Runnable r) {
+        return (r instanceof QueuedTask) ? ((QueuedTask)r).task : r;
+    }
+
+    /**
+     * Records the timings of a task in the statistics array of the
+     * given worker, which must be that of the current thread. The
+     * array is written only by its worker, using lazySet, and is
+     * bracketed by increments of its sequence number, so readers in
+     * addStats can tell whether they saw a consistent copy without
+     * the writer ever blocking or issuing a full fence.
+     *
+     * @param w the current worker
+     * @param queueNanos the time the task waited to start, or
+     *        negative if unknown
+     * @param execNanos the time the task took to run
+     * @param failed whether the task completed abruptly
+     */
+    private static void recordTask(Worker w, long queueNanos,
+                                   long execNanos, boolean failed) {
+        AtomicLongArray a = w.stats;
+        if (a == null)
+            w.stats = a = new AtomicLongArray(STATS_LENGTH);
+        long seq = a.get(STAT_SEQ);
+        a.lazySet(STAT_SEQ, seq + 1L);
+        if (queueNanos >= 0L)
+            recordTime(a, STAT_QUEUE_TIME, queueNanos);
+        recordTime(a, STAT_EXEC_TIME, execNanos);
+        if (failed)
+            a.lazySet(STAT_FAILED, a.get(STAT_FAILED) + 1L);
+        a.lazySet(STAT_SEQ, seq + 2L);
+    }
+
+    /**
+     * Adds a duration to the histogram at the given offset of a
+     * statistics array owned by the current thread.
+     */
+    private static void recordTime(AtomicLongArray a, int base, long nanos) {
+        if (nanos < 0L)
+            nanos = 0L;
+        a.lazySet(base + STAT_COUNT, a.get(base + STAT_COUNT) + 1L);
+        a.lazySet(base + STAT_TOTAL, a.get(base + STAT_TOTAL) + nanos);
+        if (nanos > a.get(base + STAT_MAX))
+            a.lazySet(base + STAT_MAX, nanos);
+        int i = base + STAT_BUCKETS + LatencyHistogram.bucketFor(nanos);
+        a.lazySet(i, a.get(i) + 1L);
+    }
+
+    /**
+     * Adds a consistent copy of the given worker statistics array to
+     * the given sums, taking maxima rather than sums for the maximum
+     * fields. Retries while the owning worker is recording, which
+     * takes only a few stores.
+     */
+    private static void addStats(AtomicLongArray a, long[] sums) {
+        long[] copy = new long[STATS_LENGTH];
+        for (;;) {
+            long seq = a.get(STAT_SEQ);
+            if ((seq & 1L) == 0L) {
+                for (int i = 1; i < STATS_LENGTH; ++i)
+                    copy[i] = a.get(i);
+                if (a.get(STAT_SEQ) == seq)
+                    break;
+            }
+            Thread.yield();
+        }
+        for (int i = 1; i < STATS_LENGTH; ++i) {
+            if (i == STAT_QUEUE_TIME + STAT_MAX ||
+                i == STAT_EXEC_TIME + STAT_MAX) {
+                if (copy[i] > sums[i])
+                    sums[i] = copy[i];
+            }
+            else
+                sums[i] += copy[i];
+        }
+    }
+
+    /**
+     * Returns a histogram of the durations at the given offset of a
+     * summed statistics array.
+     */
+    private static LatencyHistogram histogram(long[] sums, int base) {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        System.arraycopy(sums, base + STAT_BUCKETS, counts, 0, counts.length);
+        return new LatencyHistogram(counts, sums[base + STAT_COUNT],
+                                    sums[base + STAT_TOTAL],
+                                    sums[base + STAT_MAX]);
+    }
+
     /**
      * Main worker run loop.  Repeatedly gets tasks from queue and
      * executes them, while coping with a number of issues:
@@ -1251,11 +1964,12 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         Thread wt = Thread.currentThread(); // 当前工作者线程
         Runnable task = w.firstTask; // 任务
         w.firstTask = null;
+        currentWorker.set(w);
         w.unlock(); // allow interrupts. why here unlock??
         boolean completedAbruptly = true;
         try {
         	// 循环执行任务
-            while (task != null || (task = getTask()) != null) {
+            while (task != null || (task = getTask(w)) != null) {
                 w.lock();
                 // If pool is stopping, ensure thread is interrupted;
                 // if not, ensure thread is not interrupted.  This
@@ -1266,6 +1980,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                       runStateAtLeast(ctl.get(), STOP))) && // 在清除线程中断状态之后，可能刚好线程池被关闭了（执行shutdownNow），这里做一次recheck
                     !wt.isInterrupted()) // 如果线程池正处于关闭中（>=STOP），并且线程未被中断，则进行中断。
                     wt.interrupt();
+                boolean stats = statisticsEnabled;
+                boolean timed = stats || poolSizer != null;
+                long start = timed ? System.nanoTime() : 0L;
+                long queueNanos = -1L;
+                if (task instanceof QueuedTask) {
+                    QueuedTask q = (QueuedTask)task;
+                    task = q.task;
+                    if (stats)
+                        queueNanos = start - q.submitTime;
+                }
+                boolean failed = true;
                 try {
                     beforeExecute(wt, task); // 
                     Throwable thrown = null;
@@ -1280,11 +2005,21 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                     } finally {
                         afterExecute(task, thrown); // 
                     }
+                    failed = false;
                 } finally {
                     task = null;
+                    if (timed) {
+                        long elapsed = System.nanoTime() - start;
+                        w.busyNanos += elapsed;
+                        if (stats)
+                            recordTask(w, queueNanos, elapsed, failed);
+                    }
                     w.completedTasks++; // 已完成任务计数
                     w.unlock();
                 }
+                PoolSizer sizer = poolSizer;
+                if (sizer != null)
+                    sampleIfDue(sizer);
             } // end of while
             completedAbruptly = false;
         } finally {
@@ -1445,6 +2180,28 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         this.keepAliveTime = unit.toNanos(keepAliveTime);
         this.threadFactory = threadFactory;
         this.handler = handler;
+        this.batchable = !overridesExecute(getClass());
+    }
+
+    /**
+     * Returns true if the given subclass, or a superclass below
+     * ThreadPoolExecutor, declares its own {@code execute(Runnable)}.
+     */
+    private static boolean overridesExecute(final Class<?> cl) {
+        return java.security.AccessController.doPrivileged(
+            new java.security.PrivilegedAction<Boolean>() {
+                public Boolean run() {
+                    for (Class<?> c = cl; c != ThreadPoolExecutor.class;
+                         c = c.getSuperclass()) {
+                        try {
+                            c.getDeclaredMethod("execute", Runnable.class);
+                            return Boolean.TRUE;
+                        } catch (NoSuchMethodException ignore) {
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+            });
     }
 
     /**
@@ -1489,7 +2246,28 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
          * 3. If we cannot queue task, then we try to add a new
          * thread.  If it fails, we know we are shut down or saturated
          * and so reject the task.
+         *
+         * In work-stealing mode, a task submitted by one of our own
+         * workers once the pool has reached its core size is first
+         * offered to that worker's local deque, bypassing all of the
+         * above (see pushLocal).
+         *
+         * If a pool sizer is installed, the submission is counted and
+         * the pool resized first if a sample is due (see sampleIfDue).
+         * While statistics are enabled, the task is wrapped in a
+         * QueuedTask stamped with the submission time, from which its
+         * queue wait is measured.
          */
+        PoolSizer sizer = poolSizer;
+        if (sizer != null) {
+            submittedTaskCount.increment();
+            sampleIfDue(sizer);
+        }
+        if (statisticsEnabled)
+            command = new QueuedTask(command, System.nanoTime());
+        if (workStealing && pushLocal(command))
+            return;
+
         int c = ctl.get();
         // 1.如果工作线程数小于corePoolSize，则尝试创建新线程来执行任务，并启动该线程从而执行任务。
         if (workerCountOf(c) < corePoolSize) {
@@ -1518,6 +2296,120 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             reject(command);
     }
 
+    /**
+     * Lets {@code invokeAll} use {@link #executeAll} unless a subclass
+     * overrides {@link #execute}, which must then see each task itself.
+     */
+    boolean batchesInvokeAll() {
+        return batchable;
+    }
+
+    /**
+     * Executes the given tasks sometime in the future, with the same
+     * effect as invoking {@link #execute} on each of them in
+     * iteration order, but amortizing the per-task overhead: the
+     * core threads needed are reserved with a single update of the
+     * pool control state and registered under one lock acquisition,
+     * and the remaining tasks are handed to the queue in bulk where
+     * the queue supports it ({@link LinkedBlockingQueue} and {@link
+     * ArrayBlockingQueue} take each of their locks only once per
+     * run of tasks that fits).
+     *
+     * <p>Tasks that cannot be accepted are handled one by one by the
+     * current {@code RejectedExecutionHandler}; if it throws, the
+     * remaining tasks are not submitted.
+     *
+     * <p>The batched hand-off does not go through {@link #execute}.
+     * If a subclass overrides {@code execute}, this method instead
+     * invokes it once per task, in iteration order, so that the
+     * override sees every task; the same holds for {@link #submitAll}
+     * and {@link #invokeAll(Collection)}, which submit through this
+     * method.
+     *
+     * @param commands the tasks to execute
+     * @throws RejectedExecutionException at discretion of
+     *         {@code RejectedExecutionHandler}, if a task
+     *         cannot be accepted for execution
+     * @throws NullPointerException if commands or any of its
+     *         elements are null
+     * @since 1.7
+     */
+    public void executeAll(Collection<? extends Runnable> commands) {
+        if (commands == null)
+            throw new NullPointerException();
+        if (!batchable) {
+            super.executeAll(commands);
+            return;
+        }
+        Runnable[] tasks = commands.toArray(new Runnable[commands.size()]);
+        int n = tasks.length;
+        for (int i = 0; i < n; ++i)
+            if (tasks[i] == null)
+                throw new NullPointerException();
+        PoolSizer sizer = poolSizer;
+        if (sizer != null) {
+            submittedTaskCount.add(n);
+            sampleIfDue(sizer);
+        }
+        if (statisticsEnabled) {
+            long now = System.nanoTime();
+            for (int i = 0; i < n; ++i)
+                tasks[i] = new QueuedTask(tasks[i], now);
+        }
+        /*
+         * Same three steps as execute, applied to runs of tasks:
+         * leading tasks become first tasks of new core workers, then
+         * as many as fit are queued at once, and any task that still
+         * does not fit gets a non-core worker or is rejected, after
+         * which we try queuing again.
+         */
+        int i = 0;
+        if (workerCountOf(ctl.get()) < corePoolSize)
+            i = addWorkers(tasks, 0, n);
+        while (i < n) {
+            int k = isRunning(ctl.get()) ? enqueueAll(tasks, i, n - i) : 0;
+            if (k > 0) {
+                int end = i + k;
+                int recheck = ctl.get();
+                if (! isRunning(recheck)) {
+                    for (int j = i; j < end; ++j)
+                        if (remove(tasks[j]))
+                            reject(tasks[j]);
+                }
+                else if (workerCountOf(recheck) == 0)
+                    addWorker(null, false);
+                i = end;
+            }
+            else {
+                Runnable command = tasks[i++];
+                if (!addWorker(command, false))
+                    reject(command);
+            }
+        }
+    }
+
+    /**
+     * Offers a run of tasks to the work queue, in bulk if the queue
+     * is one of the standard kinds known to support it (subclasses
+     * may override offer, so they are treated as unknown queues),
+     * else one at a time until an offer fails.
+     *
+     * @return the number of tasks queued, a prefix of the run
+     */
+    @SuppressWarnings("unchecked")
+    private int enqueueAll(Runnable[] tasks, int off, int len) {
+        BlockingQueue<Runnable> q = workQueue;
+        Class<?> qc = q.getClass();
+        if (qc == LinkedBlockingQueue.class)
+            return ((LinkedBlockingQueue<Runnable>)q).offerAll(tasks, off, len);
+        if (qc == ArrayBlockingQueue.class)
+            return ((ArrayBlockingQueue<Runnable>)q).offerAll(tasks, off, len);
+        int k = 0;
+        while (k < len && q.offer(tasks[off + k]))
+            ++k;
+        return k;
+    }
+
     /**
      * Initiates an orderly shutdown in which previously submitted
      * tasks are executed, but no new tasks will be accepted.
@@ -1800,6 +2692,209 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         }
     }
 
+    /**
+     * Returns true if this pool lets tasks submitted from its own
+     * worker threads stay on those workers' local deques, to be
+     * stolen by idle workers. When false (the default), every task
+     * is handed off through the work queue.
+     *
+     * @return {@code true} if work stealing is enabled,
+     *         else {@code false}
+     */
+    public boolean allowsWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * Sets the policy governing whether tasks submitted from this
+     * pool's own worker threads are pushed onto a deque local to the
+     * submitting worker instead of the work queue, once the pool has
+     * started its core threads. Each worker runs
+     * its local tasks before polling the work queue, and a worker
+     * that has run out of tasks tries to steal from its peers' local
+     * deques before blocking. This can greatly reduce contention on
+     * the work queue when tasks spawn further tasks. Tasks submitted
+     * by other threads are always queued as usual, and local tasks
+     * are subject to the same shutdown, {@link #shutdownNow},
+     * {@link #remove} and {@link #purge} semantics as queued tasks.
+     * This method should in general be called before the pool is
+     * actively used.
+     *
+     * @param value {@code true} if work stealing should be used,
+     *        else {@code false}
+     */
+    public void allowWorkStealing(boolean value) {
+        workStealing = value;
+    }
+
+    /**
+     * Returns the maximum number of tasks a worker takes from the
+     * work queue at once.
+     *
+     * @return the task batch size
+     * @see #setTaskBatchSize
+     */
+    public int getTaskBatchSize() {
+        return taskBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of tasks a worker takes from the work
+     * queue at once. When the value is greater than one (the default
+     * is one), a worker that needs a task while no other worker is
+     * idle removes up to that many tasks with a single {@link
+     * BlockingQueue#drainTo(Collection, int) drainTo}, and then runs
+     * them one after another before returning to the queue. This
+     * amortizes the cost of queue synchronization over the batch,
+     * which can matter greatly when tasks are very short. Batched
+     * tasks are held in the same worker-local deque as in
+     * {@linkplain #allowWorkStealing work-stealing} mode, and may be
+     * stolen by workers that become idle. Each still runs with its
+     * own calls to {@link #beforeExecute} and {@link #afterExecute},
+     * and batched tasks not yet started are subject to the same
+     * shutdown, {@link #shutdownNow}, {@link #remove} and {@link
+     * #purge} semantics as queued tasks.
+     *
+     * @param size the task batch size
+     * @throws IllegalArgumentException if {@code size} is less than one
+     * @see #getTaskBatchSize
+     */
+    public void setTaskBatchSize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException();
+        taskBatchSize = size;
+    }
+
+    /**
+     * Installs a sizer that adjusts the core pool size to the load.
+     * About once per sampling interval, whichever thread next
+     * submits or completes a task measures the pool's throughput,
+     * busy time and queue length over the interval, passes them to
+     * the sizer, and applies its result as if by {@link
+     * #setCorePoolSize}, first raising the {@linkplain
+     * #setMaximumPoolSize maximum pool size} if the result exceeds
+     * it. Unlike the sizes set in the constructor, this allows a
+     * pool with an unbounded queue to grow when tasks queue up, and
+     * to shrink again (as governed by the {@linkplain
+     * #setKeepAliveTime keep-alive time}) when they do not. The
+     * first sample after installing a sizer is used only as a
+     * baseline. Passing {@code null} removes the current sizer,
+     * leaving the pool at whatever size it last chose.
+     *
+     * <p>While a sizer is installed, each task run is timed with two
+     * calls to {@link System#nanoTime}, and each submission updates
+     * a shared counter.
+     *
+     * @param sizer the sizer, or {@code null} for none
+     * @param interval the sampling interval
+     * @param unit the time unit of the {@code interval} argument
+     * @throws IllegalArgumentException if {@code sizer} is non-null
+     *         and {@code interval} is not positive
+     * @throws NullPointerException if {@code sizer} is non-null and
+     *         {@code unit} is null
+     * @see #getPoolSizer
+     * @see TargetLatencySizer
+     */
+    public void setPoolSizer(PoolSizer sizer, long interval, TimeUnit unit) {
+        long nanos = 0L;
+        if (sizer != null) {
+            if (interval <= 0)
+                throw new IllegalArgumentException();
+            nanos = unit.toNanos(interval);
+        }
+        final ReentrantLock sizingLock = this.sizingLock;
+        sizingLock.lock();
+        try {
+            sizingPrimed = false;
+            sizingIntervalNanos = nanos;
+            nextSampleTime = System.nanoTime();
+            poolSizer = sizer;
+        } finally {
+            sizingLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current pool sizer.
+     *
+     * @return the current pool sizer, or {@code null} if none
+     * @see #setPoolSizer
+     */
+    public PoolSizer getPoolSizer() {
+        return poolSizer;
+    }
+
+    /**
+     * Sets whether this pool gathers task statistics, as returned by
+     * {@link #getStatistics}. While enabled, each task is stamped
+     * with {@link System#nanoTime} on submission, to time its wait in
+     * the queue, and its run is timed with two more calls; the
+     * timings are recorded by the worker that ran the task into
+     * histograms of its own, without locking. The stamp is kept in a
+     * small wrapper around the task (see {@link #getQueue}), the only
+     * allocation made for statistics. Statistics are disabled by
+     * default. Disabling them does not discard the statistics
+     * gathered so far; tasks submitted while they were enabled are
+     * still unwrapped, but not timed.
+     *
+     * @param value {@code true} if statistics should be gathered,
+     *        else {@code false}
+     * @see #getStatistics
+     */
+    public void setStatisticsEnabled(boolean value) {
+        statisticsEnabled = value;
+    }
+
+    /**
+     * Returns {@code true} if this pool gathers task statistics.
+     *
+     * @return {@code true} if statistics are gathered
+     * @see #setStatisticsEnabled
+     */
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Returns a snapshot of the statistics gathered by this pool:
+     * histograms of how long tasks waited in the queue and took to
+     * run, the numbers of failed and rejected tasks, and the numbers
+     * of worker threads created and exited. Task timings and
+     * rejections are gathered only while {@linkplain
+     * #setStatisticsEnabled statistics are enabled}; worker counts
+     * are always maintained.
+     *
+     * @return a snapshot of this pool's statistics
+     */
+    public ThreadPoolStatistics getStatistics() {
+        long[] sums = new long[STATS_LENGTH];
+        long created, exited;
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            if (retiredStats != null)
+                System.arraycopy(retiredStats, 0, sums, 0, STATS_LENGTH);
+            for (Worker w : workers) {
+                AtomicLongArray stats = w.stats;
+                if (stats != null)
+                    addStats(stats, sums);
+            }
+            created = workersCreated;
+            exited = workersExited;
+        } finally {
+            mainLock.unlock();
+        }
+        Map<RejectedExecutionHandler, Long> rejected =
+            new HashMap<RejectedExecutionHandler, Long>();
+        for (Map.Entry<RejectedExecutionHandler, LongAdder> e :
+                 rejectedTaskCounts.entrySet())
+            rejected.put(e.getKey(), e.getValue().sum());
+        return new ThreadPoolStatistics(histogram(sums, STAT_QUEUE_TIME),
+                                        histogram(sums, STAT_EXEC_TIME),
+                                        sums[STAT_FAILED], created, exited,
+                                        rejected);
+    }
+
     /**
      * Sets the maximum allowed number of threads. This overrides any
      * value set in the constructor. If the new value is smaller than
@@ -1877,6 +2972,12 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * This queue may be in active use.  Retrieving the task queue
      * does not prevent queued tasks from executing.
      *
+     * <p>While {@linkplain #setStatisticsEnabled statistics are
+     * enabled}, each task accepted by {@link #execute} is held in the
+     * queue wrapped in an internal {@code Runnable} that records when
+     * it was submitted. {@link #remove}, {@link #purge} and {@link
+     * #shutdownNow} see through these wrappers.
+     *
      * @return the task queue
      */
     public BlockingQueue<Runnable> getQueue() {
@@ -1900,11 +3001,46 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * @return true if the task was removed
      */
     public boolean remove(Runnable task) {
-        boolean removed = workQueue.remove(task);
+        boolean removed = removeTask(workQueue, task);
+        if (!removed) {
+            for (Worker w : workerArray) {
+                if (removeTask(w.localTasks, task)) {
+                    removed = true;
+                    break;
+                }
+            }
+        }
         tryTerminate(); // In case SHUTDOWN and now empty
         return removed;
     }
 
+    /**
+     * Removes the given task from the given queue or deque, either
+     * as it is or, failing that, wrapped in a QueuedTask.
+     */
+    private static boolean removeTask(Collection<Runnable> c, Runnable task) {
+        if (c.remove(task))
+            return true;
+        if (task == null || task instanceof QueuedTask)
+            return false;
+        for (Object e : c.toArray()) {
+            if (e instanceof QueuedTask &&
+                task.equals(((QueuedTask)e).task) && c.remove(e))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the given queued task, once unwrapped, is a
+     * cancelled Future.
+     */
+    private static boolean isCancelledFuture(Object r) {
+        if (r instanceof QueuedTask)
+            r = ((QueuedTask)r).task;
+        return r instanceof Future<?> && ((Future<?>)r).isCancelled();
+    }
+
     /**
      * Tries to remove from the work queue all {@link Future}
      * tasks that have been cancelled. This method can be useful as a
@@ -1921,7 +3057,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             Iterator<Runnable> it = q.iterator();
             while (it.hasNext()) {
                 Runnable r = it.next();
-                if (r instanceof Future<?> && ((Future<?>)r).isCancelled())
+                if (isCancelledFuture(r))
                     it.remove();
             }
         } catch (ConcurrentModificationException fallThrough) {
@@ -1929,9 +3065,18 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             // Make copy for traversal and call remove for cancelled entries.
             // The slow path is more likely to be O(N*N).
             for (Object r : q.toArray())
-                if (r instanceof Future<?> && ((Future<?>)r).isCancelled())
+                if (isCancelledFuture(r))
                     q.remove(r);
         }
+        for (Worker w : workerArray) {
+            // Deques of the concurrent kind never throw CME
+            Iterator<Runnable> it = w.localTasks.iterator();
+            while (it.hasNext()) {
+                Runnable r = it.next();
+                if (isCancelledFuture(r))
+                    it.remove();
+            }
+        }
 
         tryTerminate(); // In case SHUTDOWN and now empty
     }
@@ -2006,7 +3151,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         try {
             long n = completedTaskCount;
             for (Worker w : workers) {
-                n += w.completedTasks;
+                n += w.completedTasks + w.localTasks.size();
                 if (w.isLocked())
                     ++n;
             }
@@ -2047,15 +3192,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     public String toString() {
         long ncompleted;
-        int nworkers, nactive;
+        int nworkers, nactive, nlocal;
         final ReentrantLock mainLock = this.mainLock;
         mainLock.lock();
         try {
             ncompleted = completedTaskCount;
             nactive = 0;
+            nlocal = 0;
             nworkers = workers.size();
             for (Worker w : workers) {
                 ncompleted += w.completedTasks;
+                nlocal += w.localTasks.size();
                 if (w.isLocked())
                     ++nactive;
             }
@@ -2070,7 +3217,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             "[" + rs +
             ", pool size = " + nworkers +
             ", active threads = " + nactive +
-            ", queued tasks = " + workQueue.size() +
+            ", queued tasks = " + (workQueue.size() + nlocal) +
             ", completed tasks = " + ncompleted +
             "]";
     }
@@ -2248,5 +3395,275 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             }
         }
     }
+
+    /**
+     * A handler for rejected tasks that first sheds stale work from
+     * an overloaded {@link CoDelBlockingQueue}, and then passes the
+     * rejected task to another handler.  Used with a {@code
+     * CoDelBlockingQueue} as the work queue, which refuses new tasks
+     * once it has held a standing backlog for an interval, this
+     * bounds the time tasks wait under sustained overload: new tasks
+     * are rejected at once, and each rejection also removes the
+     * queued tasks that have waited more than twice the queue's
+     * target sojourn time, which would likely be of no use to anyone
+     * by the time they ran.  Shed tasks are never run.  Those that
+     * are {@link Future}s are cancelled, so that threads waiting on
+     * them do not wait forever.  Any other shed task cannot be
+     * cancelled, so it is reported instead: once the rejected task
+     * has been passed to the handler, this policy throws a {@link
+     * RejectedExecutionException} stating how many such tasks were
+     * shed, to the submitter whose task caused the shedding.  If the
+     * handler itself threw a {@code RejectedExecutionException}, that
+     * exception is thrown instead, with the report added as a
+     * suppressed exception.  With any other work queue this handler
+     * just delegates.
+     *
+     * <p>The handler for the rejected task itself determines what
+     * else the submitter sees: by default an {@link AbortPolicy}, so
+     * that callers learn of overload quickly and can retry elsewhere
+     * or degrade; a {@link CallerRunsPolicy} instead slows submitters
+     * down, and such a submitter has already run its own task if
+     * this policy then reports shed tasks.  The handler is not
+     * applied to shed tasks.
+     */
+    public static class LoadSheddingPolicy implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler handler;
+        private final LongAdder shedTaskCount = new LongAdder();
+
+        /**
+         * Creates a {@code LoadSheddingPolicy} that aborts rejected
+         * tasks, as {@link AbortPolicy} does.
+         */
+        public LoadSheddingPolicy() {
+            this(new AbortPolicy());
+        }
+
+        /**
+         * Creates a {@code LoadSheddingPolicy} that passes rejected
+         * tasks to the given handler after shedding stale ones.
+         *
+         * @param handler the handler for rejected tasks
+         * @throws NullPointerException if {@code handler} is null
+         */
+        public LoadSheddingPolicy(RejectedExecutionHandler handler) {
+            if (handler == null)
+                throw new NullPointerException();
+            this.handler = handler;
+        }
+
+        /**
+         * Removes stale tasks if the executor's queue is an
+         * overloaded {@code CoDelBlockingQueue}, cancelling those that
+         * are Futures, then passes task r to the handler.  Throws a
+         * {@code RejectedExecutionException} if any shed task was not
+         * a Future.
+         *
+         * @param r the runnable task requested to be executed
+         * @param e the executor attempting to execute this task
+         * @throws RejectedExecutionException if thrown by the handler,
+         *         or if tasks that are not Futures were shed
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            int unreported = 0;
+            BlockingQueue<Runnable> q = e.getQueue();
+            if (q instanceof CoDelBlockingQueue) {
+                List<Runnable> stale = new ArrayList<Runnable>();
+                int n = ((CoDelBlockingQueue<Runnable>)q).drainStale(stale);
+                if (n > 0) {
+                    shedTaskCount.add(n);
+                    for (Runnable t : stale) {
+                        t = unwrap(t);
+                        if (t instanceof Future)
+                            ((Future<?>)t).cancel(false);
+                        else
+                            ++unreported;
+                    }
+                }
+            }
+            if (unreported == 0) {
+                handler.rejectedExecution(r, e);
+                return;
+            }
+            RejectedExecutionException shed =
+                new RejectedExecutionException(unreported +
+                                               " stale tasks shed from " +
+                                               e.toString());
+            try {
+                handler.rejectedExecution(r, e);
+            } catch (RejectedExecutionException ex) {
+                ex.addSuppressed(shed);
+                throw ex;
+            }
+            throw shed;
+        }
+
+        /**
+         * Returns the number of queued tasks this policy has shed.
+         * Rejected tasks passed to its handler are not included.
+         *
+         * @return the number of tasks shed
+         */
+        public long getShedTaskCount() {
+            return shedTaskCount.sum();
+        }
+    }
+
+    /**
+     * A {@link PoolSizer} that aims to keep tasks from waiting in the
+     * queue longer than a target latency, without adding threads
+     * that do not increase throughput. Each sample, it estimates the
+     * mean service time of a task (busy time over completed tasks)
+     * and, by Little's law, the number of threads needed to keep up
+     * with the arrival rate while also draining the current backlog
+     * within the target latency. Because a pool of CPU-bound tasks
+     * cannot complete tasks faster once it has more threads than
+     * processors, growth is also checked by hill climbing: if the
+     * last increase in pool size did not raise throughput while
+     * tasks were queued, the pool is held below that size until the
+     * queue next empties, with an occasional one-thread probe above
+     * it. Changes are damped to at most doubling, or shrinking by a
+     * quarter, per sample.
+     *
+     * <p>A sizer keeps state between samples, so should be installed
+     * in only one executor.
+     */
+    public static class TargetLatencySizer implements PoolSizer {
+        /**
+         * Minimum relative increase in throughput for which an
+         * increase in pool size is considered worthwhile.
+         */
+        private static final double MIN_GAIN = 0.05;
+
+        /**
+         * Number of consecutive samples held at the hill-climbing
+         * ceiling with tasks queued before probing one thread above
+         * it.
+         */
+        private static final int PROBE_SAMPLES = 8;
+
+        private final int minPoolSize;
+        private final int maxPoolSize;
+        private final long targetNanos;
+
+        // State from the previous sample. Guarded by this.
+        private int lastCoreSize;
+        private int lastQueueSize;
+        private double lastThroughput;
+        private int ceiling;
+        private int cappedSamples;
+
+        /**
+         * Creates a {@code TargetLatencySizer} that keeps the pool
+         * between one thread and the number of {@linkplain
+         * Runtime#availableProcessors available processors}, which
+         * suits CPU-bound tasks.
+         *
+         * @param targetLatency the longest tasks should wait in the
+         *        queue
+         * @param unit the time unit of the {@code targetLatency}
+         *        argument
+         * @throws IllegalArgumentException if {@code targetLatency}
+         *         is not positive
+         * @throws NullPointerException if {@code unit} is null
+         */
+        public TargetLatencySizer(long targetLatency, TimeUnit unit) {
+            this(1, Runtime.getRuntime().availableProcessors(),
+                 targetLatency, unit);
+        }
+
+        /**
+         * Creates a {@code TargetLatencySizer} that keeps the pool
+         * within the given bounds. Tasks that block should be given
+         * a maximum large enough to cover the threads that are
+         * blocked at any one time.
+         *
+         * @param minPoolSize the smallest core pool size to choose
+         * @param maxPoolSize the largest core pool size to choose
+         * @param targetLatency the longest tasks should wait in the
+         *        queue
+         * @param unit the time unit of the {@code targetLatency}
+         *        argument
+         * @throws IllegalArgumentException if {@code minPoolSize} is
+         *         negative, {@code maxPoolSize} is not positive or is
+         *         less than {@code minPoolSize}, or
+         *         {@code targetLatency} is not positive
+         * @throws NullPointerException if {@code unit} is null
+         */
+        public TargetLatencySizer(int minPoolSize, int maxPoolSize,
+                                  long targetLatency, TimeUnit unit) {
+            if (minPoolSize < 0 || maxPoolSize <= 0 ||
+                maxPoolSize < minPoolSize || targetLatency <= 0)
+                throw new IllegalArgumentException();
+            this.minPoolSize = minPoolSize;
+            this.maxPoolSize = maxPoolSize;
+            this.targetNanos = unit.toNanos(targetLatency);
+            this.ceiling = maxPoolSize;
+        }
+
+        /**
+         * Returns the core pool size needed to hold the target
+         * latency, as estimated from the given sample.
+         *
+         * @param executor the executor being sized
+         * @param sample the measurements for the last interval
+         * @return the new core pool size
+         */
+        public synchronized int poolSize(ThreadPoolExecutor executor,
+                                         Sample sample) {
+            int core = sample.getCorePoolSize();
+            int queued = sample.getQueueSize();
+            long done = sample.getCompletedTaskCount();
+            double interval = Math.max(1L, sample.getIntervalNanos());
+            double throughput = done / interval;
+            int target;
+            if (done == 0L) {
+                // No service time to go on: add a thread if tasks
+                // are waiting behind a fully busy pool, give one back
+                // if the pool is idle.
+                if (queued > 0 &&
+                    sample.getActiveCount() >= sample.getPoolSize())
+                    target = core + 1;
+                else if (queued == 0 && sample.getActiveCount() == 0)
+                    target = core - 1;
+                else
+                    target = core;
+            } else {
+                double service = sample.getBusyNanos() / (double)done;
+                double arrivals = sample.getSubmittedTaskCount() / interval;
+                double needed =
+                    (arrivals + queued / (double)targetNanos) * service;
+                target = (needed >= maxPoolSize) ? maxPoolSize :
+                    (int)Math.ceil(needed);
+                if (queued == 0) {
+                    ceiling = maxPoolSize;
+                    cappedSamples = 0;
+                }
+                else if (core > lastCoreSize && lastQueueSize > 0 &&
+                         throughput < lastThroughput * (1.0 + MIN_GAIN)) {
+                    ceiling = Math.max(lastCoreSize, minPoolSize);
+                    cappedSamples = 0;
+                }
+                if (target > ceiling) {
+                    if (++cappedSamples >= PROBE_SAMPLES) {
+                        cappedSamples = 0;
+                        ceiling = Math.min(ceiling + 1, maxPoolSize);
+                    }
+                    target = ceiling;
+                }
+            }
+            if (target > core)
+                target = Math.min(target, Math.max(core << 1, core + 1));
+            else if (target < core)
+                target = Math.max(target, core - Math.max(1, core >>> 2));
+            if (target < minPoolSize)
+                target = minPoolSize;
+            else if (target > maxPoolSize)
+                target = maxPoolSize;
+            lastCoreSize = core;
+            lastQueueSize = queued;
+            lastThroughput = throughput;
+            return target;
+        }
+    }
 }
 
@@ -0,0 +1,164 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+
+package java.util.concurrent;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of the statistics gathered by a {@link
+ * ThreadPoolExecutor} while {@linkplain
+ * ThreadPoolExecutor#setStatisticsEnabled statistics are enabled}:
+ * how long tasks waited to start and took to run, how many tasks
+ * failed or were rejected, and how many worker threads were created
+ * and have exited.
+ *
+ * <p>A snapshot is taken while holding the pool's main lock, so the
+ * worker counts and the set of workers whose timings are included
+ * are mutually consistent, and the timings of each task are included
+ * in both histograms or in neither. Rejection counts may include
+ * rejections still in progress.
+ *
+ * @since 1.7
+ */
+public final class ThreadPoolStatistics {
+
+    private final LatencyHistogram queueTime;
+    private final LatencyHistogram executionTime;
+    private final long failedTaskCount;
+    private final long workersCreated;
+    private final long workersExited;
+    private final Map<RejectedExecutionHandler, Long> rejectedTaskCounts;
+
+    ThreadPoolStatistics(LatencyHistogram queueTime,
+                         LatencyHistogram executionTime,
+                         long failedTaskCount,
+                         long workersCreated, long workersExited,
+                         Map<RejectedExecutionHandler, Long> rejectedTaskCounts) {
+        this.queueTime = queueTime;
+        this.executionTime = executionTime;
+        this.failedTaskCount = failedTaskCount;
+        this.workersCreated = workersCreated;
+        this.workersExited = workersExited;
+        this.rejectedTaskCounts =
+            Collections.unmodifiableMap(rejectedTaskCounts);
+    }
+
+    /**
+     * Returns the distribution of the times tasks spent between
+     * being submitted and starting to run. Every task submitted
+     * while statistics are enabled is included, whether through
+     * {@code execute} or the methods built on it. Tasks submitted
+     * before statistics were enabled are not, nor are the delayed
+     * tasks of a {@code ScheduledThreadPoolExecutor}, which do not
+     * pass through {@code execute}.
+     *
+     * @return the queue time histogram
+     */
+    public LatencyHistogram getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * Returns the distribution of the times tasks took to run,
+     * including the {@code beforeExecute} and {@code afterExecute}
+     * hooks. All tasks run are included.
+     *
+     * @return the execution time histogram
+     */
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * Returns the number of tasks that completed abruptly, by
+     * throwing from {@code run} or from the {@code beforeExecute}
+     * or {@code afterExecute} hooks. Tasks created by {@code submit}
+     * capture their own exceptions, so are not counted.
+     *
+     * @return the number of failed tasks
+     */
+    public long getFailedTaskCount() {
+        return failedTaskCount;
+    }
+
+    /**
+     * Returns the number of worker threads created since the pool
+     * was constructed.
+     *
+     * @return the number of workers created
+     */
+    public long getWorkersCreated() {
+        return workersCreated;
+    }
+
+    /**
+     * Returns the number of worker threads that have exited since
+     * the pool was constructed.
+     *
+     * @return the number of workers exited
+     */
+    public long getWorkersExited() {
+        return workersExited;
+    }
+
+    /**
+     * Returns the number of tasks rejected, keyed by the handler
+     * that was invoked for them.
+     *
+     * @return an unmodifiable map from handler to rejection count
+     */
+    public Map<RejectedExecutionHandler, Long> getRejectedTaskCounts() {
+        return rejectedTaskCounts;
+    }
+
+    /**
+     * Returns the total number of tasks rejected.
+     *
+     * @return the number of tasks rejected
+     */
+    public long getRejectedTaskCount() {
+        long n = 0L;
+        for (Long c : rejectedTaskCounts.values())
+            n += c;
+        return n;
+    }
+
+    /**
+     * Returns a string summarizing these statistics.
+     *
+     * @return a string summarizing these statistics
+     */
+    public String toString() {
+        return super.toString() +
+            "[queue time = " + queueTime +
+            ", execution time = " + executionTime +
+            ", failed tasks = " + failedTaskCount +
+            ", rejected tasks = " + getRejectedTaskCount() +
+            ", workers created = " + workersCreated +
+            ", workers exited = " + workersExited + "]";
+    }
+}
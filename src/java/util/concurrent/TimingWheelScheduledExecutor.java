@@ -0,0 +1,870 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent;
+import java.util.concurrent.locks.*;
+import java.util.*;
+
+/**
+ * A {@link ScheduledThreadPoolExecutor} whose pending tasks are held
+ * in a hierarchical timing wheel rather than a heap.  This class is
+ * meant for applications that keep very large numbers of delayed
+ * tasks pending, most of which are cancelled before they run, such as
+ * connection idle timeouts and request deadlines.  Scheduling and
+ * cancelling a task take constant time, independent of the number of
+ * pending tasks, and cancelled tasks are removed from the wheel
+ * immediately: unlike its superclass, this class starts with the
+ * {@linkplain #setRemoveOnCancelPolicy remove-on-cancel policy} set
+ * to {@code true}, since removal is cheap.
+ *
+ * <p>The price of constant-time operations is granularity.  Time is
+ * divided into <em>ticks</em> of a fixed duration, given on
+ * construction, and a task becomes eligible to run at the end of the
+ * tick containing its trigger time.  Thus a task never runs before
+ * its delay has elapsed, but may run up to one tick later than it
+ * would in a {@code ScheduledThreadPoolExecutor}; tasks whose trigger
+ * times fall in the same tick are released together, in order of
+ * trigger time, and tasks with the same trigger time in the order in
+ * which they were scheduled.  The tick duration should therefore be
+ * chosen as the coarsest granularity the application can tolerate.
+ * A duration of one millisecond is used if none is given.
+ *
+ * <p>In all other respects this class behaves as {@link
+ * ScheduledThreadPoolExecutor} does.  Tasks that are not created by
+ * this class may be supplied through {@code decorateTask}, but can
+ * then only be removed from the queue by linear search.  The
+ * {@linkplain #setLazyRemoveOnCancelPolicy lazy remove-on-cancel
+ * policy} has no effect on the timing wheel: cancelled tasks are
+ * either removed at once or, if the remove-on-cancel policy is
+ * {@code false}, kept until their trigger time.
+ *
+ * @since 1.7
+ */
+public class TimingWheelScheduledExecutor extends ScheduledThreadPoolExecutor {
+
+    /*
+     * This class differs from ScheduledThreadPoolExecutor only in its
+     * work queue, a TimingWheelQueue, which finds the node of a
+     * ScheduledFutureTask through the task's holder field.
+     */
+
+    /** The tick duration used if none is supplied, in nanoseconds */
+    static final long DEFAULT_TICK_NANOS = 1000L * 1000L;
+
+    /**
+     * Creates a new {@code TimingWheelScheduledExecutor} with the
+     * given core pool size and a tick duration of one millisecond.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}
+     */
+    public TimingWheelScheduledExecutor(int corePoolSize) {
+        this(corePoolSize, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a new {@code TimingWheelScheduledExecutor} with the
+     * given core pool size and tick duration.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param tickDuration the granularity of scheduling
+     * @param unit the time unit of the {@code tickDuration} argument
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}, or
+     *         {@code tickDuration} is not positive
+     * @throws NullPointerException if {@code unit} is null
+     */
+    public TimingWheelScheduledExecutor(int corePoolSize,
+                                        long tickDuration,
+                                        TimeUnit unit) {
+        this(corePoolSize, tickDuration, unit,
+             Executors.defaultThreadFactory(), new AbortPolicy());
+    }
+
+    /**
+     * Creates a new {@code TimingWheelScheduledExecutor} with the
+     * given initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param tickDuration the granularity of scheduling
+     * @param unit the time unit of the {@code tickDuration} argument
+     * @param threadFactory the factory to use when the executor
+     *        creates a new thread
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}, or
+     *         {@code tickDuration} is not positive
+     * @throws NullPointerException if {@code unit} or
+     *         {@code threadFactory} is null
+     */
+    public TimingWheelScheduledExecutor(int corePoolSize,
+                                        long tickDuration,
+                                        TimeUnit unit,
+                                        ThreadFactory threadFactory) {
+        this(corePoolSize, tickDuration, unit, threadFactory,
+             new AbortPolicy());
+    }
+
+    /**
+     * Creates a new {@code TimingWheelScheduledExecutor} with the
+     * given initial parameters.
+     *
+     * @param corePoolSize the number of threads to keep in the pool, even
+     *        if they are idle, unless {@code allowCoreThreadTimeOut} is set
+     * @param tickDuration the granularity of scheduling
+     * @param unit the time unit of the {@code tickDuration} argument
+     * @param threadFactory the factory to use when the executor
+     *        creates a new thread
+     * @param handler the handler to use when execution is blocked
+     *        because the executor has been shut down
+     * @throws IllegalArgumentException if {@code corePoolSize < 0}, or
+     *         {@code tickDuration} is not positive
+     * @throws NullPointerException if {@code unit}, {@code threadFactory}
+     *         or {@code handler} is null
+     */
+    public TimingWheelScheduledExecutor(int corePoolSize,
+                                        long tickDuration,
+                                        TimeUnit unit,
+                                        ThreadFactory threadFactory,
+                                        RejectedExecutionHandler handler) {
+        super(corePoolSize,
+              new TimingWheelQueue(unit.toNanos(tickDuration)),
+              threadFactory, handler);
+        setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The timing wheel removes cancelled tasks eagerly or not at
+     * all, so there is no lazy purge mode to set.
+     */
+    @Override void setLazyPurge(boolean value) {
+    }
+
+    /**
+     * Returns the tick duration of this executor's timing wheel.
+     *
+     * @param unit the time unit of the result
+     * @return the tick duration
+     */
+    public long getTickDuration(TimeUnit unit) {
+        return unit.convert(((TimingWheelQueue)super.getQueue()).tickNanos,
+                            TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Hierarchical timing wheel.  To mesh with TPE declarations, this
+     * class must be declared as a BlockingQueue<Runnable> even though
+     * it can only hold RunnableScheduledFutures.
+     */
+    static class TimingWheelQueue extends AbstractQueue<Runnable>
+        implements BlockingQueue<Runnable> {
+
+        /*
+         * Time since construction is measured in ticks of tickNanos.
+         * Every task is held in a Node with its deadline tick, the
+         * first tick at whose end its trigger time has passed.  The
+         * wheel has LEVELS levels of WHEEL_SIZE buckets each; a node
+         * whose deadline is d ticks after currentTick lives at the
+         * lowest level L with d < WHEEL_SIZE^(L+1), in the bucket
+         * indexed by digit L (base WHEEL_SIZE) of its deadline.
+         * Level-0 buckets therefore each hold a single deadline.
+         * Whenever currentTick reaches a multiple of WHEEL_SIZE^L, the
+         * bucket of level L named by the corresponding digit of
+         * currentTick is cascaded: its nodes are reinserted, and so
+         * move to lower levels.  Nodes further away than the whole
+         * wheel spans are parked in the farthest top-level bucket
+         * and reinserted, with their real deadline, when it cascades.
+         * This is the scheme of Varghese & Lauck, "Hashed and
+         * Hierarchical Timing Wheels" (SOSP 1987), as used for
+         * kernel timers.
+         *
+         * Buckets are doubly-linked lists with head and tail
+         * pointers, so insertion and removal are constant-time, and
+         * each node records its bucket (field slot) so that it can be
+         * unlinked without search; a ScheduledFutureTask refers to its
+         * node through its holder field.  Expired nodes move in bulk,
+         * one whole level-0 bucket per tick, to a FIFO "ready" list
+         * from which poll and take remove them.  A bucket holds nodes
+         * in insertion order, and cascading can insert a node after
+         * others with later trigger times, so each expired bucket is
+         * first sorted by Delayed order (trigger time, then sequence
+         * number for ScheduledFutureTasks).
+         *
+         * The wheel is only advanced by threads polling the queue,
+         * under the lock.  Advancing never steps through empty ticks
+         * one by one: it jumps directly to the next tick whose
+         * level-0 bucket is non-empty or at which a cascade is due,
+         * or, if there is none before the current time, to the
+         * current time.  Waiting follows the leader-follower design
+         * of ScheduledThreadPoolExecutor.DelayedWorkQueue: the leader
+         * waits for the next such tick (recorded in wakeTick so that
+         * offers of earlier tasks can preempt it), and other threads
+         * wait indefinitely.
+         */
+
+        static final int WHEEL_BITS = 8;
+        static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+        static final int WHEEL_MASK = WHEEL_SIZE - 1;
+        static final int LEVELS = 4;
+
+        /** The number of ticks spanned by the whole wheel */
+        static final long SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+        /** Values of Node.slot for nodes not in a bucket */
+        static final int READY = -1;
+        static final int NONE  = -2;
+
+        static final class Node {
+            final TimingWheelQueue queue;
+            final RunnableScheduledFuture<?> task;
+            long deadline;     // in ticks
+            int slot;          // level * WHEEL_SIZE + index, READY or NONE
+            Node prev, next;
+            Node(TimingWheelQueue queue, RunnableScheduledFuture<?> task) {
+                this.queue = queue;
+                this.task = task;
+                this.slot = NONE;
+            }
+        }
+
+        /** The tick duration in nanoseconds */
+        final long tickNanos;
+
+        /** The nanoTime at the start of tick zero */
+        private final long origin;
+
+        /** Bucket list heads and tails, indexed by slot */
+        private final Node[] heads = new Node[LEVELS * WHEEL_SIZE];
+        private final Node[] tails = new Node[LEVELS * WHEEL_SIZE];
+
+        /** Number of nodes at each level */
+        private final int[] levelCounts = new int[LEVELS];
+
+        /** Number of nodes in all buckets */
+        private int wheelCount;
+
+        /** The list of expired nodes, in expiration order */
+        private Node readyHead, readyTail;
+
+        /** Number of nodes in the ready list */
+        private int readyCount;
+
+        /** The last tick whose expired nodes have been moved to ready */
+        private long currentTick;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Thread designated to wait for the next tick of interest.
+         */
+        private Thread leader = null;
+
+        /**
+         * The tick the leader is waiting for, or Long.MAX_VALUE.
+         */
+        private long wakeTick = Long.MAX_VALUE;
+
+        /**
+         * Condition signalled when a task becomes ready or is added
+         * before wakeTick, or a new thread may need to become leader.
+         */
+        private final Condition available = lock.newCondition();
+
+        TimingWheelQueue(long tickNanos) {
+            if (tickNanos <= 0)
+                throw new IllegalArgumentException();
+            this.tickNanos = tickNanos;
+            this.origin = System.nanoTime();
+        }
+
+        /**
+         * Returns the current tick: the number of whole ticks elapsed
+         * since origin.
+         */
+        private long nowTick() {
+            return (System.nanoTime() - origin) / tickNanos;
+        }
+
+        /**
+         * Returns the deadline tick for a task: the first tick at
+         * whose end its trigger time will have passed.
+         */
+        private long deadlineFor(RunnableScheduledFuture<?> task) {
+            long t;
+            if (task instanceof ScheduledFutureTask)
+                t = ((ScheduledFutureTask<?>)task).time - origin;
+            else {
+                long delay = task.getDelay(TimeUnit.NANOSECONDS);
+                t = System.nanoTime() - origin +
+                    ((delay < (Long.MAX_VALUE >> 1)) ?
+                     delay : (Long.MAX_VALUE >> 1));
+            }
+            if (t <= 0L)
+                return 0L;
+            long d = t / tickNanos;
+            return (d * tickNanos == t) ? d : d + 1;
+        }
+
+        /**
+         * Returns the node for x in this queue, or null if absent.
+         * Call only when holding lock.
+         */
+        private Node nodeFor(Object x) {
+            if (x == null)
+                return null;
+            if (x instanceof ScheduledFutureTask) {
+                Object h = ((ScheduledFutureTask<?>)x).holder;
+                // Sanity check; x could be a task of another executor
+                if (!(h instanceof Node))
+                    return null;
+                Node n = (Node)h;
+                return (n.queue == this && n.slot != NONE) ? n : null;
+            }
+            for (Node n = readyHead; n != null; n = n.next)
+                if (x.equals(n.task))
+                    return n;
+            for (int s = 0; s < heads.length; ++s)
+                for (Node n = heads[s]; n != null; n = n.next)
+                    if (x.equals(n.task))
+                        return n;
+            return null;
+        }
+
+        // Linking.  Call only when holding lock.
+
+        private void linkBucket(Node n, int slot) {
+            Node t = tails[slot];
+            n.slot = slot;
+            n.next = null;
+            n.prev = t;
+            if (t == null)
+                heads[slot] = n;
+            else
+                t.next = n;
+            tails[slot] = n;
+            ++levelCounts[slot >>> WHEEL_BITS];
+            ++wheelCount;
+        }
+
+        private void linkReady(Node n) {
+            Node t = readyTail;
+            n.slot = READY;
+            n.next = null;
+            n.prev = t;
+            if (t == null)
+                readyHead = n;
+            else
+                t.next = n;
+            readyTail = n;
+            ++readyCount;
+        }
+
+        private void unlink(Node n) {
+            int slot = n.slot;
+            Node p = n.prev, s = n.next;
+            if (slot == READY) {
+                if (p == null) readyHead = s; else p.next = s;
+                if (s == null) readyTail = p; else s.prev = p;
+                --readyCount;
+            } else {
+                if (p == null) heads[slot] = s; else p.next = s;
+                if (s == null) tails[slot] = p; else s.prev = p;
+                --levelCounts[slot >>> WHEEL_BITS];
+                --wheelCount;
+            }
+            n.prev = n.next = null;
+            n.slot = NONE;
+        }
+
+        /**
+         * Places a node according to its deadline relative to
+         * currentTick.  Call only when holding lock.
+         */
+        private void place(Node n) {
+            long d = n.deadline;
+            long delta = d - currentTick;
+            if (delta <= 0L) {
+                linkReady(n);
+                return;
+            }
+            if (delta >= SPAN)        // park in farthest bucket
+                d = currentTick + SPAN - 1;
+            int level = 0;
+            while (level < LEVELS - 1 &&
+                   (delta >>> (WHEEL_BITS * (level + 1))) != 0L)
+                ++level;
+            int index = (int)(d >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+            linkBucket(n, (level << WHEEL_BITS) | index);
+        }
+
+        /**
+         * Returns the next tick after currentTick at which a level-0
+         * bucket expires or a cascade is due, or Long.MAX_VALUE if
+         * the wheel is empty.  Call only when holding lock.
+         */
+        private long nextTick() {
+            if (wheelCount == 0)
+                return Long.MAX_VALUE;
+            long c = currentTick;
+            long boundary = (c | WHEEL_MASK) + 1;
+            if (levelCounts[0] != 0) {
+                for (long t = c + 1, end = c + WHEEL_SIZE; t < end; ++t) {
+                    if (t == boundary && wheelCount != levelCounts[0])
+                        return t;
+                    if (heads[(int)t & WHEEL_MASK] != null)
+                        return t;
+                }
+            }
+            return boundary;
+        }
+
+        /**
+         * Moves all nodes whose deadlines have passed to the ready
+         * list, cascading higher levels as needed.  Call only when
+         * holding lock.
+         */
+        private void advance() {
+            long now = nowTick();
+            while (currentTick < now) {
+                long t = nextTick();
+                if (t > now) {
+                    currentTick = now;
+                    break;
+                }
+                currentTick = t;
+                for (int level = 1; level < LEVELS; ++level) {
+                    int shift = WHEEL_BITS * level;
+                    if ((t & ((1L << shift) - 1)) != 0L)
+                        break;
+                    cascade((level << WHEEL_BITS) |
+                            ((int)(t >>> shift) & WHEEL_MASK));
+                }
+                expire((int)t & WHEEL_MASK);
+            }
+        }
+
+        /**
+         * Reinserts all nodes of the given higher-level bucket.  Nodes
+         * due at currentTick go to its level-0 bucket rather than
+         * straight to the ready list, so that expire sorts them
+         * together with the nodes already there.
+         */
+        private void cascade(int slot) {
+            Node n = heads[slot];
+            if (n == null)
+                return;
+            int count = 0;
+            for (Node p = n; p != null; p = p.next)
+                ++count;
+            heads[slot] = tails[slot] = null;
+            levelCounts[slot >>> WHEEL_BITS] -= count;
+            wheelCount -= count;
+            while (n != null) {
+                Node next = n.next;
+                if (n.deadline <= currentTick)
+                    linkBucket(n, (int)currentTick & WHEEL_MASK);
+                else
+                    place(n);
+                n = next;
+            }
+        }
+
+        /**
+         * Orders nodes as their tasks' compareTo does.
+         */
+        static final Comparator<Node> DELAYED_ORDER = new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                return a.task.compareTo(b.task);
+            }
+        };
+
+        /**
+         * Appends the whole of the given level-0 bucket to the ready
+         * list, sorted by Delayed order.
+         */
+        private void expire(int slot) {
+            Node h = heads[slot];
+            if (h == null)
+                return;
+            Node t = tails[slot];
+            int count = 0;
+            for (Node p = h; p != null; p = p.next) {
+                p.slot = READY;
+                ++count;
+            }
+            heads[slot] = tails[slot] = null;
+            levelCounts[0] -= count;
+            wheelCount -= count;
+            if (count > 1) {
+                Node[] a = new Node[count];
+                int k = 0;
+                for (Node p = h; p != null; p = p.next)
+                    a[k++] = p;
+                Arrays.sort(a, DELAYED_ORDER);
+                for (k = 1; k < count; ++k) {
+                    a[k - 1].next = a[k];
+                    a[k].prev = a[k - 1];
+                }
+                h = a[0];
+                t = a[count - 1];
+                t.next = null;
+            }
+            h.prev = readyTail;
+            if (readyTail == null)
+                readyHead = h;
+            else
+                readyTail.next = h;
+            readyTail = t;
+            readyCount += count;
+        }
+
+        /**
+         * Advances the wheel and removes and returns the first ready
+         * task, or returns null if none.  Call only when holding lock.
+         */
+        private RunnableScheduledFuture<?> pollReady() {
+            advance();
+            Node n = readyHead;
+            if (n == null)
+                return null;
+            unlink(n);
+            return n.task;
+        }
+
+        /**
+         * Returns the nanoseconds until the end of the given tick.
+         */
+        private long nanosUntil(long tick) {
+            return origin + tick * tickNanos - System.nanoTime();
+        }
+
+        public boolean contains(Object x) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                return nodeFor(x) != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean remove(Object x) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                Node n = nodeFor(x);
+                if (n == null)
+                    return false;
+                unlink(n);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int size() {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                return wheelCount + readyCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+
+        /**
+         * Returns the first ready task if there is one, else some
+         * pending task with the nearest deadline bucket, else null.
+         * The result is not necessarily the task that will run next.
+         */
+        public RunnableScheduledFuture<?> peek() {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                advance();
+                if (readyHead != null)
+                    return readyHead.task;
+                if (wheelCount != 0) {
+                    for (int level = 0; level < LEVELS; ++level) {
+                        if (levelCounts[level] == 0)
+                            continue;
+                        int shift = WHEEL_BITS * level;
+                        long base = currentTick >>> shift;
+                        for (int i = 1; i <= WHEEL_SIZE; ++i) {
+                            Node h = heads[(level << WHEEL_BITS) |
+                                           ((int)(base + i) & WHEEL_MASK)];
+                            if (h != null)
+                                return h.task;
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean offer(Runnable x) {
+            if (x == null)
+                throw new NullPointerException();
+            RunnableScheduledFuture<?> e = (RunnableScheduledFuture<?>)x;
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                Node n = null;
+                if (e instanceof ScheduledFutureTask) {
+                    // Reuse the node across executions of a periodic task
+                    ScheduledFutureTask<?> t = (ScheduledFutureTask<?>)e;
+                    Object h = t.holder;
+                    if (h instanceof Node && ((Node)h).queue == this &&
+                        ((Node)h).slot == NONE)
+                        n = (Node)h;
+                    else
+                        t.holder = n = new Node(this, e);
+                }
+                else
+                    n = new Node(this, e);
+                n.deadline = deadlineFor(e);
+                place(n);
+                if (n.slot == READY || n.deadline < wakeTick) {
+                    leader = null;
+                    available.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+
+        public void put(Runnable e) {
+            offer(e);
+        }
+
+        public boolean add(Runnable e) {
+            return offer(e);
+        }
+
+        public boolean offer(Runnable e, long timeout, TimeUnit unit) {
+            return offer(e);
+        }
+
+        public RunnableScheduledFuture<?> poll() {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                return pollReady();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public RunnableScheduledFuture<?> take() throws InterruptedException {
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                for (;;) {
+                    RunnableScheduledFuture<?> first = pollReady();
+                    if (first != null)
+                        return first;
+                    long next = nextTick();
+                    if (next == Long.MAX_VALUE || leader != null)
+                        available.await();
+                    else {
+                        Thread thisThread = Thread.currentThread();
+                        leader = thisThread;
+                        wakeTick = next;
+                        try {
+                            available.awaitNanos(nanosUntil(next));
+                        } finally {
+                            if (leader == thisThread) {
+                                leader = null;
+                                wakeTick = Long.MAX_VALUE;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                if (leader == null && wheelCount + readyCount != 0)
+                    available.signal();
+                lock.unlock();
+            }
+        }
+
+        public RunnableScheduledFuture<?> poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                for (;;) {
+                    RunnableScheduledFuture<?> first = pollReady();
+                    if (first != null)
+                        return first;
+                    if (nanos <= 0)
+                        return null;
+                    long next = nextTick();
+                    long delay = (next == Long.MAX_VALUE) ?
+                        Long.MAX_VALUE : nanosUntil(next);
+                    if (nanos < delay || leader != null)
+                        nanos = available.awaitNanos(nanos);
+                    else {
+                        Thread thisThread = Thread.currentThread();
+                        leader = thisThread;
+                        wakeTick = next;
+                        try {
+                            long timeLeft = available.awaitNanos(delay);
+                            nanos -= delay - timeLeft;
+                        } finally {
+                            if (leader == thisThread) {
+                                leader = null;
+                                wakeTick = Long.MAX_VALUE;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                if (leader == null && wheelCount + readyCount != 0)
+                    available.signal();
+                lock.unlock();
+            }
+        }
+
+        public void clear() {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                for (Node n; (n = readyHead) != null; )
+                    unlink(n);
+                for (int s = 0; s < heads.length; ++s)
+                    for (Node n; (n = heads[s]) != null; )
+                        unlink(n);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Removes tasks whose deadlines have passed, in the order in
+         * which take would return them.
+         */
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            if (c == null)
+                throw new NullPointerException();
+            if (c == this)
+                throw new IllegalArgumentException();
+            if (maxElements <= 0)
+                return 0;
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                advance();
+                int n = 0;
+                for (Node p; n < maxElements && (p = readyHead) != null; ) {
+                    unlink(p);
+                    c.add(p.task);
+                    ++n;
+                }
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public Object[] toArray() {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                Object[] a = new Object[wheelCount + readyCount];
+                int k = 0;
+                for (Node n = readyHead; n != null; n = n.next)
+                    a[k++] = n.task;
+                for (int s = 0; s < heads.length; ++s)
+                    for (Node n = heads[s]; n != null; n = n.next)
+                        a[k++] = n.task;
+                return a;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] a) {
+            Object[] elements = toArray();
+            int size = elements.length;
+            if (a.length < size)
+                return (T[]) Arrays.copyOf(elements, size, a.getClass());
+            System.arraycopy(elements, 0, a, 0, size);
+            if (a.length > size)
+                a[size] = null;
+            return a;
+        }
+
+        public Iterator<Runnable> iterator() {
+            return new Itr(toArray());
+        }
+
+        /**
+         * Snapshot iterator that works off a copy of the queue contents.
+         */
+        private class Itr implements Iterator<Runnable> {
+            final Object[] array;
+            int cursor = 0;     // index of next element to return
+            int lastRet = -1;   // index of last element, or -1 if no such
+
+            Itr(Object[] array) {
+                this.array = array;
+            }
+
+            public boolean hasNext() {
+                return cursor < array.length;
+            }
+
+            public Runnable next() {
+                if (cursor >= array.length)
+                    throw new NoSuchElementException();
+                lastRet = cursor;
+                return (Runnable)array[cursor++];
+            }
+
+            public void remove() {
+                if (lastRet < 0)
+                    throw new IllegalStateException();
+                TimingWheelQueue.this.remove(array[lastRet]);
+                lastRet = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent.atomic;
+import sun.misc.Unsafe;
+
+/**
+ * A {@code long} array in which elements may be updated atomically,
+ * and in which each element is placed on its own cache line.  This
+ * class supports the same per-element operations as {@link
+ * AtomicLongArray}, but trades space for the absence of <em>false
+ * sharing</em>: with a plain {@code AtomicLongArray}, threads that
+ * update neighbouring elements (for example per-shard or per-thread
+ * counters) contend on the same cache line even though they never
+ * touch the same element.  Here every element is surrounded by
+ * enough unused space that updates to distinct elements never
+ * invalidate each other's lines.
+ *
+ * <p>Each element occupies {@code 128} bytes, so this class is
+ * intended for small arrays of heavily updated values, such as one
+ * slot per CPU or per shard, not as a general replacement for {@code
+ * AtomicLongArray}.  Methods {@link #sum} and {@link #snapshot} read
+ * all elements in one pass; as with the other aggregate methods in
+ * this package they are not atomic snapshots in the presence of
+ * concurrent updates.
+ *
+ * <p>See the {@link java.util.concurrent.atomic} package
+ * specification for description of the properties of atomic
+ * variables.
+ *
+ * @since 1.7
+ */
+public class PaddedAtomicLongArray implements java.io.Serializable {
+    private static final long serialVersionUID = 4654315264617339187L;
+
+    /*
+     * Elements are stored in a plain long[] with a fixed stride of
+     * STRIDE longs between consecutive elements, and with one full
+     * stride of leading and trailing padding so that the first and
+     * last elements do not share a line with the array header or
+     * with whatever object the allocator places next.  The stride is
+     * 128 bytes rather than a single 64-byte line because several
+     * common processors prefetch cache lines in adjacent pairs, which
+     * would otherwise reintroduce sharing between neighbours.
+     *
+     * All accesses go through precomputed byte offsets, as in
+     * AtomicLongArray; the padding slots are never read or written.
+     */
+
+    private static final Unsafe unsafe = Unsafe.getUnsafe();
+    private static final int base = unsafe.arrayBaseOffset(long[].class);
+    private static final int shift;
+
+    /** log2 of the number of longs between consecutive elements */
+    private static final int STRIDE_SHIFT = 4;
+
+    /** The largest supported length, so that padded sizes fit an int */
+    private static final int MAX_LENGTH =
+        (Integer.MAX_VALUE >>> STRIDE_SHIFT) - 2;
+
+    private static final long arrayOffset;
+
+    static {
+        int scale = unsafe.arrayIndexScale(long[].class);
+        if ((scale & (scale - 1)) != 0)
+            throw new Error("data type scale not a power of two");
+        shift = 31 - Integer.numberOfLeadingZeros(scale) + STRIDE_SHIFT;
+        try {
+            arrayOffset = unsafe.objectFieldOffset
+                (PaddedAtomicLongArray.class.getDeclaredField("array"));
+        } catch (Exception ex) { throw new Error(ex); }
+    }
+
+    /** The padded backing array; reassigned only by readObject */
+    private final transient long[] array;
+
+    /** The number of logical elements */
+    private final int length;
+
+    private long checkedByteOffset(int i) {
+        if (i < 0 || i >= length)
+            throw new IndexOutOfBoundsException("index " + i);
+
+        return byteOffset(i);
+    }
+
+    private static long byteOffset(int i) {
+        return ((long) (i + 1) << shift) + base;
+    }
+
+    private static long[] newPaddedArray(int length) {
+        if (length < 0 || length > MAX_LENGTH)
+            throw new IllegalArgumentException("length " + length);
+        return new long[(length + 2) << STRIDE_SHIFT];
+    }
+
+    /**
+     * Creates a new PaddedAtomicLongArray of the given length, with
+     * all elements initially zero.
+     *
+     * @param length the length of the array
+     * @throws IllegalArgumentException if length is negative or too
+     * large to be padded
+     */
+    public PaddedAtomicLongArray(int length) {
+        this.array = newPaddedArray(length);
+        this.length = length;
+    }
+
+    /**
+     * Creates a new PaddedAtomicLongArray with the same length as,
+     * and all elements copied from, the given array.
+     *
+     * @param array the array to copy elements from
+     * @throws NullPointerException if array is null
+     * @throws IllegalArgumentException if the array is too large to
+     * be padded
+     */
+    public PaddedAtomicLongArray(long[] array) {
+        int n = array.length;
+        long[] a = newPaddedArray(n);
+        for (int i = 0; i < n; ++i)
+            a[(i + 1) << STRIDE_SHIFT] = array[i];
+        // Visibility guaranteed by final field guarantees
+        this.array = a;
+        this.length = n;
+    }
+
+    /**
+     * Returns the length of the array.
+     *
+     * @return the length of the array
+     */
+    public final int length() {
+        return length;
+    }
+
+    /**
+     * Gets the current value at position {@code i}.
+     *
+     * @param i the index
+     * @return the current value
+     */
+    public final long get(int i) {
+        return getRaw(checkedByteOffset(i));
+    }
+
+    private long getRaw(long offset) {
+        return unsafe.getLongVolatile(array, offset);
+    }
+
+    /**
+     * Sets the element at position {@code i} to the given value.
+     *
+     * @param i the index
+     * @param newValue the new value
+     */
+    public final void set(int i, long newValue) {
+        unsafe.putLongVolatile(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * Eventually sets the element at position {@code i} to the given value.
+     *
+     * @param i the index
+     * @param newValue the new value
+     */
+    public final void lazySet(int i, long newValue) {
+        unsafe.putOrderedLong(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * Atomically sets the element at position {@code i} to the given value
+     * and returns the old value.
+     *
+     * @param i the index
+     * @param newValue the new value
+     * @return the previous value
+     */
+    public final long getAndSet(int i, long newValue) {
+        long offset = checkedByteOffset(i);
+        while (true) {
+            long current = getRaw(offset);
+            if (compareAndSetRaw(offset, current, newValue))
+                return current;
+        }
+    }
+
+    /**
+     * Atomically sets the element at position {@code i} to the given
+     * updated value if the current value {@code ==} the expected value.
+     *
+     * @param i the index
+     * @param expect the expected value
+     * @param update the new value
+     * @return true if successful. False return indicates that
+     * the actual value was not equal to the expected value.
+     */
+    public final boolean compareAndSet(int i, long expect, long update) {
+        return compareAndSetRaw(checkedByteOffset(i), expect, update);
+    }
+
+    private boolean compareAndSetRaw(long offset, long expect, long update) {
+        return unsafe.compareAndSwapLong(array, offset, expect, update);
+    }
+
+    /**
+     * Atomically sets the element at position {@code i} to the given
+     * updated value if the current value {@code ==} the expected value.
+     *
+     * <p>May <a href="package-summary.html#Spurious">fail spuriously</a>
+     * and does not provide ordering guarantees, so is only rarely an
+     * appropriate alternative to {@code compareAndSet}.
+     *
+     * @param i the index
+     * @param expect the expected value
+     * @param update the new value
+     * @return true if successful.
+     */
+    public final boolean weakCompareAndSet(int i, long expect, long update) {
+        return compareAndSet(i, expect, update);
+    }
+
+    /**
+     * Atomically increments by one the element at index {@code i}.
+     *
+     * @param i the index
+     * @return the previous value
+     */
+    public final long getAndIncrement(int i) {
+        return getAndAdd(i, 1);
+    }
+
+    /**
+     * Atomically decrements by one the element at index {@code i}.
+     *
+     * @param i the index
+     * @return the previous value
+     */
+    public final long getAndDecrement(int i) {
+        return getAndAdd(i, -1);
+    }
+
+    /**
+     * Atomically adds the given value to the element at index {@code i}.
+     *
+     * @param i the index
+     * @param delta the value to add
+     * @return the previous value
+     */
+    public final long getAndAdd(int i, long delta) {
+        long offset = checkedByteOffset(i);
+        while (true) {
+            long current = getRaw(offset);
+            if (compareAndSetRaw(offset, current, current + delta))
+                return current;
+        }
+    }
+
+    /**
+     * Atomically increments by one the element at index {@code i}.
+     *
+     * @param i the index
+     * @return the updated value
+     */
+    public final long incrementAndGet(int i) {
+        return addAndGet(i, 1);
+    }
+
+    /**
+     * Atomically decrements by one the element at index {@code i}.
+     *
+     * @param i the index
+     * @return the updated value
+     */
+    public final long decrementAndGet(int i) {
+        return addAndGet(i, -1);
+    }
+
+    /**
+     * Atomically adds the given value to the element at index {@code i}.
+     *
+     * @param i the index
+     * @param delta the value to add
+     * @return the updated value
+     */
+    public final long addAndGet(int i, long delta) {
+        long offset = checkedByteOffset(i);
+        while (true) {
+            long current = getRaw(offset);
+            long next = current + delta;
+            if (compareAndSetRaw(offset, current, next))
+                return next;
+        }
+    }
+
+    /**
+     * Returns the sum of all elements.  The returned value is
+     * <em>NOT</em> an atomic snapshot; invocation in the absence of
+     * concurrent updates returns an accurate result, but concurrent
+     * updates that occur while the sum is being calculated might not
+     * be incorporated.
+     *
+     * @return the sum of all elements
+     */
+    public final long sum() {
+        long[] a = array;
+        long sum = 0L;
+        long offset = byteOffset(0), step = 1L << shift;
+        for (int i = 0; i < length; ++i, offset += step)
+            sum += unsafe.getLongVolatile(a, offset);
+        return sum;
+    }
+
+    /**
+     * Returns a new unpadded array holding the current value of each
+     * element.  Each element is read with volatile semantics, but the
+     * result is <em>NOT</em> an atomic snapshot of the whole array
+     * when there are concurrent updates.
+     *
+     * @return an array of the current values, of length {@link #length}
+     */
+    public final long[] snapshot() {
+        long[] a = array;
+        long[] values = new long[length];
+        long offset = byteOffset(0), step = 1L << shift;
+        for (int i = 0; i < values.length; ++i, offset += step)
+            values[i] = unsafe.getLongVolatile(a, offset);
+        return values;
+    }
+
+    /**
+     * Returns the String representation of the current values of array.
+     * @return the String representation of the current values of array
+     */
+    public String toString() {
+        int iMax = length - 1;
+        if (iMax == -1)
+            return "[]";
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0; ; i++) {
+            b.append(getRaw(byteOffset(i)));
+            if (i == iMax)
+                return b.append(']').toString();
+            b.append(',').append(' ');
+        }
+    }
+
+    /**
+     * Saves the state to a stream (that is, serializes it).
+     *
+     * @serialData The length of the array ({@code int}), followed by
+     * each of its elements ({@code long}) in order; the padding is
+     * not written.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+        s.defaultWriteObject();
+        for (int i = 0; i < length; ++i)
+            s.writeLong(getRaw(byteOffset(i)));
+    }
+
+    /**
+     * Reconstitutes the instance from a stream (that is,
+     * deserializes it), rebuilding the padded layout.
+     */
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        long[] a;
+        try {
+            a = newPaddedArray(length);
+        } catch (IllegalArgumentException ex) {
+            throw new java.io.InvalidObjectException(ex.getMessage());
+        }
+        for (int i = 0; i < length; ++i)
+            a[(i + 1) << STRIDE_SHIFT] = s.readLong();
+        unsafe.putObjectVolatile(this, arrayOffset, a);
+    }
+
+}
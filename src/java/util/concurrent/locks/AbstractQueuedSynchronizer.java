@@ -569,6 +569,61 @@ public abstract class AbstractQueuedSynchronizer
         return unsafe.compareAndSwapInt(this, stateOffset, expect, update);
     }
 
+    // Contention profiling
+
+    /**
+     * Contention statistics, created on first use when lock
+     * profiling is enabled; see LockProfiler.  Every use is guarded
+     * by a test of LockProfiler.ENABLED, which is a constant, so none
+     * of this costs anything when profiling is disabled.
+     */
+    private transient volatile LockStatistics statistics;
+
+    /**
+     * Returns the statistics for this synchronizer, creating and
+     * registering them if necessary.  Called only when profiling is
+     * enabled.
+     */
+    final LockStatistics statistics() {
+        LockStatistics s = statistics;
+        if (s == null) {
+            s = LockProfiler.newStatistics(this);
+            if (unsafe.compareAndSwapObject(this, statisticsOffset, null, s))
+                LockProfiler.register(s);
+            else
+                s = statistics;
+        }
+        return s;
+    }
+
+    /**
+     * Records an acquisition that succeeded on its first attempt.
+     * Called only when profiling is enabled.
+     */
+    final void profileAcquire() {
+        statistics().acquired();
+    }
+
+    /**
+     * Records an acquisition that waited since the given time.
+     * Called only when profiling is enabled.
+     */
+    private void profileContendedAcquire(long startTime) {
+        statistics().contendedAcquired(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the contention statistics of this synchronizer, or
+     * {@code null} if lock profiling is not enabled.
+     *
+     * @return the statistics, or {@code null}
+     * @see LockProfiler
+     * @since 1.7
+     */
+    public final LockStatistics getLockStatistics() {
+        return LockProfiler.ENABLED ? statistics() : null;
+    }
+
     // Queuing utilities
 
     /**
@@ -578,6 +633,104 @@ public abstract class AbstractQueuedSynchronizer
      */
     static final long spinForTimeoutThreshold = 1000L;
 
+    /*
+     * Adaptive spinning.  When enabled, a thread whose tryAcquire
+     * fails spins, retrying tryAcquire, before enqueuing and again
+     * (at the head of the queue) before each park, for as long as
+     * the exclusive owner, if known, is runnable.  The number of
+     * iterations is kept per synchronizer in spinBudget: it grows to
+     * twice the length of spins that succeed, and halves whenever a
+     * thread exhausts it without acquiring, but never drops below
+     * MIN_SPINS so that a lock whose hold times shrink again can be
+     * rediscovered.  A thread not yet queued checks on every
+     * iteration that no other thread is queued, and stops spinning
+     * as soon as one is, so that it never takes the synchronizer
+     * ahead of a thread that was already waiting for it.  The owner
+     * is checked less often, as reading its state is not cheap: the
+     * spin stops if the owner is blocked or waiting, since it then
+     * cannot release soon.  The budget is a hint and is read and
+     * written without synchronization.
+     *
+     * Spinning is opt-in per synchronizer, via shouldSpin, because
+     * it only pays off for very short hold times and consumes
+     * processor time that might otherwise run the owner; it is never
+     * used on uniprocessors.  The nonfair synchronizers of
+     * ReentrantLock and ReentrantReadWriteLock enable it when system
+     * property "java.util.concurrent.locks.adaptiveSpin" is true.
+     */
+
+    /** Number of CPUS, to place bounds on spinning */
+    static final int NCPUS = Runtime.getRuntime().availableProcessors();
+
+    /** Initial number of spin iterations, used while spinBudget is zero */
+    static final int INITIAL_SPINS = 1 << 7;
+
+    /** Lower bound for spinBudget */
+    static final int MIN_SPINS = 1 << 4;
+
+    /** Upper bound for spinBudget */
+    static final int MAX_SPINS = 1 << 12;
+
+    /** Spin iterations between rechecks of the owner */
+    static final int SPIN_CHECK_MASK = (1 << 5) - 1;
+
+    /**
+     * Holds the flag read by nonfair synchronizers in shouldSpin,
+     * loaded on first contended acquire rather than with this class.
+     */
+    static final class AdaptiveSpin {
+        static final boolean ENABLED =
+            Boolean.parseBoolean(java.security.AccessController.doPrivileged(
+                new sun.security.action.GetPropertyAction(
+                    "java.util.concurrent.locks.adaptiveSpin")));
+    }
+
+    /**
+     * The current number of spin iterations, or zero if not yet set.
+     */
+    private transient int spinBudget;
+
+    /**
+     * Spins, repeatedly invoking tryAcquire, for up to the current
+     * spin budget, adjusting the budget according to the outcome.
+     * Called only if shouldSpin returns true.
+     *
+     * @param arg the acquire argument
+     * @param queued true if the caller is the first queued node, in
+     *        which case other queued threads do not stop the spin
+     * @return {@code true} if acquired
+     */
+    private boolean spinForAcquire(int arg, boolean queued) {
+        if (NCPUS < 2)
+            return false;
+        long startTime =
+            (LockProfiler.ENABLED && !queued) ? System.nanoTime() : 0L;
+        int budget = spinBudget;
+        if (budget == 0)
+            budget = INITIAL_SPINS;
+        for (int i = 0; i < budget; ++i) {
+            if (!queued && head != tail)
+                return false;
+            if ((i & SPIN_CHECK_MASK) == 0) {
+                Thread owner = getExclusiveOwnerThread();
+                if (owner != null &&
+                    owner.getState() != Thread.State.RUNNABLE)
+                    return false;
+            }
+            if (tryAcquire(arg)) {
+                if (LockProfiler.ENABLED && !queued)
+                    profileContendedAcquire(startTime);
+                int next = i << 1;
+                if (next > budget)
+                    spinBudget = (next < MAX_SPINS) ? next : MAX_SPINS;
+                return true;
+            }
+        }
+        int next = budget >>> 1;
+        spinBudget = (next > MIN_SPINS) ? next : MIN_SPINS;
+        return false;
+    }
+
     /**
      * Inserts node into queue, initializing if necessary. See picture above.
      * @param node the node to insert
@@ -745,6 +898,8 @@ public abstract class AbstractQueuedSynchronizer
         if (node == null)
             return;
 
+        if (LockProfiler.ENABLED)
+            statistics().cancelled();
         node.thread = null;
 
         // Skip cancelled predecessors
@@ -834,6 +989,18 @@ public abstract class AbstractQueuedSynchronizer
      * @return {@code true} if interrupted
      */
     private final boolean parkAndCheckInterrupt() {
+        return parkAndCheckInterrupt(true);
+    }
+
+    /**
+     * Convenience method to park and then check if interrupted,
+     * recording the park in the statistics only if profile is true.
+     *
+     * @return {@code true} if interrupted
+     */
+    private final boolean parkAndCheckInterrupt(boolean profile) {
+        if (LockProfiler.ENABLED && profile)
+            statistics().parked();
         LockSupport.park(this);
         return Thread.interrupted();
     }
@@ -850,25 +1017,47 @@ public abstract class AbstractQueuedSynchronizer
     /**
      * Acquires in exclusive uninterruptible mode for thread already in
      * queue. Used by condition wait methods as well as acquire.
+     * Reacquiring after a condition wait is not profiled: the thread
+     * was already counted when it first acquired, and the time spent
+     * here is part of its wait on the condition.
      *
      * @param node the node
      * @param arg the acquire argument
      * @return {@code true} if interrupted while waiting
      */
     final boolean acquireQueued(final Node node, int arg) {
+        return acquireQueued(node, arg, false);
+    }
+
+    /**
+     * Acquires in exclusive uninterruptible mode for thread already in
+     * queue, recording the wait in the statistics if profile is true.
+     *
+     * @param node the node
+     * @param arg the acquire argument
+     * @param profile true if called from acquire
+     * @return {@code true} if interrupted while waiting
+     */
+    private boolean acquireQueued(final Node node, int arg, boolean profile) {
+        long startTime =
+            (LockProfiler.ENABLED && profile) ? System.nanoTime() : 0L;
         boolean failed = true;
         try {
             boolean interrupted = false;
             for (;;) {
                 final Node p = node.predecessor();
-                if (p == head && tryAcquire(arg)) {
+                if (p == head &&
+                    (tryAcquire(arg) ||
+                     (shouldSpin() && spinForAcquire(arg, true)))) {
                     setHead(node);
                     p.next = null; // help GC
                     failed = false;
+                    if (LockProfiler.ENABLED && profile)
+                        profileContendedAcquire(startTime);
                     return interrupted;
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    parkAndCheckInterrupt())
+                    parkAndCheckInterrupt(profile))
                     interrupted = true;
             }
         } finally {
@@ -883,15 +1072,20 @@ public abstract class AbstractQueuedSynchronizer
      */
     private void doAcquireInterruptibly(int arg)
         throws InterruptedException {
+        long startTime = LockProfiler.ENABLED ? System.nanoTime() : 0L;
         final Node node = addWaiter(Node.EXCLUSIVE);
         boolean failed = true;
         try {
             for (;;) {
                 final Node p = node.predecessor();
-                if (p == head && tryAcquire(arg)) {
+                if (p == head &&
+                    (tryAcquire(arg) ||
+                     (shouldSpin() && spinForAcquire(arg, true)))) {
                     setHead(node);
                     p.next = null; // help GC
                     failed = false;
+                    if (LockProfiler.ENABLED)
+                        profileContendedAcquire(startTime);
                     return;
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
@@ -914,6 +1108,7 @@ public abstract class AbstractQueuedSynchronizer
     private boolean doAcquireNanos(int arg, long nanosTimeout)
         throws InterruptedException {
         long lastTime = System.nanoTime();
+        final long startTime = lastTime;
         final Node node = addWaiter(Node.EXCLUSIVE);
         boolean failed = true;
         try {
@@ -923,13 +1118,18 @@ public abstract class AbstractQueuedSynchronizer
                     setHead(node);
                     p.next = null; // help GC
                     failed = false;
+                    if (LockProfiler.ENABLED)
+                        profileContendedAcquire(startTime);
                     return true;
                 }
                 if (nanosTimeout <= 0)
                     return false;
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    nanosTimeout > spinForTimeoutThreshold)
+                    nanosTimeout > spinForTimeoutThreshold) {
+                    if (LockProfiler.ENABLED)
+                        statistics().parked();
                     LockSupport.parkNanos(this, nanosTimeout);
+                }
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
@@ -947,6 +1147,7 @@ public abstract class AbstractQueuedSynchronizer
      * @param arg the acquire argument
      */
     private void doAcquireShared(int arg) {
+        long startTime = LockProfiler.ENABLED ? System.nanoTime() : 0L;
         final Node node = addWaiter(Node.SHARED);
         boolean failed = true;
         try {
@@ -958,6 +1159,8 @@ public abstract class AbstractQueuedSynchronizer
                     if (r >= 0) {
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
+                        if (LockProfiler.ENABLED)
+                            profileContendedAcquire(startTime);
                         if (interrupted)
                             selfInterrupt();
                         failed = false;
@@ -980,6 +1183,7 @@ public abstract class AbstractQueuedSynchronizer
      */
     private void doAcquireSharedInterruptibly(int arg)
         throws InterruptedException {
+        long startTime = LockProfiler.ENABLED ? System.nanoTime() : 0L;
         final Node node = addWaiter(Node.SHARED);
         boolean failed = true;
         try {
@@ -990,6 +1194,8 @@ public abstract class AbstractQueuedSynchronizer
                     if (r >= 0) {
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
+                        if (LockProfiler.ENABLED)
+                            profileContendedAcquire(startTime);
                         failed = false;
                         return;
                     }
@@ -1015,6 +1221,7 @@ public abstract class AbstractQueuedSynchronizer
         throws InterruptedException {
 
         long lastTime = System.nanoTime();
+        final long startTime = lastTime;
         final Node node = addWaiter(Node.SHARED);
         boolean failed = true;
         try {
@@ -1025,6 +1232,8 @@ public abstract class AbstractQueuedSynchronizer
                     if (r >= 0) {
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
+                        if (LockProfiler.ENABLED)
+                            profileContendedAcquire(startTime);
                         failed = false;
                         return true;
                     }
@@ -1032,8 +1241,11 @@ public abstract class AbstractQueuedSynchronizer
                 if (nanosTimeout <= 0)
                     return false;
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    nanosTimeout > spinForTimeoutThreshold)
+                    nanosTimeout > spinForTimeoutThreshold) {
+                    if (LockProfiler.ENABLED)
+                        statistics().parked();
                     LockSupport.parkNanos(this, nanosTimeout);
+                }
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
@@ -1184,21 +1396,49 @@ public abstract class AbstractQueuedSynchronizer
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns {@code true} if a thread whose exclusive acquire fails
+     * should spin briefly, retrying {@link #tryAcquire}, before
+     * queuing and before each block while first in the queue.  A
+     * thread that is not yet queued stops spinning as soon as any
+     * other thread is queued, so spinning does not let it overtake
+     * waiting threads; it does let it overtake threads that arrive
+     * while it spins, however, so fair synchronizers should not
+     * enable it.  Spinning pays off only when the synchronizer is
+     * typically held very briefly, and is never used on
+     * uniprocessors.  Timed and shared acquires do not spin.
+     *
+     * <p>The default implementation returns {@code false}.
+     *
+     * @return {@code true} if failed exclusive acquires should spin
+     * @since 1.7
+     */
+    protected boolean shouldSpin() {
+        return false;
+    }
+
     /**
      * Acquires in exclusive mode, ignoring interrupts.  Implemented
      * by invoking at least once {@link #tryAcquire},
      * returning on success.  Otherwise the thread is queued, possibly
      * repeatedly blocking and unblocking, invoking {@link
-     * #tryAcquire} until success.  This method can be used
-     * to implement method {@link Lock#lock}.
+     * #tryAcquire} until success.  If {@link #shouldSpin} returns
+     * {@code true}, the thread first retries {@link #tryAcquire} for
+     * a bounded, self-tuning number of iterations before queuing or
+     * blocking.
+     * This method can be used to implement method {@link Lock#lock}.
      *
      * @param arg the acquire argument.  This value is conveyed to
      *        {@link #tryAcquire} but is otherwise uninterpreted and
      *        can represent anything you like.
      */
     public final void acquire(int arg) {
-        if (!tryAcquire(arg) &&
-            acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
+        if (tryAcquire(arg)) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+        }
+        else if (!(shouldSpin() && spinForAcquire(arg, false)) &&
+                 acquireQueued(addWaiter(Node.EXCLUSIVE), arg, true))
             selfInterrupt();
     }
 
@@ -1220,7 +1460,11 @@ public abstract class AbstractQueuedSynchronizer
             throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
-        if (!tryAcquire(arg))
+        if (tryAcquire(arg)) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+        }
+        else if (!(shouldSpin() && spinForAcquire(arg, false)))
             doAcquireInterruptibly(arg);
     }
 
@@ -1245,8 +1489,12 @@ public abstract class AbstractQueuedSynchronizer
             throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
-        return tryAcquire(arg) ||
-            doAcquireNanos(arg, nanosTimeout);
+        if (tryAcquire(arg)) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+            return true;
+        }
+        return doAcquireNanos(arg, nanosTimeout);
     }
 
     /**
@@ -1281,7 +1529,11 @@ public abstract class AbstractQueuedSynchronizer
      *        and can represent anything you like.
      */
     public final void acquireShared(int arg) {
-        if (tryAcquireShared(arg) < 0)
+        if (tryAcquireShared(arg) >= 0) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+        }
+        else
             doAcquireShared(arg);
     }
 
@@ -1302,7 +1554,11 @@ public abstract class AbstractQueuedSynchronizer
             throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
-        if (tryAcquireShared(arg) < 0)
+        if (tryAcquireShared(arg) >= 0) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+        }
+        else
             doAcquireSharedInterruptibly(arg);
     }
 
@@ -1326,8 +1582,12 @@ public abstract class AbstractQueuedSynchronizer
             throws InterruptedException {
         if (Thread.interrupted())
             throw new InterruptedException();
-        return tryAcquireShared(arg) >= 0 ||
-            doAcquireSharedNanos(arg, nanosTimeout);
+        if (tryAcquireShared(arg) >= 0) {
+            if (LockProfiler.ENABLED)
+                profileAcquire();
+            return true;
+        }
+        return doAcquireSharedNanos(arg, nanosTimeout);
     }
 
     /**
@@ -2283,6 +2543,7 @@ public abstract class AbstractQueuedSynchronizer
     private static final long tailOffset;
     private static final long waitStatusOffset;
     private static final long nextOffset;
+    private static final long statisticsOffset;
 
     static {
         try {
@@ -2296,6 +2557,8 @@ public abstract class AbstractQueuedSynchronizer
                 (Node.class.getDeclaredField("waitStatus"));
             nextOffset = unsafe.objectFieldOffset
                 (Node.class.getDeclaredField("next"));
+            statisticsOffset = unsafe.objectFieldOffset
+                (AbstractQueuedSynchronizer.class.getDeclaredField("statistics"));
 
         } catch (Exception ex) { throw new Error(ex); }
     }
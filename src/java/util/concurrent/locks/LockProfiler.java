@@ -0,0 +1,162 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent.locks;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The registry for lock contention profiling.  When profiling is
+ * enabled, every {@link AbstractQueuedSynchronizer} and {@link
+ * AbstractQueuedLongSynchronizer}, and hence every lock or other
+ * synchronizer built on them, maintains a {@link LockStatistics}
+ * instance recording its acquisitions, contended acquisitions, wait
+ * times, parks and cancelled acquires.  Each such instance is
+ * registered here when it is created, and remains registered until
+ * its synchronizer has been garbage collected.
+ *
+ * <p>Profiling is enabled by setting system property {@code
+ * java.util.concurrent.locks.profile} to {@code true}.  The property
+ * is read once, so profiling cannot be switched on or off in a
+ * running virtual machine; when it is disabled, synchronizers create
+ * no statistics and the only cost on their acquire paths is a test of
+ * a constant flag.  When it is enabled, each acquisition through the
+ * synchronizer's acquire methods updates striped counters, and each
+ * contended acquisition also reads {@link System#nanoTime} twice.
+ *
+ * <p>Sample usage, listing the ten locks with the longest
+ * accumulated wait time:
+ *
+ *  <pre> {@code
+ * List<LockStatistics> stats = LockProfiler.getStatistics();
+ * for (LockStatistics s : stats.subList(0, Math.min(10, stats.size())))
+ *   System.out.println(s);}</pre>
+ *
+ * @since 1.7
+ */
+public final class LockProfiler {
+    private LockProfiler() {}
+
+    /**
+     * Whether profiling is enabled.  Synchronizers test this
+     * constant before every profiling action.
+     */
+    static final boolean ENABLED =
+        Boolean.parseBoolean(java.security.AccessController.doPrivileged(
+            new sun.security.action.GetPropertyAction(
+                "java.util.concurrent.locks.profile")));
+
+    /** The registered statistics */
+    private static final ConcurrentLinkedQueue<LockStatistics> registry =
+        new ConcurrentLinkedQueue<LockStatistics>();
+
+    /** Queue of references to collected synchronizers */
+    private static final ReferenceQueue<Object> collected =
+        new ReferenceQueue<Object>();
+
+    /**
+     * Returns {@code true} if lock profiling is enabled.
+     *
+     * @return {@code true} if lock profiling is enabled
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the statistics of all registered synchronizers that
+     * are still reachable, in decreasing order of total wait time.
+     * The returned list is a new list that is not updated as further
+     * synchronizers are registered, although the statistics it holds
+     * continue to be updated.  The list is empty if profiling is
+     * disabled.
+     *
+     * @return the statistics of registered synchronizers
+     */
+    public static List<LockStatistics> getStatistics() {
+        expungeStaleStatistics();
+        List<LockStatistics> list = new ArrayList<LockStatistics>();
+        for (LockStatistics s : registry) {
+            if (s.getSynchronizer() != null)
+                list.add(s);
+        }
+        Collections.sort(list, new Comparator<LockStatistics>() {
+            public int compare(LockStatistics a, LockStatistics b) {
+                long x = a.getTotalWaitNanos(), y = b.getTotalWaitNanos();
+                return (x > y) ? -1 : ((x == y) ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Resets the counters of all registered synchronizers.  This
+     * method is only effective if there are no concurrent
+     * acquisitions.
+     */
+    public static void resetAll() {
+        for (LockStatistics s : registry)
+            s.reset();
+    }
+
+    /**
+     * Creates statistics for the given synchronizer.  The caller
+     * registers them only once they have been installed, so that
+     * losing a race to create them leaves nothing behind.
+     */
+    static LockStatistics newStatistics(Object synchronizer) {
+        return new LockStatistics(synchronizer, collected);
+    }
+
+    /**
+     * Registers installed statistics, first removing those of any
+     * synchronizers that have been collected.
+     */
+    static void register(LockStatistics s) {
+        expungeStaleStatistics();
+        registry.add(s);
+    }
+
+    /**
+     * Removes the statistics of collected synchronizers, if any have
+     * been enqueued since the last call.
+     */
+    private static void expungeStaleStatistics() {
+        if (collected.poll() == null)
+            return;
+        while (collected.poll() != null)
+            ;
+        for (Iterator<LockStatistics> it = registry.iterator(); it.hasNext();) {
+            Reference<Object> r = it.next().reference();
+            if (r.get() == null)
+                it.remove();
+        }
+    }
+}
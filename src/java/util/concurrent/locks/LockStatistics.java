@@ -0,0 +1,214 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent.locks;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention counters for one {@link AbstractQueuedSynchronizer} or
+ * {@link AbstractQueuedLongSynchronizer}, maintained only when lock
+ * profiling is enabled (see {@link LockProfiler}).  Instances are
+ * created lazily, on the first acquisition of the synchronizer after
+ * profiling is enabled, and are obtained from {@link
+ * LockProfiler#getStatistics}, from {@link
+ * AbstractQueuedSynchronizer#getLockStatistics} or from the
+ * corresponding methods of the locks built on them.
+ *
+ * <p>The counters are updated concurrently by the threads using the
+ * synchronizer, and so the values returned by the accessor methods
+ * are not an atomic snapshot of one another; each is accurate in the
+ * absence of concurrent activity.  An acquisition is <em>contended</em>
+ * if the initial attempt by the acquiring thread failed, in which
+ * case its wait time is measured from just after that failure until
+ * the synchronizer was acquired.  Acquisitions made only through
+ * {@code tryAcquire} or {@code tryAcquireShared} (such as untimed
+ * {@link Lock#tryLock()}) are not counted.
+ *
+ * @since 1.7
+ */
+public final class LockStatistics {
+    /**
+     * The synchronizer, weakly held so that profiling does not keep
+     * locks reachable.
+     */
+    private final WeakReference<Object> synchronizer;
+    private final String name;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos =
+        new LongAccumulator(new Max(), 0L);
+    private final LongAdder parks = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+
+    static final class Max implements LongAccumulator.LongBinaryOperator {
+        public long applyAsLong(long left, long right) {
+            return (left >= right) ? left : right;
+        }
+    }
+
+    LockStatistics(Object synchronizer, ReferenceQueue<Object> queue) {
+        this.synchronizer = new WeakReference<Object>(synchronizer, queue);
+        this.name = synchronizer.getClass().getName() + "@" +
+            Integer.toHexString(System.identityHashCode(synchronizer));
+    }
+
+    final WeakReference<Object> reference() {
+        return synchronizer;
+    }
+
+    // Updates, called from the synchronizers
+
+    final void acquired() {
+        acquisitions.increment();
+    }
+
+    final void contendedAcquired(long nanos) {
+        acquisitions.increment();
+        contended.increment();
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulate(nanos);
+    }
+
+    final void parked() {
+        parks.increment();
+    }
+
+    final void cancelled() {
+        cancellations.increment();
+    }
+
+    /**
+     * Returns the synchronizer these statistics describe, or {@code
+     * null} if it has been garbage collected.
+     *
+     * @return the synchronizer, or {@code null}
+     */
+    public Object getSynchronizer() {
+        return synchronizer.get();
+    }
+
+    /**
+     * Returns a name identifying the synchronizer, consisting of its
+     * class name and identity hash code.  The name remains available
+     * after the synchronizer has been garbage collected.
+     *
+     * @return the name of the synchronizer
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of acquisitions.
+     *
+     * @return the number of acquisitions
+     */
+    public long getAcquisitionCount() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions that could not be satisfied
+     * by the first attempt.
+     *
+     * @return the number of contended acquisitions
+     */
+    public long getContendedCount() {
+        return contended.sum();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent waiting by
+     * contended acquisitions.
+     *
+     * @return the total wait time in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * Returns the longest time, in nanoseconds, spent waiting by a
+     * single contended acquisition.
+     *
+     * @return the maximum wait time in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Returns the number of times threads blocked while waiting to
+     * acquire.  Waits on {@link Condition}s are not included.
+     *
+     * @return the number of parks
+     */
+    public long getParkCount() {
+        return parks.sum();
+    }
+
+    /**
+     * Returns the number of queued acquire attempts that were
+     * abandoned because of interruption, timeout or an exception.
+     *
+     * @return the number of cancelled acquires
+     */
+    public long getCancelledCount() {
+        return cancellations.sum();
+    }
+
+    /**
+     * Resets all counters to zero.  This method is only effective if
+     * there are no concurrent acquisitions.
+     */
+    public void reset() {
+        acquisitions.reset();
+        contended.reset();
+        waitNanos.reset();
+        maxWaitNanos.reset();
+        parks.reset();
+        cancellations.reset();
+    }
+
+    /**
+     * Returns a string identifying the synchronizer, followed by the
+     * current values of the counters.
+     *
+     * @return a string representation of these statistics
+     */
+    public String toString() {
+        return name +
+            "[acquisitions = " + getAcquisitionCount() +
+            ", contended = " + getContendedCount() +
+            ", waitNanos = " + getTotalWaitNanos() +
+            ", maxWaitNanos = " + getMaxWaitNanos() +
+            ", parks = " + getParkCount() +
+            ", cancelled = " + getCancelledCount() + "]";
+    }
+}
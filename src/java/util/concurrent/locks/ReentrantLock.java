@@ -99,6 +99,13 @@ import java.util.concurrent.atomic.*;
  * locks: a deserialized lock is in the unlocked state, regardless of
  * its state when serialized.
  *
+ * <p>If system property {@code java.util.concurrent.locks.adaptiveSpin}
+ * is {@code true}, a thread that finds a nonfair lock held by a
+ * running thread retries briefly before blocking, as described for
+ * {@link AbstractQueuedSynchronizer#shouldSpin}.  This can improve
+ * throughput for locks that are held very briefly.  Fair locks never
+ * spin.
+ *
  * <p>This lock supports a maximum of 2147483647 recursive locks by
  * the same thread. Attempts to exceed this limit result in
  * {@link Error} throws from locking methods.
@@ -208,8 +215,11 @@ public class ReentrantLock implements Lock, java.io.Serializable {
          * acquire on failure.
          */
         final void lock() {
-            if (compareAndSetState(0, 1))
+            if (compareAndSetState(0, 1)) {
                 setExclusiveOwnerThread(Thread.currentThread());
+                if (LockProfiler.ENABLED)
+                    profileAcquire();
+            }
             else
                 acquire(1);
         }
@@ -217,6 +227,14 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         protected final boolean tryAcquire(int acquires) {
             return nonfairTryAcquire(acquires);
         }
+
+        /**
+         * Spins before blocking if system property
+         * "java.util.concurrent.locks.adaptiveSpin" is true.
+         */
+        protected final boolean shouldSpin() {
+            return AdaptiveSpin.ENABLED;
+        }
     }
 
     /**
@@ -753,6 +771,19 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         return sync.getWaitingThreads((AbstractQueuedSynchronizer.ConditionObject)condition);
     }
 
+    /**
+     * Returns the contention statistics of this lock, or {@code null}
+     * if lock profiling is not enabled.  The same instance is listed
+     * by {@link LockProfiler#getStatistics}.
+     *
+     * @return the statistics, or {@code null}
+     * @see LockProfiler
+     * @since 1.7
+     */
+    public LockStatistics getLockStatistics() {
+        return sync.getLockStatistics();
+    }
+
     /**
      * Returns a string identifying this lock, as well as its lock state.
      * The state, in brackets, includes either the String {@code "Unlocked"}
@@ -56,7 +56,10 @@ import java.util.*;
  * to the read and write lock is unspecified, subject to reentrancy
  * constraints.  A nonfair lock that is continuously contended may
  * indefinitely postpone one or more reader or writer threads, but
- * will normally have higher throughput than a fair lock.
+ * will normally have higher throughput than a fair lock.  If system
+ * property {@code java.util.concurrent.locks.adaptiveSpin} is {@code
+ * true}, a writer that finds the lock held retries briefly before
+ * blocking, as for a nonfair {@link ReentrantLock}.
  * <p>
  *
  * <dt><b><i>Fair mode</i></b>
@@ -685,6 +688,13 @@ public class ReentrantReadWriteLock
              */
             return apparentlyFirstQueuedIsExclusive();
         }
+        /**
+         * Writers spin before blocking if system property
+         * "java.util.concurrent.locks.adaptiveSpin" is true.
+         */
+        protected final boolean shouldSpin() {
+            return AdaptiveSpin.ENABLED;
+        }
     }
 
     /**
@@ -1465,6 +1475,19 @@ public class ReentrantReadWriteLock
         return sync.getWaitingThreads((AbstractQueuedSynchronizer.ConditionObject)condition);
     }
 
+    /**
+     * Returns the contention statistics of this lock, or {@code null}
+     * if lock profiling is not enabled.  The statistics cover both the
+     * read lock and the write lock.
+     *
+     * @return the statistics, or {@code null}
+     * @see LockProfiler
+     * @since 1.7
+     */
+    public LockStatistics getLockStatistics() {
+        return sync.getLockStatistics();
+    }
+
     /**
      * Returns a string identifying this lock, as well as its lock state.
      * The state, in brackets, includes the String {@code "Write locks ="}
@@ -0,0 +1,892 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+package java.util.concurrent.locks;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.PaddedAtomicLongArray;
+
+/**
+ * A {@link ReadWriteLock} biased toward readers, in which read-lock
+ * holders register in a set of striped counters, each on its own
+ * cache line, rather than in a single shared word.
+ *
+ * <p>{@link ReentrantReadWriteLock} packs the number of read holds
+ * into the same synchronization state as the write hold count, so
+ * every read acquisition and release updates one shared location.
+ * When many threads only read, that location becomes a point of
+ * contention even though the readers never conflict.  In this class
+ * a reader instead increments the counter assigned to its thread and
+ * then checks that no writer is present, so readers running on
+ * different processors normally touch disjoint cache lines.  A
+ * writer first announces itself, which makes new readers wait, and
+ * then waits for all counters to drain before proceeding.  This makes
+ * read locking cheap and write locking comparatively expensive, so
+ * the class is intended for data that is read far more often than it
+ * is written.
+ *
+ * <p>This class has the following properties:
+ *
+ * <ul>
+ * <li><b>Acquisition order</b>
+ *
+ * <p>The lock prefers writers.  Once a writer has announced itself,
+ * readers that do not already hold the read lock wait until the
+ * write lock is released, so a steady stream of readers cannot
+ * starve writers.  Waiting threads are queued in the same way as for
+ * a non-fair {@link ReentrantReadWriteLock}.
+ *
+ * <li><b>Reentrancy</b>
+ *
+ * <p>Both read and write locks are reentrant.  A thread that holds
+ * the read lock may reacquire it even while a writer is waiting.
+ * The writer may also acquire the read lock, which allows
+ * downgrading from the write lock to a read lock in the same way as
+ * {@link ReentrantReadWriteLock}; upgrading from a read lock to the
+ * write lock is not possible and will deadlock.
+ *
+ * <li><b>Condition support</b>
+ *
+ * <p>The write lock provides a {@link Condition} implementation that
+ * behaves in the same way, with respect to the write lock, as the
+ * {@link Condition} implementation provided by {@link
+ * ReentrantLock#newCondition} does for {@link ReentrantLock}.  A
+ * thread returning from {@code await} again waits for readers to
+ * drain before it proceeds.  The read lock does not support a {@link
+ * Condition}.
+ *
+ * <li><b>Waiting for readers</b>
+ *
+ * <p>Once a writer has announced itself, it waits for readers
+ * already inside their critical sections to leave before returning
+ * from {@code lock}, {@code lockInterruptibly} or a timed {@code
+ * tryLock}.  The latter two methods also honor interruption and
+ * the timeout during that wait: if either occurs before the readers
+ * have left, the writer withdraws its announcement, admitting
+ * waiting readers again, and then throws or fails as usual.  The
+ * untimed {@code tryLock} never waits: it fails if any reader holds
+ * the lock.
+ * </ul>
+ *
+ * <p>Each instance uses one 128-byte counter per slot, with a number
+ * of slots proportional to the number of processors, so instances are
+ * considerably larger than a {@code ReentrantReadWriteLock}.
+ * Serialization of this class behaves in the same way as built-in
+ * locks: a deserialized lock is in the unlocked state, regardless of
+ * its state when serialized.
+ *
+ * @since 1.7
+ */
+public class ScalableReadWriteLock
+        implements ReadWriteLock, java.io.Serializable {
+    private static final long serialVersionUID = -3463448656717690166L;
+
+    /*
+     * The write side is an ordinary exclusive AbstractQueuedSynchronizer
+     * whose state is the write hold count.  The read side keeps its
+     * holds outside of AQS state, in a PaddedAtomicLongArray indexed
+     * by a per-thread probe, plus a per-thread hold count kept in a
+     * ThreadLocal so that reentrant reads never block.
+     *
+     * Mutual exclusion relies on a Dekker-style handshake between
+     * volatile accesses:
+     *
+     *  reader: increment own slot, then read AQS state
+     *  writer: CAS AQS state from 0, then sum all slots
+     *
+     * Either the reader sees the writer's state (and backs out,
+     * waking the writer if it is waiting), or the writer sees the
+     * reader's slot (and waits for it to drain).  A writer that must
+     * wait publishes itself in field "drainer" before rechecking the
+     * slots, and a reader that releases while the write state is
+     * nonzero unparks any published drainer, so wakeups cannot be
+     * lost.
+     *
+     * Readers that back out queue in AQS shared mode; they are
+     * released in a cascade when the writer's release makes the
+     * state zero, exactly as for ReentrantReadWriteLock.  Draining is
+     * performed inside tryAcquire so that every path that obtains the
+     * write state, including reacquisition after Condition.await,
+     * also waits for readers.  Because tryAcquire takes no deadline,
+     * the interruptible and timed write-lock methods record their
+     * mode and deadline in the thread's ReadHolder before entering
+     * AQS.  If the drain is abandoned, tryAcquire clears the write
+     * state and returns false, and AQS then notices the interrupt or
+     * the elapsed timeout itself.  tryAcquire cannot wake queued
+     * readers by calling release, as that would also reset the
+     * signal status of the writer's own predecessor, so AQS would
+     * never park it; the wrapper methods instead wake them once AQS
+     * has returned.
+     */
+
+    /** Inner class providing readlock */
+    private final ScalableReadWriteLock.ReadLock readerLock;
+    /** Inner class providing writelock */
+    private final ScalableReadWriteLock.WriteLock writerLock;
+    /** Performs all synchronization mechanics */
+    final Sync sync;
+
+    /** Number of CPUS, to size the slot array and control spinning */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** The maximum number of reader slots */
+    private static final int MAX_SLOTS = 1 << 8;
+
+    /** Number of times a writer polls the slots before parking */
+    private static final int DRAIN_SPINS = (NCPU > 1) ? 1 << 6 : 0;
+
+    /** Drain mode bit: give up if the writer is interrupted */
+    static final int DRAIN_INTERRUPTIBLE = 1;
+    /** Drain mode bit: give up at ReadHolder.drainDeadline */
+    static final int DRAIN_TIMED         = 2;
+    /** Drain mode bit: set by tryAcquire when it gave up */
+    static final int DRAIN_ABANDONED     = 4;
+
+    /**
+     * Generator of per-thread probes, spaced so that consecutive
+     * threads map to well-separated slots.
+     */
+    private static final AtomicInteger probeGenerator = new AtomicInteger();
+
+    private static final int PROBE_INCREMENT = 0x61c88647;
+
+    /**
+     * Creates a new {@code ScalableReadWriteLock} with a number of
+     * reader slots suited to the number of available processors.
+     */
+    public ScalableReadWriteLock() {
+        sync = new Sync();
+        readerLock = new ReadLock(this);
+        writerLock = new WriteLock(this);
+    }
+
+    public ScalableReadWriteLock.WriteLock writeLock() { return writerLock; }
+    public ScalableReadWriteLock.ReadLock  readLock()  { return readerLock; }
+
+    /**
+     * Per-thread read state for one lock: the slot index used by the
+     * thread, and its reentrant read hold count.  Also carries the
+     * drain mode and deadline of a write acquire in progress by the
+     * thread, which tryAcquire cannot receive as arguments.
+     */
+    static final class ReadHolder {
+        final int probe;
+        int count;
+        int drainMode;
+        long drainDeadline;
+        ReadHolder() {
+            int p = probeGenerator.addAndGet(PROBE_INCREMENT);
+            probe = (p ^ (p >>> 16));
+        }
+    }
+
+    static final class ThreadLocalReadHolder
+        extends ThreadLocal<ReadHolder> {
+        public ReadHolder initialValue() {
+            return new ReadHolder();
+        }
+    }
+
+    /**
+     * Returns the number of reader slots to use: the smallest power
+     * of two at least twice the number of processors, but no more
+     * than MAX_SLOTS.
+     */
+    private static int slotCount() {
+        int n = 1;
+        while (n < (NCPU << 1) && n < MAX_SLOTS)
+            n <<= 1;
+        return n;
+    }
+
+    /**
+     * Synchronization implementation for ScalableReadWriteLock.
+     */
+    static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1284837436734537146L;
+
+        /** Striped read hold counts; rebuilt on deserialization */
+        private transient PaddedAtomicLongArray readers;
+
+        /** The current thread's read state */
+        private transient ThreadLocalReadHolder readHolds;
+
+        /** A writer parked waiting for readers to drain, or null */
+        private transient volatile Thread drainer;
+
+        Sync() {
+            readers = new PaddedAtomicLongArray(slotCount());
+            readHolds = new ThreadLocalReadHolder();
+        }
+
+        private int slotFor(ReadHolder rh) {
+            return rh.probe & (readers.length() - 1);
+        }
+
+        /**
+         * Returns true if any thread holds the read lock.
+         */
+        final boolean readersActive() {
+            PaddedAtomicLongArray rs = readers;
+            for (int i = 0, n = rs.length(); i < n; ++i) {
+                if (rs.get(i) != 0L)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Called by a writer that has just set the write state from
+         * zero: waits until no other thread holds the read lock.  In
+         * the default mode interrupts are recorded and reasserted on
+         * return.  Otherwise gives up, leaving the interrupt status
+         * set for AQS to act on, if the mode is DRAIN_INTERRUPTIBLE
+         * and the thread is interrupted, or if it is DRAIN_TIMED and
+         * the deadline has passed.
+         *
+         * @param rh the current thread's read state
+         * @return {@code true} if readers drained, {@code false} if
+         * the wait was abandoned
+         */
+        private boolean awaitReadersDrained(ReadHolder rh) {
+            int mode = rh.drainMode;
+            Thread current = Thread.currentThread();
+            boolean interrupted = false;
+            int spins = DRAIN_SPINS;
+            while (readersActive()) {
+                long nanos = 0L;
+                if ((mode & DRAIN_INTERRUPTIBLE) != 0 &&
+                    current.isInterrupted())
+                    return false;
+                if ((mode & DRAIN_TIMED) != 0 &&
+                    (nanos = rh.drainDeadline - System.nanoTime()) <= 0L)
+                    return false;
+                if (spins > 0)
+                    --spins;
+                else {
+                    drainer = current;
+                    if (readersActive()) {
+                        if ((mode & DRAIN_TIMED) != 0)
+                            LockSupport.parkNanos(this, nanos);
+                        else
+                            LockSupport.park(this);
+                    }
+                    drainer = null;
+                    if (mode == 0 && Thread.interrupted())
+                        interrupted = true;
+                }
+            }
+            if (interrupted)
+                current.interrupt();
+            return true;
+        }
+
+        /**
+         * Wakes up a writer waiting for readers to drain, if the
+         * write state is set.  Called after a reader slot decrement.
+         */
+        private void signalDrainer() {
+            Thread w;
+            if (getState() != 0 && (w = drainer) != null)
+                LockSupport.unpark(w);
+        }
+
+        /*
+         * Note that tryRelease and tryAcquire can be called by
+         * Conditions. So it is possible that their arguments contain
+         * the saved write hold count from before a wait.
+         */
+
+        protected final boolean tryRelease(int releases) {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            int nextc = getState() - releases;
+            boolean free = nextc == 0;
+            if (free)
+                setExclusiveOwnerThread(null);
+            setState(nextc);
+            return free;
+        }
+
+        protected final boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c != 0) {
+                if (current != getExclusiveOwnerThread())
+                    return false;
+                if (c + acquires < 0)
+                    throw new Error("Maximum lock count exceeded");
+                setState(c + acquires);
+                return true;
+            }
+            if (!compareAndSetState(0, acquires))
+                return false;
+            setExclusiveOwnerThread(current);
+            ReadHolder rh = readHolds.get();
+            if (!awaitReadersDrained(rh)) {
+                // interrupted or timed out; back out, leaving it to
+                // endDrain to wake readers queued behind the write state
+                setExclusiveOwnerThread(null);
+                setState(0);
+                rh.drainMode |= DRAIN_ABANDONED;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Called by the interruptible and timed write-lock methods
+         * on return from AQS.  Resets the drain mode and, if a drain
+         * was abandoned, wakes threads that queued behind the write
+         * state, by briefly retaking and releasing it if it is still
+         * free.  If another writer took it, its release wakes them.
+         */
+        private void endDrain(ReadHolder rh) {
+            boolean abandoned = (rh.drainMode & DRAIN_ABANDONED) != 0;
+            rh.drainMode = 0;
+            if (abandoned && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                release(1);
+            }
+        }
+
+        /**
+         * Performs lockInterruptibly for write, abandoning the wait
+         * for readers to drain if interrupted.
+         */
+        final void lockWriteInterruptibly() throws InterruptedException {
+            ReadHolder rh = readHolds.get();
+            rh.drainMode = DRAIN_INTERRUPTIBLE;
+            try {
+                acquireInterruptibly(1);
+            } finally {
+                endDrain(rh);
+            }
+        }
+
+        /**
+         * Performs timed tryLock for write, abandoning the wait for
+         * readers to drain if interrupted or if the timeout elapses.
+         */
+        final boolean tryWriteLock(long nanosTimeout)
+                throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            ReadHolder rh = readHolds.get();
+            long deadline = System.nanoTime() + nanosTimeout;
+            rh.drainDeadline = deadline;
+            rh.drainMode = DRAIN_INTERRUPTIBLE | DRAIN_TIMED;
+            try {
+                // Make the first attempt here rather than in
+                // tryAcquireNanos, so that time spent waiting for
+                // readers is deducted from the time left to queue
+                if (tryAcquire(1)) {
+                    if (LockProfiler.ENABLED)
+                        profileAcquire();
+                    return true;
+                }
+                return tryAcquireNanos(1, deadline - System.nanoTime());
+            } finally {
+                endDrain(rh);
+            }
+        }
+
+        /**
+         * Performs tryLock for write, failing instead of waiting if
+         * any reader holds the lock.
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c != 0) {
+                if (current != getExclusiveOwnerThread())
+                    return false;
+                if (c == Integer.MAX_VALUE)
+                    throw new Error("Maximum lock count exceeded");
+                setState(c + 1);
+                return true;
+            }
+            if (readersActive() || !compareAndSetState(0, 1))
+                return false;
+            setExclusiveOwnerThread(current);
+            if (readersActive()) {
+                // lost the race with a reader; back out, waking
+                // any readers that queued behind the write state
+                release(1);
+                return false;
+            }
+            return true;
+        }
+
+        protected final int tryAcquireShared(int unused) {
+            return tryReadLock() ? 1 : -1;
+        }
+
+        /**
+         * Tries to register the current thread as a reader.  Reentrant
+         * reads and reads by the writer always succeed; others
+         * succeed only if no writer is present after registering.
+         */
+        final boolean tryReadLock() {
+            ReadHolder rh = readHolds.get();
+            int i = slotFor(rh);
+            if (rh.count > 0 ||
+                getExclusiveOwnerThread() == Thread.currentThread()) {
+                readers.incrementAndGet(i);
+                ++rh.count;
+                return true;
+            }
+            if (getState() != 0)
+                return false;
+            readers.incrementAndGet(i);
+            if (getState() == 0) {
+                rh.count = 1;
+                return true;
+            }
+            readers.decrementAndGet(i);
+            signalDrainer();
+            return false;
+        }
+
+        protected final boolean tryReleaseShared(int unused) {
+            ReadHolder rh = readHolds.get();
+            int count = rh.count;
+            if (count <= 0)
+                throw unmatchedUnlockException();
+            rh.count = count - 1;
+            readers.decrementAndGet(slotFor(rh));
+            signalDrainer();
+            // Releasing the read lock has no effect on readers, and a
+            // writer waiting for readers to drain is woken through
+            // the drainer field.  But a writer queued behind a reader
+            // that acquired through the queue is not woken by that
+            // reader's acquire, as the write state was then free;
+            // let AQS wake it now unless another writer holds it.
+            return getState() == 0 && hasQueuedThreads();
+        }
+
+        private IllegalMonitorStateException unmatchedUnlockException() {
+            return new IllegalMonitorStateException(
+                "attempt to unlock read lock, not locked by current thread");
+        }
+
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        // Methods relayed to outer class
+
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        final Thread getOwner() {
+            return ((getState() == 0) ?
+                    null :
+                    getExclusiveOwnerThread());
+        }
+
+        final int getReadLockCount() {
+            return (int) readers.sum();
+        }
+
+        final boolean isWriteLocked() {
+            return getState() != 0;
+        }
+
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? getState() : 0;
+        }
+
+        final int getReadHoldCount() {
+            return readHolds.get().count;
+        }
+
+        final int getCount() { return getState(); }
+
+        /**
+         * Reconstitutes the instance from a stream (that is,
+         * deserializes it).
+         */
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            readers = new PaddedAtomicLongArray(slotCount());
+            readHolds = new ThreadLocalReadHolder();
+            setState(0); // reset to unlocked state
+        }
+    }
+
+    /**
+     * The lock returned by method {@link ScalableReadWriteLock#readLock}.
+     */
+    public static class ReadLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -4524815486326521645L;
+        private final Sync sync;
+
+        /**
+         * Constructor for use by subclasses
+         *
+         * @param lock the outer lock object
+         * @throws NullPointerException if the lock is null
+         */
+        protected ReadLock(ScalableReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * Acquires the read lock.
+         *
+         * <p>Acquires the read lock if the write lock is not held by
+         * another thread and returns immediately.  In the common
+         * case this increments only the counter assigned to the
+         * current thread.
+         *
+         * <p>If the write lock is held or being acquired by another
+         * thread then the current thread becomes disabled for thread
+         * scheduling purposes and lies dormant until the read lock
+         * has been acquired.
+         */
+        public void lock() {
+            if (!sync.tryReadLock())
+                sync.acquireShared(1);
+        }
+
+        /**
+         * Acquires the read lock unless the current thread is
+         * {@linkplain Thread#interrupt interrupted}.
+         *
+         * @throws InterruptedException if the current thread is interrupted
+         */
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        /**
+         * Acquires the read lock only if the write lock is not held
+         * or being acquired by another thread at the time of
+         * invocation.
+         *
+         * @return {@code true} if the read lock was acquired
+         */
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        /**
+         * Acquires the read lock if the write lock is not held by
+         * another thread within the given waiting time and the
+         * current thread has not been {@linkplain Thread#interrupt
+         * interrupted}.
+         *
+         * @param timeout the time to wait for the read lock
+         * @param unit the time unit of the timeout argument
+         * @return {@code true} if the read lock was acquired
+         * @throws InterruptedException if the current thread is interrupted
+         * @throws NullPointerException if the time unit is null
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+        }
+
+        /**
+         * Attempts to release this lock.
+         *
+         * <p>Decrements the counter assigned to the current thread,
+         * waking a writer waiting for readers to drain.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         * does not hold the read lock
+         */
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * Throws {@code UnsupportedOperationException} because
+         * {@code ReadLocks} do not support conditions.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Returns a string identifying this lock, as well as its lock state.
+         * The state, in brackets, includes the String {@code "Read locks ="}
+         * followed by the number of held read locks.
+         *
+         * @return a string identifying this lock, as well as its lock state
+         */
+        public String toString() {
+            int r = sync.getReadLockCount();
+            return super.toString() +
+                "[Read locks = " + r + "]";
+        }
+    }
+
+    /**
+     * The lock returned by method {@link ScalableReadWriteLock#writeLock}.
+     */
+    public static class WriteLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -2524815486326521645L;
+        private final Sync sync;
+
+        /**
+         * Constructor for use by subclasses
+         *
+         * @param lock the outer lock object
+         * @throws NullPointerException if the lock is null
+         */
+        protected WriteLock(ScalableReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * Acquires the write lock.
+         *
+         * <p>If the write lock is not held by another thread, the
+         * current thread claims it, so that no new readers are
+         * admitted, and then waits until readers already holding the
+         * lock have released it.  If the current thread already holds
+         * the write lock then the hold count is incremented by one.
+         * Otherwise the current thread becomes disabled for thread
+         * scheduling purposes until the write lock has been acquired.
+         */
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        /**
+         * Acquires the write lock unless the current thread is
+         * {@linkplain Thread#interrupt interrupted}.  Interruption is
+         * detected both while waiting for another writer and while
+         * waiting for readers to drain; in the latter case the write
+         * lock is released again, admitting waiting readers, before
+         * the exception is thrown.
+         *
+         * @throws InterruptedException if the current thread is interrupted
+         */
+        public void lockInterruptibly() throws InterruptedException {
+            sync.lockWriteInterruptibly();
+        }
+
+        /**
+         * Acquires the write lock only if it is not held by another
+         * thread and no thread holds the read lock at the time of
+         * invocation.
+         *
+         * @return {@code true} if the lock was free and was acquired
+         * by the current thread, or the write lock was already held
+         * by the current thread; and {@code false} otherwise.
+         */
+        public boolean tryLock() {
+            return sync.tryWriteLock();
+        }
+
+        /**
+         * Acquires the write lock if it is not held by another thread
+         * within the given waiting time and the current thread has
+         * not been {@linkplain Thread#interrupt interrupted}.  The
+         * timeout and interruption apply both to waiting for another
+         * writer and to waiting for readers to drain; if the wait for
+         * readers is abandoned, the write lock is released again,
+         * admitting waiting readers.
+         *
+         * @param timeout the time to wait for the write lock
+         * @param unit the time unit of the timeout argument
+         * @return {@code true} if the lock was acquired
+         * @throws InterruptedException if the current thread is interrupted
+         * @throws NullPointerException if the time unit is null
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryWriteLock(unit.toNanos(timeout));
+        }
+
+        /**
+         * Attempts to release this lock.
+         *
+         * <p>If the current thread is the holder of this lock then
+         * the hold count is decremented. If the hold count is now
+         * zero then the lock is released, admitting waiting readers.
+         *
+         * @throws IllegalMonitorStateException if the current thread does not
+         * hold this lock
+         */
+        public void unlock() {
+            sync.release(1);
+        }
+
+        /**
+         * Returns a {@link Condition} instance for use with this
+         * {@link Lock} instance.  The returned {@link Condition}
+         * instance supports the same usages as do the {@link
+         * Object} monitor methods ({@link Object#wait() wait},
+         * {@link Object#notify notify}, and {@link Object#notifyAll
+         * notifyAll}) when used with the built-in monitor lock, in
+         * the same way as for {@link ReentrantReadWriteLock.WriteLock}.
+         *
+         * @return the Condition object
+         */
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        /**
+         * Returns a string identifying this lock, as well as its lock
+         * state.  The state, in brackets includes either the String
+         * {@code "Unlocked"} or the String {@code "Locked by"}
+         * followed by the {@linkplain Thread#getName name} of the owning thread.
+         *
+         * @return a string identifying this lock, as well as its lock state
+         */
+        public String toString() {
+            Thread o = sync.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        /**
+         * Queries if this write lock is held by the current thread.
+         *
+         * @return {@code true} if the current thread holds this lock and
+         *         {@code false} otherwise
+         */
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        /**
+         * Queries the number of holds on this write lock by the current
+         * thread.
+         *
+         * @return the number of holds on this lock by the current thread,
+         *         or zero if this lock is not held by the current thread
+         */
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+    // Instrumentation and status
+
+    /**
+     * Queries the number of read locks held for this lock. This
+     * method sums the reader slots, so it is designed for use in
+     * monitoring system state, not for synchronization control.
+     *
+     * @return the number of read locks held
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    /**
+     * Queries if the write lock is held or being acquired by any
+     * thread.  This method is designed for use in monitoring system
+     * state, not for synchronization control.
+     *
+     * @return {@code true} if a thread has claimed the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    /**
+     * Queries if the write lock is held by the current thread.
+     *
+     * @return {@code true} if the current thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    /**
+     * Queries the number of reentrant write holds on this lock by the
+     * current thread.
+     *
+     * @return the number of holds on the write lock by the current thread,
+     *         or zero if the write lock is not held by the current thread
+     */
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    /**
+     * Queries the number of reentrant read holds on this lock by the
+     * current thread.
+     *
+     * @return the number of holds on the read lock by the current thread,
+     *         or zero if the read lock is not held by the current thread
+     */
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    /**
+     * Queries whether any threads are waiting to acquire the read or
+     * write lock.  This method is designed primarily for use in
+     * monitoring of the system state.
+     *
+     * @return {@code true} if there may be other threads waiting to
+     *         acquire the lock
+     */
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire
+     * either the read or write lock.
+     *
+     * @return the estimated number of threads waiting for this lock
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock state.
+     * The state, in brackets, includes the String {@code "Write locks ="}
+     * followed by the number of reentrantly held write locks, and the
+     * String {@code "Read locks ="} followed by the number of held
+     * read locks.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        int w = sync.getCount();
+        int r = sync.getReadLockCount();
+
+        return super.toString() +
+            "[Write locks = " + w + ", Read locks = " + r + "]";
+    }
+
+}
@@ -29,18 +29,38 @@ package javax.swing;
 
 
 
+import java.awt.event.ActionEvent;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 import java.util.concurrent.atomic.AtomicLong;
 import sun.awt.AppContext;
+import sun.security.action.GetIntegerAction;
 
 
 
 /**
  * Internal class to manage all Timers using one thread.
- * TimerQueue manages a queue of Timers. The Timers are chained
- * together in a linked list sorted by the order in which they will expire.
+ * TimerQueue manages a queue of Timers. The Timers are kept in a
+ * binary heap sorted by the order in which they will expire.
+ * <p>
+ * The heap is owned by the TimerQueue thread and is never locked.
+ * Other threads starting, stopping or restarting a Timer only update
+ * the Timer's DelayedTimer, under the Timer's own lock, and hand it
+ * to the TimerQueue thread through a lock-free queue, so they neither
+ * contend with each other nor block the TimerQueue thread. A Timer
+ * keeps its DelayedTimer while stopped, so restarting it updates the
+ * existing entry in place.
+ * <p>
+ * If the system property {@code swing.timerQueue.coalesceSlack} is set
+ * to a positive number of microseconds, TimerQueue coalesces firings:
+ * whenever it wakes it also takes every Timer due to expire within that
+ * slack window, and delivers the events of all the coalescing Timers
+ * taken to the event dispatch thread as a single batch, rather than
+ * each Timer posting its own event. Timers may then fire up to the
+ * slack early. Non-coalescing Timers always post their own events.
  *
  * @author Dave Moore
  * @author Igor Kushnirskiy
@@ -52,7 +72,56 @@ class TimerQueue implements Runnable
     private static final Object expiredTimersKey =
         new StringBuffer("TimerQueue.expiredTimersKey");
 
-    private final DelayQueue<DelayedTimer> queue;
+    /*
+     * Every started Timer has a DelayedTimer, which it keeps (in
+     * Timer.delayedTimer) while stopped. Its volatile fields time and
+     * cancelled are the Timer's requested state, written only under
+     * the Timer's lock. The TimerQueue thread alone owns the heap and
+     * the heap fields of DelayedTimer (key, heapIndex); the key of a
+     * DelayedTimer is the time it was last sorted by, which may be
+     * stale.
+     *
+     * A thread changing a DelayedTimer's requested state pushes it on
+     * the inbox, unless it is already there (flag inInbox), and
+     * unparks the TimerQueue thread if the new time is before the time
+     * the TimerQueue thread is waiting for (wakeTime). The TimerQueue
+     * thread clears inInbox before reading the requested state, and
+     * publishes wakeTime before rechecking the inbox and parking. All
+     * these fields are volatile, so either the TimerQueue thread sees
+     * each change, or the changing thread sees that it must push or
+     * unpark.
+     *
+     * Draining the inbox applies each entry's requested state to the
+     * heap: cancelled entries are removed, and others are inserted or,
+     * if now due earlier, re-sorted. Entries now due later are left in
+     * place; when they reach the head, the TimerQueue thread finds the
+     * requested time still in the future and re-sorts them then. A
+     * DelayedTimer is examined again under its Timer's lock before
+     * firing, so stale heap state never fires a stopped Timer.
+     */
+
+    /** Initial capacity of the heap */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The heap of DelayedTimers, owned by the TimerQueue thread */
+    private DelayedTimer[] heap = new DelayedTimer[INITIAL_CAPACITY];
+
+    /** Number of DelayedTimers in the heap */
+    private int size;
+
+    /** DelayedTimers whose requested state has changed */
+    private final ConcurrentLinkedQueue<DelayedTimer> inbox =
+        new ConcurrentLinkedQueue<DelayedTimer>();
+
+    /** The TimerQueue thread, once running */
+    private volatile Thread timerThread;
+
+    /**
+     * The time the TimerQueue thread is waiting for: Long.MAX_VALUE
+     * if waiting indefinitely, Long.MIN_VALUE if not waiting.
+     */
+    private volatile long wakeTime = Long.MIN_VALUE;
+
     private volatile boolean running;
     private final Lock runningLock;
 
@@ -64,12 +133,28 @@ class TimerQueue implements Runnable
     /** Base of nanosecond timings, to avoid wrapping */
     private static final long NANO_ORIGIN = System.nanoTime();
 
+    /**
+     * Window within which expiring timers are fired together, in
+     * nanoseconds, or 0 if firings are not coalesced.
+     */
+    private static final long COALESCE_SLACK =
+        TimeUnit.MICROSECONDS.toNanos(Math.max(0,
+            AccessController.doPrivileged(
+                new GetIntegerAction("swing.timerQueue.coalesceSlack", 0))));
+
+    /**
+     * Coalescing timers whose events are in a batch not yet delivered
+     * to the event dispatch thread. A timer is removed when its event
+     * is delivered, or when it is stopped, which suppresses the event.
+     */
+    private final Map<Timer, Boolean> pendingTimers =
+        new ConcurrentHashMap<Timer, Boolean>();
+
     /**
      * Constructor for TimerQueue.
      */
     public TimerQueue() {
         super();
-        queue = new DelayQueue<DelayedTimer>();
         // Now start the TimerQueue thread.
         runningLock = new ReentrantLock();
         startIfNeeded();
@@ -117,25 +202,26 @@ class TimerQueue implements Runnable
     void addTimer(Timer timer, long delayMillis) {
         timer.getLock().lock();
         try {
-            // If the Timer is already in the queue, then ignore the add.
-            if (! containsTimer(timer)) {
-                addTimer(new DelayedTimer(timer,
-                                      TimeUnit.MILLISECONDS.toNanos(delayMillis)
-                                      + now()));
+            DelayedTimer delayedTimer = timer.delayedTimer;
+            long time = TimeUnit.MILLISECONDS.toNanos(delayMillis) + now();
+            if (delayedTimer == null) {
+                timer.delayedTimer = delayedTimer =
+                    new DelayedTimer(timer, time);
+            } else if (delayedTimer.cancelled) {
+                // Restart in place
+                delayedTimer.setTime(time);
+                delayedTimer.cancelled = false;
+            } else {
+                // If the Timer is already in the queue, then ignore the add.
+                return;
+            }
+            publish(delayedTimer);
+            if (time < wakeTime) {
+                Thread t = timerThread;
+                if (t != null) {
+                    LockSupport.unpark(t);
+                }
             }
-        } finally {
-            timer.getLock().unlock();
-        }
-    }
-
-    private void addTimer(DelayedTimer delayedTimer) {
-        assert delayedTimer != null && ! containsTimer(delayedTimer.getTimer());
-
-        Timer timer = delayedTimer.getTimer();
-        timer.getLock().lock();
-        try {
-            timer.delayedTimer = delayedTimer;
-            queue.add(delayedTimer);
         } finally {
             timer.getLock().unlock();
         }
@@ -144,9 +230,14 @@ class TimerQueue implements Runnable
     void removeTimer(Timer timer) {
         timer.getLock().lock();
         try {
-            if (timer.delayedTimer != null) {
-                queue.remove(timer.delayedTimer);
-                timer.delayedTimer = null;
+            DelayedTimer delayedTimer = timer.delayedTimer;
+            if (delayedTimer != null && ! delayedTimer.cancelled) {
+                delayedTimer.cancelled = true;
+                // No wakeup; removed from the heap when next drained
+                publish(delayedTimer);
+            }
+            if (COALESCE_SLACK > 0) {
+                pendingTimers.remove(timer);
             }
         } finally {
             timer.getLock().unlock();
@@ -156,71 +247,356 @@ class TimerQueue implements Runnable
     boolean containsTimer(Timer timer) {
         timer.getLock().lock();
         try {
-            return timer.delayedTimer != null;
+            DelayedTimer delayedTimer = timer.delayedTimer;
+            return delayedTimer != null && ! delayedTimer.cancelled;
         } finally {
             timer.getLock().unlock();
         }
     }
 
+    /**
+     * Hands a DelayedTimer whose requested state changed to the
+     * TimerQueue thread. Call only when holding the Timer's lock.
+     */
+    private void publish(DelayedTimer delayedTimer) {
+        if (! delayedTimer.inInbox) {
+            delayedTimer.inInbox = true;
+            inbox.offer(delayedTimer);
+        }
+    }
+
 
     public void run() {
         runningLock.lock();
         try {
+            timerThread = Thread.currentThread();
             while (running) {
-                try {
-                    Timer timer = queue.take().getTimer();
-                    timer.getLock().lock();
+                DelayedTimer first = awaitExpired();
+                if (first == null) {
+                    // Shouldn't ignore interrupts here, so AppContext
+                    // is disposed gracefully, see 6799345 for details
+                    if (AppContext.getAppContext().isDisposed()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (COALESCE_SLACK > 0) {
                     try {
-                        DelayedTimer delayedTimer = timer.delayedTimer;
-                        if (delayedTimer != null) {
-                            /*
-                             * Timer is not removed after we get it from
-                             * the queue and before the lock on the timer is
-                             * acquired
-                             */
-                            timer.post(); // have timer post an event
-                            timer.delayedTimer = null;
-                            if (timer.isRepeats()) {
-                                delayedTimer.setTime(now()
-                                    + TimeUnit.MILLISECONDS.toNanos(
-                                          timer.getDelay()));
-                                addTimer(delayedTimer);
-                            }
+                        runCoalesced(first);
+                    } catch (InterruptedException ie) {
+                        if (AppContext.getAppContext().isDisposed()) {
+                            break;
                         }
-
-                        // Allow run other threads on systems without kernel threads
-                        timer.getLock().newCondition().awaitNanos(1);
-                    } catch (SecurityException ignore) {
-                    } finally {
-                        timer.getLock().unlock();
                     }
+                    continue;
+                }
+                Timer timer = first.getTimer();
+                timer.getLock().lock();
+                try {
+                    if (isDue(first, 0L)) {
+                        timer.post(); // have timer post an event
+                        rearm(first);
+                    }
+
+                    // Allow run other threads on systems without kernel threads
+                    timer.getLock().newCondition().awaitNanos(1);
+                } catch (SecurityException ignore) {
                 } catch (InterruptedException ie) {
-                    // Shouldn't ignore InterruptedExceptions here, so AppContext
-                    // is disposed gracefully, see 6799345 for details
                     if (AppContext.getAppContext().isDisposed()) {
                         break;
                     }
+                } finally {
+                    timer.getLock().unlock();
                 }
             }
         }
         catch (ThreadDeath td) {
             // Mark all the timers we contain as not being queued.
-            for (DelayedTimer delayedTimer : queue) {
-                delayedTimer.getTimer().cancelEvent();
+            drainInbox();
+            for (int i = 0; i < size; i++) {
+                heap[i].getTimer().cancelEvent();
             }
             throw td;
         } finally {
             running = false;
+            timerThread = null;
             runningLock.unlock();
         }
     }
 
+    /**
+     * Waits until the DelayedTimer at the head of the heap expires,
+     * then removes and returns it; returns null if interrupted.
+     */
+    private DelayedTimer awaitExpired() {
+        for (;;) {
+            drainInbox();
+            DelayedTimer first = heap[0];
+            long delay = (first == null) ? Long.MAX_VALUE : first.key - now();
+            if (delay <= 0) {
+                return poll();
+            }
+            wakeTime = (first == null) ? Long.MAX_VALUE : first.key;
+            try {
+                if (! inbox.isEmpty()) {
+                    continue; // recheck after publishing wakeTime
+                }
+                if (first == null) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, delay);
+                }
+            } finally {
+                wakeTime = Long.MIN_VALUE;
+            }
+            if (Thread.interrupted()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Applies the requested state of every DelayedTimer in the inbox
+     * to the heap.
+     */
+    private void drainInbox() {
+        DelayedTimer delayedTimer;
+        while ((delayedTimer = inbox.poll()) != null) {
+            delayedTimer.inInbox = false;
+            if (delayedTimer.cancelled) {
+                if (delayedTimer.heapIndex >= 0) {
+                    remove(delayedTimer);
+                }
+            } else {
+                long time = delayedTimer.time;
+                if (delayedTimer.heapIndex < 0) {
+                    delayedTimer.key = time;
+                    offer(delayedTimer);
+                } else if (time < delayedTimer.key) {
+                    remove(delayedTimer);
+                    delayedTimer.key = time;
+                    offer(delayedTimer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given DelayedTimer, just taken from the heap,
+     * should fire: it has not been stopped, and its requested time is
+     * within slack of now. If its requested time is later (it was
+     * restarted in place), it is re-sorted instead. Call only when
+     * holding the Timer's lock.
+     */
+    private boolean isDue(DelayedTimer delayedTimer, long slack) {
+        if (delayedTimer.cancelled) {
+            return false;
+        }
+        long time = delayedTimer.time;
+        if (time - now() > slack) {
+            delayedTimer.key = time;
+            offer(delayedTimer);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Re-sorts a fired DelayedTimer if its Timer repeats, and marks it
+     * stopped otherwise. Call only when holding the Timer's lock.
+     */
+    private void rearm(DelayedTimer delayedTimer) {
+        Timer timer = delayedTimer.getTimer();
+        if (timer.isRepeats()) {
+            long time = now()
+                + TimeUnit.MILLISECONDS.toNanos(timer.getDelay());
+            delayedTimer.setTime(time);
+            delayedTimer.key = time;
+            offer(delayedTimer);
+        } else {
+            delayedTimer.cancelled = true;
+        }
+    }
+
+    /**
+     * Fires the given expired timer together with all timers expiring
+     * within COALESCE_SLACK of now, posting one batched event for the
+     * coalescing ones.
+     */
+    private void runCoalesced(DelayedTimer first)
+        throws InterruptedException {
+        List<DelayedTimer> expired = new ArrayList<DelayedTimer>();
+        expired.add(first);
+        DelayedTimer next;
+        while ((next = heap[0]) != null
+               && next.key - now() <= COALESCE_SLACK) {
+            expired.add(poll());
+        }
+
+        List<Timer> batch = new ArrayList<Timer>(expired.size());
+        for (DelayedTimer delayedTimer : expired) {
+            Timer timer = delayedTimer.getTimer();
+            timer.getLock().lock();
+            try {
+                if (isDue(delayedTimer, COALESCE_SLACK)) {
+                    if (! timer.isCoalesce()) {
+                        timer.post(); // have timer post an event
+                    } else if (pendingTimers.put(timer, Boolean.TRUE) == null) {
+                        batch.add(timer);
+                    }
+                    rearm(delayedTimer);
+                }
+            } catch (SecurityException ignore) {
+            } finally {
+                timer.getLock().unlock();
+            }
+        }
+        if (! batch.isEmpty()) {
+            SwingUtilities.invokeLater(new TimerBatch(batch));
+        }
+
+        // Allow run other threads on systems without kernel threads
+        first.getTimer().getLock().lock();
+        try {
+            first.getTimer().getLock().newCondition().awaitNanos(1);
+        } finally {
+            first.getTimer().getLock().unlock();
+        }
+    }
+
+    /**
+     * Delivers the action events of a batch of coalescing timers on
+     * the event dispatch thread, as each Timer would itself.
+     */
+    private class TimerBatch implements Runnable {
+        private final List<Timer> timers;
+
+        TimerBatch(List<Timer> timers) {
+            this.timers = timers;
+        }
+
+        public void run() {
+            int i = 0;
+            try {
+                while (i < timers.size()) {
+                    fire(timers.get(i++));
+                }
+            } finally {
+                // If a listener threw, deliver the rest in a new batch
+                if (i < timers.size()) {
+                    SwingUtilities.invokeLater(
+                        new TimerBatch(timers.subList(i, timers.size())));
+                }
+            }
+        }
+
+        private void fire(final Timer timer) {
+            // Skip timers stopped since the batch was posted
+            if (pendingTimers.remove(timer) == null) {
+                return;
+            }
+            if (Timer.getLogTimers()) {
+                System.out.println("Timer ringing: " + timer);
+            }
+            try {
+                AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                    public Void run() {
+                        timer.fireActionPerformed(
+                            new ActionEvent(timer, 0,
+                                            timer.getActionCommand(),
+                                            System.currentTimeMillis(),
+                                            0));
+                        return null;
+                    }
+                }, timer.getAccessControlContext());
+            } catch (SecurityException ignore) {
+            }
+        }
+    }
+
+
+    // Heap operations. Call only from the TimerQueue thread.
+
+    private void offer(DelayedTimer delayedTimer) {
+        int i = size;
+        if (i >= heap.length) {
+            heap = Arrays.copyOf(heap, i + (i >> 1));
+        }
+        size = i + 1;
+        siftUp(i, delayedTimer);
+    }
+
+    private DelayedTimer poll() {
+        DelayedTimer first = heap[0];
+        int s = --size;
+        DelayedTimer last = heap[s];
+        heap[s] = null;
+        if (s != 0) {
+            siftDown(0, last);
+        }
+        first.heapIndex = -1;
+        return first;
+    }
+
+    private void remove(DelayedTimer delayedTimer) {
+        int i = delayedTimer.heapIndex;
+        int s = --size;
+        DelayedTimer last = heap[s];
+        heap[s] = null;
+        if (s != i) {
+            siftDown(i, last);
+            if (heap[i] == last) {
+                siftUp(i, last);
+            }
+        }
+        delayedTimer.heapIndex = -1;
+    }
+
+    private void siftUp(int k, DelayedTimer key) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            DelayedTimer e = heap[parent];
+            if (! key.sortsBefore(e)) {
+                break;
+            }
+            heap[k] = e;
+            e.heapIndex = k;
+            k = parent;
+        }
+        heap[k] = key;
+        key.heapIndex = k;
+    }
+
+    private void siftDown(int k, DelayedTimer key) {
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            DelayedTimer c = heap[child];
+            int right = child + 1;
+            if (right < size && heap[right].sortsBefore(c)) {
+                c = heap[child = right];
+            }
+            if (! c.sortsBefore(key)) {
+                break;
+            }
+            heap[k] = c;
+            c.heapIndex = k;
+            k = child;
+        }
+        heap[k] = key;
+        key.heapIndex = k;
+    }
+
 
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("TimerQueue (");
         boolean isFirst = true;
-        for (DelayedTimer delayedTimer : queue) {
+        // Racy snapshot of the heap, which only the TimerQueue thread owns
+        for (DelayedTimer delayedTimer : heap) {
+            if (delayedTimer == null || delayedTimer.cancelled) {
+                continue;
+            }
             if (! isFirst) {
                 buf.append(", ");
             }
@@ -257,6 +633,18 @@ class TimerQueue implements Runnable
 
         private final Timer timer;
 
+        /** True if the Timer is stopped; guarded by the Timer's lock */
+        volatile boolean cancelled;
+
+        /** True if in the inbox */
+        volatile boolean inInbox;
+
+        /** The time this is sorted by in the heap */
+        long key;
+
+        /** Index in the heap, or -1 if not in it */
+        int heapIndex = -1;
+
         DelayedTimer(Timer timer, long nanos) {
             this.timer = timer;
             time = nanos;
@@ -276,6 +664,15 @@ class TimerQueue implements Runnable
             return timer;
         }
 
+        /**
+         * Returns true if this sorts before the other in the heap.
+         */
+        final boolean sortsBefore(DelayedTimer other) {
+            long diff = key - other.key;
+            return diff < 0
+                || (diff == 0 && sequenceNumber < other.sequenceNumber);
+        }
+
         public int compareTo(Delayed other) {
             if (other == this) { // compare zero ONLY if same object
                 return 0;
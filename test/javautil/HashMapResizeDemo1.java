@@ -0,0 +1,168 @@
+package javautil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ *   HashMap扩容的功能检查。
+ *
+ *   (01) 按序拆分：扩容时每个桶拆成低位桶和高位桶，检查落在同一个新桶中的key保持扩容前的相对顺序。
+ *   (02) 渐进式扩容(系统属性jdk.map.incrementalResize=true)：超过阈值后新表立即生效，旧表中的桶
+ *        在之后的插入中逐步迁移。迁移进行中检查：get/containsKey/containsValue、迭代恰好访问每个元素一次、
+ *        通过迭代器和map.remove删除旧表和新表中的元素、迭代时put仍然快速失败；继续插入直到迁移结束，
+ *        检查所有元素都在。
+ *        没有设置该属性时，检查扩容一次完成(不存在迁移中的旧表)。
+ *        运行：java -Djdk.map.incrementalResize=true HashMapResizeDemo1
+ *   通过反射读取HashMap.table和HashMap.resizeSource。
+ *   检查失败时抛出AssertionError。
+ */
+public class HashMapResizeDemo1 {
+
+    private static final boolean INCREMENTAL = Boolean.getBoolean("jdk.map.incrementalResize");
+
+    public static void main(String[] args) throws Exception {
+        splitOrder();
+        if (INCREMENTAL)
+            incremental();
+        else
+            immediate();
+    }
+
+    private static void splitOrder() throws Exception {
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(64);
+        map.put(0, 0);
+        int k = 1;
+        List<Integer> before = null;
+        int oldLength = tableLength(map);
+        while (tableLength(map) == oldLength || resizing(map)) {
+            if (tableLength(map) == oldLength)
+                before = keys(map);
+            map.put(k * 7, k);
+            k++;
+        }
+        List<Integer> after = keys(map);
+        int newLength = tableLength(map);
+        // 扩容前同一个桶中、扩容后仍在同一个桶中的key，相对顺序不变
+        int pairs = 0;
+        for (int i = 0; i < before.size(); i++) {
+            for (int j = i + 1; j < before.size(); j++) {
+                Integer a = before.get(i), b = before.get(j);
+                if (index(map, a, newLength) == index(map, b, newLength)) {
+                    verify(after.indexOf(a) < after.indexOf(b),
+                           "order of " + a + " and " + b + " kept in their new bin");
+                    pairs++;
+                }
+            }
+        }
+        verify(pairs > 0, "some keys share a bin");
+        System.out.println("split order: table " + oldLength + " -> " + newLength
+                + ", order kept for " + pairs + " pairs of keys sharing a bin");
+    }
+
+    private static void immediate() throws Exception {
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(16);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+            verify(!resizing(map), "no incremental resize without the property");
+        }
+        System.out.println("incremental resize off: every resize completed at once (run with "
+                + "-Djdk.map.incrementalResize=true to check incremental resizing)");
+    }
+
+    private static void incremental() throws Exception {
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(1024);
+        int n = 0;
+        while (!resizing(map)) {
+            map.put(n, n);
+            n++;
+        }
+        verify(resizing(map), "incremental resize in progress");
+        verify(map.size() == n, "size during resize");
+        for (int i = 0; i < n; i++)
+            verify(map.containsKey(i) && map.get(i) == i, "get " + i + " during resize");
+        verify(!map.containsKey(-1) && map.get(n) == null, "absent keys during resize");
+        verify(map.containsValue(0) && map.containsValue(n - 1), "containsValue during resize");
+
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Integer key : map.keySet())
+            verify(seen.add(key), "key " + key + " visited once");
+        verify(seen.size() == n, "iteration visited " + seen.size() + " of " + n);
+
+        // 迭代器删除所有3的倍数，旧表和新表中都有
+        int removed = 0;
+        for (Iterator<Map.Entry<Integer, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getKey() % 3 == 0) {
+                it.remove();
+                removed++;
+            }
+        }
+        verify(resizing(map), "removals do not migrate bins");
+        verify(map.size() == n - removed, "size after iterator removals");
+        verify(map.remove(1) == 1 && map.remove(1) == null, "map.remove during resize");
+        int expected = n - removed - 1;
+
+        boolean failFast = false;
+        try {
+            for (Integer key : map.keySet()) {
+                if (key == 2)
+                    map.put(-2, -2);
+            }
+        } catch (ConcurrentModificationException e) {
+            failFast = true;
+        }
+        verify(failFast, "put during iteration fails fast");
+        expected++;
+
+        int puts = 0;
+        while (resizing(map)) {
+            map.put(n + puts, n + puts);
+            puts++;
+        }
+        expected += puts;
+        verify(map.size() == expected, "size after resize: " + map.size() + " != " + expected);
+        for (int i = 0; i < n + puts; i++) {
+            boolean present = i >= n || (i % 3 != 0 && i != 1);
+            verify(map.containsKey(i) == present, "key " + i + (present ? " present" : " absent"));
+        }
+        verify(map.get(-2) == -2, "key added during iteration");
+        System.out.println("incremental resize: " + n + " keys at start, " + puts
+                + " further puts completed the resize, size = " + map.size());
+    }
+
+    private static List<Integer> keys(HashMap<Integer, Integer> map) {
+        return new ArrayList<Integer>(map.keySet());
+    }
+
+    private static int index(HashMap<?, ?> map, Object key, int length) throws Exception {
+        Method hash = HashMap.class.getDeclaredMethod("hash", Object.class);
+        hash.setAccessible(true);
+        return (Integer) hash.invoke(map, key) & (length - 1);
+    }
+
+    private static boolean resizing(HashMap<?, ?> map) throws Exception {
+        return field("resizeSource").get(map) != null;
+    }
+
+    private static int tableLength(HashMap<?, ?> map) throws Exception {
+        return ((Object[]) field("table").get(map)).length;
+    }
+
+    private static Field field(String name) throws Exception {
+        Field f = HashMap.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,162 @@
+package javautil;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ *   HashMap树化桶(tree bin)的功能检查。
+ *
+ *   (01) 树化：所有key的hashCode相同(都落在同一个桶中)，容量不小于64时，桶中元素达到8个后建立树索引；
+ *        检查get/containsKey/put覆盖/remove的结果，以及迭代能访问所有元素。
+ *        key实现Comparable和不实现Comparable(只能靠tie-break)两种情况都要检查。
+ *   (02) 容量小于64时，桶过长会先扩容，而不是树化。
+ *   (03) 退化：删除元素使桶中元素不超过6个时，树索引被丢弃，剩下的元素仍然可以查到。
+ *   (04) 查找耗时：2000个hashCode相同的Comparable key，对比逐个查找的耗时(只打印，不检查)。
+ *   通过反射读取HashMap.treeBins统计树化的桶数。
+ *   检查失败时抛出AssertionError。
+ */
+public class HashMapTreeBinDemo1 {
+
+    public static void main(String[] args) throws Exception {
+        treeify(true);
+        treeify(false);
+        smallTableResizes();
+        untreeify();
+        lookups();
+    }
+
+    // hashCode都相同的key，可比较
+    static final class ComparableKey implements Comparable<ComparableKey> {
+        final int id;
+        ComparableKey(int id) { this.id = id; }
+        public int hashCode() { return 42; }
+        public boolean equals(Object o) {
+            return (o instanceof ComparableKey) && ((ComparableKey)o).id == id;
+        }
+        public int compareTo(ComparableKey o) {
+            return (id < o.id) ? -1 : (id == o.id) ? 0 : 1;
+        }
+        public String toString() { return "C" + id; }
+    }
+
+    // hashCode都相同的key，不可比较
+    static final class PlainKey {
+        final int id;
+        PlainKey(int id) { this.id = id; }
+        public int hashCode() { return 42; }
+        public boolean equals(Object o) {
+            return (o instanceof PlainKey) && ((PlainKey)o).id == id;
+        }
+        public String toString() { return "P" + id; }
+    }
+
+    private static Object key(boolean comparable, int id) {
+        return comparable ? new ComparableKey(id) : new PlainKey(id);
+    }
+
+    private static void treeify(boolean comparable) throws Exception {
+        String name = comparable ? "Comparable keys" : "non-Comparable keys";
+        HashMap<Object, Integer> map = new HashMap<Object, Integer>(64);
+        for (int i = 0; i < 7; i++)
+            map.put(key(comparable, i), i);
+        verify(treeBinCount(map) == 0, name + ": 7 colliding keys stay a list");
+        for (int i = 7; i < 100; i++)
+            map.put(key(comparable, i), i);
+        verify(treeBinCount(map) == 1, name + ": colliding bin treeified");
+        verify(map.size() == 100, name + ": size");
+        for (int i = 0; i < 100; i++)
+            verify(Integer.valueOf(i).equals(map.get(key(comparable, i))), name + ": get " + i);
+        verify(!map.containsKey(key(comparable, 100)), name + ": absent key");
+        verify(Integer.valueOf(5).equals(map.put(key(comparable, 5), -5)), name + ": put replaces");
+        verify(Integer.valueOf(-5).equals(map.get(key(comparable, 5))), name + ": replaced value");
+        for (int i = 0; i < 100; i += 2)
+            verify(map.remove(key(comparable, i)) != null, name + ": remove " + i);
+        verify(map.size() == 50 && map.get(key(comparable, 2)) == null
+               && Integer.valueOf(3).equals(map.get(key(comparable, 3))), name + ": after removes");
+        Set<Object> seen = new HashSet<Object>();
+        for (Iterator<Map.Entry<Object, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, Integer> e = it.next();
+            seen.add(e.getKey());
+            if (e.getValue() == 1)
+                it.remove(); // 通过迭代器删除树化桶中的元素
+        }
+        verify(seen.size() == 50 && map.size() == 49 && !map.containsKey(key(comparable, 1)),
+               name + ": iteration and iterator removal");
+        System.out.println(name + ": treeified at 8, lookups/removals correct, tree bins = " + treeBinCount(map));
+    }
+
+    private static void smallTableResizes() throws Exception {
+        HashMap<Object, Integer> map = new HashMap<Object, Integer>(4);
+        for (int i = 0; i < 8; i++)
+            map.put(new ComparableKey(i), i);
+        verify(treeBinCount(map) == 0, "small table resized instead of treeified");
+        verify(tableLength(map) > 4, "table grew: " + tableLength(map));
+        for (int i = 8; i < 40; i++)
+            map.put(new ComparableKey(i), i);
+        verify(tableLength(map) >= 64 && treeBinCount(map) == 1, "treeified once the table reached 64");
+        System.out.println("small table: resized to " + tableLength(map) + " before treeifying");
+    }
+
+    private static void untreeify() throws Exception {
+        HashMap<Object, Integer> map = new HashMap<Object, Integer>(64);
+        for (int i = 0; i < 10; i++)
+            map.put(new PlainKey(i), i);
+        verify(treeBinCount(map) == 1, "treeified");
+        map.remove(new PlainKey(0));
+        map.remove(new PlainKey(1));
+        map.remove(new PlainKey(2));
+        verify(treeBinCount(map) == 1, "7 entries keep the tree");
+        map.remove(new PlainKey(3));
+        verify(treeBinCount(map) == 0, "6 entries drop the tree");
+        for (int i = 4; i < 10; i++)
+            verify(Integer.valueOf(i).equals(map.get(new PlainKey(i))), "get " + i + " after untreeify");
+        map.put(new PlainKey(0), 0);
+        map.put(new PlainKey(1), 1);
+        verify(treeBinCount(map) == 1, "treeified again at 8");
+        System.out.println("untreeify: tree dropped at 6 entries, rebuilt at 8");
+    }
+
+    private static void lookups() throws Exception {
+        final int n = 2000;
+        HashMap<Object, Integer> map = new HashMap<Object, Integer>(64);
+        for (int i = 0; i < n; i++)
+            map.put(new ComparableKey(i), i);
+        long sum = 0;
+        long t0 = System.nanoTime();
+        for (int round = 0; round < 20; round++)
+            for (int i = 0; i < n; i++)
+                sum += map.get(new ComparableKey(i));
+        long micros = (System.nanoTime() - t0) / 1000;
+        verify(sum == 20L * n * (n - 1) / 2, "lookup results");
+        System.out.println("lookups: " + 20 * n + " gets of " + n + " colliding keys in " + micros + "us");
+    }
+
+    private static int treeBinCount(HashMap<?, ?> map) throws Exception {
+        Object[] bins = (Object[]) field("treeBins").get(map);
+        int n = 0;
+        if (bins != null)
+            for (Object b : bins)
+                if (b != null)
+                    n++;
+        return n;
+    }
+
+    private static int tableLength(HashMap<?, ?> map) throws Exception {
+        return ((Object[]) field("table").get(map)).length;
+    }
+
+    private static Field field(String name) throws Exception {
+        Field f = HashMap.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,77 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CoDelBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   CoDelBlockingQueue + LoadSheddingPolicy 与普通有界队列在持续过载下的对比。
+ *
+ *   单线程线程池，每个任务占用CPU约1ms，提交速度约为处理速度的数倍。
+ *   (01) LinkedBlockingQueue(1000)：队列被填满后任务才被拒绝，已接受的任务要排队近1秒。
+ *   (02) CoDelBlockingQueue：积压持续超过target一个interval后拒绝新任务，并丢弃等待超过2倍target的任务，
+ *        已执行任务的等待时间被限制在interval量级。
+ *   输出每种队列下任务排队时间的p50/p99/max，结果与机器有关。
+ */
+public class CoDelBlockingQueueDemo1 {
+
+    private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+    private static final long TASK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws Exception {
+        run("LinkedBlockingQueue", new LinkedBlockingQueue<Runnable>(1000),
+            new ThreadPoolExecutor.AbortPolicy());
+        ThreadPoolExecutor.LoadSheddingPolicy policy = new ThreadPoolExecutor.LoadSheddingPolicy();
+        run("CoDelBlockingQueue", new CoDelBlockingQueue<Runnable>(1000, 5, 100, TimeUnit.MILLISECONDS),
+            policy);
+        System.out.println("shed=" + policy.getShedTaskCount());
+    }
+
+    private static void run(String name, BlockingQueue<Runnable> queue,
+                            RejectedExecutionHandler handler) throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, queue, handler);
+        final List<Long> waits = Collections.synchronizedList(new ArrayList<Long>());
+        int rejected = 0;
+        long end = System.nanoTime() + RUN_NANOS;
+        while (System.nanoTime() < end) {
+            // 每轮提交3个任务，再休眠约0.5ms，保证持续过载
+            for (int i = 0; i < 3; i++) {
+                final long submitted = System.nanoTime();
+                try {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            long start = System.nanoTime();
+                            waits.add(start - submitted); // 记录排队时间
+                            while (System.nanoTime() - start < TASK_NANOS)
+                                ;
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+            Thread.sleep(0, 500000);
+        }
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+
+        List<Long> sorted = new ArrayList<Long>(waits);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        System.out.println(name + ": served=" + n + " rejected=" + rejected
+                + " p50=" + millis(sorted.get(n / 2))
+                + "ms p99=" + millis(sorted.get(n * 99 / 100))
+                + "ms max=" + millis(sorted.get(n - 1)) + "ms");
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
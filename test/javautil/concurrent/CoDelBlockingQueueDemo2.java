@@ -0,0 +1,136 @@
+package javautil.concurrent;
+
+import java.util.concurrent.CoDelBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ *   CoDelBlockingQueue过载判定和LoadSheddingPolicy的功能检查。
+ *
+ *   (01) 过载判定：interval结束时，只有当前最旧元素的等待时间仍然超过target，队列才进入过载状态。
+ *        interval内曾长时间积压、但在结束前最旧元素已被取走(剩下的元素很新)时，不应进入过载状态。
+ *   (02) 积压一直持续到interval结束时，队列进入过载状态。
+ *   (03) LoadSheddingPolicy：队列过载后再提交任务，等待超过2倍target的任务被丢弃。
+ *        丢弃的Future被取消；丢弃的普通Runnable不会被执行，提交者收到RejectedExecutionException。
+ *        AbortPolicy下该报告作为被抑制的异常附加在拒绝异常上；CallerRunsPolicy下提交者先执行自己的任务。
+ *        只丢弃了Future时，提交者只看到委托策略的结果。
+ *   检查失败时抛出AssertionError。
+ */
+public class CoDelBlockingQueueDemo2 {
+
+    public static void main(String[] args) throws Exception {
+        backlogClearedBeforeIntervalEnd();
+        backlogAtIntervalEnd();
+        shedding(new ThreadPoolExecutor.AbortPolicy(), true);
+        shedding(new ThreadPoolExecutor.CallerRunsPolicy(), true);
+        shedding(new ThreadPoolExecutor.CallerRunsPolicy(), false);
+    }
+
+    private static void backlogClearedBeforeIntervalEnd() throws Exception {
+        // target=100ms, interval=600ms
+        CoDelBlockingQueue<String> q = new CoDelBlockingQueue<String>(100, 600, TimeUnit.MILLISECONDS);
+        q.offer("A");
+        Thread.sleep(650);
+        verify(!q.isOverloaded(), "first interval never overloaded");
+        long intervalEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600);
+        // A在整个interval内都超过target；在interval结束前40ms放入B并取走A
+        sleepUntil(intervalEnd - TimeUnit.MILLISECONDS.toNanos(40));
+        verify(q.offer("B"), "offer B");
+        verify("A".equals(q.poll()), "poll A");
+        sleepUntil(intervalEnd + TimeUnit.MILLISECONDS.toNanos(40));
+        // B只等待了约80ms，低于target
+        verify(!q.isOverloaded(), "not overloaded when the oldest element is below target at interval end");
+        System.out.println("sample: backlog cleared before the interval ended, not overloaded");
+    }
+
+    private static void backlogAtIntervalEnd() throws Exception {
+        CoDelBlockingQueue<String> q = new CoDelBlockingQueue<String>(20, 100, TimeUnit.MILLISECONDS);
+        q.offer("A");
+        Thread.sleep(120);
+        verify(!q.isOverloaded(), "first interval never overloaded");
+        Thread.sleep(120);
+        verify(q.isOverloaded(), "overloaded after a standing backlog for an interval");
+        verify(!q.offer("B"), "offer fails while overloaded");
+        System.out.println("sample: standing backlog at interval end, overloaded");
+    }
+
+    private static void shedding(RejectedExecutionHandler delegate, boolean withPlainTask) throws Exception {
+        ThreadPoolExecutor.LoadSheddingPolicy policy = new ThreadPoolExecutor.LoadSheddingPolicy(delegate);
+        CoDelBlockingQueue<Runnable> q = new CoDelBlockingQueue<Runnable>(10, 50, TimeUnit.MILLISECONDS);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, q, policy);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() { // 占住唯一的线程
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final AtomicBoolean plainRan = new AtomicBoolean();
+        if (withPlainTask) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    plainRan.set(true);
+                }
+            });
+        }
+        Future<?> future = pool.submit(new Runnable() { public void run() { } });
+        Thread.sleep(60);
+        verify(!q.isOverloaded(), "first interval never overloaded");
+        Thread.sleep(60);
+        verify(q.isOverloaded(), "queue overloaded");
+
+        final Thread submitter = Thread.currentThread();
+        final AtomicBoolean ranInCaller = new AtomicBoolean();
+        RejectedExecutionException thrown = null;
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    ranInCaller.set(Thread.currentThread() == submitter);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            thrown = e;
+        }
+        gate.countDown();
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+
+        String name = delegate.getClass().getSimpleName() + (withPlainTask ? "" : ", futures only");
+        boolean abort = delegate instanceof ThreadPoolExecutor.AbortPolicy;
+        verify(future.isCancelled(), name + ": shed future cancelled");
+        verify(!plainRan.get(), name + ": shed runnable not run");
+        verify(policy.getShedTaskCount() == (withPlainTask ? 2 : 1), name + ": shed count");
+        verify(ranInCaller.get() == !abort, name + ": rejected task handled by the delegate");
+        if (!withPlainTask) {
+            verify(thrown == null, name + ": no exception when only futures were shed");
+        } else if (abort) {
+            verify(thrown != null && thrown.getSuppressed().length == 1
+                   && thrown.getSuppressed()[0].getMessage().startsWith("1 stale tasks shed"),
+                   name + ": shed runnable reported as suppressed exception: " + thrown);
+        } else {
+            verify(thrown != null && thrown.getMessage().startsWith("1 stale tasks shed"),
+                   name + ": shed runnable reported: " + thrown);
+        }
+        System.out.println(name + ": shed=" + policy.getShedTaskCount() + ", reported: "
+                + (thrown == null ? "none" : thrown.getMessage()));
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long nanos;
+        while ((nanos = deadline - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,209 @@
+package javautil.concurrent;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *   ConcurrentHashMap批量并行操作(forEach/search/reduce)的功能检查。
+ *
+ *   (01) forEach：parallelismThreshold为1(尽量并行)和Long.MAX_VALUE(在调用线程中顺序执行)时，
+ *        每个映射恰好被访问一次；transformer返回null的元素被跳过；forEachKey/forEachValue。
+ *   (02) search：找到满足条件的key；没有满足条件的元素时返回null；searchValues。
+ *   (03) reduce：reduceValuesToLong/Int/Double求和，reduceKeys求最大值，
+ *        reduce的transformer返回null的元素不参与归约；空map的reduce返回null，reduceValuesToLong返回basis。
+ *   (04) 在ForkJoinPool的任务中调用时，使用该线程池的线程执行；在其他线程中顺序执行时只使用调用线程。
+ *   检查失败时抛出AssertionError。
+ */
+public class ConcurrentHashMapBulkDemo1 {
+
+    private static final int N = 100000;
+
+    public static void main(String[] args) throws Exception {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        for (int i = 0; i < N; i++)
+            map.put(i, i);
+        forEach(map, 1L);
+        forEach(map, Long.MAX_VALUE);
+        search(map, 1L);
+        search(map, Long.MAX_VALUE);
+        reduce(map, 1L);
+        reduce(map, Long.MAX_VALUE);
+        emptyMap();
+        threads(map);
+    }
+
+    private static void forEach(ConcurrentHashMap<Integer, Integer> map, long threshold) {
+        final AtomicIntegerArray visits = new AtomicIntegerArray(N);
+        map.forEach(threshold, new ConcurrentHashMap.BiAction<Integer, Integer>() {
+            public void apply(Integer k, Integer v) {
+                verify(k.equals(v), "mapping " + k + "=" + v);
+                visits.incrementAndGet(k);
+            }
+        });
+        for (int i = 0; i < N; i++)
+            verify(visits.get(i) == 1, "entry " + i + " visited " + visits.get(i) + " times");
+
+        final AtomicLong evens = new AtomicLong();
+        map.forEach(threshold, new ConcurrentHashMap.BiFun<Integer, Integer, Integer>() {
+            public Integer apply(Integer k, Integer v) {
+                return (k % 2 == 0) ? v : null; // 奇数被跳过
+            }
+        }, new ConcurrentHashMap.Action<Integer>() {
+            public void apply(Integer v) {
+                verify(v % 2 == 0, "odd value " + v + " passed to the action");
+                evens.incrementAndGet();
+            }
+        });
+        verify(evens.get() == N / 2, "transformed forEach visited " + evens.get());
+
+        final AtomicLong keySum = new AtomicLong(), valueSum = new AtomicLong();
+        map.forEachKey(threshold, new ConcurrentHashMap.Action<Integer>() {
+            public void apply(Integer k) {
+                keySum.addAndGet(k);
+            }
+        });
+        map.forEachValue(threshold, new ConcurrentHashMap.Action<Integer>() {
+            public void apply(Integer v) {
+                valueSum.addAndGet(v);
+            }
+        });
+        long expected = (long) N * (N - 1) / 2;
+        verify(keySum.get() == expected && valueSum.get() == expected, "forEachKey/forEachValue sums");
+        System.out.println("forEach(threshold=" + threshold + "): every mapping visited once");
+    }
+
+    private static void search(ConcurrentHashMap<Integer, Integer> map, long threshold) {
+        final int target = N * 3 / 4;
+        Integer found = map.search(threshold, new ConcurrentHashMap.BiFun<Integer, Integer, Integer>() {
+            public Integer apply(Integer k, Integer v) {
+                return (v == target) ? k : null;
+            }
+        });
+        verify(found != null && found == target, "search found " + found);
+        String none = map.search(threshold, new ConcurrentHashMap.BiFun<Integer, Integer, String>() {
+            public String apply(Integer k, Integer v) {
+                return (v < 0) ? "negative" : null;
+            }
+        });
+        verify(none == null, "search without a match returns null");
+        Integer big = map.searchValues(threshold, new ConcurrentHashMap.Fun<Integer, Integer>() {
+            public Integer apply(Integer v) {
+                return (v >= N - 10) ? v : null; // 任意一个满足条件的结果
+            }
+        });
+        verify(big != null && big >= N - 10, "searchValues found " + big);
+        System.out.println("search(threshold=" + threshold + "): found " + found + ", then " + big);
+    }
+
+    private static void reduce(ConcurrentHashMap<Integer, Integer> map, long threshold) {
+        long expected = (long) N * (N - 1) / 2;
+        long sum = map.reduceValuesToLong(threshold, new ConcurrentHashMap.ObjectToLong<Integer>() {
+            public long apply(Integer v) {
+                return v;
+            }
+        }, 0L, new ConcurrentHashMap.LongByLongToLong() {
+            public long apply(long a, long b) {
+                return a + b;
+            }
+        });
+        verify(sum == expected, "reduceValuesToLong sum " + sum);
+        int count = map.reduceValuesToInt(threshold, new ConcurrentHashMap.ObjectToInt<Integer>() {
+            public int apply(Integer v) {
+                return 1;
+            }
+        }, 0, new ConcurrentHashMap.IntByIntToInt() {
+            public int apply(int a, int b) {
+                return a + b;
+            }
+        });
+        verify(count == N, "reduceValuesToInt count " + count);
+        double dsum = map.reduceValuesToDouble(threshold, new ConcurrentHashMap.ObjectToDouble<Integer>() {
+            public double apply(Integer v) {
+                return v;
+            }
+        }, 0.0, new ConcurrentHashMap.DoubleByDoubleToDouble() {
+            public double apply(double a, double b) {
+                return a + b;
+            }
+        });
+        verify(dsum == (double) expected, "reduceValuesToDouble sum " + dsum);
+        Integer max = map.reduceKeys(threshold, new ConcurrentHashMap.BiFun<Integer, Integer, Integer>() {
+            public Integer apply(Integer a, Integer b) {
+                return (a >= b) ? a : b;
+            }
+        });
+        verify(max == N - 1, "reduceKeys max " + max);
+        Long oddSum = map.reduce(threshold, new ConcurrentHashMap.BiFun<Integer, Integer, Long>() {
+            public Long apply(Integer k, Integer v) {
+                return (k % 2 == 1) ? Long.valueOf(v) : null; // 偶数不参与归约
+            }
+        }, new ConcurrentHashMap.BiFun<Long, Long, Long>() {
+            public Long apply(Long a, Long b) {
+                return a + b;
+            }
+        });
+        verify(oddSum == (long) N * N / 4, "reduce over odd keys " + oddSum);
+        System.out.println("reduce(threshold=" + threshold + "): sum=" + sum + ", max=" + max + ", odd sum=" + oddSum);
+    }
+
+    private static void emptyMap() {
+        ConcurrentHashMap<Integer, Integer> empty = new ConcurrentHashMap<Integer, Integer>();
+        Integer r = empty.reduceValues(1L, new ConcurrentHashMap.BiFun<Integer, Integer, Integer>() {
+            public Integer apply(Integer a, Integer b) {
+                return a + b;
+            }
+        });
+        long basis = empty.reduceValuesToLong(1L, new ConcurrentHashMap.ObjectToLong<Integer>() {
+            public long apply(Integer v) {
+                return v;
+            }
+        }, 7L, new ConcurrentHashMap.LongByLongToLong() {
+            public long apply(long a, long b) {
+                return a + b;
+            }
+        });
+        verify(r == null && basis == 7L, "empty map: reduce null, reduceValuesToLong basis");
+        System.out.println("empty map: reduceValues=null, reduceValuesToLong=basis");
+    }
+
+    private static Set<Thread> visitingThreads(ConcurrentHashMap<Integer, Integer> map, long threshold) {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        map.forEachValue(threshold, new ConcurrentHashMap.Action<Integer>() {
+            public void apply(Integer v) {
+                threads.add(Thread.currentThread());
+            }
+        });
+        return threads;
+    }
+
+    private static void threads(final ConcurrentHashMap<Integer, Integer> map) throws Exception {
+        Set<Thread> sequential = visitingThreads(map, Long.MAX_VALUE);
+        verify(sequential.size() == 1 && sequential.contains(Thread.currentThread()),
+               "sequential forEach runs in the caller");
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        Set<Thread> inPool = pool.submit(new Callable<Set<Thread>>() {
+            public Set<Thread> call() {
+                return visitingThreads(map, 1L);
+            }
+        }).get();
+        for (Thread t : inPool)
+            verify(t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool,
+                   "forEach inside a ForkJoinPool uses that pool, not " + t);
+        pool.shutdown();
+        System.out.println("threads: sequential used the caller; inside a pool of 4 used "
+                + inPool.size() + " of its threads");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,135 @@
+package javautil.concurrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ *   ConcurrentHashMap分段计数(size()/mappingCount())的功能检查。
+ *
+ *   (01) 并发插入和删除：多个线程并发put不同的key、再删除其中一半，结束后size()和mappingCount()
+ *        等于剩余元素个数；期间另一个线程不停读取size()，读到的值不为负、不超过插入总数。
+ *   (02) 各种修改方式都计数：putIfAbsent、replace(不改变个数)、remove(key, value)、迭代器删除、
+ *        keySet().remove、clear。
+ *   (03) 反序列化得到的map计数正确，并能继续计数。
+ *   (04) 读取耗时：并发更新进行中，对比size()调用的耗时(只打印，不检查)。
+ *   检查失败时抛出AssertionError。
+ */
+public class ConcurrentHashMapSizeDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 50000;
+
+    public static void main(String[] args) throws Exception {
+        concurrentUpdates();
+        updateMethods();
+        serialization();
+    }
+
+    private static void concurrentUpdates() throws Exception {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        final int total = THREADS * PER_THREAD;
+        final AtomicBoolean done = new AtomicBoolean();
+        final long[] reads = new long[2]; // 读取次数，耗时(ns)
+        final String[] bad = new String[1];
+        Thread reader = new Thread() {
+            public void run() {
+                long t0 = System.nanoTime();
+                while (!done.get()) {
+                    int n = map.size();
+                    long m = map.mappingCount();
+                    if (n < 0 || n > total || m < 0 || m > total)
+                        bad[0] = "size " + n + ", mappingCount " + m;
+                    reads[0]++;
+                }
+                reads[1] = System.nanoTime() - t0;
+            }
+        };
+        reader.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            writers[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    int from = id * PER_THREAD, to = from + PER_THREAD;
+                    for (int i = from; i < to; i++)
+                        map.put(i, i);
+                    for (int i = from; i < to; i += 2)
+                        map.remove(i);
+                }
+            };
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread t : writers)
+            t.join();
+        done.set(true);
+        reader.join();
+
+        verify(bad[0] == null, "size read during updates: " + bad[0]);
+        verify(map.size() == total / 2 && map.mappingCount() == total / 2,
+               "size after updates: " + map.size() + ", mappingCount " + map.mappingCount());
+        System.out.println("concurrent updates: size = " + map.size() + ", " + reads[0]
+                + " reads during updates, " + (reads[0] == 0 ? 0 : reads[1] / reads[0]) + "ns per read");
+    }
+
+    private static void updateMethods() {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        for (int i = 0; i < 100; i++)
+            map.put(i, i);
+        verify(map.putIfAbsent(0, -1) != null && map.putIfAbsent(100, 100) == null, "putIfAbsent");
+        verify(map.size() == 101, "after putIfAbsent: " + map.size());
+        verify(map.replace(1, -1) == 1 && map.replace(2, 2, -2), "replace");
+        verify(map.replace(1000, 0) == null && map.size() == 101, "replace keeps the size: " + map.size());
+        verify(!map.remove(3, -3) && map.remove(3, 3), "remove(key, value)");
+        verify(map.size() == 100, "after remove(key, value): " + map.size());
+        for (Iterator<Integer> it = map.values().iterator(); it.hasNext(); ) {
+            if (it.next() % 10 == 5)
+                it.remove();
+        }
+        verify(map.size() == 90, "after iterator removal: " + map.size());
+        verify(map.keySet().remove(4) && !map.keySet().remove(4), "keySet().remove");
+        verify(map.size() == 89 && map.mappingCount() == 89, "after keySet().remove: " + map.size());
+        map.clear();
+        verify(map.size() == 0 && map.isEmpty(), "after clear: " + map.size());
+        map.put(1, 1);
+        verify(map.size() == 1, "counting after clear: " + map.size());
+        System.out.println("update methods: putIfAbsent/replace/remove/iterator/keySet/clear counted");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void serialization() throws Exception {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++)
+            map.put(i, i);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ConcurrentHashMap<Integer, Integer> copy = (ConcurrentHashMap<Integer, Integer>)in.readObject();
+        verify(copy.size() == 1000 && copy.equals(map), "deserialized size: " + copy.size());
+        copy.remove(0);
+        copy.put(-1, -1);
+        copy.put(-2, -2);
+        verify(copy.size() == 1001 && copy.mappingCount() == 1001, "deserialized map keeps counting: " + copy.size());
+        System.out.println("serialization: size after round trip and updates = " + copy.size());
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,114 @@
+package javautil.concurrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentHashMapV8;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ *   ConcurrentHashMapV8计数和序列化的功能检查。
+ *
+ *   (01) 计数：多个线程并发插入不同的key(期间多次扩容)，检查size()和mappingCount()等于插入总数，
+ *        每个key都能取到；再并发删除所有key，检查size()为0、isEmpty()为true。
+ *   (02) 序列化：序列化后再反序列化，内容和size()不变，反序列化得到的map可以继续增删并正确计数。
+ *   (03) serialVersionUID与ConcurrentHashMap的不同。
+ *   检查失败时抛出AssertionError。
+ */
+public class ConcurrentHashMapV8Demo1 {
+
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 100000;
+
+    public static void main(String[] args) throws Exception {
+        counting();
+        serialization();
+        serialVersionUID();
+    }
+
+    private static void counting() throws Exception {
+        final ConcurrentHashMapV8<Integer, Integer> map = new ConcurrentHashMapV8<Integer, Integer>();
+        long t0 = System.nanoTime();
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = id * PER_THREAD; i < (id + 1) * PER_THREAD; i++)
+                    map.put(i, i);
+            }
+        });
+        long millis = (System.nanoTime() - t0) / 1000000;
+        int total = THREADS * PER_THREAD;
+        verify(map.size() == total && map.mappingCount() == total, "size after puts: " + map.size());
+        for (int i = 0; i < total; i++)
+            verify(Integer.valueOf(i).equals(map.get(i)), "get " + i);
+
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = id * PER_THREAD; i < (id + 1) * PER_THREAD; i++)
+                    map.remove(i);
+            }
+        });
+        verify(map.size() == 0 && map.isEmpty(), "empty after removes: " + map.size());
+        System.out.println("counting: " + total + " concurrent puts in " + millis + "ms, then removed");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void serialization() throws Exception {
+        ConcurrentHashMapV8<String, Integer> map = new ConcurrentHashMapV8<String, Integer>();
+        for (int i = 0; i < 1000; i++)
+            map.put("k" + i, i);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ConcurrentHashMapV8<String, Integer> copy = (ConcurrentHashMapV8<String, Integer>)in.readObject();
+        verify(copy.size() == 1000 && copy.equals(map), "deserialized copy equals the original");
+        copy.put("extra", -1);
+        copy.remove("k0");
+        copy.remove("k1");
+        verify(copy.size() == 999 && copy.mappingCount() == 999, "deserialized map keeps counting: " + copy.size());
+        System.out.println("serialization: " + bytes.size() + " bytes, size after round trip and updates = "
+                + copy.size());
+    }
+
+    private static void serialVersionUID() {
+        long v8 = ObjectStreamClass.lookup(ConcurrentHashMapV8.class).getSerialVersionUID();
+        long chm = ObjectStreamClass.lookup(ConcurrentHashMap.class).getSerialVersionUID();
+        verify(v8 != chm, "serialVersionUID differs from ConcurrentHashMap");
+        System.out.println("serialVersionUID: " + v8);
+    }
+
+    interface Body {
+        void run(int id);
+    }
+
+    private static void runAll(final Body body) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    body.run(id);
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
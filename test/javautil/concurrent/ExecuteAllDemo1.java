@@ -0,0 +1,218 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   ThreadPoolExecutor批量提交(executeAll/submitAll)的功能检查。
+ *
+ *   (01) executeAll：一次提交一批任务，与逐个execute对比耗时，并检查每个任务恰好执行一次。
+ *   (02) submitAll：返回整批任务的一个Future，get()按提交顺序返回结果；
+ *        有任务抛出异常时，get()抛出按提交顺序第一个失败任务的ExecutionException；
+ *        线程被占住时，get(timeout)超时；cancel()取消所有未完成的任务，之后get()抛出CancellationException。
+ *   (03) 覆盖execute()的子类：executeAll、submitAll、invokeAll提交的每个任务都经过子类的execute()。
+ *   检查失败时抛出AssertionError，耗时与机器有关。
+ */
+public class ExecuteAllDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int TASKS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 3; round++) {
+            executeAll(false);
+            executeAll(true);
+        }
+        submitAll();
+        submitAllFailure();
+        submitAllCancel();
+        overriddenExecute();
+    }
+
+    private static ThreadPoolExecutor newPool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    private static void executeAll(boolean batched) throws Exception {
+        ThreadPoolExecutor pool = newPool(THREADS);
+        final AtomicInteger[] runs = new AtomicInteger[TASKS];
+        List<Runnable> tasks = new ArrayList<Runnable>(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            final int id = i;
+            runs[i] = new AtomicInteger();
+            tasks.add(new Runnable() {
+                public void run() {
+                    runs[id].incrementAndGet();
+                }
+            });
+        }
+        long t0 = System.nanoTime();
+        if (batched) {
+            pool.executeAll(tasks);
+        } else {
+            for (Runnable task : tasks)
+                pool.execute(task);
+        }
+        pool.shutdown();
+        verify(pool.awaitTermination(30, TimeUnit.SECONDS), "terminated");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        for (int i = 0; i < TASKS; i++)
+            verify(runs[i].get() == 1, "task " + i + " ran " + runs[i].get() + " times");
+        System.out.println((batched ? "executeAll: " : "execute:    ") + TASKS + " tasks in " + millis + "ms");
+    }
+
+    private static List<Callable<Integer>> identities(int n) {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < n; i++) {
+            final int id = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return id;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private static void submitAll() throws Exception {
+        ThreadPoolExecutor pool = newPool(THREADS);
+        Future<List<Integer>> batch = pool.submitAll(identities(10000));
+        List<Integer> results = batch.get();
+        verify(batch.isDone() && !batch.isCancelled(), "batch done");
+        verify(results.size() == 10000, "one result per task");
+        for (int i = 0; i < results.size(); i++)
+            verify(results.get(i) == i, "result " + i + " in submission order");
+        verify(pool.submitAll(new ArrayList<Callable<Integer>>()).get().isEmpty(), "empty batch");
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("submitAll: " + results.size() + " results in order");
+    }
+
+    private static void submitAllFailure() throws Exception {
+        ThreadPoolExecutor pool = newPool(THREADS);
+        List<Callable<Integer>> tasks = identities(100);
+        for (final int bad : new int[] { 70, 30 }) {
+            tasks.set(bad, new Callable<Integer>() {
+                public Integer call() {
+                    throw new IllegalStateException("task " + bad);
+                }
+            });
+        }
+        Future<List<Integer>> batch = pool.submitAll(tasks);
+        ExecutionException thrown = null;
+        try {
+            batch.get();
+        } catch (ExecutionException e) {
+            thrown = e;
+        }
+        verify(thrown != null && "task 30".equals(thrown.getCause().getMessage()),
+               "first failed task reported: " + thrown);
+        verify(batch.isDone() && !batch.isCancelled(), "failed batch done");
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("submitAll: failure reported as " + thrown.getCause());
+    }
+
+    private static void submitAllCancel() throws Exception {
+        ThreadPoolExecutor pool = newPool(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() { // 占住唯一的线程
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        final AtomicInteger ran = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return ran.incrementAndGet();
+                }
+            });
+        }
+        Future<List<Integer>> batch = pool.submitAll(tasks);
+        verify(!batch.isDone(), "pending batch not done");
+        boolean timedOut = false;
+        try {
+            batch.get(50, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut = true;
+        }
+        verify(timedOut, "timed get timed out");
+        verify(batch.cancel(false), "cancel");
+        verify(batch.isCancelled() && batch.isDone(), "cancelled batch is done");
+        boolean cancelled = false;
+        try {
+            batch.get();
+        } catch (CancellationException e) {
+            cancelled = true;
+        }
+        verify(cancelled, "get after cancel throws CancellationException");
+        gate.countDown();
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(ran.get() == 0, "cancelled tasks never ran");
+        System.out.println("submitAll: timed get timed out, cancel() cancelled all pending tasks");
+    }
+
+    // 统计经过execute()的任务数的子类
+    static class CountingPool extends ThreadPoolExecutor {
+        final AtomicInteger executed = new AtomicInteger();
+
+        CountingPool() {
+            super(THREADS, THREADS, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        public void execute(Runnable command) {
+            executed.incrementAndGet();
+            super.execute(command);
+        }
+    }
+
+    private static void overriddenExecute() throws Exception {
+        CountingPool pool = new CountingPool();
+        final AtomicInteger ran = new AtomicInteger();
+        List<Runnable> runnables = new ArrayList<Runnable>();
+        for (int i = 0; i < 100; i++) {
+            runnables.add(new Runnable() {
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        }
+        pool.executeAll(runnables);
+        List<Integer> results = pool.submitAll(identities(100)).get();
+        List<Future<Integer>> futures = pool.invokeAll(identities(100));
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(ran.get() == 100 && results.size() == 100 && futures.size() == 100, "all tasks ran");
+        verify(pool.executed.get() == 300, "execute() saw " + pool.executed.get() + " of 300 tasks");
+        System.out.println("overridden execute(): saw " + pool.executed.get()
+                + " tasks from executeAll, submitAll and invokeAll");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,172 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PoolSizer;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   ThreadPoolExecutor按延迟调整线程数(PoolSizer/TargetLatencySizer)的功能检查。
+ *
+ *   (01) 采样：安装记录样本的PoolSizer，检查安装后的第一次采样只作为基准、不调用sizer；
+ *        样本中提交数和完成数的总和不超过实际数，忙碌时间不小于任务耗时；
+ *        返回更大的值时core和maximum都被调大，抛出RuntimeException时线程数不变，
+ *        setPoolSizer(null)后不再调用。
+ *   (02) 阻塞任务：无界队列、core为1的线程池，每毫秒提交一个耗时10ms的任务，TargetLatencySizer使
+ *        core增长(Little定律约需10个线程)，队列被消化；之后稀疏提交时core逐渐减小。
+ *   (03) 计算任务：积压大量计算任务，输出TargetLatencySizer选择的线程数(只打印，不检查，与CPU数有关)。
+ *   检查失败时抛出AssertionError，时间相关的结果与机器负载有关。
+ */
+public class PoolSizerDemo1 {
+
+    public static void main(String[] args) throws Exception {
+        sampling();
+        blockingTasks();
+        cpuTasks();
+    }
+
+    private static ThreadPoolExecutor newPool() {
+        return new ThreadPoolExecutor(1, 1, 100, TimeUnit.MILLISECONDS,
+                                      new LinkedBlockingQueue<Runnable>());
+    }
+
+    private static Runnable sleeper(final long millis) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    // 记录样本，返回指定的线程数或抛出异常
+    static class RecordingSizer implements PoolSizer {
+        final List<Sample> samples = Collections.synchronizedList(new ArrayList<Sample>());
+        volatile int size = -1;       // -1：保持不变
+        volatile boolean fail;
+
+        public int poolSize(ThreadPoolExecutor executor, Sample sample) {
+            samples.add(sample);
+            if (fail)
+                throw new IllegalStateException("sizer failure");
+            return (size < 0) ? sample.getCorePoolSize() : size;
+        }
+    }
+
+    private static void submit(ThreadPoolExecutor pool, int n, long sleepMillis, long gapMillis) throws Exception {
+        for (int i = 0; i < n; i++) {
+            pool.execute(sleeper(sleepMillis));
+            Thread.sleep(gapMillis);
+        }
+    }
+
+    private static void sampling() throws Exception {
+        ThreadPoolExecutor pool = newPool();
+        RecordingSizer sizer = new RecordingSizer();
+        pool.setPoolSizer(sizer, 20, TimeUnit.MILLISECONDS);
+        verify(pool.getPoolSizer() == sizer, "installed");
+        pool.execute(sleeper(1));
+        verify(sizer.samples.isEmpty(), "first sample is only a baseline");
+
+        submit(pool, 50, 2, 3);
+        int n = sizer.samples.size();
+        verify(n >= 2, "sampled about once per interval: " + n);
+        long submitted = 0, completed = 0, busy = 0;
+        for (PoolSizer.Sample s : new ArrayList<PoolSizer.Sample>(sizer.samples)) {
+            verify(s.getIntervalNanos() >= TimeUnit.MILLISECONDS.toNanos(20), "interval " + s.getIntervalNanos());
+            verify(s.getCorePoolSize() == 1 && s.getPoolSize() <= 1 && s.getActiveCount() <= 1, "sizes");
+            submitted += s.getSubmittedTaskCount();
+            completed += s.getCompletedTaskCount();
+            busy += s.getBusyNanos();
+        }
+        verify(submitted <= 50 && completed <= 51 && completed > 0, "counts " + submitted + "/" + completed);
+        verify(busy >= completed * TimeUnit.MILLISECONDS.toNanos(2), "busy time covers the tasks: " + busy);
+
+        sizer.size = 4;
+        submit(pool, 20, 2, 3);
+        verify(pool.getCorePoolSize() == 4 && pool.getMaximumPoolSize() == 4,
+               "larger size applied: core " + pool.getCorePoolSize() + ", max " + pool.getMaximumPoolSize());
+
+        sizer.size = 2;
+        sizer.fail = true;
+        int before = sizer.samples.size();
+        submit(pool, 20, 2, 3);
+        verify(sizer.samples.size() > before && pool.getCorePoolSize() == 4, "failing sizer left the size unchanged");
+
+        pool.setPoolSizer(null, 0, null);
+        verify(pool.getPoolSizer() == null, "removed");
+        before = sizer.samples.size();
+        submit(pool, 20, 2, 3);
+        verify(sizer.samples.size() == before, "removed sizer not called");
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("sampling: " + n + " samples, " + submitted + " submitted, " + completed
+                + " completed; sizes applied, failures ignored");
+    }
+
+    private static void blockingTasks() throws Exception {
+        ThreadPoolExecutor pool = newPool();
+        pool.setPoolSizer(new ThreadPoolExecutor.TargetLatencySizer(1, 32, 50, TimeUnit.MILLISECONDS),
+                          20, TimeUnit.MILLISECONDS);
+        int peak = 0;
+        for (int i = 0; i < 1000; i++) {
+            pool.execute(sleeper(10));
+            peak = Math.max(peak, pool.getCorePoolSize());
+            Thread.sleep(1);
+        }
+        int queuedAtEnd = pool.getQueue().size();
+        verify(peak >= 5, "core grew under load: " + peak);
+
+        // 稀疏提交：每20ms一个任务
+        for (int i = 0; i < 100; i++) {
+            pool.execute(sleeper(10));
+            Thread.sleep(20);
+        }
+        int settled = pool.getCorePoolSize();
+        verify(settled < peak && settled <= 3, "core shrank under light load: " + settled);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("blocking tasks: core grew from 1 to " + peak + " (" + queuedAtEnd
+                + " queued at the end of the burst), then shrank to " + settled);
+    }
+
+    private static void cpuTasks() throws Exception {
+        final int tasks = 2000;
+        ThreadPoolExecutor pool = newPool();
+        pool.setPoolSizer(new ThreadPoolExecutor.TargetLatencySizer(1, 16, 10, TimeUnit.MILLISECONDS),
+                          20, TimeUnit.MILLISECONDS);
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final long spin = TimeUnit.MILLISECONDS.toNanos(1);
+        int peak = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    long end = System.nanoTime() + spin;
+                    while (System.nanoTime() < end)
+                        ;
+                    done.countDown();
+                }
+            });
+        }
+        while (!done.await(10, TimeUnit.MILLISECONDS))
+            peak = Math.max(peak, pool.getCorePoolSize());
+        long millis = (System.nanoTime() - t0) / 1000000;
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("cpu tasks: " + tasks + " 1ms tasks in " + millis + "ms, at most " + peak
+                + " threads (max 16, " + Runtime.getRuntime().availableProcessors() + " processors)");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,158 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   PriorityThreadPoolExecutor的功能检查和压力测试。
+ *
+ *   (01) 优先级：单线程线程池，先用一个任务占住线程，再按随机顺序提交不同优先级的任务，
+ *        放行后检查任务按优先级(0最紧急)执行，同一优先级内按提交顺序(FIFO)执行。
+ *   (02) 截止时间：占住线程后提交带截止时间的任务，超时未开始的任务被取消，并计入getExpiredTaskCount。
+ *   (03) 压力测试：4个线程的线程池，多个线程并发提交带优先级的任务，检查每个任务恰好执行一次。
+ *   检查失败时抛出AssertionError。
+ */
+public class PriorityThreadPoolExecutorDemo1 {
+
+    private static final int LEVELS = 4;
+
+    public static void main(String[] args) throws Exception {
+        ordering();
+        deadlines();
+        stress();
+    }
+
+    private static void ordering() throws Exception {
+        PriorityThreadPoolExecutor pool = new PriorityThreadPoolExecutor(
+                1, 1, 0, TimeUnit.SECONDS, LEVELS, 100);
+        CountDownLatch gate = block(pool);
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> submitted = new ArrayList<Integer>();
+        for (int i = 0; i < 40; i++)
+            submitted.add(i);
+        Collections.shuffle(submitted);
+        for (final int id : submitted) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    order.add(id);
+                }
+            }, id % LEVELS); // 任务id对LEVELS取余作为优先级
+        }
+        for (int p = 0; p < LEVELS; p++)
+            verify(pool.getQueuedTaskCount(p) == 10, "queued count at level " + p);
+        gate.countDown();
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+
+        verify(order.size() == 40, "all tasks ran");
+        int lastLevel = 0;
+        for (int id : order) {
+            verify(id % LEVELS >= lastLevel, "ran in priority order: " + order);
+            lastLevel = id % LEVELS;
+        }
+        // 同一优先级内保持提交顺序
+        for (int p = 0; p < LEVELS; p++) {
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int id : submitted)
+                if (id % LEVELS == p)
+                    expected.add(id);
+            List<Integer> actual = new ArrayList<Integer>();
+            for (int id : order)
+                if (id % LEVELS == p)
+                    actual.add(id);
+            verify(expected.equals(actual), "FIFO within level " + p);
+        }
+        System.out.println("ordering: " + order);
+    }
+
+    private static void deadlines() throws Exception {
+        PriorityThreadPoolExecutor pool = new PriorityThreadPoolExecutor(
+                1, 1, 0, TimeUnit.SECONDS, LEVELS, 100,
+                Executors.defaultThreadFactory(),
+                new ThreadPoolExecutor.DiscardPolicy());
+        CountDownLatch gate = block(pool);
+
+        Runnable noop = new Runnable() { public void run() { } };
+        List<Future<?>> late = new ArrayList<Future<?>>();
+        for (int i = 0; i < 5; i++)
+            late.add(pool.submit(noop, 1, 10, TimeUnit.MILLISECONDS));
+        Future<?> patient = pool.submit(noop, 2, 10, TimeUnit.SECONDS);
+        Thread.sleep(50); // 让前5个任务超过截止时间
+        gate.countDown();
+        verify(patient.get(5, TimeUnit.SECONDS) == null, "patient task ran");
+        for (Future<?> f : late)
+            verify(f.isCancelled(), "expired task cancelled");
+        verify(pool.getExpiredTaskCount(1) == 5 && pool.getExpiredTaskCount() == 5,
+               "expired count");
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        System.out.println("deadlines: expired=" + pool.getExpiredTaskCount());
+    }
+
+    private static void stress() throws Exception {
+        final PriorityThreadPoolExecutor pool = new PriorityThreadPoolExecutor(
+                4, 4, 0, TimeUnit.SECONDS, LEVELS, 1 << 16);
+        final int submitters = 4, perSubmitter = 50000;
+        final AtomicInteger[] runs = new AtomicInteger[submitters * perSubmitter];
+        for (int i = 0; i < runs.length; i++)
+            runs[i] = new AtomicInteger();
+        Thread[] threads = new Thread[submitters];
+        long t0 = System.nanoTime();
+        for (int s = 0; s < submitters; s++) {
+            final int base = s * perSubmitter;
+            threads[s] = new Thread() {
+                public void run() {
+                    for (int i = base; i < base + perSubmitter; i++) {
+                        final int id = i;
+                        pool.submit(new Runnable() {
+                            public void run() {
+                                runs[id].incrementAndGet();
+                            }
+                        }, id % LEVELS);
+                    }
+                }
+            };
+            threads[s].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        pool.shutdown();
+        verify(pool.awaitTermination(30, TimeUnit.SECONDS), "terminated");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        for (int i = 0; i < runs.length; i++)
+            verify(runs[i].get() == 1, "task " + i + " ran " + runs[i].get() + " times");
+        System.out.println("stress: " + runs.length + " tasks in " + millis + "ms");
+    }
+
+    // 提交一个阻塞任务占住线程，返回放行它的门闩
+    private static CountDownLatch block(ThreadPoolExecutor pool) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return gate;
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
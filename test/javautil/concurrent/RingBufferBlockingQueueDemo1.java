@@ -0,0 +1,122 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RingBufferBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *   RingBufferBlockingQueue的功能检查和多生产者/多消费者压力测试，
+ *   以LinkedBlockingQueue作为对照。
+ *
+ *   (01) 功能检查：容量、队满时offer返回false、超时poll返回null、remove/contains、drainTo、FIFO顺序。
+ *   (02) 压力测试：4个生产者各put 200000个不同的数，4个消费者take直到遇到结束标记，
+ *        校验取出的元素个数、总和、平方和与放入的一致（没有丢失或重复），并输出吞吐量。
+ *   检查失败时抛出AssertionError，吞吐量与机器有关。
+ */
+public class RingBufferBlockingQueueDemo1 {
+
+    private static final int CAPACITY = 1024;
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int PER_PRODUCER = 200000;
+    private static final Long END = Long.valueOf(-1L); // 结束标记
+
+    public static void main(String[] args) throws Exception {
+        check("RingBufferBlockingQueue", new RingBufferBlockingQueue<Long>(4));
+        check("LinkedBlockingQueue", new LinkedBlockingQueue<Long>(4));
+
+        for (int round = 0; round < 3; round++) {
+            stress("RingBufferBlockingQueue", new RingBufferBlockingQueue<Long>(CAPACITY));
+            stress("LinkedBlockingQueue", new LinkedBlockingQueue<Long>(CAPACITY));
+        }
+    }
+
+    // 对容量为4的空队列做单线程功能检查
+    private static void check(String name, BlockingQueue<Long> q) throws Exception {
+        verify(q.isEmpty() && q.remainingCapacity() == 4, name + ": empty");
+        for (long i = 0; i < 4; i++)
+            verify(q.offer(i), name + ": offer");
+        verify(!q.offer(4L), name + ": offer when full");
+        verify(!q.offer(4L, 10, TimeUnit.MILLISECONDS), name + ": timed offer when full");
+        verify(q.size() == 4 && q.peek() == 0L, name + ": size/peek");
+        verify(q.contains(2L) && q.remove(2L) && !q.contains(2L), name + ": remove");
+        verify(q.poll() == 0L, name + ": poll");
+        List<Long> drained = new ArrayList<Long>();
+        verify(q.drainTo(drained) == 2 && drained.equals(Arrays.asList(1L, 3L)), name + ": drainTo");
+        verify(q.poll(10, TimeUnit.MILLISECONDS) == null, name + ": timed poll when empty");
+        for (long i = 0; i < 4; i++)
+            q.put(i);
+        for (long i = 0; i < 4; i++)
+            verify(q.take() == i, name + ": FIFO");
+        System.out.println(name + ": basic checks passed");
+    }
+
+    private static void stress(String name, final BlockingQueue<Long> q) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong squares = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final long base = (long)p * PER_PRODUCER;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (long i = base; i < base + PER_PRODUCER; i++)
+                            q.put(i);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        List<Thread> consumers = new ArrayList<Thread>();
+        for (int c = 0; c < CONSUMERS; c++) {
+            consumers.add(new Thread() {
+                public void run() {
+                    long n = 0, s = 0, s2 = 0;
+                    try {
+                        start.await();
+                        for (Long v; (v = q.take()) != END; ) {
+                            n++; s += v; s2 += v * v;
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    count.addAndGet(n); sum.addAndGet(s); squares.addAndGet(s2);
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : consumers) t.start();
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) t.join();
+        for (int c = 0; c < CONSUMERS; c++)
+            q.put(END); // 每个消费者一个结束标记
+        for (Thread t : consumers) t.join();
+        long nanos = System.nanoTime() - t0;
+
+        long total = (long)PRODUCERS * PER_PRODUCER, expectSum = 0, expectSquares = 0;
+        for (long i = 0; i < total; i++) {
+            expectSum += i; expectSquares += i * i;
+        }
+        verify(count.get() == total && sum.get() == expectSum
+               && squares.get() == expectSquares && q.isEmpty(),
+               name + ": lost or duplicated elements");
+        System.out.println(name + ": " + total + " elements, "
+                + (total * 1000L / Math.max(1L, TimeUnit.NANOSECONDS.toMicros(nanos))) + " ops/ms");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
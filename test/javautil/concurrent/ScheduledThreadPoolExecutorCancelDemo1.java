@@ -0,0 +1,152 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   ScheduledThreadPoolExecutor取消任务后从队列中移除的三种策略的功能检查。
+ *
+ *   (01) 默认策略：取消的任务留在队列中，直到到期。
+ *        setRemoveOnCancelPolicy(true)：取消时立即逐个移除。
+ *   (02) setLazyRemoveOnCancelPolicy(true)：取消只计数，不移除；取消的任务超过队列的1/4(且不少于32个)时
+ *        一次性清除所有取消的任务。检查清除前后的队列大小；同时设置两种策略时以lazy为准。
+ *   (03) lazy策略下未取消的任务按到期时间顺序执行，取消的任务(包括清除前到达队首的)不执行。
+ *   (04) 耗时：分别用逐个移除和lazy策略取消100000个任务(只打印，不检查)。
+ *   检查失败时抛出AssertionError。
+ */
+public class ScheduledThreadPoolExecutorCancelDemo1 {
+
+    private static final Runnable NOOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        eagerPolicies();
+        lazyPurge();
+        lazyOrder();
+        timing();
+    }
+
+    private static List<ScheduledFuture<?>> scheduleLater(ScheduledThreadPoolExecutor pool, int n) {
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>(n);
+        for (int i = 0; i < n; i++)
+            futures.add(pool.schedule(NOOP, 1000 + i, TimeUnit.SECONDS));
+        return futures;
+    }
+
+    private static void eagerPolicies() throws Exception {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        List<ScheduledFuture<?>> futures = scheduleLater(pool, 100);
+        for (int i = 0; i < 50; i++)
+            verify(futures.get(i).cancel(false), "cancel " + i);
+        verify(pool.getQueue().size() == 100, "default: cancelled tasks stay queued: " + pool.getQueue().size());
+
+        pool.setRemoveOnCancelPolicy(true);
+        for (int i = 50; i < 60; i++)
+            futures.get(i).cancel(false);
+        verify(pool.getQueue().size() == 90, "remove on cancel: removed at once: " + pool.getQueue().size());
+        pool.shutdownNow();
+        System.out.println("eager policies: default keeps cancelled tasks, remove-on-cancel removes each");
+    }
+
+    private static void lazyPurge() throws Exception {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        pool.setRemoveOnCancelPolicy(true);
+        pool.setLazyRemoveOnCancelPolicy(true);
+        verify(pool.getLazyRemoveOnCancelPolicy(), "lazy policy set");
+        List<ScheduledFuture<?>> futures = scheduleLater(pool, 1000);
+        // 250个是队列的1/4，还不清除
+        for (int i = 0; i < 250; i++)
+            verify(futures.get(i).cancel(false), "cancel " + i);
+        verify(pool.getQueue().size() == 1000, "250 cancelled tasks still queued: " + pool.getQueue().size());
+        // 第251个取消触发清除，之后的取消重新计数
+        futures.get(250).cancel(false);
+        verify(pool.getQueue().size() == 749, "purged at 251 cancelled: " + pool.getQueue().size());
+        for (int i = 251; i < 260; i++)
+            futures.get(i).cancel(false);
+        verify(pool.getQueue().size() == 749, "later cancellations counted again: " + pool.getQueue().size());
+        for (Runnable r : pool.getQueue())
+            verify(futures.indexOf(r) >= 251, "only live tasks and recent cancellations left");
+
+        // 少量任务时至少要32个取消的任务才清除
+        ScheduledThreadPoolExecutor small = new ScheduledThreadPoolExecutor(1);
+        small.setLazyRemoveOnCancelPolicy(true);
+        futures = scheduleLater(small, 40);
+        for (int i = 0; i < 31; i++)
+            futures.get(i).cancel(false);
+        verify(small.getQueue().size() == 40, "fewer than 32 cancelled: not purged");
+        futures.get(31).cancel(false);
+        verify(small.getQueue().size() == 8, "32 cancelled: purged: " + small.getQueue().size());
+        pool.shutdownNow();
+        small.shutdownNow();
+        System.out.println("lazy purge: queue of 1000 purged at 251 cancelled, queue of 40 at 32");
+    }
+
+    private static void lazyOrder() throws Exception {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        pool.setLazyRemoveOnCancelPolicy(true);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+        for (int i = 0; i < 200; i++) {
+            final int id = i;
+            futures.add(pool.schedule(new Runnable() {
+                public void run() {
+                    ran.add(id);
+                }
+            }, 100 + i, TimeUnit.MILLISECONDS));
+        }
+        // 取消前100个(到达51个时清除)和所有3的倍数(不足32个，只能在队首丢弃)
+        int cancelled = 0;
+        for (int i = 0; i < 200; i++)
+            if ((i < 100 || i % 3 == 0) && futures.get(i).cancel(false))
+                cancelled++;
+        verify(cancelled == 133, "cancelled " + cancelled);
+        futures.get(199).get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+
+        verify(ran.size() == 200 - cancelled, "live tasks ran once: " + ran.size());
+        for (int i = 0; i < ran.size(); i++) {
+            int id = ran.get(i);
+            verify(id >= 100 && id % 3 != 0, "cancelled task " + id + " did not run");
+            verify(i == 0 || ran.get(i - 1) < id, "ran in time order");
+        }
+        verify(pool.getCompletedTaskCount() == ran.size(), "cancelled tasks were not handed to the worker: "
+                + pool.getCompletedTaskCount());
+        System.out.println("lazy order: " + ran.size() + " live tasks ran in order, " + cancelled + " cancelled skipped");
+    }
+
+    private static long cancelAll(ScheduledThreadPoolExecutor pool, int n) {
+        List<ScheduledFuture<?>> futures = scheduleLater(pool, n);
+        Collections.shuffle(futures);
+        long t0 = System.nanoTime();
+        for (ScheduledFuture<?> f : futures)
+            f.cancel(false);
+        long millis = (System.nanoTime() - t0) / 1000000;
+        verify(pool.getQueue().size() < n / 4 + 32, "queue emptied: " + pool.getQueue().size());
+        pool.shutdownNow();
+        return millis;
+    }
+
+    private static void timing() {
+        final int n = 100000;
+        ScheduledThreadPoolExecutor eager = new ScheduledThreadPoolExecutor(1);
+        eager.setRemoveOnCancelPolicy(true);
+        ScheduledThreadPoolExecutor lazy = new ScheduledThreadPoolExecutor(1);
+        lazy.setLazyRemoveOnCancelPolicy(true);
+        long eagerMillis = cancelAll(eager, n);
+        long lazyMillis = cancelAll(lazy, n);
+        System.out.println("timing: cancelled " + n + " tasks in " + eagerMillis + "ms removing each, "
+                + lazyMillis + "ms lazily");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,111 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ShardedScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   ShardedScheduledThreadPoolExecutor的功能检查和压力测试，以ScheduledThreadPoolExecutor作为对照。
+ *
+ *   (01) 一次性任务：调度20000个延迟在0~500ms之间随机分布的任务，再取消其中一半，
+ *        检查未取消的任务恰好执行一次、取消成功的任务没有执行、没有任务提前执行，并输出延迟误差的p50/p99/max。
+ *   (02) 周期任务：scheduleAtFixedRate每10ms执行一次，运行约300ms后检查执行次数。
+ *   检查失败时抛出AssertionError，误差与机器负载有关。
+ */
+public class ShardedScheduledThreadPoolExecutorDemo1 {
+
+    private static final int TASKS = 20000;
+    private static final long MAX_DELAY_MILLIS = 500;
+
+    public static void main(String[] args) throws Exception {
+        run("ScheduledThreadPoolExecutor", new ScheduledThreadPoolExecutor(2));
+        run("ShardedScheduledThreadPoolExecutor", new ShardedScheduledThreadPoolExecutor(2));
+    }
+
+    private static void run(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        oneShot(name, pool);
+        periodic(name, pool);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), name + ": terminated");
+    }
+
+    private static void oneShot(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        Random rnd = new Random(42);
+        final AtomicInteger[] runs = new AtomicInteger[TASKS];
+        final long[] lateness = new long[TASKS];
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            final int id = i;
+            runs[i] = new AtomicInteger();
+            long delay = TimeUnit.MILLISECONDS.toNanos(rnd.nextInt((int)MAX_DELAY_MILLIS));
+            final long due = System.nanoTime() + delay;
+            futures.add(pool.schedule(new Runnable() {
+                public void run() {
+                    lateness[id] = System.nanoTime() - due;
+                    runs[id].incrementAndGet();
+                    done.countDown();
+                }
+            }, delay, TimeUnit.NANOSECONDS));
+        }
+        // 取消奇数号任务，延迟很短的任务可能已经执行，取消会失败
+        boolean[] cancelled = new boolean[TASKS];
+        int ncancelled = 0;
+        for (int i = 1; i < TASKS; i += 2) {
+            if (futures.get(i).cancel(false)) {
+                cancelled[i] = true;
+                ncancelled++;
+                done.countDown();
+            }
+        }
+        verify(done.await(MAX_DELAY_MILLIS * 10, TimeUnit.MILLISECONDS), name + ": tasks ran");
+
+        List<Long> late = new ArrayList<Long>();
+        for (int i = 0; i < TASKS; i++) {
+            if (cancelled[i]) {
+                verify(runs[i].get() == 0, name + ": cancelled task " + i + " ran");
+            } else {
+                verify(runs[i].get() == 1, name + ": task " + i + " ran " + runs[i].get() + " times");
+                verify(lateness[i] >= 0, name + ": task " + i + " ran early");
+                late.add(lateness[i]);
+            }
+        }
+        Collections.sort(late);
+        int n = late.size();
+        System.out.println(name + ": ran=" + n + " cancelled=" + ncancelled
+                + " queued=" + pool.getQueue().size()
+                + " late p50=" + micros(late.get(n / 2))
+                + "us p99=" + micros(late.get(n * 99 / 100))
+                + "us max=" + micros(late.get(n - 1)) + "us");
+    }
+
+    private static void periodic(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        final AtomicInteger ticks = new AtomicInteger();
+        ScheduledFuture<?> f = pool.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                ticks.incrementAndGet();
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(305);
+        f.cancel(false);
+        int n = ticks.get();
+        verify(n >= 20 && n <= 32, name + ": fixed-rate ticks " + n);
+        System.out.println(name + ": fixed-rate ticks in ~300ms=" + n);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,84 @@
+package javautil.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   ThreadPoolExecutor工作线程批量取任务(setTaskBatchSize)的功能检查和压力测试。
+ *
+ *   (01) 批量大小为1(默认)和16时各执行200000个任务，检查每个任务恰好执行一次，并输出耗时。
+ *   (02) shutdownNow能取回已被工作线程批量取出、但尚未执行的任务：已执行的任务数加上返回的任务数等于提交的任务数。
+ *   检查失败时抛出AssertionError，耗时与机器有关。
+ */
+public class TaskBatchDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int TASKS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 3; round++) {
+            run(1);
+            run(16);
+        }
+        shutdownNow(16);
+    }
+
+    private static ThreadPoolExecutor newPool(int batchSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.setTaskBatchSize(batchSize);
+        return pool;
+    }
+
+    private static void run(int batchSize) throws Exception {
+        ThreadPoolExecutor pool = newPool(batchSize);
+        final AtomicInteger[] runs = new AtomicInteger[TASKS];
+        for (int i = 0; i < TASKS; i++)
+            runs[i] = new AtomicInteger();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < TASKS; i++) {
+            final int id = i;
+            pool.execute(new Runnable() {
+                public void run() {
+                    runs[id].incrementAndGet();
+                }
+            });
+        }
+        pool.shutdown();
+        verify(pool.awaitTermination(30, TimeUnit.SECONDS), "terminated");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        for (int i = 0; i < TASKS; i++)
+            verify(runs[i].get() == 1, "task " + i + " ran " + runs[i].get() + " times");
+        System.out.println("taskBatchSize=" + batchSize + ": " + TASKS + " tasks in " + millis + "ms");
+    }
+
+    private static void shutdownNow(int batchSize) throws Exception {
+        ThreadPoolExecutor pool = newPool(batchSize);
+        final AtomicInteger ran = new AtomicInteger();
+        final CountDownLatch half = new CountDownLatch(1);
+        for (int i = 0; i < TASKS; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    if (ran.incrementAndGet() == TASKS / 2)
+                        half.countDown();
+                }
+            });
+        }
+        half.await();
+        List<Runnable> pending = pool.shutdownNow(); // 包括已被工作线程批量取出、但尚未执行的任务
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(ran.get() + pending.size() == TASKS,
+               "ran " + ran.get() + " + pending " + pending.size() + " != " + TASKS);
+        System.out.println("taskBatchSize=" + batchSize + " shutdownNow: ran=" + ran.get()
+                + " returned=" + pending.size());
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
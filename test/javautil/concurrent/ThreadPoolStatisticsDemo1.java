@@ -0,0 +1,170 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LatencyHistogram;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolStatistics;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   ThreadPoolExecutor任务统计(setStatisticsEnabled)中排队时间采样的功能检查。
+ *
+ *   (01) 排队时间：单线程线程池，占住线程后分别用execute、submit、executeAll、invokeAll提交任务，
+ *        等待100ms后放行，检查每个任务(包括普通Runnable)都有一个排队时间样本，且排队的任务样本不小于100ms。
+ *   (02) 原始任务：beforeExecute/afterExecute、拒绝策略看到的都是提交的原始任务。
+ *   (03) remove(task)能移除排队中的普通Runnable；purge()移除已取消的Future；
+ *        shutdownNow()返回提交的原始任务。
+ *   检查失败时抛出AssertionError。
+ */
+public class ThreadPoolStatisticsDemo1 {
+
+    private static final long WAIT_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        queueTimes();
+        originalTasks();
+        removeAndShutdownNow();
+    }
+
+    // 记录beforeExecute/afterExecute看到的任务
+    static class RecordingPool extends ThreadPoolExecutor {
+        final Set<Runnable> before = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>()));
+        final Set<Runnable> after = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>()));
+
+        RecordingPool(int queueCapacity, RejectedExecutionHandler handler) {
+            super(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), handler);
+            setStatisticsEnabled(true);
+        }
+
+        protected void beforeExecute(Thread t, Runnable r) {
+            before.add(r);
+        }
+
+        protected void afterExecute(Runnable r, Throwable t) {
+            after.add(r);
+        }
+    }
+
+    private static Runnable noop() {
+        return new Runnable() {
+            public void run() {
+            }
+        };
+    }
+
+    private static void queueTimes() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.setStatisticsEnabled(true);
+        CountDownLatch gate = block(pool);
+        for (int i = 0; i < 4; i++)
+            pool.execute(noop());
+        for (int i = 0; i < 4; i++)
+            pool.submit(noop());
+        List<Runnable> batch = new ArrayList<Runnable>();
+        for (int i = 0; i < 4; i++)
+            batch.add(noop());
+        pool.executeAll(batch);
+        Thread.sleep(WAIT_MILLIS);
+        gate.countDown();
+        List<Callable<Object>> calls = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < 4; i++)
+            calls.add(Executors.callable(noop()));
+        pool.invokeAll(calls);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+
+        LatencyHistogram queue = pool.getStatistics().getQueueTime();
+        long waited = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++)
+            if (LatencyHistogram.getBucketLowerBound(i) >= TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS) * 3 / 4)
+                waited += queue.getBucketCount(i);
+        // 1个阻塞任务 + 12个等待的任务 + 4个invokeAll任务
+        verify(queue.getCount() == 17, "one queue time sample per task: " + queue.getCount());
+        verify(waited >= 12, "queued tasks waited at least " + WAIT_MILLIS + "ms: " + waited);
+        System.out.println("queue time: " + queue);
+    }
+
+    private static void originalTasks() throws Exception {
+        final List<Runnable> rejected = Collections.synchronizedList(new ArrayList<Runnable>());
+        RecordingPool pool = new RecordingPool(2, new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                rejected.add(r);
+            }
+        });
+        CountDownLatch gate = block(pool);
+        Runnable a = noop(), b = noop(), c = noop();
+        pool.execute(a);
+        Future<?> f = pool.submit(b);
+        pool.execute(c); // 队列已满，被拒绝
+        verify(rejected.size() == 1 && rejected.get(0) == c, "handler saw the original task");
+        gate.countDown();
+        f.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(pool.before.contains(a) && pool.after.contains(a), "hooks saw the plain Runnable");
+        verify(pool.before.contains(f) && pool.after.contains(f), "hooks saw the Future");
+        verify(pool.before.size() == 3 && pool.after.size() == 3, "hooks saw each task once");
+        System.out.println("original tasks: hooks and rejection handler saw the submitted tasks");
+    }
+
+    private static void removeAndShutdownNow() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.setStatisticsEnabled(true);
+        CountDownLatch gate = block(pool);
+        Runnable a = noop(), b = noop();
+        pool.execute(a);
+        pool.execute(b);
+        Future<?> f = pool.submit(noop());
+        verify(pool.getQueue().size() == 3, "three queued");
+        verify(pool.remove(a), "remove(task) removed a queued Runnable");
+        verify(!pool.remove(a), "removed only once");
+        f.cancel(false);
+        pool.purge();
+        verify(pool.getQueue().size() == 1, "purge removed the cancelled Future");
+        List<Runnable> pending = pool.shutdownNow();
+        gate.countDown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(pending.size() == 1 && pending.get(0) == b, "shutdownNow returned the original task: " + pending);
+        ThreadPoolStatistics stats = pool.getStatistics();
+        verify(stats.getQueueTime().getCount() == 1, "only the blocking task ran");
+        System.out.println("remove/purge/shutdownNow: original tasks, " + stats.getQueueTime().getCount() + " sample");
+    }
+
+    // 提交一个阻塞任务占住线程，返回放行它的门闩
+    private static CountDownLatch block(ThreadPoolExecutor pool) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return gate;
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
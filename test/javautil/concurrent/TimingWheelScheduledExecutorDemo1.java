@@ -0,0 +1,145 @@
+package javautil.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   TimingWheelScheduledExecutor的功能检查和压力测试，以ScheduledThreadPoolExecutor作为对照。
+ *
+ *   (01) 一次性任务：调度20000个延迟在0~500ms之间随机分布的任务，再取消其中一半，
+ *        检查未取消的任务恰好执行一次、取消成功的任务没有执行、没有任务提前执行，并输出延迟误差的p50/p99/max。
+ *        TimingWheelScheduledExecutor的误差以tick(默认1ms)为粒度。
+ *   (02) 周期任务：scheduleAtFixedRate每10ms执行一次，运行约300ms后检查执行次数。
+ *   (03) 同一tick内的顺序：单线程的TimingWheelScheduledExecutor，对300~900ms之间的每个tick，
+ *        按触发时间从后往前调度同一tick内的5个任务，检查任务严格按触发时间执行。
+ *        这段时间跨过了时间轮第1层的边界(256个tick)，覆盖任务从高层级降级(cascade)时的顺序。
+ *   检查失败时抛出AssertionError，误差与机器负载有关。
+ */
+public class TimingWheelScheduledExecutorDemo1 {
+
+    private static final int TASKS = 20000;
+    private static final long MAX_DELAY_MILLIS = 500;
+
+    public static void main(String[] args) throws Exception {
+        run("ScheduledThreadPoolExecutor", new ScheduledThreadPoolExecutor(2));
+        run("TimingWheelScheduledExecutor", new TimingWheelScheduledExecutor(2));
+        sameTickOrder();
+    }
+
+    private static void sameTickOrder() throws Exception {
+        TimingWheelScheduledExecutor pool = new TimingWheelScheduledExecutor(1);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+        long tick = pool.getTickDuration(TimeUnit.NANOSECONDS);
+        long start = System.nanoTime();
+        for (long k = 300; k < 900; k++) {
+            long base = TimeUnit.MILLISECONDS.toNanos(k);
+            for (long offset = tick * 9 / 10; offset > 0; offset -= tick / 5) {
+                final int id = futures.size();
+                futures.add(pool.schedule(new Runnable() {
+                    public void run() {
+                        order.add(id);
+                    }
+                }, start + base + offset - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+        }
+        pool.shutdown(); // 已调度的延迟任务在shutdown后仍会执行
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(order.size() == futures.size(), "all ran");
+        // 用compareTo比较，即按触发时间、同一触发时间按调度顺序
+        int inversions = 0;
+        for (int i = 1; i < order.size(); i++)
+            if (futures.get(order.get(i - 1)).compareTo(futures.get(order.get(i))) > 0)
+                inversions++;
+        verify(inversions == 0, "same-tick tasks ran out of order " + inversions + " times");
+        System.out.println("same-tick order: " + order.size() + " tasks in trigger-time order");
+    }
+
+    private static void run(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        oneShot(name, pool);
+        periodic(name, pool);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), name + ": terminated");
+    }
+
+    private static void oneShot(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        Random rnd = new Random(42);
+        final AtomicInteger[] runs = new AtomicInteger[TASKS];
+        final long[] lateness = new long[TASKS];
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            final int id = i;
+            runs[i] = new AtomicInteger();
+            long delay = TimeUnit.MILLISECONDS.toNanos(rnd.nextInt((int)MAX_DELAY_MILLIS));
+            final long due = System.nanoTime() + delay;
+            futures.add(pool.schedule(new Runnable() {
+                public void run() {
+                    lateness[id] = System.nanoTime() - due;
+                    runs[id].incrementAndGet();
+                    done.countDown();
+                }
+            }, delay, TimeUnit.NANOSECONDS));
+        }
+        // 取消奇数号任务，延迟很短的任务可能已经执行，取消会失败
+        boolean[] cancelled = new boolean[TASKS];
+        int ncancelled = 0;
+        for (int i = 1; i < TASKS; i += 2) {
+            if (futures.get(i).cancel(false)) {
+                cancelled[i] = true;
+                ncancelled++;
+                done.countDown();
+            }
+        }
+        verify(done.await(MAX_DELAY_MILLIS * 10, TimeUnit.MILLISECONDS), name + ": tasks ran");
+
+        List<Long> late = new ArrayList<Long>();
+        for (int i = 0; i < TASKS; i++) {
+            if (cancelled[i]) {
+                verify(runs[i].get() == 0, name + ": cancelled task " + i + " ran");
+            } else {
+                verify(runs[i].get() == 1, name + ": task " + i + " ran " + runs[i].get() + " times");
+                verify(lateness[i] >= 0, name + ": task " + i + " ran early");
+                late.add(lateness[i]);
+            }
+        }
+        Collections.sort(late);
+        int n = late.size();
+        System.out.println(name + ": ran=" + n + " cancelled=" + ncancelled
+                + " queued=" + pool.getQueue().size()
+                + " late p50=" + micros(late.get(n / 2))
+                + "us p99=" + micros(late.get(n * 99 / 100))
+                + "us max=" + micros(late.get(n - 1)) + "us");
+    }
+
+    private static void periodic(String name, ScheduledThreadPoolExecutor pool) throws Exception {
+        final AtomicInteger ticks = new AtomicInteger();
+        ScheduledFuture<?> f = pool.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                ticks.incrementAndGet();
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(305);
+        f.cancel(false);
+        int n = ticks.get();
+        verify(n >= 20 && n <= 32, name + ": fixed-rate ticks " + n);
+        System.out.println(name + ": fixed-rate ticks in ~300ms=" + n);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,110 @@
+package javautil.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *   ThreadPoolExecutor工作线程本地队列(work stealing)的功能检查。
+ *
+ *   任务在工作线程中继续拆分提交子任务（类似fork/join），共2^16个叶子任务。
+ *   (01) allowWorkStealing(false)：所有子任务都经过共享的工作队列。
+ *   (02) allowWorkStealing(true)：子任务进入提交者的本地队列，空闲线程从其他线程的本地队列窃取。
+ *   检查两种模式下所有叶子任务都执行了、完成任务数一致，并输出耗时。
+ *   (03) 本地队列中的任务同样受shutdownNow约束：shutdownNow返回的任务数加上已开始执行的任务数等于被接受的任务数。
+ *   检查失败时抛出AssertionError，耗时与机器有关。
+ */
+public class WorkStealingDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int DEPTH = 16;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 3; round++) {
+            split(false);
+            split(true);
+        }
+        shutdownNow();
+    }
+
+    private static ThreadPoolExecutor newPool(boolean stealing) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.allowWorkStealing(stealing);
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    private static void split(boolean stealing) throws Exception {
+        ThreadPoolExecutor pool = newPool(stealing);
+        CountDownLatch leaves = new CountDownLatch(1 << DEPTH);
+        long t0 = System.nanoTime();
+        pool.execute(new Split(pool, DEPTH, leaves));
+        verify(leaves.await(30, TimeUnit.SECONDS), "all leaves ran");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        pool.shutdown();
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(pool.getCompletedTaskCount() == (2L << DEPTH) - 1, "completed task count");
+        System.out.println("workStealing=" + stealing + ": " + (1 << DEPTH)
+                + " leaves in " + millis + "ms, completed=" + pool.getCompletedTaskCount());
+    }
+
+    private static void shutdownNow() throws Exception {
+        ThreadPoolExecutor pool = newPool(true);
+        accepted.set(0);
+        ran.set(0);
+        Split root = new Split(pool, DEPTH, new CountDownLatch(1 << DEPTH));
+        pool.execute(root);
+        accepted.incrementAndGet();
+        Thread.sleep(5);
+        int pending = pool.shutdownNow().size(); // 包括各工作线程本地队列中的任务
+        verify(pool.awaitTermination(5, TimeUnit.SECONDS), "terminated");
+        verify(ran.get() + pending == accepted.get(),
+               "ran " + ran.get() + " + pending " + pending + " != accepted " + accepted.get());
+        System.out.println("shutdownNow: ran=" + ran.get() + " returned=" + pending);
+    }
+
+    // 被接受的任务数和开始执行的任务数
+    private static final AtomicInteger accepted = new AtomicInteger();
+    private static final AtomicInteger ran = new AtomicInteger();
+
+    // 每层把自己拆成两个子任务，从工作线程中提交
+    private static class Split implements Runnable {
+        private final ThreadPoolExecutor pool;
+        private final int depth;
+        private final CountDownLatch leaves;
+
+        Split(ThreadPoolExecutor pool, int depth, CountDownLatch leaves) {
+            this.pool = pool;
+            this.depth = depth;
+            this.leaves = leaves;
+        }
+
+        public void run() {
+            ran.incrementAndGet();
+            if (depth == 0) {
+                leaves.countDown();
+            } else {
+                fork(new Split(pool, depth - 1, leaves));
+                fork(new Split(pool, depth - 1, leaves));
+            }
+        }
+
+        private void fork(Runnable task) {
+            try {
+                pool.execute(task);
+                accepted.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭
+            }
+        }
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,189 @@
+package javautil.concurrent.atomic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *   LongAdder、DoubleAdder、LongAccumulator的功能检查。
+ *
+ *   (01) LongAdder：多个线程并发increment/add/decrement，结束后sum()等于期望值；
+ *        sumThenReset()返回总和并清零，reset()清零；对比同样负载下AtomicLong的耗时(只打印，不检查)。
+ *   (02) DoubleAdder：多个线程并发add(0.5)，sum()等于期望值(0.5的和没有舍入误差)。
+ *   (03) LongAccumulator：多个线程并发accumulate，用max求最大值，用加法求和；
+ *        get()返回identity，getThenReset()返回结果并恢复到identity。
+ *   (04) 序列化后再反序列化，值不变。
+ *   检查失败时抛出AssertionError。
+ */
+public class LongAdderDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        longAdder();
+        doubleAdder();
+        longAccumulator();
+        serialization();
+    }
+
+    private static void longAdder() throws Exception {
+        final LongAdder adder = new LongAdder();
+        long t0 = System.nanoTime();
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    adder.increment();
+                    adder.add(2);
+                    adder.decrement();
+                }
+            }
+        });
+        long adderMillis = (System.nanoTime() - t0) / 1000000;
+        long expected = 2L * THREADS * PER_THREAD;
+        verify(adder.sum() == expected && adder.longValue() == expected, "LongAdder sum " + adder.sum());
+        verify(adder.toString().equals(Long.toString(expected)), "LongAdder toString " + adder);
+        verify(adder.sumThenReset() == expected && adder.sum() == 0L, "sumThenReset");
+        adder.add(5);
+        adder.reset();
+        verify(adder.sum() == 0L, "reset");
+
+        final AtomicLong atomic = new AtomicLong();
+        t0 = System.nanoTime();
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    atomic.incrementAndGet();
+                    atomic.addAndGet(2);
+                    atomic.decrementAndGet();
+                }
+            }
+        });
+        long atomicMillis = (System.nanoTime() - t0) / 1000000;
+        verify(atomic.get() == expected, "AtomicLong sum " + atomic.get());
+        System.out.println("LongAdder: sum " + expected + " in " + adderMillis + "ms (AtomicLong "
+                + atomicMillis + "ms)");
+    }
+
+    private static void doubleAdder() throws Exception {
+        final DoubleAdder adder = new DoubleAdder();
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = 0; i < PER_THREAD; i++)
+                    adder.add(0.5);
+            }
+        });
+        double expected = 0.5 * THREADS * PER_THREAD;
+        verify(adder.sum() == expected, "DoubleAdder sum " + adder.sum());
+        verify(adder.sumThenReset() == expected && adder.sum() == 0.0, "DoubleAdder sumThenReset");
+        System.out.println("DoubleAdder: sum " + expected);
+    }
+
+    static final class Max implements LongAccumulator.LongBinaryOperator, Serializable {
+        private static final long serialVersionUID = 1L;
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }
+
+    static final class Sum implements LongAccumulator.LongBinaryOperator, Serializable {
+        private static final long serialVersionUID = 1L;
+        public long applyAsLong(long left, long right) {
+            return left + right;
+        }
+    }
+
+    private static void longAccumulator() throws Exception {
+        final LongAccumulator max = new LongAccumulator(new Max(), Long.MIN_VALUE);
+        final LongAccumulator sum = new LongAccumulator(new Sum(), 0L);
+        verify(max.get() == Long.MIN_VALUE && sum.get() == 0L, "initial value is the identity");
+        runAll(new Body() {
+            public void run(int id) {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    long x = (long) i * THREADS + id;
+                    max.accumulate(x);
+                    sum.accumulate(1);
+                }
+            }
+        });
+        long expectedMax = (long) PER_THREAD * THREADS - 1;
+        verify(max.get() == expectedMax, "LongAccumulator max " + max.get());
+        verify(sum.get() == (long) THREADS * PER_THREAD, "LongAccumulator sum " + sum.get());
+        verify(max.getThenReset() == expectedMax && max.get() == Long.MIN_VALUE, "getThenReset");
+        sum.reset();
+        verify(sum.get() == 0L, "reset to the identity");
+        max.accumulate(-7);
+        verify(max.get() == -7, "accumulate after reset");
+        System.out.println("LongAccumulator: max " + expectedMax + ", sum " + THREADS * PER_THREAD);
+    }
+
+    private static void serialization() throws Exception {
+        LongAdder adder = new LongAdder();
+        adder.add(42);
+        DoubleAdder dadder = new DoubleAdder();
+        dadder.add(1.25);
+        LongAccumulator max = new LongAccumulator(new Max(), Long.MIN_VALUE);
+        max.accumulate(17);
+        max.accumulate(3);
+
+        LongAdder adderCopy = roundTrip(adder);
+        DoubleAdder dadderCopy = roundTrip(dadder);
+        LongAccumulator maxCopy = roundTrip(max);
+        verify(adderCopy.sum() == 42L, "LongAdder after round trip " + adderCopy);
+        verify(dadderCopy.sum() == 1.25, "DoubleAdder after round trip " + dadderCopy);
+        verify(maxCopy.get() == 17L, "LongAccumulator after round trip " + maxCopy);
+        adderCopy.increment();
+        maxCopy.accumulate(20);
+        maxCopy.getThenReset();
+        verify(adderCopy.sum() == 43L && maxCopy.get() == Long.MIN_VALUE, "updates after round trip");
+        System.out.println("serialization: values kept, copies keep updating");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T obj) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (T) in.readObject();
+    }
+
+    interface Body {
+        void run(int id);
+    }
+
+    private static void runAll(final Body body) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    body.run(id);
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
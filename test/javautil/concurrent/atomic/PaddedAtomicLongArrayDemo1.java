@@ -0,0 +1,155 @@
+package javautil.concurrent.atomic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.PaddedAtomicLongArray;
+
+/*
+ *   PaddedAtomicLongArray的功能检查。
+ *
+ *   (01) 单个元素的操作：get/set/lazySet/getAndSet/compareAndSet/getAndAdd/addAndGet等的返回值，
+ *        越界下标抛出IndexOutOfBoundsException，负数长度抛出IllegalArgumentException。
+ *   (02) 填充：通过反射读取内部数组，每个元素占16个long(128字节)，首尾各多一段填充；
+ *        从long[]构造时复制每个元素；snapshot()/sum()/toString()。
+ *   (03) 并发：每个线程只更新自己的元素，结束后每个元素和sum()都等于期望值；
+ *        对比同样负载下相邻元素的AtomicLongArray的耗时(只打印，不检查)。
+ *   (04) 序列化后再反序列化，值不变，并可以继续更新。
+ *   检查失败时抛出AssertionError。
+ */
+public class PaddedAtomicLongArrayDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 5000000;
+
+    public static void main(String[] args) throws Exception {
+        elementOps();
+        padding();
+        concurrentSlots();
+        serialization();
+    }
+
+    private static void elementOps() {
+        PaddedAtomicLongArray a = new PaddedAtomicLongArray(3);
+        verify(a.length() == 3 && a.get(0) == 0L && a.get(2) == 0L, "new array is zeroed");
+        a.set(0, 5);
+        a.lazySet(1, 7);
+        verify(a.get(0) == 5L && a.get(1) == 7L, "set/lazySet");
+        verify(a.getAndSet(0, 6) == 5L && a.get(0) == 6L, "getAndSet");
+        verify(!a.compareAndSet(0, 5, 9) && a.compareAndSet(0, 6, 9) && a.get(0) == 9L, "compareAndSet");
+        verify(a.getAndIncrement(2) == 0L && a.incrementAndGet(2) == 2L, "increment");
+        verify(a.getAndDecrement(2) == 2L && a.decrementAndGet(2) == 0L, "decrement");
+        verify(a.getAndAdd(1, 3) == 7L && a.addAndGet(1, -10) == 0L, "add");
+        verify(a.get(0) == 9L && a.get(1) == 0L && a.get(2) == 0L, "neighbours unchanged");
+        for (int i : new int[] { -1, 3 }) {
+            boolean thrown = false;
+            try {
+                a.get(i);
+            } catch (IndexOutOfBoundsException e) {
+                thrown = true;
+            }
+            verify(thrown, "index " + i + " out of bounds");
+        }
+        boolean thrown = false;
+        try {
+            new PaddedAtomicLongArray(-1);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        verify(thrown, "negative length rejected");
+        System.out.println("element operations: " + a);
+    }
+
+    private static void padding() throws Exception {
+        long[] values = { 1, -2, 3, Long.MAX_VALUE };
+        PaddedAtomicLongArray a = new PaddedAtomicLongArray(values);
+        Field f = PaddedAtomicLongArray.class.getDeclaredField("array");
+        f.setAccessible(true);
+        long[] backing = (long[]) f.get(a);
+        verify(backing.length == (values.length + 2) * 16, "backing array length " + backing.length);
+        for (int i = 0; i < backing.length; i++) {
+            boolean slot = i % 16 == 0 && i / 16 >= 1 && i / 16 <= values.length;
+            verify(slot ? backing[i] == values[i / 16 - 1] : backing[i] == 0L,
+                   "backing[" + i + "] = " + backing[i]);
+        }
+        verify(Arrays.equals(a.snapshot(), values), "snapshot " + Arrays.toString(a.snapshot()));
+        verify(a.sum() == 1 - 2 + 3 + Long.MAX_VALUE, "sum " + a.sum());
+        verify(a.toString().equals(Arrays.toString(values)), "toString " + a);
+        verify(new PaddedAtomicLongArray(0).toString().equals("[]"), "empty toString");
+        System.out.println("padding: " + values.length + " elements in a long[" + backing.length
+                + "], 128 bytes apart");
+    }
+
+    interface Slots {
+        void increment(int i);
+    }
+
+    private static long run(final Slots slots) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < PER_THREAD; i++)
+                        slots.increment(id);
+                }
+            };
+            threads[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        return (System.nanoTime() - t0) / 1000000;
+    }
+
+    private static void concurrentSlots() throws Exception {
+        final PaddedAtomicLongArray padded = new PaddedAtomicLongArray(THREADS);
+        final AtomicLongArray plain = new AtomicLongArray(THREADS);
+        long paddedMillis = run(new Slots() {
+            public void increment(int i) {
+                padded.incrementAndGet(i);
+            }
+        });
+        long plainMillis = run(new Slots() {
+            public void increment(int i) {
+                plain.incrementAndGet(i);
+            }
+        });
+        for (int i = 0; i < THREADS; i++)
+            verify(padded.get(i) == PER_THREAD && plain.get(i) == PER_THREAD, "slot " + i + ": " + padded.get(i));
+        verify(padded.sum() == (long) THREADS * PER_THREAD, "sum " + padded.sum());
+        System.out.println("per-thread slots: PaddedAtomicLongArray " + paddedMillis + "ms, AtomicLongArray "
+                + plainMillis + "ms");
+    }
+
+    private static void serialization() throws Exception {
+        PaddedAtomicLongArray a = new PaddedAtomicLongArray(new long[] { 4, 5, 6 });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(a);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        PaddedAtomicLongArray copy = (PaddedAtomicLongArray) in.readObject();
+        verify(copy.length() == 3 && Arrays.equals(copy.snapshot(), a.snapshot()), "round trip " + copy);
+        copy.addAndGet(2, 10);
+        verify(copy.get(2) == 16L && a.get(2) == 6L, "copy updates independently");
+        System.out.println("serialization: " + copy);
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
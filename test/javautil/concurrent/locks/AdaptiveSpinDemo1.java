@@ -0,0 +1,182 @@
+package javautil.concurrent.locks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ *   非公平锁自旋(系统属性java.util.concurrent.locks.adaptiveSpin)的功能检查。
+ *
+ *   (01) FIFO交接：主线程持有锁，依次启动5个线程并等待它们进入队列，释放锁后检查它们按入队顺序获得锁。
+ *        公平/非公平的ReentrantLock和ReentrantReadWriteLock写锁都要检查，是否打开自旋都应成立。
+ *   (02) 自旋路径：shouldSpin()返回true的AQS子类，持有者忙等时，竞争者在入队/阻塞前反复调用tryAcquire；
+ *        返回false时只调用几次。单处理器上不自旋，跳过。
+ *   (03) 开关：非公平的ReentrantLock、ReentrantReadWriteLock和ThreadPoolExecutor的工作者的shouldSpin()
+ *        与系统属性一致，公平锁总是返回false。
+ *        运行：java -Djava.util.concurrent.locks.adaptiveSpin=true AdaptiveSpinDemo1
+ *   检查失败时抛出AssertionError。
+ */
+public class AdaptiveSpinDemo1 {
+
+    private static final boolean SPIN = Boolean.getBoolean("java.util.concurrent.locks.adaptiveSpin");
+
+    public static void main(String[] args) throws Exception {
+        fifo("ReentrantLock(nonfair)", new ReentrantLock(false));
+        fifo("ReentrantLock(fair)", new ReentrantLock(true));
+        fifo("ReentrantReadWriteLock(nonfair)", new ReentrantReadWriteLock(false));
+        fifo("ReentrantReadWriteLock(fair)", new ReentrantReadWriteLock(true));
+        spinPath();
+        optIn();
+    }
+
+    private static void fifo(String name, ReentrantLock lock) throws Exception {
+        fifo(name, lock, lock, null);
+    }
+
+    private static void fifo(String name, ReentrantReadWriteLock rw) throws Exception {
+        fifo(name, rw.writeLock(), null, rw);
+    }
+
+    private static void fifo(String name, final Lock lock,
+                             ReentrantLock rl, ReentrantReadWriteLock rw) throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Thread> threads = new ArrayList<Thread>();
+        lock.lock();
+        for (int i = 0; i < 5; i++) {
+            final int id = i;
+            Thread t = new Thread() {
+                public void run() {
+                    lock.lock();
+                    try {
+                        order.add(id);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
+            t.start();
+            // 等待线程进入队列，再启动下一个
+            while (!(rl != null ? rl.hasQueuedThread(t) : rw.hasQueuedThread(t)))
+                Thread.sleep(1);
+            threads.add(t);
+        }
+        lock.unlock();
+        for (Thread t : threads)
+            t.join();
+        verify(order.equals(java.util.Arrays.asList(0, 1, 2, 3, 4)),
+               name + ": queued threads acquired in order " + order);
+        System.out.println(name + ": FIFO handoff " + order + (SPIN ? " (spinning on)" : ""));
+    }
+
+    /**
+     * 计数tryAcquire调用次数的互斥锁，shouldSpin由构造参数决定。
+     */
+    static final class CountingMutex extends AbstractQueuedSynchronizer {
+        final boolean spin;
+        volatile Thread counted;
+        final AtomicInteger attempts = new AtomicInteger();
+        CountingMutex(boolean spin) { this.spin = spin; }
+        protected boolean shouldSpin() { return spin; }
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+        protected boolean tryAcquire(int unused) {
+            if (Thread.currentThread() == counted)
+                attempts.incrementAndGet();
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+        protected boolean tryRelease(int unused) {
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+    }
+
+    // 持有者忙等(RUNNABLE)直到竞争者进入队列后才释放，返回竞争者调用tryAcquire的次数
+    private static int attempts(boolean spin) throws Exception {
+        final CountingMutex m = new CountingMutex(spin);
+        m.acquire(1);
+        Thread contender = new Thread() {
+            public void run() {
+                m.acquire(1);
+                m.release(1);
+            }
+        };
+        m.counted = contender;
+        contender.start();
+        while (!m.isQueued(contender))
+            ;
+        m.release(1);
+        contender.join();
+        return m.attempts.get();
+    }
+
+    private static void spinPath() throws Exception {
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            System.out.println("spin path: skipped (uniprocessor, spinning is never used)");
+            return;
+        }
+        int off = attempts(false), on = attempts(true);
+        verify(off < 8, "spin path: " + off + " attempts without spinning");
+        verify(on >= 64, "spin path: " + on + " attempts with spinning");
+        System.out.println("spin path: tryAcquire attempts before blocking, off=" + off + ", on=" + on);
+    }
+
+    // 通过反射调用同步器的shouldSpin()
+    private static boolean shouldSpin(Object owner, String field) throws Exception {
+        Field f = owner.getClass().getDeclaredField(field);
+        f.setAccessible(true);
+        return shouldSpin(f.get(owner));
+    }
+
+    private static boolean shouldSpin(Object sync) throws Exception {
+        for (Class<?> c = sync.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Method m = c.getDeclaredMethod("shouldSpin");
+                m.setAccessible(true);
+                return (Boolean) m.invoke(sync);
+            } catch (NoSuchMethodException e) {
+                // 在父类中查找
+            }
+        }
+        throw new AssertionError("no shouldSpin in " + sync.getClass());
+    }
+
+    private static void optIn() throws Exception {
+        verify(shouldSpin(new ReentrantLock(false), "sync") == SPIN, "nonfair ReentrantLock follows the property");
+        verify(!shouldSpin(new ReentrantLock(true), "sync"), "fair ReentrantLock never spins");
+        verify(shouldSpin(new ReentrantReadWriteLock(false), "sync") == SPIN,
+               "nonfair ReentrantReadWriteLock follows the property");
+        verify(!shouldSpin(new ReentrantReadWriteLock(true), "sync"), "fair ReentrantReadWriteLock never spins");
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.prestartAllCoreThreads();
+        Field f = ThreadPoolExecutor.class.getDeclaredField("workers");
+        f.setAccessible(true);
+        for (Object w : (Set<?>) f.get(pool))
+            verify(shouldSpin(w) == SPIN, "ThreadPoolExecutor worker follows the property");
+        pool.shutdown();
+        System.out.println("opt-in: nonfair locks and pool workers spin=" + SPIN + ", fair locks never spin");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,173 @@
+package javautil.concurrent.locks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockProfiler;
+import java.util.concurrent.locks.LockStatistics;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ *   锁竞争统计(LockProfiler/LockStatistics)的功能检查。
+ *
+ *   (01) 无竞争的获取：lock/unlock计入acquisitions，不计入contended；tryLock()不计数；
+ *        读写锁的读锁(共享模式)也计数。
+ *   (02) 有竞争的获取：主线程持有锁约100ms，另一个线程lock()排队等待，检查contended为1，
+ *        等待时间和最大等待时间不小于持有时间，并且有park。
+ *   (03) 放弃的获取：tryLock(timeout)超时、lockInterruptibly()被中断，都计入cancelled。
+ *   (04) 注册表：LockProfiler.getStatistics()包含所有使用过的锁，按总等待时间从大到小排序；
+ *        resetAll()清零；锁被回收后其统计从注册表中消失，getName()仍然可用。
+ *   需要设置系统属性java.util.concurrent.locks.profile=true；没有设置时，检查getLockStatistics()
+ *   返回null、LockProfiler.getStatistics()为空。
+ *        运行：java -Djava.util.concurrent.locks.profile=true LockProfilerDemo1
+ *   检查失败时抛出AssertionError。
+ */
+public class LockProfilerDemo1 {
+
+    private static final long HOLD_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (!LockProfiler.isEnabled()) {
+            disabled();
+            return;
+        }
+        uncontended();
+        contended();
+        cancelled();
+        registry();
+    }
+
+    private static void disabled() {
+        ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        lock.unlock();
+        verify(lock.getLockStatistics() == null, "no statistics when profiling is disabled");
+        verify(LockProfiler.getStatistics().isEmpty(), "empty registry when profiling is disabled");
+        System.out.println("profiling disabled: no statistics (run with "
+                + "-Djava.util.concurrent.locks.profile=true to check profiling)");
+    }
+
+    private static void uncontended() {
+        ReentrantLock lock = new ReentrantLock();
+        for (int i = 0; i < 1000; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+        verify(lock.tryLock(), "tryLock");
+        lock.unlock();
+        LockStatistics s = lock.getLockStatistics();
+        verify(s != null && s.getSynchronizer() != null, "statistics created");
+        verify(s.getAcquisitionCount() == 1000, "acquisitions " + s.getAcquisitionCount());
+        verify(s.getContendedCount() == 0 && s.getTotalWaitNanos() == 0 && s.getParkCount() == 0,
+               "no contention: " + s);
+
+        ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        for (int i = 0; i < 10; i++) {
+            rw.readLock().lock();
+            rw.readLock().unlock();
+        }
+        rw.writeLock().lock();
+        rw.writeLock().unlock();
+        verify(rw.getLockStatistics().getAcquisitionCount() == 11,
+               "read and write acquisitions " + rw.getLockStatistics());
+        System.out.println("uncontended: " + s);
+    }
+
+    private static void contended() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        Thread waiter = new Thread() {
+            public void run() {
+                lock.lock();
+                lock.unlock();
+            }
+        };
+        waiter.start();
+        while (!lock.hasQueuedThread(waiter))
+            Thread.yield();
+        Thread.sleep(HOLD_MILLIS);
+        lock.unlock();
+        waiter.join();
+
+        LockStatistics s = lock.getLockStatistics();
+        long minWait = TimeUnit.MILLISECONDS.toNanos(HOLD_MILLIS);
+        verify(s.getAcquisitionCount() == 2 && s.getContendedCount() == 1, "contended count: " + s);
+        verify(s.getTotalWaitNanos() >= minWait && s.getMaxWaitNanos() == s.getTotalWaitNanos(),
+               "wait time at least " + HOLD_MILLIS + "ms: " + s);
+        verify(s.getParkCount() >= 1 && s.getCancelledCount() == 0, "parked: " + s);
+        System.out.println("contended: waited " + TimeUnit.NANOSECONDS.toMillis(s.getTotalWaitNanos())
+                + "ms, " + s.getParkCount() + " parks");
+    }
+
+    private static void cancelled() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final boolean[] acquired = new boolean[2];
+        lock.lock();
+        Thread timed = new Thread() {
+            public void run() {
+                try {
+                    acquired[0] = lock.tryLock(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        timed.start();
+        timed.join();
+        Thread interrupted = new Thread() {
+            public void run() {
+                try {
+                    lock.lockInterruptibly();
+                    acquired[1] = true;
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        interrupted.start();
+        while (!lock.hasQueuedThread(interrupted))
+            Thread.yield();
+        interrupted.interrupt();
+        interrupted.join();
+        lock.unlock();
+
+        LockStatistics s = lock.getLockStatistics();
+        verify(!acquired[0] && !acquired[1], "neither thread acquired the lock");
+        verify(s.getCancelledCount() == 2, "cancelled " + s.getCancelledCount());
+        verify(s.getAcquisitionCount() == 1 && s.getContendedCount() == 0, "only the holder acquired: " + s);
+        System.out.println("cancelled: timed out and interrupted acquires counted, " + s.getCancelledCount());
+    }
+
+    private static void registry() throws Exception {
+        ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        lock.unlock();
+        LockStatistics s = lock.getLockStatistics();
+        List<LockStatistics> all = LockProfiler.getStatistics();
+        verify(all.contains(s), "registered");
+        for (int i = 1; i < all.size(); i++)
+            verify(all.get(i - 1).getTotalWaitNanos() >= all.get(i).getTotalWaitNanos(),
+                   "sorted by decreasing wait time");
+        verify(all.get(0).getTotalWaitNanos() > 0, "the contended lock first: " + all.get(0));
+
+        LockProfiler.resetAll();
+        for (LockStatistics t : LockProfiler.getStatistics())
+            verify(t.getAcquisitionCount() == 0 && t.getTotalWaitNanos() == 0 && t.getMaxWaitNanos() == 0,
+                   "reset: " + t);
+
+        String name = s.getName();
+        lock = null;
+        for (int i = 0; i < 100 && s.getSynchronizer() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        verify(s.getSynchronizer() == null, "lock collected");
+        verify(!LockProfiler.getStatistics().contains(s), "statistics of the collected lock dropped");
+        verify(name.equals(s.getName()) && name.startsWith(ReentrantLock.class.getName()), "name kept: " + name);
+        System.out.println("registry: " + all.size() + " locks sorted by wait time, reset, " + name
+                + " dropped after collection");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,269 @@
+package javautil.concurrent.locks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ScalableReadWriteLock;
+
+/*
+ *   ScalableReadWriteLock的功能检查。
+ *
+ *   (01) 基本功能：多个读者同时持有读锁，写锁与读锁互斥，写锁可以降级为读锁。
+ *   (02) 超时：读者持有读锁时，写者的tryLock(timeout)在等待读者退出时超时，返回false；
+ *        写者撤回写标记，之后新的读者可以立即获得读锁。
+ *   (03) 唤醒：写者宣告后到来的读者进入队列阻塞；写者超时或被中断放弃时，这些读者被唤醒并获得读锁。
+ *   (04) 中断：写者在lockInterruptibly()中等待读者退出时被中断，抛出InterruptedException。
+ *        lock()被中断时继续等待，拿到锁后中断状态被恢复。
+ *   (05) 压力测试：读者检查写者维护的两个计数器总是相等；其中一个写者使用很短的超时，
+ *        经常在等待读者时放弃，检查放弃不会破坏互斥，也不会让读者永远阻塞。
+ *   检查失败时抛出AssertionError。
+ */
+public class ScalableReadWriteLockDemo1 {
+
+    public static void main(String[] args) throws Exception {
+        basic();
+        timedWriter();
+        abandonedWriterWakesReaders(false);
+        abandonedWriterWakesReaders(true);
+        interruptedWriter();
+        uninterruptibleWriter();
+        stress();
+    }
+
+    private static void basic() throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        lock.readLock().lock();
+        final boolean[] result = new boolean[2];
+        Thread t = new Thread() {
+            public void run() {
+                result[0] = lock.readLock().tryLock(); // 其他读者可以同时持有读锁
+                if (result[0])
+                    lock.readLock().unlock();
+                result[1] = lock.writeLock().tryLock();
+            }
+        };
+        t.start();
+        t.join();
+        verify(result[0], "concurrent readers");
+        verify(!result[1], "write lock excluded by a reader");
+        lock.readLock().unlock();
+
+        lock.writeLock().lock();
+        lock.readLock().lock(); // 降级
+        lock.writeLock().unlock();
+        verify(!lock.isWriteLocked() && lock.getReadLockCount() == 1, "downgraded to read lock");
+        lock.readLock().unlock();
+        verify(lock.getReadLockCount() == 0, "unlocked");
+        System.out.println("basic checks passed");
+    }
+
+    private static void timedWriter() throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        CountDownLatch release = holdReadLock(lock);
+        long t0 = System.nanoTime();
+        boolean acquired = lock.writeLock().tryLock(100, TimeUnit.MILLISECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        verify(!acquired, "timed write lock failed while a reader holds the lock");
+        verify(millis >= 90 && millis < 2000, "timed out after " + millis + "ms");
+        verify(!lock.isWriteLocked(), "write indicator withdrawn");
+        verify(readLockFromOtherThread(lock), "new reader admitted after the writer timed out");
+        release.countDown();
+        System.out.println("timed writer: gave up after " + millis + "ms");
+    }
+
+    private static void abandonedWriterWakesReaders(final boolean interrupt) throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        CountDownLatch release = holdReadLock(lock);
+        final AtomicBoolean writerAcquired = new AtomicBoolean();
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    writerAcquired.set(interrupt
+                            ? lock.writeLock().tryLock(1, TimeUnit.HOURS)
+                            : lock.writeLock().tryLock(300, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    // expected when interrupted
+                }
+            }
+        };
+        writer.start();
+        while (!lock.isWriteLocked()) // 等待写者宣告
+            Thread.sleep(1);
+
+        final CountDownLatch readerAcquired = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            public void run() {
+                lock.readLock().lock();
+                readerAcquired.countDown();
+                lock.readLock().unlock();
+            }
+        };
+        reader.start();
+        while (!lock.hasQueuedThreads()) // 读者在写标记后面排队
+            Thread.sleep(1);
+        if (interrupt)
+            writer.interrupt();
+        writer.join(5000);
+        verify(!writer.isAlive() && !writerAcquired.get(), "writer gave up");
+        String how = interrupt ? "interrupted" : "timed out";
+        verify(readerAcquired.await(2, TimeUnit.SECONDS), "queued reader woken after writer " + how);
+        release.countDown();
+        System.out.println("abandoned writer (" + how + "): queued reader admitted");
+    }
+
+    private static void interruptedWriter() throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        CountDownLatch release = holdReadLock(lock);
+        final boolean[] thrown = new boolean[1];
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    lock.writeLock().lockInterruptibly();
+                    lock.writeLock().unlock();
+                } catch (InterruptedException e) {
+                    thrown[0] = true;
+                }
+            }
+        };
+        writer.start();
+        while (!lock.isWriteLocked())
+            Thread.sleep(1);
+        writer.interrupt();
+        writer.join(5000);
+        verify(thrown[0], "lockInterruptibly threw InterruptedException while readers drained");
+        verify(!lock.isWriteLocked(), "write indicator withdrawn");
+        verify(readLockFromOtherThread(lock), "new reader admitted after the writer was interrupted");
+        release.countDown();
+        System.out.println("lockInterruptibly: interrupted while waiting for readers");
+    }
+
+    private static void uninterruptibleWriter() throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        CountDownLatch release = holdReadLock(lock);
+        final boolean[] interruptedAfter = new boolean[1];
+        Thread writer = new Thread() {
+            public void run() {
+                lock.writeLock().lock();
+                interruptedAfter[0] = Thread.currentThread().isInterrupted();
+                lock.writeLock().unlock();
+            }
+        };
+        writer.start();
+        while (!lock.isWriteLocked())
+            Thread.sleep(1);
+        writer.interrupt();
+        Thread.sleep(100);
+        verify(writer.isAlive(), "lock() still waiting for readers after interrupt");
+        release.countDown();
+        writer.join(5000);
+        verify(!writer.isAlive() && interruptedAfter[0], "lock() acquired with interrupt status restored");
+        System.out.println("lock: kept waiting after interrupt, interrupt status restored");
+    }
+
+    private static long a, b;
+
+    private static void stress() throws Exception {
+        final ScalableReadWriteLock lock = new ScalableReadWriteLock();
+        final int writes = 20000, reads = 200000;
+        final AtomicBoolean torn = new AtomicBoolean();
+        final AtomicInteger timedWrites = new AtomicInteger();
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean isWriter = (i == 0), isTimedWriter = (i == 1);
+            threads[i] = new Thread() {
+                public void run() {
+                    if (isTimedWriter) {
+                        for (int k = 0; k < writes; k++) {
+                            try {
+                                if (!lock.writeLock().tryLock(10, TimeUnit.MICROSECONDS))
+                                    continue;
+                            } catch (InterruptedException e) {
+                                throw new AssertionError(e);
+                            }
+                            try {
+                                a++;
+                                b++;
+                                timedWrites.incrementAndGet();
+                            } finally {
+                                lock.writeLock().unlock();
+                            }
+                        }
+                    } else if (isWriter) {
+                        for (int k = 0; k < writes; k++) {
+                            lock.writeLock().lock();
+                            try {
+                                a++;
+                                b++;
+                            } finally {
+                                lock.writeLock().unlock();
+                            }
+                        }
+                    } else {
+                        for (int k = 0; k < reads; k++) {
+                            lock.readLock().lock();
+                            try {
+                                if (a != b)
+                                    torn.set(true);
+                            } finally {
+                                lock.readLock().unlock();
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        long t0 = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        verify(!torn.get(), "reader saw a partial write");
+        long expected = writes + timedWrites.get();
+        verify(a == expected && b == expected, "all writes applied");
+        verify(lock.getReadLockCount() == 0 && !lock.isWriteLocked(), "unlocked at end");
+        System.out.println("stress: " + expected + " writes (" + timedWrites.get() + " timed), "
+                + 3 * reads + " reads in " + millis + "ms");
+    }
+
+    // 在另一个线程中持有读锁，返回让它释放读锁的门闩
+    private static CountDownLatch holdReadLock(final ScalableReadWriteLock lock) throws Exception {
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                lock.readLock().lock();
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        }.start();
+        held.await();
+        return release;
+    }
+
+    private static boolean readLockFromOtherThread(final ScalableReadWriteLock lock) throws Exception {
+        final boolean[] result = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                result[0] = lock.readLock().tryLock();
+                if (result[0])
+                    lock.readLock().unlock();
+            }
+        };
+        t.start();
+        t.join();
+        return result[0];
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,110 @@
+package javautil.concurrent.locks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ *   StampedLock的功能检查。
+ *
+ *   (01) 乐观读：写锁释放前后validate的结果，读锁/写锁之间的转换。
+ *   (02) 中断：写锁被占用时，线程阻塞在readLock()/writeLock()中，对它发中断。
+ *        非可中断的获取方法应当清除中断后继续park，而不是忙等；拿到锁后中断状态被恢复。
+ *        通过ThreadMXBean测量被中断线程在500ms内消耗的CPU时间。
+ *   (03) 可中断的获取方法readLockInterruptibly()在被中断时抛出InterruptedException。
+ *   检查失败时抛出AssertionError。
+ */
+public class StampedLockDemo1 {
+
+    public static void main(String[] args) throws Exception {
+        optimistic();
+        interruptedWhileBlocked(true);
+        interruptedWhileBlocked(false);
+        interruptible();
+    }
+
+    private static void optimistic() {
+        StampedLock lock = new StampedLock();
+        long stamp = lock.tryOptimisticRead();
+        verify(stamp != 0L && lock.validate(stamp), "optimistic read valid");
+        long ws = lock.writeLock();
+        verify(!lock.validate(stamp), "invalid while write locked");
+        lock.unlockWrite(ws);
+        verify(!lock.validate(stamp), "invalid after a write");
+
+        long rs = lock.readLock();
+        long cs = lock.tryConvertToWriteLock(rs); // 唯一的读者可以升级为写锁
+        verify(cs != 0L && lock.isWriteLocked(), "read lock converted to write lock");
+        rs = lock.tryConvertToReadLock(cs);
+        verify(rs != 0L && lock.isReadLocked() && !lock.isWriteLocked(), "converted back");
+        lock.unlockRead(rs);
+        verify(!lock.isReadLocked() && !lock.isWriteLocked(), "unlocked");
+        System.out.println("optimistic read and conversion checks passed");
+    }
+
+    private static void interruptedWhileBlocked(final boolean reader) throws Exception {
+        final StampedLock lock = new StampedLock();
+        long ws = lock.writeLock();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final boolean[] interruptedAfter = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                long s = reader ? lock.readLock() : lock.writeLock();
+                interruptedAfter[0] = Thread.currentThread().isInterrupted();
+                lock.unlock(s);
+                acquired.countDown();
+            }
+        };
+        t.start();
+        while (t.getState() != Thread.State.WAITING) // 等待线程阻塞
+            Thread.sleep(1);
+        t.interrupt();
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long cpu0 = mx.getThreadCpuTime(t.getId());
+        Thread.sleep(500);
+        long cpuMillis = TimeUnit.NANOSECONDS.toMillis(mx.getThreadCpuTime(t.getId()) - cpu0);
+        Thread.State state = t.getState();
+
+        lock.unlockWrite(ws);
+        verify(acquired.await(5, TimeUnit.SECONDS), "acquired after release");
+        t.join();
+        String name = reader ? "readLock" : "writeLock";
+        verify(state == Thread.State.WAITING, name + ": interrupted thread is " + state);
+        verify(cpuMillis < 100, name + ": interrupted thread used " + cpuMillis + "ms of CPU in 500ms");
+        verify(interruptedAfter[0], name + ": interrupt status restored");
+        System.out.println(name + ": interrupted while blocked, parked (cpu=" + cpuMillis
+                + "ms in 500ms), interrupt status restored");
+    }
+
+    private static void interruptible() throws Exception {
+        final StampedLock lock = new StampedLock();
+        long ws = lock.writeLock();
+        final boolean[] thrown = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lock.readLockInterruptibly();
+                } catch (InterruptedException e) {
+                    thrown[0] = true;
+                }
+            }
+        };
+        t.start();
+        while (t.getState() != Thread.State.WAITING)
+            Thread.sleep(1);
+        t.interrupt();
+        t.join(5000);
+        lock.unlockWrite(ws);
+        verify(thrown[0], "readLockInterruptibly threw InterruptedException");
+        verify(!lock.isReadLocked() && !lock.isWriteLocked(), "no lock held afterwards");
+        System.out.println("readLockInterruptibly: InterruptedException thrown");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,230 @@
+package javaxswing;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/*
+ *   TimerQueue合并触发(系统属性swing.timerQueue.coalesceSlack，单位微秒)的功能检查。
+ *
+ *   (01) 合并：50个延迟相同、几乎同时启动的Timer，检查每个都恰好触发一次、没有比延迟减去slack更早触发，
+ *        并且在EDT上由少数几个事件一起送出；setCoalesce(false)的Timer仍然用自己的事件送出。
+ *   (02) 停止：EDT被占住时已经到期、等待送出的Timer，在送出前stop()，之后不会再触发。
+ *   (03) 重复Timer：EDT被占住期间多次到期，送出时只触发一次。
+ *   (04) 一个listener抛出异常时，同一批的其余Timer仍然触发。
+ *   没有设置该属性时，检查每个Timer用自己的事件送出。
+ *        运行：java -Djava.awt.headless=true -Dswing.timerQueue.coalesceSlack=2000 TimerQueueCoalesceDemo1
+ *   检查失败时抛出AssertionError。
+ */
+public class TimerQueueCoalesceDemo1 {
+
+    private static final int SLACK_MICROS = Integer.getInteger("swing.timerQueue.coalesceSlack", 0);
+    private static final int TIMERS = 50;
+    private static final int DELAY_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (SLACK_MICROS <= 0) {
+            separateEvents();
+            return;
+        }
+        coalesced();
+        stopPending();
+        repeating();
+        throwingListener();
+    }
+
+    // 记录每个Timer的触发次数、触发时间和送出它的EDT事件
+    static class Recorder implements ActionListener {
+        final AtomicInteger fired = new AtomicInteger();
+        final long started = System.nanoTime();
+        volatile long firstFired;
+        volatile AWTEvent event;
+        final CountDownLatch done;
+
+        Recorder(CountDownLatch done) {
+            this.done = done;
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            if (fired.getAndIncrement() == 0) {
+                firstFired = System.nanoTime();
+                event = EventQueue.getCurrentEvent();
+                done.countDown();
+            }
+        }
+    }
+
+    private static Timer timer(int delay, ActionListener listener) {
+        Timer t = new Timer(delay, listener);
+        t.setRepeats(false);
+        return t;
+    }
+
+    private static int distinctEvents(List<Recorder> recorders) {
+        Set<AWTEvent> events = Collections.newSetFromMap(new IdentityHashMap<AWTEvent, Boolean>());
+        for (Recorder r : recorders)
+            events.add(r.event);
+        return events.size();
+    }
+
+    private static List<Recorder> startAll(int n, boolean coalesce, CountDownLatch done) {
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (int i = 0; i < n; i++) {
+            Recorder r = new Recorder(done);
+            Timer t = timer(DELAY_MILLIS, r);
+            t.setCoalesce(coalesce);
+            recorders.add(r);
+            t.start();
+        }
+        return recorders;
+    }
+
+    private static void separateEvents() throws Exception {
+        CountDownLatch done = new CountDownLatch(TIMERS);
+        List<Recorder> recorders = startAll(TIMERS, true, done);
+        verify(done.await(5, TimeUnit.SECONDS), "all timers fired");
+        Thread.sleep(DELAY_MILLIS);
+        for (Recorder r : recorders)
+            verify(r.fired.get() == 1, "fired once: " + r.fired.get());
+        verify(distinctEvents(recorders) == TIMERS, "one event per timer: " + distinctEvents(recorders));
+        System.out.println("coalescing off: " + TIMERS + " timers fired in their own events (run with "
+                + "-Dswing.timerQueue.coalesceSlack=2000 to check coalescing)");
+    }
+
+    private static void coalesced() throws Exception {
+        CountDownLatch done = new CountDownLatch(TIMERS + 1);
+        List<Recorder> recorders = startAll(TIMERS, true, done);
+        List<Recorder> single = startAll(1, false, done);
+        verify(done.await(5, TimeUnit.SECONDS), "all timers fired");
+        Thread.sleep(DELAY_MILLIS);
+        long earliest = TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS) - TimeUnit.MICROSECONDS.toNanos(SLACK_MICROS);
+        List<Recorder> all = new ArrayList<Recorder>(recorders);
+        all.addAll(single);
+        for (Recorder r : all) {
+            verify(r.fired.get() == 1, "fired once: " + r.fired.get());
+            verify(r.firstFired - r.started >= earliest, "fired " + (r.firstFired - r.started) + "ns after start");
+        }
+        int events = distinctEvents(recorders);
+        verify(events <= TIMERS / 4, "coalescing timers fired in few events: " + events);
+        for (Recorder r : recorders)
+            verify(r.event != single.get(0).event, "non-coalescing timer fired in its own event");
+        System.out.println("coalesced: " + TIMERS + " timers fired in " + events + " events, slack "
+                + SLACK_MICROS + "us");
+    }
+
+    // 占住EDT，返回放行的门闩
+    private static CountDownLatch blockEdt() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                blocked.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        blocked.await();
+        return gate;
+    }
+
+    private static void stopPending() throws Exception {
+        CountDownLatch gate = blockEdt();
+        CountDownLatch done = new CountDownLatch(TIMERS);
+        List<Timer> timers = new ArrayList<Timer>();
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (int i = 0; i < TIMERS; i++) {
+            Recorder r = new Recorder(done);
+            Timer t = timer(10, r);
+            recorders.add(r);
+            timers.add(t);
+            t.start();
+        }
+        Thread.sleep(100); // 已经到期，事件在EDT上等待
+        for (int i = 0; i < TIMERS; i += 2)
+            timers.get(i).stop();
+        gate.countDown();
+        Thread.sleep(100);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+        for (int i = 0; i < TIMERS; i++) {
+            int expected = (i % 2 == 0) ? 0 : 1;
+            verify(recorders.get(i).fired.get() == expected, "timer " + i + " fired " + recorders.get(i).fired.get());
+        }
+        System.out.println("stop pending: " + TIMERS / 2 + " timers stopped before delivery did not fire");
+    }
+
+    private static void repeating() throws Exception {
+        CountDownLatch gate = blockEdt();
+        final AtomicInteger fired = new AtomicInteger();
+        final Timer t = new Timer(5, null);
+        t.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                fired.incrementAndGet();
+                t.stop();
+            }
+        });
+        t.start();
+        Thread.sleep(100); // 期间到期约20次
+        gate.countDown();
+        Thread.sleep(100);
+        verify(fired.get() == 1 && !t.isRunning(), "repeating timer delivered once: " + fired.get());
+        System.out.println("repeating: expired repeatedly while the EDT was busy, fired once");
+    }
+
+    private static void throwingListener() throws Exception {
+        final List<Throwable> thrown = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread.UncaughtExceptionHandler old = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                thrown.add(e);
+            }
+        });
+        try {
+            CountDownLatch gate = blockEdt();
+            CountDownLatch done = new CountDownLatch(TIMERS);
+            List<Recorder> recorders = new ArrayList<Recorder>();
+            for (int i = 0; i < TIMERS; i++) {
+                if (i == TIMERS / 2) {
+                    timer(10, new ActionListener() {
+                        public void actionPerformed(ActionEvent e) {
+                            throw new IllegalStateException("listener failure");
+                        }
+                    }).start();
+                }
+                Recorder r = new Recorder(done);
+                recorders.add(r);
+                timer(10, r).start();
+            }
+            Thread.sleep(100); // 所有Timer在同一批中
+            gate.countDown();
+            verify(done.await(5, TimeUnit.SECONDS), "the rest of the batch fired: " + done.getCount() + " left");
+            for (Recorder r : recorders)
+                verify(r.fired.get() == 1, "fired once: " + r.fired.get());
+            verify(thrown.size() == 1 && thrown.get(0) instanceof IllegalStateException, "listener exception: " + thrown);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(old);
+        }
+        System.out.println("throwing listener: the rest of the batch still fired");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,188 @@
+package javaxswing;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.Timer;
+
+/*
+ *   TimerQueue中Timer启动/停止/重启(不加锁的堆)的功能检查。
+ *
+ *   (01) 顺序：按延迟从大到小启动20个Timer，检查按延迟从小到大的顺序触发。
+ *   (02) 重启：把长延迟的Timer改为短延迟后restart()，按新的延迟提前触发；
+ *        把短延迟的Timer改为长延迟后restart()，不会按旧的延迟触发；停止后立即启动只触发一次。
+ *   (03) 并发启动/停止：多个线程对各自的重复Timer随机start/stop/restart，结束后让一半保持运行、一半停止，
+ *        检查isRunning()，停止的Timer不再触发，运行的Timer继续触发；输出每次操作的平均耗时(只打印，不检查)。
+ *        运行：java -Djava.awt.headless=true TimerQueueStartStopDemo1
+ *   检查失败时抛出AssertionError。
+ */
+public class TimerQueueStartStopDemo1 {
+
+    private static final int THREADS = 4;
+    private static final int TIMERS_PER_THREAD = 50;
+    private static final int OPS_PER_THREAD = 20000;
+
+    public static void main(String[] args) throws Exception {
+        order();
+        restart();
+        startStopStorm();
+    }
+
+    private static Timer oneShot(int delay, ActionListener listener) {
+        Timer t = new Timer(delay, listener);
+        t.setRepeats(false);
+        return t;
+    }
+
+    private static void order() throws Exception {
+        final int n = 20;
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            final int delay = 200 - 10 * i;
+            oneShot(delay, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    fired.add(delay);
+                    done.countDown();
+                }
+            }).start();
+        }
+        verify(done.await(5, TimeUnit.SECONDS), "all timers fired");
+        for (int i = 1; i < n; i++)
+            verify(fired.get(i - 1) < fired.get(i), "fired in order of delay: " + fired);
+        System.out.println("order: " + n + " timers started latest first fired in order of delay");
+    }
+
+    static class Recorder implements ActionListener {
+        final AtomicInteger fired = new AtomicInteger();
+        volatile long firstFired;
+
+        public void actionPerformed(ActionEvent e) {
+            if (fired.getAndIncrement() == 0)
+                firstFired = System.nanoTime();
+        }
+
+        long millisSince(long start) {
+            return TimeUnit.NANOSECONDS.toMillis(firstFired - start);
+        }
+    }
+
+    private static void restart() throws Exception {
+        Recorder earlier = new Recorder();
+        Timer t = oneShot(10000, earlier);
+        t.start();
+        Thread.sleep(20);
+        long start = System.nanoTime();
+        t.setInitialDelay(50);
+        t.restart();
+        Thread.sleep(500);
+        verify(earlier.fired.get() == 1, "restarted with a shorter delay fired: " + earlier.fired.get());
+        long earlierMillis = earlier.millisSince(start);
+        verify(earlierMillis >= 50, "not before the new delay: " + earlierMillis + "ms");
+
+        Recorder later = new Recorder();
+        t = oneShot(50, later);
+        t.start();
+        start = System.nanoTime();
+        t.setInitialDelay(300);
+        t.restart();
+        Thread.sleep(200);
+        verify(later.fired.get() == 0 && t.isRunning(), "restarted with a longer delay did not fire at the old delay");
+        Thread.sleep(300);
+        verify(later.fired.get() == 1 && !t.isRunning(), "fired at the new delay: " + later.fired.get());
+        verify(later.millisSince(start) >= 300, "not before the new delay: " + later.millisSince(start) + "ms");
+
+        Recorder stopStart = new Recorder();
+        t = oneShot(50, stopStart);
+        t.start();
+        t.stop();
+        verify(!t.isRunning(), "stopped");
+        t.start();
+        verify(t.isRunning(), "started again");
+        Thread.sleep(200);
+        verify(stopStart.fired.get() == 1, "stop then start fired once: " + stopStart.fired.get());
+        System.out.println("restart: shorter delay fired after " + earlierMillis
+                + "ms, longer delay kept, stop/start fired once");
+    }
+
+    private static void startStopStorm() throws Exception {
+        final Timer[][] timers = new Timer[THREADS][TIMERS_PER_THREAD];
+        final AtomicInteger[][] fired = new AtomicInteger[THREADS][TIMERS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < TIMERS_PER_THREAD; i++) {
+                final AtomicInteger count = fired[t][i] = new AtomicInteger();
+                timers[t][i] = new Timer(5, new ActionListener() {
+                    public void actionPerformed(ActionEvent e) {
+                        count.incrementAndGet();
+                    }
+                });
+            }
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Timer[] mine = timers[t];
+            final Random rnd = new Random(t);
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        Timer timer = mine[rnd.nextInt(mine.length)];
+                        switch (rnd.nextInt(3)) {
+                            case 0: timer.start(); break;
+                            case 1: timer.stop(); break;
+                            default: timer.restart(); break;
+                        }
+                    }
+                    // 偶数号保持运行，奇数号停止
+                    for (int i = 0; i < mine.length; i++) {
+                        if (i % 2 == 0)
+                            mine[i].start();
+                        else
+                            mine[i].stop();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        long nanosPerOp = (System.nanoTime() - t0) / ((long) THREADS * OPS_PER_THREAD);
+
+        Thread.sleep(50); // 停止前已经送出的事件
+        for (AtomicInteger[] row : fired)
+            for (AtomicInteger count : row)
+                count.set(0);
+        Thread.sleep(200);
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < TIMERS_PER_THREAD; i++) {
+                boolean running = i % 2 == 0;
+                verify(timers[t][i].isRunning() == running, "timer " + t + "/" + i + " isRunning");
+                verify(running ? fired[t][i].get() > 0 : fired[t][i].get() == 0,
+                       "timer " + t + "/" + i + (running ? " kept firing" : " stopped firing") + ": " + fired[t][i]);
+            }
+        }
+        for (Timer[] row : timers)
+            for (Timer timer : row)
+                timer.stop();
+        System.out.println("start/stop storm: " + THREADS * OPS_PER_THREAD + " operations on "
+                + THREADS * TIMERS_PER_THREAD + " timers, " + nanosPerOp + "ns per operation");
+    }
+
+    private static void verify(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}